@@ -9,6 +9,7 @@ package com.facebook.fresco.animation.bitmap.cache;
 
 import android.net.Uri;
 import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.SimpleCacheKey;
 
 /* Frame cache key for animation */
 public class AnimationFrameCacheKey implements CacheKey {
@@ -21,6 +22,17 @@ public class AnimationFrameCacheKey implements CacheKey {
     mAnimationUriString = URI_PREFIX + imageId;
   }
 
+  /** @param sourceId an id that stays the same across decodes of the animation */
+  public AnimationFrameCacheKey(String sourceId) {
+    mAnimationUriString = URI_PREFIX + sourceId;
+  }
+
+  /** Returns the key of a frame of the animation, rendered at the given size. */
+  public CacheKey getFrameCacheKey(int frameNumber, int width, int height) {
+    return new SimpleCacheKey(
+        mAnimationUriString + "/" + frameNumber + "?size=" + width + "x" + height);
+  }
+
   @Override
   public boolean containsUri(Uri uri) {
     return uri.toString().startsWith(mAnimationUriString);
@@ -14,7 +14,9 @@ import com.facebook.common.references.CloseableReference;
 import com.facebook.fresco.animation.bitmap.BitmapFrameCache;
 import com.facebook.fresco.animation.bitmap.BitmapFrameRenderer;
 import com.facebook.imagepipeline.animated.base.AnimatedDrawableBackend;
+import com.facebook.imagepipeline.animated.impl.AnimatedFrameCheckpoints;
 import com.facebook.imagepipeline.animated.impl.AnimatedImageCompositor;
+import com.facebook.imagepipeline.animated.impl.CheckpointingAnimatedImageCompositor;
 import javax.annotation.Nullable;
 
 /** {@link BitmapFrameRenderer} that wraps around an {@link AnimatedDrawableBackend}. */
@@ -23,6 +25,7 @@ public class AnimatedDrawableBackendFrameRenderer implements BitmapFrameRenderer
   private static final Class<?> TAG = AnimatedDrawableBackendFrameRenderer.class;
 
   private final BitmapFrameCache mBitmapFrameCache;
+  private final @Nullable AnimatedFrameCheckpoints mAnimatedFrameCheckpoints;
 
   private AnimatedDrawableBackend mAnimatedDrawableBackend;
   private AnimatedImageCompositor mAnimatedImageCompositor;
@@ -43,10 +46,22 @@ public class AnimatedDrawableBackendFrameRenderer implements BitmapFrameRenderer
 
   public AnimatedDrawableBackendFrameRenderer(
       BitmapFrameCache bitmapFrameCache, AnimatedDrawableBackend animatedDrawableBackend) {
+    this(bitmapFrameCache, animatedDrawableBackend, null);
+  }
+
+  /**
+   * @param animatedFrameCheckpoints if not null, the frames are composited from checkpoints, see
+   *     {@link CheckpointingAnimatedImageCompositor}
+   */
+  public AnimatedDrawableBackendFrameRenderer(
+      BitmapFrameCache bitmapFrameCache,
+      AnimatedDrawableBackend animatedDrawableBackend,
+      @Nullable AnimatedFrameCheckpoints animatedFrameCheckpoints) {
     mBitmapFrameCache = bitmapFrameCache;
     mAnimatedDrawableBackend = animatedDrawableBackend;
+    mAnimatedFrameCheckpoints = animatedFrameCheckpoints;
 
-    mAnimatedImageCompositor = new AnimatedImageCompositor(mAnimatedDrawableBackend, mCallback);
+    mAnimatedImageCompositor = createAnimatedImageCompositor();
   }
 
   @Override
@@ -54,7 +69,11 @@ public class AnimatedDrawableBackendFrameRenderer implements BitmapFrameRenderer
     AnimatedDrawableBackend newBackend = mAnimatedDrawableBackend.forNewBounds(bounds);
     if (newBackend != mAnimatedDrawableBackend) {
       mAnimatedDrawableBackend = newBackend;
-      mAnimatedImageCompositor = new AnimatedImageCompositor(mAnimatedDrawableBackend, mCallback);
+      if (mAnimatedFrameCheckpoints != null) {
+        // the checkpoints were rendered for the previous bounds
+        mAnimatedFrameCheckpoints.release();
+      }
+      mAnimatedImageCompositor = createAnimatedImageCompositor();
     }
   }
 
@@ -78,4 +97,12 @@ public class AnimatedDrawableBackendFrameRenderer implements BitmapFrameRenderer
     }
     return true;
   }
+
+  private AnimatedImageCompositor createAnimatedImageCompositor() {
+    if (mAnimatedFrameCheckpoints == null) {
+      return new AnimatedImageCompositor(mAnimatedDrawableBackend, mCallback);
+    }
+    return new CheckpointingAnimatedImageCompositor(
+        mAnimatedDrawableBackend, mCallback, mAnimatedFrameCheckpoints);
+  }
 }
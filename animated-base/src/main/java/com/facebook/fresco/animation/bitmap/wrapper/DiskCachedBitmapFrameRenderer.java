@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.fresco.animation.bitmap.wrapper;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.binaryresource.FileBinaryResource;
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.WriterCallbacks;
+import com.facebook.cache.disk.FileCache;
+import com.facebook.common.logging.FLog;
+import com.facebook.fresco.animation.bitmap.BitmapFrameRenderer;
+import com.facebook.fresco.animation.bitmap.cache.AnimationFrameCacheKey;
+import com.facebook.imagepipeline.memory.MappedPooledByteBuffer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * {@link BitmapFrameRenderer} that keeps the frames rendered by another renderer in a disk cache,
+ * so that later plays of the animation, even after the app restarts, copy the pixels of a frame
+ * from a memory mapped file instead of decoding and compositing it again.
+ *
+ * <p>This is meant for the few animations that are shown all the time, like stickers: every frame
+ * takes its full uncompressed size on disk. Frames are keyed by the {@link AnimationFrameCacheKey}
+ * of the animation, which must stay the same across decodes, and by the size they are rendered
+ * at. Only ARGB_8888 frames are cached.
+ *
+ * <p>Only rendering the frames is saved: the animated image is still fully decoded, and its
+ * encoded bytes hashed for the key, before any frame is read from the disk cache.
+ *
+ * <p>The disk cache is looked up, and frames are mapped and copied, on the thread rendering the
+ * frame. So this renderer is meant for a {@link
+ * com.facebook.fresco.animation.bitmap.preparation.BitmapFramePreparer}, and the UI thread should
+ * render frames with the wrapped renderer.
+ */
+public class DiskCachedBitmapFrameRenderer implements BitmapFrameRenderer {
+
+  private static final Class<?> TAG = DiskCachedBitmapFrameRenderer.class;
+
+  private final BitmapFrameRenderer mBitmapFrameRenderer;
+  private final FileCache mFileCache;
+  private final AnimationFrameCacheKey mAnimationFrameCacheKey;
+  private final Executor mWriteExecutor;
+
+  /** The frames being written to the disk cache */
+  @GuardedBy("mPendingWrites")
+  private final Set<CacheKey> mPendingWrites = new HashSet<>();
+
+  /**
+   * @param bitmapFrameRenderer the renderer of the frames that aren't in the disk cache yet
+   * @param fileCache the disk cache to keep the frames in
+   * @param animationFrameCacheKey the key of the animation, see {@link
+   *     AnimationFrameCacheKey#AnimationFrameCacheKey(String)}
+   * @param writeExecutor the executor to write the frames to the disk cache on
+   */
+  public DiskCachedBitmapFrameRenderer(
+      BitmapFrameRenderer bitmapFrameRenderer,
+      FileCache fileCache,
+      AnimationFrameCacheKey animationFrameCacheKey,
+      Executor writeExecutor) {
+    mBitmapFrameRenderer = bitmapFrameRenderer;
+    mFileCache = fileCache;
+    mAnimationFrameCacheKey = animationFrameCacheKey;
+    mWriteExecutor = writeExecutor;
+  }
+
+  @Override
+  public boolean renderFrame(int frameNumber, Bitmap targetBitmap) {
+    if (targetBitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+      return mBitmapFrameRenderer.renderFrame(frameNumber, targetBitmap);
+    }
+    final CacheKey frameCacheKey =
+        mAnimationFrameCacheKey.getFrameCacheKey(
+            frameNumber, targetBitmap.getWidth(), targetBitmap.getHeight());
+    if (readFrame(frameCacheKey, targetBitmap)) {
+      return true;
+    }
+    if (!mBitmapFrameRenderer.renderFrame(frameNumber, targetBitmap)) {
+      return false;
+    }
+    writeFrame(frameCacheKey, targetBitmap);
+    return true;
+  }
+
+  @Override
+  public void setBounds(@Nullable Rect bounds) {
+    mBitmapFrameRenderer.setBounds(bounds);
+  }
+
+  @Override
+  public int getIntrinsicWidth() {
+    return mBitmapFrameRenderer.getIntrinsicWidth();
+  }
+
+  @Override
+  public int getIntrinsicHeight() {
+    return mBitmapFrameRenderer.getIntrinsicHeight();
+  }
+
+  /** Copies the cached pixels of the frame to the bitmap, if any. */
+  private boolean readFrame(CacheKey frameCacheKey, Bitmap targetBitmap) {
+    final BinaryResource resource = mFileCache.getResource(frameCacheKey);
+    if (resource == null) {
+      return false;
+    }
+    if (resource.size() != targetBitmap.getByteCount()) {
+      FLog.w(TAG, "Cached frame has the wrong size: %s", frameCacheKey.getUriString());
+      mFileCache.remove(frameCacheKey);
+      return false;
+    }
+    try {
+      if (resource instanceof FileBinaryResource) {
+        MappedPooledByteBuffer mappedBuffer =
+            MappedPooledByteBuffer.map(((FileBinaryResource) resource).getFile());
+        try {
+          targetBitmap.copyPixelsFromBuffer(mappedBuffer.getByteBuffer());
+        } finally {
+          mappedBuffer.close();
+        }
+      } else {
+        targetBitmap.copyPixelsFromBuffer(ByteBuffer.wrap(resource.read()));
+      }
+      return true;
+    } catch (IOException e) {
+      FLog.w(TAG, e, "Failed to read cached frame: %s", frameCacheKey.getUriString());
+      return false;
+    }
+  }
+
+  /** Writes the pixels of the frame to the disk cache, unless it's already there. */
+  private void writeFrame(final CacheKey frameCacheKey, Bitmap renderedBitmap) {
+    synchronized (mPendingWrites) {
+      if (mFileCache.hasKeySync(frameCacheKey) || !mPendingWrites.add(frameCacheKey)) {
+        return;
+      }
+    }
+    // The bitmap is reused for other frames, so the pixels have to be copied before the write
+    final byte[] pixels = new byte[renderedBitmap.getByteCount()];
+    renderedBitmap.copyPixelsToBuffer(ByteBuffer.wrap(pixels));
+    mWriteExecutor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              mFileCache.insert(frameCacheKey, WriterCallbacks.from(pixels));
+            } catch (IOException e) {
+              FLog.w(TAG, e, "Failed to write frame: %s", frameCacheKey.getUriString());
+            } finally {
+              synchronized (mPendingWrites) {
+                mPendingWrites.remove(frameCacheKey);
+              }
+            }
+          }
+        });
+  }
+}
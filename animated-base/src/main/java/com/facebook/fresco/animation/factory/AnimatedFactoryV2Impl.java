@@ -11,12 +11,15 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Rect;
 import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.disk.FileCache;
 import com.facebook.common.executors.DefaultSerialExecutorService;
 import com.facebook.common.executors.SerialExecutorService;
 import com.facebook.common.executors.UiThreadImmediateExecutorService;
 import com.facebook.common.internal.DoNotStrip;
 import com.facebook.common.internal.Supplier;
+import com.facebook.common.internal.Suppliers;
 import com.facebook.common.time.RealtimeSinceBootClock;
+import com.facebook.fresco.animation.bitmap.preparation.AnimationFramePreparationScheduler;
 import com.facebook.fresco.animation.drawable.AnimatedDrawable2;
 import com.facebook.imagepipeline.animated.base.AnimatedDrawableBackend;
 import com.facebook.imagepipeline.animated.base.AnimatedImageResult;
@@ -35,6 +38,7 @@ import com.facebook.imagepipeline.drawable.DrawableFactory;
 import com.facebook.imagepipeline.image.CloseableImage;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.image.QualityInfo;
+import java.util.concurrent.ExecutorService;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
@@ -44,11 +48,17 @@ import javax.annotation.concurrent.NotThreadSafe;
 public class AnimatedFactoryV2Impl implements AnimatedFactory {
 
   private static final int NUMBER_OF_FRAMES_TO_PREPARE = 3;
+  private static final long FRAME_PREPARATION_LOOK_AHEAD_MS = 1000;
+  private static final long FRAME_PREPARATION_INACTIVITY_THRESHOLD_MS = 2000;
 
   private final PlatformBitmapFactory mPlatformBitmapFactory;
   private final ExecutorSupplier mExecutorSupplier;
   private final CountingMemoryCache<CacheKey, CloseableImage> mBackingCache;
   private final boolean mDownscaleFrameToDrawableDimensions;
+  private final int mCheckpointInterval;
+  private final int mMaxCheckpointBytes;
+  private final int mFramePreparationBudget;
+  private final @Nullable FileCache mFrameDiskCache;
 
   private @Nullable AnimatedImageFactory mAnimatedImageFactory;
   private @Nullable AnimatedDrawableBackendProvider mAnimatedDrawableBackendProvider;
@@ -61,10 +71,45 @@ public class AnimatedFactoryV2Impl implements AnimatedFactory {
       ExecutorSupplier executorSupplier,
       CountingMemoryCache<CacheKey, CloseableImage> backingCache,
       boolean downscaleFrameToDrawableDimensions) {
+    this(
+        platformBitmapFactory,
+        executorSupplier,
+        backingCache,
+        downscaleFrameToDrawableDimensions,
+        0,
+        0,
+        0,
+        null);
+  }
+
+  /**
+   * @param checkpointInterval the number of frames between two snapshots of the animations, 0 to
+   *     disable the snapshots, see {@link ExperimentalBitmapAnimationDrawableFactory}
+   * @param maxCheckpointBytes the size of the snapshots kept from being evicted, per image
+   * @param framePreparationBudget the number of frames prepared ahead for all the animations, see
+   *     {@link AnimationFramePreparationScheduler}. 0 to prepare a fixed number of frames for each
+   *     animation
+   * @param frameDiskCache if not null, the disk cache to keep the prepared frames in. The decoded
+   *     images then get a source id, computed from their encoded bytes
+   */
+  @DoNotStrip
+  public AnimatedFactoryV2Impl(
+      PlatformBitmapFactory platformBitmapFactory,
+      ExecutorSupplier executorSupplier,
+      CountingMemoryCache<CacheKey, CloseableImage> backingCache,
+      boolean downscaleFrameToDrawableDimensions,
+      int checkpointInterval,
+      int maxCheckpointBytes,
+      int framePreparationBudget,
+      @Nullable FileCache frameDiskCache) {
     mPlatformBitmapFactory = platformBitmapFactory;
     mExecutorSupplier = executorSupplier;
     mBackingCache = backingCache;
     mDownscaleFrameToDrawableDimensions = downscaleFrameToDrawableDimensions;
+    mCheckpointInterval = checkpointInterval;
+    mMaxCheckpointBytes = maxCheckpointBytes;
+    mFramePreparationBudget = framePreparationBudget;
+    mFrameDiskCache = frameDiskCache;
   }
 
   @Nullable
@@ -133,7 +178,28 @@ public class AnimatedFactoryV2Impl implements AnimatedFactory {
         mPlatformBitmapFactory,
         mBackingCache,
         cachingStrategySupplier,
-        numberOfFramesToPrepareSupplier);
+        numberOfFramesToPrepareSupplier,
+        Suppliers.of(mCheckpointInterval),
+        Suppliers.of(mMaxCheckpointBytes),
+        Suppliers.of(
+            ExperimentalBitmapAnimationDrawableFactory.DEFAULT_COMPRESSED_CACHE_MAX_SIZE_IN_BYTES),
+        Suppliers.of(false),
+        createFramePreparationScheduler(serialExecutorServiceForFramePreparing),
+        mFrameDiskCache,
+        mExecutorSupplier.forBackgroundTasks());
+  }
+
+  private @Nullable AnimationFramePreparationScheduler createFramePreparationScheduler(
+      ExecutorService executorServiceForFramePreparing) {
+    if (mFramePreparationBudget <= 0) {
+      return null;
+    }
+    return new AnimationFramePreparationScheduler(
+        executorServiceForFramePreparing,
+        RealtimeSinceBootClock.get(),
+        mFramePreparationBudget,
+        FRAME_PREPARATION_LOOK_AHEAD_MS,
+        FRAME_PREPARATION_INACTIVITY_THRESHOLD_MS);
   }
 
   private AnimatedDrawableUtil getAnimatedDrawableUtil() {
@@ -180,6 +246,7 @@ public class AnimatedFactoryV2Impl implements AnimatedFactory {
                 mDownscaleFrameToDrawableDimensions);
           }
         };
-    return new AnimatedImageFactoryImpl(animatedDrawableBackendProvider, mPlatformBitmapFactory);
+    return new AnimatedImageFactoryImpl(
+        animatedDrawableBackendProvider, mPlatformBitmapFactory, mFrameDiskCache != null);
   }
 }
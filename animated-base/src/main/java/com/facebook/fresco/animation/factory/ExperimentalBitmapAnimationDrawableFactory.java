@@ -10,36 +10,45 @@ package com.facebook.fresco.animation.factory;
 import android.graphics.Bitmap;
 import android.graphics.Rect;
 import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.disk.FileCache;
+import com.facebook.common.internal.Preconditions;
 import com.facebook.common.internal.Supplier;
 import com.facebook.common.time.MonotonicClock;
+import com.facebook.common.util.ByteConstants;
 import com.facebook.fresco.animation.backend.AnimationBackend;
 import com.facebook.fresco.animation.backend.AnimationBackendDelegateWithInactivityCheck;
 import com.facebook.fresco.animation.bitmap.BitmapAnimationBackend;
 import com.facebook.fresco.animation.bitmap.BitmapFrameCache;
 import com.facebook.fresco.animation.bitmap.BitmapFrameRenderer;
 import com.facebook.fresco.animation.bitmap.cache.AnimationFrameCacheKey;
+import com.facebook.fresco.animation.bitmap.cache.CompressedFrameCache;
 import com.facebook.fresco.animation.bitmap.cache.FrescoFrameCache;
 import com.facebook.fresco.animation.bitmap.cache.KeepLastFrameCache;
 import com.facebook.fresco.animation.bitmap.cache.NoOpCache;
+import com.facebook.fresco.animation.bitmap.preparation.AnimationFramePreparationScheduler;
 import com.facebook.fresco.animation.bitmap.preparation.BitmapFramePreparationStrategy;
 import com.facebook.fresco.animation.bitmap.preparation.BitmapFramePreparer;
 import com.facebook.fresco.animation.bitmap.preparation.DefaultBitmapFramePreparer;
 import com.facebook.fresco.animation.bitmap.preparation.FixedNumberBitmapFramePreparationStrategy;
 import com.facebook.fresco.animation.bitmap.wrapper.AnimatedDrawableBackendAnimationInformation;
 import com.facebook.fresco.animation.bitmap.wrapper.AnimatedDrawableBackendFrameRenderer;
+import com.facebook.fresco.animation.bitmap.wrapper.DiskCachedBitmapFrameRenderer;
 import com.facebook.fresco.animation.drawable.AnimatedDrawable2;
 import com.facebook.imagepipeline.animated.base.AnimatedDrawableBackend;
 import com.facebook.imagepipeline.animated.base.AnimatedImage;
 import com.facebook.imagepipeline.animated.base.AnimatedImageResult;
 import com.facebook.imagepipeline.animated.impl.AnimatedDrawableBackendProvider;
 import com.facebook.imagepipeline.animated.impl.AnimatedFrameCache;
+import com.facebook.imagepipeline.animated.impl.AnimatedFrameCheckpoints;
 import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
 import com.facebook.imagepipeline.cache.CountingMemoryCache;
 import com.facebook.imagepipeline.drawable.DrawableFactory;
 import com.facebook.imagepipeline.image.CloseableAnimatedImage;
 import com.facebook.imagepipeline.image.CloseableImage;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
+import javax.annotation.Nullable;
 
 /** Animation factory for {@link AnimatedDrawable2}. */
 public class ExperimentalBitmapAnimationDrawableFactory implements DrawableFactory {
@@ -48,6 +57,9 @@ public class ExperimentalBitmapAnimationDrawableFactory implements DrawableFacto
   public static final int CACHING_STRATEGY_FRESCO_CACHE = 1;
   public static final int CACHING_STRATEGY_FRESCO_CACHE_NO_REUSING = 2;
   public static final int CACHING_STRATEGY_KEEP_LAST_CACHE = 3;
+  public static final int CACHING_STRATEGY_COMPRESSED_CACHE = 4;
+
+  public static final int DEFAULT_COMPRESSED_CACHE_MAX_SIZE_IN_BYTES = 2 * ByteConstants.MB;
 
   private final AnimatedDrawableBackendProvider mAnimatedDrawableBackendProvider;
   private final ScheduledExecutorService mScheduledExecutorServiceForUiThread;
@@ -57,7 +69,30 @@ public class ExperimentalBitmapAnimationDrawableFactory implements DrawableFacto
   private final CountingMemoryCache<CacheKey, CloseableImage> mBackingCache;
   private final Supplier<Integer> mCachingStrategySupplier;
   private final Supplier<Integer> mNumberOfFramesToPrepareSupplier;
+  private final Supplier<Integer> mCheckpointIntervalSupplier;
+  private final Supplier<Integer> mMaxCheckpointBytesSupplier;
+  private final Supplier<Integer> mCompressedCacheMaxSizeInBytesSupplier;
+  private final Supplier<Boolean> mUseRgb565ForOpaqueFramesSupplier;
+  private final @Nullable AnimationFramePreparationScheduler mFramePreparationScheduler;
+  private final @Nullable FileCache mFrameDiskCache;
+  private final @Nullable Executor mExecutorForFrameDiskCacheWrites;
 
+  /**
+   * @param checkpointIntervalSupplier interval between the frames that are snapshot to composite
+   *     the following frames from, see {@link AnimatedFrameCheckpoints}. 0 to disable checkpoints
+   * @param maxCheckpointBytesSupplier size of the checkpoints kept from being evicted, per image
+   * @param compressedCacheMaxSizeInBytesSupplier size the compressed frames of an image can use
+   *     with {@link #CACHING_STRATEGY_COMPRESSED_CACHE}
+   * @param useRgb565ForOpaqueFramesSupplier whether the compressed cache can give opaque frames as
+   *     RGB_565 bitmaps, at the cost of some color precision
+   * @param framePreparationScheduler if not null, the frames of all the animations are prepared
+   *     ahead by this scheduler, on its executor, instead of a fixed number of frames per animation
+   * @param frameDiskCache if not null, the frames of the images that have a source id are kept in
+   *     this disk cache when they are prepared, see {@link DiskCachedBitmapFrameRenderer}. Frames
+   *     are only prepared if there is a scheduler or a number of frames to prepare
+   * @param executorForFrameDiskCacheWrites the executor to write the frames to the disk cache on,
+   *     required if there is a disk cache
+   */
   public ExperimentalBitmapAnimationDrawableFactory(
       AnimatedDrawableBackendProvider animatedDrawableBackendProvider,
       ScheduledExecutorService scheduledExecutorServiceForUiThread,
@@ -66,7 +101,15 @@ public class ExperimentalBitmapAnimationDrawableFactory implements DrawableFacto
       PlatformBitmapFactory platformBitmapFactory,
       CountingMemoryCache<CacheKey, CloseableImage> backingCache,
       Supplier<Integer> cachingStrategySupplier,
-      Supplier<Integer> numberOfFramesToPrepareSupplier) {
+      Supplier<Integer> numberOfFramesToPrepareSupplier,
+      Supplier<Integer> checkpointIntervalSupplier,
+      Supplier<Integer> maxCheckpointBytesSupplier,
+      Supplier<Integer> compressedCacheMaxSizeInBytesSupplier,
+      Supplier<Boolean> useRgb565ForOpaqueFramesSupplier,
+      @Nullable AnimationFramePreparationScheduler framePreparationScheduler,
+      @Nullable FileCache frameDiskCache,
+      @Nullable Executor executorForFrameDiskCacheWrites) {
+    Preconditions.checkArgument(frameDiskCache == null || executorForFrameDiskCacheWrites != null);
     mAnimatedDrawableBackendProvider = animatedDrawableBackendProvider;
     mScheduledExecutorServiceForUiThread = scheduledExecutorServiceForUiThread;
     mExecutorServiceForFramePreparing = executorServiceForFramePreparing;
@@ -75,6 +118,13 @@ public class ExperimentalBitmapAnimationDrawableFactory implements DrawableFacto
     mBackingCache = backingCache;
     mCachingStrategySupplier = cachingStrategySupplier;
     mNumberOfFramesToPrepareSupplier = numberOfFramesToPrepareSupplier;
+    mCheckpointIntervalSupplier = checkpointIntervalSupplier;
+    mMaxCheckpointBytesSupplier = maxCheckpointBytesSupplier;
+    mCompressedCacheMaxSizeInBytesSupplier = compressedCacheMaxSizeInBytesSupplier;
+    mUseRgb565ForOpaqueFramesSupplier = useRgb565ForOpaqueFramesSupplier;
+    mFramePreparationScheduler = framePreparationScheduler;
+    mFrameDiskCache = frameDiskCache;
+    mExecutorForFrameDiskCacheWrites = executorForFrameDiskCacheWrites;
   }
 
   @Override
@@ -93,19 +143,32 @@ public class ExperimentalBitmapAnimationDrawableFactory implements DrawableFacto
         createAnimatedDrawableBackend(animatedImageResult);
 
     BitmapFrameCache bitmapFrameCache = createBitmapFrameCache(animatedImageResult);
+    final AnimatedFrameCheckpoints animatedFrameCheckpoints =
+        createAnimatedFrameCheckpoints(animatedImageResult);
     BitmapFrameRenderer bitmapFrameRenderer =
-        new AnimatedDrawableBackendFrameRenderer(bitmapFrameCache, animatedDrawableBackend);
+        new AnimatedDrawableBackendFrameRenderer(
+            bitmapFrameCache, animatedDrawableBackend, animatedFrameCheckpoints);
+    // the disk cache is only read and written by the preparer, off the UI thread: frames that
+    // aren't prepared in time are rendered on the UI thread without it
+    BitmapFrameRenderer preparerBitmapFrameRenderer =
+        createPreparerBitmapFrameRenderer(bitmapFrameRenderer, animatedImageResult);
 
     int numberOfFramesToPrefetch = mNumberOfFramesToPrepareSupplier.get();
     BitmapFramePreparationStrategy bitmapFramePreparationStrategy = null;
     BitmapFramePreparer bitmapFramePreparer = null;
-    if (numberOfFramesToPrefetch > 0) {
+    if (mFramePreparationScheduler != null) {
+      bitmapFramePreparationStrategy = mFramePreparationScheduler;
+      bitmapFramePreparer =
+          createBitmapFramePreparer(
+              preparerBitmapFrameRenderer, mFramePreparationScheduler.getExecutorService());
+    } else if (numberOfFramesToPrefetch > 0) {
       bitmapFramePreparationStrategy =
           new FixedNumberBitmapFramePreparationStrategy(numberOfFramesToPrefetch);
-      bitmapFramePreparer = createBitmapFramePreparer(bitmapFrameRenderer);
+      bitmapFramePreparer =
+          createBitmapFramePreparer(preparerBitmapFrameRenderer, mExecutorServiceForFramePreparing);
     }
 
-    BitmapAnimationBackend bitmapAnimationBackend =
+    final BitmapAnimationBackend bitmapAnimationBackend =
         new BitmapAnimationBackend(
             mPlatformBitmapFactory,
             bitmapFrameCache,
@@ -114,16 +177,49 @@ public class ExperimentalBitmapAnimationDrawableFactory implements DrawableFacto
             bitmapFramePreparationStrategy,
             bitmapFramePreparer);
 
+    final AnimationFramePreparationScheduler framePreparationScheduler =
+        mFramePreparationScheduler;
+    if (animatedFrameCheckpoints == null && framePreparationScheduler == null) {
+      return AnimationBackendDelegateWithInactivityCheck.createForBackend(
+          bitmapAnimationBackend, mMonotonicClock, mScheduledExecutorServiceForUiThread);
+    }
+    // inactive animations drop their frames, the checkpoints they hold and their share of the
+    // frame preparation budget as well
     return AnimationBackendDelegateWithInactivityCheck.createForBackend(
-        bitmapAnimationBackend, mMonotonicClock, mScheduledExecutorServiceForUiThread);
+        bitmapAnimationBackend,
+        new AnimationBackendDelegateWithInactivityCheck.InactivityListener() {
+          @Override
+          public void onInactive() {
+            bitmapAnimationBackend.onInactive();
+            if (animatedFrameCheckpoints != null) {
+              animatedFrameCheckpoints.release();
+            }
+            if (framePreparationScheduler != null) {
+              framePreparationScheduler.onAnimationInactive(bitmapAnimationBackend);
+            }
+          }
+        },
+        mMonotonicClock,
+        mScheduledExecutorServiceForUiThread);
   }
 
-  private BitmapFramePreparer createBitmapFramePreparer(BitmapFrameRenderer bitmapFrameRenderer) {
-    return new DefaultBitmapFramePreparer(
-        mPlatformBitmapFactory,
+  private BitmapFrameRenderer createPreparerBitmapFrameRenderer(
+      BitmapFrameRenderer bitmapFrameRenderer, AnimatedImageResult animatedImageResult) {
+    final String sourceId = animatedImageResult.getSourceId();
+    if (mFrameDiskCache == null || sourceId == null) {
+      return bitmapFrameRenderer;
+    }
+    return new DiskCachedBitmapFrameRenderer(
         bitmapFrameRenderer,
-        Bitmap.Config.ARGB_8888,
-        mExecutorServiceForFramePreparing);
+        mFrameDiskCache,
+        new AnimationFrameCacheKey(sourceId),
+        Preconditions.checkNotNull(mExecutorForFrameDiskCacheWrites));
+  }
+
+  private BitmapFramePreparer createBitmapFramePreparer(
+      BitmapFrameRenderer bitmapFrameRenderer, ExecutorService executorService) {
+    return new DefaultBitmapFramePreparer(
+        mPlatformBitmapFactory, bitmapFrameRenderer, Bitmap.Config.ARGB_8888, executorService);
   }
 
   private AnimatedDrawableBackend createAnimatedDrawableBackend(
@@ -141,12 +237,29 @@ public class ExperimentalBitmapAnimationDrawableFactory implements DrawableFacto
         return new FrescoFrameCache(createAnimatedFrameCache(animatedImageResult), false);
       case CACHING_STRATEGY_KEEP_LAST_CACHE:
         return new KeepLastFrameCache();
+      case CACHING_STRATEGY_COMPRESSED_CACHE:
+        return new CompressedFrameCache(
+            mCompressedCacheMaxSizeInBytesSupplier.get(), mUseRgb565ForOpaqueFramesSupplier.get());
       case CACHING_STRATEGY_NO_CACHE:
       default:
         return new NoOpCache();
     }
   }
 
+  @Nullable
+  private AnimatedFrameCheckpoints createAnimatedFrameCheckpoints(
+      AnimatedImageResult animatedImageResult) {
+    int checkpointInterval = mCheckpointIntervalSupplier.get();
+    if (checkpointInterval <= 0) {
+      return null;
+    }
+    return new AnimatedFrameCheckpoints(
+        createAnimatedFrameCache(animatedImageResult),
+        mPlatformBitmapFactory,
+        checkpointInterval,
+        mMaxCheckpointBytesSupplier.get());
+  }
+
   private AnimatedFrameCache createAnimatedFrameCache(
       final AnimatedImageResult animatedImageResult) {
     return new AnimatedFrameCache(
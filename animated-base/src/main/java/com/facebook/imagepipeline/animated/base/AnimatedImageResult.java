@@ -23,17 +23,20 @@ public class AnimatedImageResult {
   private final int mFrameForPreview;
   private @Nullable CloseableReference<Bitmap> mPreviewBitmap;
   private @Nullable List<CloseableReference<Bitmap>> mDecodedFrames;
+  private final @Nullable String mSourceId;
 
   AnimatedImageResult(AnimatedImageResultBuilder builder) {
     mImage = Preconditions.checkNotNull(builder.getImage());
     mFrameForPreview = builder.getFrameForPreview();
     mPreviewBitmap = builder.getPreviewBitmap();
     mDecodedFrames = builder.getDecodedFrames();
+    mSourceId = builder.getSourceId();
   }
 
   private AnimatedImageResult(AnimatedImage image) {
     mImage = Preconditions.checkNotNull(image);
     mFrameForPreview = 0;
+    mSourceId = null;
   }
 
   /**
@@ -75,6 +78,17 @@ public class AnimatedImageResult {
     return mFrameForPreview;
   }
 
+  /**
+   * Gets an id of the encoded image the result was decoded from, which stays the same across
+   * decodes of the same image. This will only return non-null if the decoder was configured to
+   * compute it.
+   *
+   * @return the id of the encoded image or null if there is none
+   */
+  public @Nullable String getSourceId() {
+    return mSourceId;
+  }
+
   /**
    * Gets a decoded frame. This will only return non-null if the {@code ImageDecodeOptions} were
    * configured to decode all frames at decode time.
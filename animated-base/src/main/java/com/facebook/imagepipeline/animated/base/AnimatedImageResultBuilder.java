@@ -10,6 +10,7 @@ package com.facebook.imagepipeline.animated.base;
 import android.graphics.Bitmap;
 import com.facebook.common.references.CloseableReference;
 import java.util.List;
+import javax.annotation.Nullable;
 
 /** Builder for {@link AnimatedImageResult}. */
 public class AnimatedImageResultBuilder {
@@ -18,6 +19,7 @@ public class AnimatedImageResultBuilder {
   private CloseableReference<Bitmap> mPreviewBitmap;
   private List<CloseableReference<Bitmap>> mDecodedFrames;
   private int mFrameForPreview;
+  private @Nullable String mSourceId;
 
   AnimatedImageResultBuilder(AnimatedImage image) {
     mImage = image;
@@ -74,6 +76,27 @@ public class AnimatedImageResultBuilder {
     return this;
   }
 
+  /**
+   * Gets the id of the encoded image the result was decoded from.
+   *
+   * @return the id of the encoded image or null if none was set
+   */
+  public @Nullable String getSourceId() {
+    return mSourceId;
+  }
+
+  /**
+   * Sets the id of the encoded image the result was decoded from, which must stay the same across
+   * decodes of the same image.
+   *
+   * @param sourceId the id of the encoded image
+   * @return this builder
+   */
+  public AnimatedImageResultBuilder setSourceId(@Nullable String sourceId) {
+    mSourceId = sourceId;
+    return this;
+  }
+
   /**
    * Gets the decoded frames. Only used if the {@code ImageDecodeOptions} were configured to decode
    * all frames at decode time.
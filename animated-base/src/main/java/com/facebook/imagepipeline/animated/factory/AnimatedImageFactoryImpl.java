@@ -13,7 +13,9 @@ import android.graphics.Color;
 import android.os.Build;
 import com.facebook.common.internal.Preconditions;
 import com.facebook.common.memory.PooledByteBuffer;
+import com.facebook.common.memory.PooledByteBufferInputStream;
 import com.facebook.common.references.CloseableReference;
+import com.facebook.common.util.SecureHashUtil;
 import com.facebook.imagepipeline.animated.base.AnimatedDrawableBackend;
 import com.facebook.imagepipeline.animated.base.AnimatedImage;
 import com.facebook.imagepipeline.animated.base.AnimatedImageResult;
@@ -26,6 +28,9 @@ import com.facebook.imagepipeline.image.CloseableImage;
 import com.facebook.imagepipeline.image.CloseableStaticBitmap;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.image.ImmutableQualityInfo;
+import com.facebook.imagepipeline.memory.ChunkedPooledByteBuffer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import javax.annotation.Nullable;
@@ -33,8 +38,11 @@ import javax.annotation.Nullable;
 /** Decoder for animated images. */
 public class AnimatedImageFactoryImpl implements AnimatedImageFactory {
 
+  private static final int COPY_BUFFER_SIZE = 16 * 1024;
+
   private final AnimatedDrawableBackendProvider mAnimatedDrawableBackendProvider;
   private final PlatformBitmapFactory mBitmapFactory;
+  private final boolean mComputeSourceIds;
 
   static AnimatedImageDecoder sGifAnimatedImageDecoder = null;
   static AnimatedImageDecoder sWebpAnimatedImageDecoder = null;
@@ -56,8 +64,21 @@ public class AnimatedImageFactoryImpl implements AnimatedImageFactory {
   public AnimatedImageFactoryImpl(
       AnimatedDrawableBackendProvider animatedDrawableBackendProvider,
       PlatformBitmapFactory bitmapFactory) {
+    this(animatedDrawableBackendProvider, bitmapFactory, false);
+  }
+
+  /**
+   * @param computeSourceIds whether to give the decoded images an id computed from their encoded
+   *     bytes, see {@link AnimatedImageResult#getSourceId}. This hashes the whole encoded image on
+   *     every decode, on top of the decode itself
+   */
+  public AnimatedImageFactoryImpl(
+      AnimatedDrawableBackendProvider animatedDrawableBackendProvider,
+      PlatformBitmapFactory bitmapFactory,
+      boolean computeSourceIds) {
     mAnimatedDrawableBackendProvider = animatedDrawableBackendProvider;
     mBitmapFactory = bitmapFactory;
+    mComputeSourceIds = computeSourceIds;
   }
 
   /**
@@ -83,10 +104,12 @@ public class AnimatedImageFactoryImpl implements AnimatedImageFactory {
       AnimatedImage gifImage;
       if (input.getByteBuffer() != null) {
         gifImage = sGifAnimatedImageDecoder.decode(input.getByteBuffer());
+      } else if (input instanceof ChunkedPooledByteBuffer) {
+        gifImage = sGifAnimatedImageDecoder.decode(copyToDirectByteBuffer(input));
       } else {
         gifImage = sGifAnimatedImageDecoder.decode(input.getNativePtr(), input.size());
       }
-      return getCloseableImage(options, gifImage, bitmapConfig);
+      return getCloseableImage(options, gifImage, bitmapConfig, getSourceId(input));
     } finally {
       CloseableReference.closeSafely(bytesRef);
     }
@@ -115,17 +138,57 @@ public class AnimatedImageFactoryImpl implements AnimatedImageFactory {
       AnimatedImage webPImage;
       if (input.getByteBuffer() != null) {
         webPImage = sWebpAnimatedImageDecoder.decode(input.getByteBuffer());
+      } else if (input instanceof ChunkedPooledByteBuffer) {
+        webPImage = sWebpAnimatedImageDecoder.decode(copyToDirectByteBuffer(input));
       } else {
         webPImage = sWebpAnimatedImageDecoder.decode(input.getNativePtr(), input.size());
       }
-      return getCloseableImage(options, webPImage, bitmapConfig);
+      return getCloseableImage(options, webPImage, bitmapConfig, getSourceId(input));
     } finally {
       CloseableReference.closeSafely(bytesRef);
     }
   }
 
+  /**
+   * The native decoders need the encoded image to be in a single contiguous block of memory. It is
+   * copied a few KB at a time, so that it is not held in a heap array as well.
+   */
+  private static ByteBuffer copyToDirectByteBuffer(PooledByteBuffer input) {
+    final int size = input.size();
+    final ByteBuffer byteBuffer = ByteBuffer.allocateDirect(size);
+    final byte[] bytes = new byte[Math.min(size, COPY_BUFFER_SIZE)];
+    int offset = 0;
+    while (offset < size) {
+      final int count = Math.min(bytes.length, size - offset);
+      input.read(offset, bytes, 0, count);
+      byteBuffer.put(bytes, 0, count);
+      offset += count;
+    }
+    return byteBuffer;
+  }
+
+  /**
+   * Hashes the encoded image. The pipeline doesn't pass the cache key of the encoded image to the
+   * decoders, so the id is computed from the bytes, which is the same for the same image whatever
+   * request it was fetched for. The image is still decoded when its frames are in the frame disk
+   * cache: the cache only saves rendering the frames.
+   */
+  private @Nullable String getSourceId(PooledByteBuffer input) {
+    if (!mComputeSourceIds) {
+      return null;
+    }
+    try {
+      return SecureHashUtil.makeMD5Hash(new PooledByteBufferInputStream(input));
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
   private CloseableImage getCloseableImage(
-      ImageDecodeOptions options, AnimatedImage image, Bitmap.Config bitmapConfig) {
+      ImageDecodeOptions options,
+      AnimatedImage image,
+      Bitmap.Config bitmapConfig,
+      @Nullable String sourceId) {
     List<CloseableReference<Bitmap>> decodedFrames = null;
     CloseableReference<Bitmap> previewBitmap = null;
     try {
@@ -150,6 +213,7 @@ public class AnimatedImageFactoryImpl implements AnimatedImageFactory {
               .setPreviewBitmap(previewBitmap)
               .setFrameForPreview(frameForPreview)
               .setDecodedFrames(decodedFrames)
+              .setSourceId(sourceId)
               .build();
       return new CloseableAnimatedImage(animatedImageResult);
     } finally {
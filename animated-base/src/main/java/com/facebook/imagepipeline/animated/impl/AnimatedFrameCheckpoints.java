@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.animated.impl;
+
+import android.graphics.Bitmap;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
+import com.facebook.imagepipeline.image.CloseableImage;
+import com.facebook.imagepipeline.image.CloseableStaticBitmap;
+import com.facebook.imagepipeline.image.ImmutableQualityInfo;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Snapshots of fully composited frames of an animated image, taken every {@code
+ * checkpointInterval} frames, that {@link CheckpointingAnimatedImageCompositor} starts compositing
+ * from.
+ *
+ * <p>The snapshots are stored in an {@link AnimatedFrameCache}. This class keeps a reference to the
+ * most recent ones, as long as they fit in {@code maxCheckpointBytes}, so that the memory cache
+ * doesn't evict them. Older snapshots stay in the cache until it needs the memory back.
+ *
+ * <p>Only the frames snapshot since the last {@link #release} are used, since frames cached under
+ * the same key before may have been rendered for other bounds.
+ */
+@ThreadSafe
+public class AnimatedFrameCheckpoints {
+
+  private final AnimatedFrameCache mAnimatedFrameCache;
+  private final PlatformBitmapFactory mPlatformBitmapFactory;
+  private final int mCheckpointInterval;
+  private final int mMaxCheckpointBytes;
+
+  /** References to the most recent checkpoints, oldest first */
+  @GuardedBy("this")
+  private final LinkedHashMap<Integer, CloseableReference<CloseableImage>> mHeldCheckpoints;
+
+  @GuardedBy("this")
+  private int mHeldCheckpointBytes;
+
+  /** Frames snapshot since the last release, which may or may not still be in the cache */
+  @GuardedBy("this")
+  private final Set<Integer> mCheckpointedFrames;
+
+  public AnimatedFrameCheckpoints(
+      AnimatedFrameCache animatedFrameCache,
+      PlatformBitmapFactory platformBitmapFactory,
+      int checkpointInterval,
+      int maxCheckpointBytes) {
+    Preconditions.checkArgument(checkpointInterval > 0);
+    Preconditions.checkArgument(maxCheckpointBytes >= 0);
+    mAnimatedFrameCache = animatedFrameCache;
+    mPlatformBitmapFactory = platformBitmapFactory;
+    mCheckpointInterval = checkpointInterval;
+    mMaxCheckpointBytes = maxCheckpointBytes;
+    mHeldCheckpoints = new LinkedHashMap<>();
+    mCheckpointedFrames = new HashSet<>();
+  }
+
+  /**
+   * Returns whether the given frame should be snapshot, so that any frame is at most {@code
+   * checkpointInterval} frames away from the checkpoint preceding it.
+   */
+  public boolean isCheckpoint(int frameNumber) {
+    return frameNumber % mCheckpointInterval == 0;
+  }
+
+  /**
+   * Stores a copy of the given fully composited frame, unless it is still in the cache.
+   *
+   * @param frameNumber the frame number of the bitmap
+   * @param bitmap the composited frame, which is copied and not modified
+   */
+  public synchronized void checkpoint(int frameNumber, Bitmap bitmap) {
+    if (mHeldCheckpoints.containsKey(frameNumber)) {
+      return;
+    }
+    CloseableReference<CloseableImage> cachedReference =
+        mCheckpointedFrames.contains(frameNumber) ? mAnimatedFrameCache.get(frameNumber) : null;
+    if (cachedReference == null) {
+      cachedReference = cacheCopy(frameNumber, bitmap);
+      if (cachedReference == null) {
+        return;
+      }
+      mCheckpointedFrames.add(frameNumber);
+    }
+    hold(frameNumber, cachedReference);
+  }
+
+  /**
+   * Returns the checkpoint for the given frame, if it is still in the cache.
+   *
+   * @return a reference to the bitmap, which the caller must close, or null
+   */
+  @Nullable
+  public synchronized CloseableReference<Bitmap> getCheckpoint(int frameNumber) {
+    if (!mCheckpointedFrames.contains(frameNumber)) {
+      return null;
+    }
+    CloseableReference<CloseableImage> imageReference = mAnimatedFrameCache.get(frameNumber);
+    try {
+      if (CloseableReference.isValid(imageReference)
+          && imageReference.get() instanceof CloseableStaticBitmap) {
+        return ((CloseableStaticBitmap) imageReference.get()).cloneUnderlyingBitmapReference();
+      }
+      return null;
+    } finally {
+      CloseableReference.closeSafely(imageReference);
+    }
+  }
+
+  /**
+   * Releases the checkpoints held by this instance, and stops using the ones taken so far. They
+   * stay in the cache until it evicts them.
+   */
+  public synchronized void release() {
+    CloseableReference.closeSafely(mHeldCheckpoints.values());
+    mHeldCheckpoints.clear();
+    mCheckpointedFrames.clear();
+    mHeldCheckpointBytes = 0;
+  }
+
+  @VisibleForTesting
+  synchronized int getHeldCheckpointCount() {
+    return mHeldCheckpoints.size();
+  }
+
+  @Nullable
+  private CloseableReference<CloseableImage> cacheCopy(int frameNumber, Bitmap bitmap) {
+    CloseableReference<Bitmap> bitmapReference = mPlatformBitmapFactory.createBitmap(bitmap);
+    CloseableReference<CloseableImage> imageReference =
+        CloseableReference.<CloseableImage>of(
+            new CloseableStaticBitmap(bitmapReference, ImmutableQualityInfo.FULL_QUALITY, 0));
+    try {
+      return mAnimatedFrameCache.cache(frameNumber, imageReference);
+    } finally {
+      CloseableReference.closeSafely(bitmapReference);
+      CloseableReference.closeSafely(imageReference);
+    }
+  }
+
+  @GuardedBy("this")
+  private void hold(int frameNumber, CloseableReference<CloseableImage> cachedReference) {
+    final int sizeInBytes = cachedReference.get().getSizeInBytes();
+    if (sizeInBytes > mMaxCheckpointBytes) {
+      // too large to be kept around: leave it to the cache
+      cachedReference.close();
+      return;
+    }
+    Iterator<Map.Entry<Integer, CloseableReference<CloseableImage>>> iterator =
+        mHeldCheckpoints.entrySet().iterator();
+    while ((long) mHeldCheckpointBytes + sizeInBytes > mMaxCheckpointBytes) {
+      CloseableReference<CloseableImage> oldestReference = iterator.next().getValue();
+      mHeldCheckpointBytes -= oldestReference.get().getSizeInBytes();
+      oldestReference.close();
+      iterator.remove();
+    }
+    mHeldCheckpoints.put(frameNumber, cachedReference);
+    mHeldCheckpointBytes += sizeInBytes;
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.animated.impl;
+
+import android.graphics.Bitmap;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.animated.base.AnimatedDrawableBackend;
+import com.facebook.imagepipeline.animated.base.AnimatedDrawableFrameInfo.DisposalMethod;
+import javax.annotation.Nullable;
+
+/**
+ * An {@link AnimatedImageCompositor} that snapshots the fully composited frames it goes through at
+ * a fixed interval, see {@link AnimatedFrameCheckpoints}.
+ *
+ * <p>Once the checkpoint preceding a frame has been rendered, the frame is composited from it, so
+ * seeking to any frame of a long animation renders at most {@code checkpointInterval} partial
+ * frames instead of every frame since the previous key frame. Frames that dispose to previous are
+ * never used as a starting point by the compositor, so they are not snapshot.
+ */
+public class CheckpointingAnimatedImageCompositor extends AnimatedImageCompositor {
+
+  private final AnimatedDrawableBackend mAnimatedDrawableBackend;
+  private final AnimatedFrameCheckpoints mCheckpoints;
+
+  public CheckpointingAnimatedImageCompositor(
+      AnimatedDrawableBackend animatedDrawableBackend,
+      Callback callback,
+      AnimatedFrameCheckpoints checkpoints) {
+    super(animatedDrawableBackend, new CheckpointingCallback(callback, checkpoints));
+    mAnimatedDrawableBackend = animatedDrawableBackend;
+    mCheckpoints = checkpoints;
+  }
+
+  @Override
+  public void renderFrame(int frameNumber, Bitmap bitmap) {
+    super.renderFrame(frameNumber, bitmap);
+    if (mCheckpoints.isCheckpoint(frameNumber)
+        && mAnimatedDrawableBackend.getFrameInfo(frameNumber).disposalMethod
+            != DisposalMethod.DISPOSE_TO_PREVIOUS) {
+      mCheckpoints.checkpoint(frameNumber, bitmap);
+    }
+  }
+
+  /**
+   * Snapshots the intermediate results that are checkpoints, and falls back to the checkpoints
+   * when the given callback doesn't have a frame.
+   */
+  private static class CheckpointingCallback implements Callback {
+
+    private final Callback mCallback;
+    private final AnimatedFrameCheckpoints mCheckpoints;
+
+    CheckpointingCallback(Callback callback, AnimatedFrameCheckpoints checkpoints) {
+      mCallback = callback;
+      mCheckpoints = checkpoints;
+    }
+
+    @Override
+    public void onIntermediateResult(int frameNumber, Bitmap bitmap) {
+      mCallback.onIntermediateResult(frameNumber, bitmap);
+      // the compositor doesn't report frames that dispose to previous
+      if (mCheckpoints.isCheckpoint(frameNumber)) {
+        mCheckpoints.checkpoint(frameNumber, bitmap);
+      }
+    }
+
+    @Nullable
+    @Override
+    public CloseableReference<Bitmap> getCachedBitmap(int frameNumber) {
+      CloseableReference<Bitmap> cachedBitmap = mCallback.getCachedBitmap(frameNumber);
+      return cachedBitmap != null ? cachedBitmap : mCheckpoints.getCheckpoint(frameNumber);
+    }
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.fresco.animation.bitmap.wrapper;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.graphics.Bitmap;
+import com.facebook.binaryresource.ByteArrayBinaryResource;
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.WriterCallback;
+import com.facebook.cache.disk.FileCache;
+import com.facebook.fresco.animation.bitmap.BitmapFrameRenderer;
+import com.facebook.fresco.animation.bitmap.cache.AnimationFrameCacheKey;
+import com.facebook.imagepipeline.testing.FakeClock;
+import com.facebook.imagepipeline.testing.TestExecutorService;
+import java.nio.ByteBuffer;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Tests {@link DiskCachedBitmapFrameRenderer} */
+@RunWith(RobolectricTestRunner.class)
+public class DiskCachedBitmapFrameRendererTest {
+
+  private static final int WIDTH = 10;
+  private static final int HEIGHT = 20;
+  private static final int BYTE_COUNT = WIDTH * HEIGHT * 4;
+
+  private BitmapFrameRenderer mBitmapFrameRenderer;
+  private FileCache mFileCache;
+  private AnimationFrameCacheKey mAnimationFrameCacheKey;
+  private TestExecutorService mWriteExecutor;
+  private Bitmap mBitmap;
+  private CacheKey mFrameCacheKey;
+  private DiskCachedBitmapFrameRenderer mDiskCachedBitmapFrameRenderer;
+
+  @Before
+  public void setup() {
+    mBitmapFrameRenderer = mock(BitmapFrameRenderer.class);
+    mFileCache = mock(FileCache.class);
+    mAnimationFrameCacheKey = new AnimationFrameCacheKey("source");
+    mWriteExecutor = new TestExecutorService(new FakeClock());
+    mBitmap = mock(Bitmap.class);
+    when(mBitmap.getConfig()).thenReturn(Bitmap.Config.ARGB_8888);
+    when(mBitmap.getWidth()).thenReturn(WIDTH);
+    when(mBitmap.getHeight()).thenReturn(HEIGHT);
+    when(mBitmap.getByteCount()).thenReturn(BYTE_COUNT);
+    mFrameCacheKey = mAnimationFrameCacheKey.getFrameCacheKey(1, WIDTH, HEIGHT);
+    mDiskCachedBitmapFrameRenderer =
+        new DiskCachedBitmapFrameRenderer(
+            mBitmapFrameRenderer, mFileCache, mAnimationFrameCacheKey, mWriteExecutor);
+  }
+
+  @Test
+  public void testRenderFrame_whenCached_thenCopyPixels() {
+    when(mFileCache.getResource(mFrameCacheKey))
+        .thenReturn(new ByteArrayBinaryResource(new byte[BYTE_COUNT]));
+
+    assertThat(mDiskCachedBitmapFrameRenderer.renderFrame(1, mBitmap)).isTrue();
+
+    verify(mBitmap).copyPixelsFromBuffer(any(ByteBuffer.class));
+    verify(mBitmapFrameRenderer, never()).renderFrame(anyInt(), any(Bitmap.class));
+  }
+
+  @Test
+  public void testRenderFrame_whenNotCached_thenRenderAndWrite() throws Exception {
+    when(mBitmapFrameRenderer.renderFrame(1, mBitmap)).thenReturn(true);
+
+    assertThat(mDiskCachedBitmapFrameRenderer.renderFrame(1, mBitmap)).isTrue();
+
+    verify(mBitmapFrameRenderer).renderFrame(1, mBitmap);
+    verify(mBitmap).copyPixelsToBuffer(any(ByteBuffer.class));
+    verify(mFileCache, never()).insert(any(CacheKey.class), any(WriterCallback.class));
+    mWriteExecutor.runUntilIdle();
+    verify(mFileCache).insert(eq(mFrameCacheKey), any(WriterCallback.class));
+  }
+
+  @Test
+  public void testRenderFrame_whenWritePending_thenWriteOnce() throws Exception {
+    when(mBitmapFrameRenderer.renderFrame(1, mBitmap)).thenReturn(true);
+
+    mDiskCachedBitmapFrameRenderer.renderFrame(1, mBitmap);
+    mDiskCachedBitmapFrameRenderer.renderFrame(1, mBitmap);
+    mWriteExecutor.runUntilIdle();
+
+    verify(mFileCache).insert(eq(mFrameCacheKey), any(WriterCallback.class));
+  }
+
+  @Test
+  public void testRenderFrame_whenCachedWithWrongSize_thenRender() {
+    when(mFileCache.getResource(mFrameCacheKey))
+        .thenReturn(new ByteArrayBinaryResource(new byte[BYTE_COUNT / 2]));
+    when(mBitmapFrameRenderer.renderFrame(1, mBitmap)).thenReturn(true);
+
+    assertThat(mDiskCachedBitmapFrameRenderer.renderFrame(1, mBitmap)).isTrue();
+
+    verify(mFileCache).remove(mFrameCacheKey);
+    verify(mBitmapFrameRenderer).renderFrame(1, mBitmap);
+  }
+
+  @Test
+  public void testRenderFrame_whenRenderFails_thenNoWrite() throws Exception {
+    when(mBitmapFrameRenderer.renderFrame(1, mBitmap)).thenReturn(false);
+
+    assertThat(mDiskCachedBitmapFrameRenderer.renderFrame(1, mBitmap)).isFalse();
+
+    mWriteExecutor.runUntilIdle();
+    verify(mFileCache, never()).insert(any(CacheKey.class), any(WriterCallback.class));
+  }
+
+  @Test
+  public void testRenderFrame_whenNotArgb8888_thenOnlyRender() throws Exception {
+    when(mBitmap.getConfig()).thenReturn(Bitmap.Config.RGB_565);
+    when(mBitmapFrameRenderer.renderFrame(1, mBitmap)).thenReturn(true);
+
+    assertThat(mDiskCachedBitmapFrameRenderer.renderFrame(1, mBitmap)).isTrue();
+
+    verify(mFileCache, never()).getResource(any(CacheKey.class));
+    mWriteExecutor.runUntilIdle();
+    verify(mFileCache, never()).insert(any(CacheKey.class), any(WriterCallback.class));
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.animated.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.SimpleCacheKey;
+import com.facebook.common.internal.Suppliers;
+import com.facebook.common.memory.NoOpMemoryTrimmableRegistry;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.util.ByteConstants;
+import com.facebook.imagepipeline.animated.base.AnimatedDrawableBackend;
+import com.facebook.imagepipeline.animated.base.AnimatedDrawableFrameInfo;
+import com.facebook.imagepipeline.animated.base.AnimatedDrawableFrameInfo.BlendOperation;
+import com.facebook.imagepipeline.animated.base.AnimatedDrawableFrameInfo.DisposalMethod;
+import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
+import com.facebook.imagepipeline.bitmaps.SimpleBitmapReleaser;
+import com.facebook.imagepipeline.cache.BitmapCountingMemoryCacheFactory;
+import com.facebook.imagepipeline.cache.MemoryCacheParams;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Tests {@link CheckpointingAnimatedImageCompositor}. The frames of the animation only cover part
+ * of the image and blend with the previous ones, so only the first frame is a key frame.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CheckpointingAnimatedImageCompositorTest {
+
+  private static final int FRAME_COUNT = 100;
+  private static final int SIZE = 10;
+  private static final int FRAME_BYTES = SIZE * SIZE * 4;
+  private static final int CHECKPOINT_INTERVAL = 10;
+
+  private static final AnimatedImageCompositor.Callback NO_CACHE_CALLBACK =
+      new AnimatedImageCompositor.Callback() {
+        @Override
+        public void onIntermediateResult(int frameNumber, Bitmap bitmap) {}
+
+        @Nullable
+        @Override
+        public CloseableReference<Bitmap> getCachedBitmap(int frameNumber) {
+          return null;
+        }
+      };
+
+  private AnimatedDrawableBackend mAnimatedDrawableBackend;
+  private AnimatedFrameCache mAnimatedFrameCache;
+  private PlatformBitmapFactory mPlatformBitmapFactory;
+  private Bitmap mBitmap;
+  private int mRenderedFrames;
+
+  @Before
+  public void setUp() {
+    mAnimatedDrawableBackend = mock(AnimatedDrawableBackend.class);
+    when(mAnimatedDrawableBackend.getFrameCount()).thenReturn(FRAME_COUNT);
+    when(mAnimatedDrawableBackend.getRenderedWidth()).thenReturn(SIZE);
+    when(mAnimatedDrawableBackend.getRenderedHeight()).thenReturn(SIZE);
+    when(mAnimatedDrawableBackend.getFrameInfo(anyInt()))
+        .thenAnswer(
+            new Answer<AnimatedDrawableFrameInfo>() {
+              @Override
+              public AnimatedDrawableFrameInfo answer(InvocationOnMock invocation) {
+                int frameNumber = (Integer) invocation.getArguments()[0];
+                return new AnimatedDrawableFrameInfo(
+                    frameNumber,
+                    1,
+                    1,
+                    SIZE - 1,
+                    SIZE - 1,
+                    BlendOperation.BLEND_WITH_PREVIOUS,
+                    DisposalMethod.DISPOSE_DO_NOT);
+              }
+            });
+    doAnswer(
+            new Answer<Void>() {
+              @Override
+              public Void answer(InvocationOnMock invocation) {
+                mRenderedFrames++;
+                return null;
+              }
+            })
+        .when(mAnimatedDrawableBackend)
+        .renderFrame(anyInt(), any(Canvas.class));
+
+    MemoryCacheParams params =
+        new MemoryCacheParams(
+            4 * ByteConstants.MB,
+            256,
+            Integer.MAX_VALUE,
+            Integer.MAX_VALUE,
+            Integer.MAX_VALUE,
+            TimeUnit.MINUTES.toMillis(5));
+    CacheKey cacheKey = new SimpleCacheKey("key");
+    mAnimatedFrameCache =
+        new AnimatedFrameCache(
+            cacheKey,
+            BitmapCountingMemoryCacheFactory.get(
+                Suppliers.of(params), NoOpMemoryTrimmableRegistry.getInstance()));
+    mPlatformBitmapFactory =
+        new PlatformBitmapFactory() {
+          @Override
+          public CloseableReference<Bitmap> createBitmapInternal(
+              int width, int height, Bitmap.Config bitmapConfig) {
+            return CloseableReference.of(
+                Bitmap.createBitmap(width, height, bitmapConfig),
+                SimpleBitmapReleaser.getInstance());
+          }
+        };
+    mBitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+  }
+
+  @Test
+  public void testWithoutCheckpoints() {
+    AnimatedImageCompositor compositor =
+        new AnimatedImageCompositor(mAnimatedDrawableBackend, NO_CACHE_CALLBACK);
+
+    assertEquals(FRAME_COUNT, renderFrame(compositor, FRAME_COUNT - 1));
+    assertEquals(58, renderFrame(compositor, 57));
+  }
+
+  @Test
+  public void testSeekRendersAtMostCheckpointInterval() {
+    AnimatedImageCompositor compositor = createCompositor(Integer.MAX_VALUE);
+
+    // the first render goes through every frame, and takes the checkpoints along the way
+    assertEquals(FRAME_COUNT, renderFrame(compositor, FRAME_COUNT - 1));
+    assertEquals(7, renderFrame(compositor, 57));
+    assertEquals(CHECKPOINT_INTERVAL, renderFrame(compositor, 40));
+    assertEquals(1, renderFrame(compositor, 1));
+  }
+
+  @Test
+  public void testRenderedFrameIsCheckpoint() {
+    AnimatedImageCompositor compositor = createCompositor(Integer.MAX_VALUE);
+
+    assertEquals(31, renderFrame(compositor, 30));
+    assertEquals(5, renderFrame(compositor, 35));
+  }
+
+  @Test
+  public void testHeldCheckpointsAreMemoryBounded() {
+    AnimatedFrameCheckpoints checkpoints =
+        new AnimatedFrameCheckpoints(
+            mAnimatedFrameCache, mPlatformBitmapFactory, CHECKPOINT_INTERVAL, 3 * FRAME_BYTES);
+    AnimatedImageCompositor compositor =
+        new CheckpointingAnimatedImageCompositor(
+            mAnimatedDrawableBackend, NO_CACHE_CALLBACK, checkpoints);
+
+    renderFrame(compositor, FRAME_COUNT - 1);
+
+    assertEquals(3, checkpoints.getHeldCheckpointCount());
+    // the checkpoints that are no longer held are still in the cache
+    assertEquals(7, renderFrame(compositor, 17));
+  }
+
+  @Test
+  public void testRelease() {
+    AnimatedFrameCheckpoints checkpoints =
+        new AnimatedFrameCheckpoints(
+            mAnimatedFrameCache, mPlatformBitmapFactory, CHECKPOINT_INTERVAL, Integer.MAX_VALUE);
+    AnimatedImageCompositor compositor =
+        new CheckpointingAnimatedImageCompositor(
+            mAnimatedDrawableBackend, NO_CACHE_CALLBACK, checkpoints);
+    renderFrame(compositor, FRAME_COUNT - 1);
+
+    checkpoints.release();
+
+    assertEquals(0, checkpoints.getHeldCheckpointCount());
+    assertEquals(58, renderFrame(compositor, 57));
+    assertEquals(7, renderFrame(compositor, 57));
+  }
+
+  private AnimatedImageCompositor createCompositor(int maxCheckpointBytes) {
+    return new CheckpointingAnimatedImageCompositor(
+        mAnimatedDrawableBackend,
+        NO_CACHE_CALLBACK,
+        new AnimatedFrameCheckpoints(
+            mAnimatedFrameCache, mPlatformBitmapFactory, CHECKPOINT_INTERVAL, maxCheckpointBytes));
+  }
+
+  /** Returns the number of frames rendered to composite the given one */
+  private int renderFrame(AnimatedImageCompositor compositor, int frameNumber) {
+    mRenderedFrames = 0;
+    compositor.renderFrame(frameNumber, mBitmap);
+    return mRenderedFrames;
+  }
+}
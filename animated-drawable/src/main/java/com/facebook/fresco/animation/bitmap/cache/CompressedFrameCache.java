@@ -0,0 +1,443 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.fresco.animation.bitmap.cache;
+
+import android.graphics.Bitmap;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import com.facebook.common.time.AwakeTimeSinceBootClock;
+import com.facebook.common.time.MonotonicNanoClock;
+import com.facebook.fresco.animation.bitmap.BitmapAnimationBackend;
+import com.facebook.fresco.animation.bitmap.BitmapFrameCache;
+import com.facebook.imagepipeline.bitmaps.SimpleBitmapReleaser;
+import com.facebook.imageutils.BitmapUtil;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Bitmap frame cache that keeps every frame in a compact form instead of a full ARGB_8888 bitmap.
+ *
+ * <p>A frame without transparent pixels can be kept as an RGB_565 bitmap, which is drawn as is.
+ * Other frames are kept as runs of identical pixels in native memory, which suits animated stickers
+ * with large flat areas, and expanded into a reused bitmap when they are drawn. A frame that
+ * doesn't compress is kept as it is. See {@link #getStats} for the memory saved and the time spent
+ * compressing and expanding the frames, to choose between this cache and the other ones.
+ *
+ * <p>The oldest frames are evicted once the compressed frames use more than the given size.
+ */
+public class CompressedFrameCache implements BitmapFrameCache {
+
+  private static final int FRAME_NUMBER_UNSET = -1;
+
+  /** The bytes of an ARGB_8888 pixel are R, G, B, A in memory, whatever the byte order */
+  private static final int ALPHA_SHIFT =
+      ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 24 : 0;
+
+  /** Statistics about the frames of a {@link CompressedFrameCache} */
+  public static class Stats {
+    /** Number of frames cached */
+    public final int cachedFrames;
+    /** Size of the cached frames */
+    public final int sizeInBytes;
+    /** Size the cached frames would have as ARGB_8888 bitmaps */
+    public final int uncompressedSizeInBytes;
+    /** Number of cached frames stored as RGB_565 bitmaps */
+    public final int rgb565Frames;
+    /** Number of cached frames stored as runs of pixels */
+    public final int runLengthEncodedFrames;
+    /** Number of frames compressed so far */
+    public final int compressedFrames;
+    /** Time spent compressing frames so far, in ns */
+    public final long compressionTimeNs;
+    /** Number of frames expanded so far */
+    public final int expandedFrames;
+    /** Time spent expanding frames so far, in ns */
+    public final long expansionTimeNs;
+
+    Stats(
+        int cachedFrames,
+        int sizeInBytes,
+        int uncompressedSizeInBytes,
+        int rgb565Frames,
+        int runLengthEncodedFrames,
+        int compressedFrames,
+        long compressionTimeNs,
+        int expandedFrames,
+        long expansionTimeNs) {
+      this.cachedFrames = cachedFrames;
+      this.sizeInBytes = sizeInBytes;
+      this.uncompressedSizeInBytes = uncompressedSizeInBytes;
+      this.rgb565Frames = rgb565Frames;
+      this.runLengthEncodedFrames = runLengthEncodedFrames;
+      this.compressedFrames = compressedFrames;
+      this.compressionTimeNs = compressionTimeNs;
+      this.expandedFrames = expandedFrames;
+      this.expansionTimeNs = expansionTimeNs;
+    }
+  }
+
+  /** A frame stored either as a bitmap or as (run length, pixel) pairs. */
+  private static class CompressedFrame {
+    @Nullable final CloseableReference<Bitmap> mBitmapReference;
+    @Nullable final IntBuffer mRuns;
+    final boolean mIsRgb565Copy;
+    final int mWidth;
+    final int mHeight;
+    final int mSizeInBytes;
+
+    CompressedFrame(CloseableReference<Bitmap> bitmapReference, boolean isRgb565Copy) {
+      mBitmapReference = bitmapReference;
+      mRuns = null;
+      mIsRgb565Copy = isRgb565Copy;
+      mWidth = bitmapReference.get().getWidth();
+      mHeight = bitmapReference.get().getHeight();
+      mSizeInBytes = BitmapUtil.getSizeInBytes(bitmapReference.get());
+    }
+
+    CompressedFrame(IntBuffer runs, int width, int height) {
+      mBitmapReference = null;
+      mRuns = runs;
+      mIsRgb565Copy = false;
+      mWidth = width;
+      mHeight = height;
+      mSizeInBytes = runs.capacity() * 4;
+    }
+  }
+
+  private final int mMaxSizeInBytes;
+  private final boolean mUseRgb565ForOpaqueFrames;
+  private final MonotonicNanoClock mMonotonicNanoClock;
+
+  private final ResourceReleaser<Bitmap> mExpandedBitmapReleaser =
+      new ResourceReleaser<Bitmap>() {
+        @Override
+        public void release(Bitmap bitmap) {
+          releaseExpandedBitmap(bitmap);
+        }
+      };
+
+  /** The cached frames, oldest first */
+  @GuardedBy("this")
+  private final LinkedHashMap<Integer, CompressedFrame> mFrames = new LinkedHashMap<>();
+
+  @GuardedBy("this")
+  private int mFramesSizeInBytes;
+
+  @GuardedBy("this")
+  private int mLastFrameNumber = FRAME_NUMBER_UNSET;
+
+  /** A bitmap given to the cache, which can be reused once its frame is compressed */
+  @GuardedBy("this")
+  @Nullable
+  private CloseableReference<Bitmap> mReusableBitmapReference;
+
+  /** A bitmap to expand frames into, when not in use */
+  @GuardedBy("this")
+  @Nullable
+  private Bitmap mFreeExpandedBitmap;
+
+  /** The pixels of the frame being compressed or expanded */
+  @GuardedBy("this")
+  @Nullable
+  private IntBuffer mPixels;
+
+  @GuardedBy("this")
+  private int mCompressedFrames;
+
+  @GuardedBy("this")
+  private long mCompressionTimeNs;
+
+  @GuardedBy("this")
+  private int mExpandedFrames;
+
+  @GuardedBy("this")
+  private long mExpansionTimeNs;
+
+  @Nullable private FrameCacheListener mFrameCacheListener;
+
+  /**
+   * @param maxSizeInBytes the size the compressed frames can use
+   * @param useRgb565ForOpaqueFrames whether frames without transparent pixels can be stored as
+   *     RGB_565 bitmaps, at the cost of some color precision
+   */
+  public CompressedFrameCache(int maxSizeInBytes, boolean useRgb565ForOpaqueFrames) {
+    this(maxSizeInBytes, useRgb565ForOpaqueFrames, AwakeTimeSinceBootClock.get());
+  }
+
+  @VisibleForTesting
+  CompressedFrameCache(
+      int maxSizeInBytes,
+      boolean useRgb565ForOpaqueFrames,
+      MonotonicNanoClock monotonicNanoClock) {
+    mMaxSizeInBytes = maxSizeInBytes;
+    mUseRgb565ForOpaqueFrames = useRgb565ForOpaqueFrames;
+    mMonotonicNanoClock = monotonicNanoClock;
+  }
+
+  @Nullable
+  @Override
+  public synchronized CloseableReference<Bitmap> getCachedFrame(int frameNumber) {
+    CompressedFrame frame = mFrames.get(frameNumber);
+    if (frame == null) {
+      return null;
+    }
+    if (frame.mBitmapReference != null) {
+      return frame.mBitmapReference.clone();
+    }
+    return expand(frame);
+  }
+
+  @Nullable
+  @Override
+  public synchronized CloseableReference<Bitmap> getFallbackFrame(int frameNumber) {
+    return getCachedFrame(mLastFrameNumber);
+  }
+
+  @Nullable
+  @Override
+  public synchronized CloseableReference<Bitmap> getBitmapToReuseForFrame(
+      int frameNumber, int width, int height) {
+    CloseableReference<Bitmap> reusableBitmapReference = mReusableBitmapReference;
+    mReusableBitmapReference = null;
+    if (reusableBitmapReference != null
+        && (reusableBitmapReference.get().getWidth() != width
+            || reusableBitmapReference.get().getHeight() != height)) {
+      reusableBitmapReference.close();
+      return null;
+    }
+    return reusableBitmapReference;
+  }
+
+  @Override
+  public synchronized boolean contains(int frameNumber) {
+    return mFrames.containsKey(frameNumber);
+  }
+
+  @Override
+  public synchronized int getSizeInBytes() {
+    return mFramesSizeInBytes
+        + (mReusableBitmapReference == null
+            ? 0
+            : BitmapUtil.getSizeInBytes(mReusableBitmapReference.get()));
+  }
+
+  @Override
+  public synchronized void clear() {
+    Iterator<Map.Entry<Integer, CompressedFrame>> iterator = mFrames.entrySet().iterator();
+    while (iterator.hasNext()) {
+      evict(iterator);
+    }
+    CloseableReference.closeSafely(mReusableBitmapReference);
+    mReusableBitmapReference = null;
+    if (mFreeExpandedBitmap != null) {
+      mFreeExpandedBitmap.recycle();
+      mFreeExpandedBitmap = null;
+    }
+    mPixels = null;
+    mLastFrameNumber = FRAME_NUMBER_UNSET;
+  }
+
+  @Override
+  public synchronized void onFrameRendered(
+      int frameNumber,
+      CloseableReference<Bitmap> bitmapReference,
+      @BitmapAnimationBackend.FrameType int frameType) {
+    mLastFrameNumber = frameNumber;
+    if (frameType != BitmapAnimationBackend.FRAME_TYPE_CACHED) {
+      cacheFrame(frameNumber, bitmapReference);
+    }
+  }
+
+  @Override
+  public synchronized void onFramePrepared(
+      int frameNumber,
+      CloseableReference<Bitmap> bitmapReference,
+      @BitmapAnimationBackend.FrameType int frameType) {
+    cacheFrame(frameNumber, bitmapReference);
+  }
+
+  @Override
+  public void setFrameCacheListener(FrameCacheListener frameCacheListener) {
+    mFrameCacheListener = frameCacheListener;
+  }
+
+  /** Returns the current statistics of the cache. */
+  public synchronized Stats getStats() {
+    int uncompressedSizeInBytes = 0;
+    int rgb565Frames = 0;
+    int runLengthEncodedFrames = 0;
+    for (CompressedFrame frame : mFrames.values()) {
+      uncompressedSizeInBytes += frame.mWidth * frame.mHeight * 4;
+      if (frame.mIsRgb565Copy) {
+        rgb565Frames++;
+      } else if (frame.mRuns != null) {
+        runLengthEncodedFrames++;
+      }
+    }
+    return new Stats(
+        mFrames.size(),
+        mFramesSizeInBytes,
+        uncompressedSizeInBytes,
+        rgb565Frames,
+        runLengthEncodedFrames,
+        mCompressedFrames,
+        mCompressionTimeNs,
+        mExpandedFrames,
+        mExpansionTimeNs);
+  }
+
+  @GuardedBy("this")
+  private void cacheFrame(int frameNumber, CloseableReference<Bitmap> bitmapReference) {
+    if (!CloseableReference.isValid(bitmapReference) || mFrames.containsKey(frameNumber)) {
+      return;
+    }
+    final long startTimeNs = mMonotonicNanoClock.nowNanos();
+    CompressedFrame frame = compress(bitmapReference);
+    mCompressionTimeNs += mMonotonicNanoClock.nowNanos() - startTimeNs;
+    mCompressedFrames++;
+
+    if (frame.mBitmapReference == null || frame.mIsRgb565Copy) {
+      // The frame doesn't use the given bitmap, which can be reused for another frame
+      if (mReusableBitmapReference == null) {
+        mReusableBitmapReference = bitmapReference.clone();
+      }
+    }
+    mFrames.put(frameNumber, frame);
+    mFramesSizeInBytes += frame.mSizeInBytes;
+    if (mFrameCacheListener != null) {
+      mFrameCacheListener.onFrameCached(this, frameNumber);
+    }
+
+    Iterator<Map.Entry<Integer, CompressedFrame>> iterator = mFrames.entrySet().iterator();
+    while (mFramesSizeInBytes > mMaxSizeInBytes && iterator.hasNext()) {
+      evict(iterator);
+    }
+  }
+
+  @GuardedBy("this")
+  private CompressedFrame compress(CloseableReference<Bitmap> bitmapReference) {
+    final Bitmap bitmap = bitmapReference.get();
+    if (bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+      return new CompressedFrame(bitmapReference.clone(), false);
+    }
+    final int pixelCount = bitmap.getWidth() * bitmap.getHeight();
+    final int[] pixels = readPixels(bitmap);
+
+    // Count the runs of identical pixels first, to know which form is the smallest
+    int runCount = 0;
+    boolean opaque = true;
+    for (int i = 0; i < pixelCount; ) {
+      final int pixel = pixels[i];
+      do {
+        i++;
+      } while (i < pixelCount && pixels[i] == pixel);
+      runCount++;
+      opaque &= (pixel >>> ALPHA_SHIFT & 0xFF) == 0xFF;
+    }
+
+    final int runLengthEncodedSize = runCount * 2 * 4;
+    if (opaque && mUseRgb565ForOpaqueFrames && pixelCount * 2 < runLengthEncodedSize) {
+      Bitmap rgb565Bitmap = bitmap.copy(Bitmap.Config.RGB_565, false);
+      if (rgb565Bitmap != null) {
+        return new CompressedFrame(
+            CloseableReference.of(rgb565Bitmap, SimpleBitmapReleaser.getInstance()), true);
+      }
+    }
+    if (runLengthEncodedSize >= pixelCount * 4) {
+      return new CompressedFrame(bitmapReference.clone(), false);
+    }
+
+    IntBuffer runs =
+        ByteBuffer.allocateDirect(runLengthEncodedSize)
+            .order(ByteOrder.nativeOrder())
+            .asIntBuffer();
+    for (int i = 0; i < pixelCount; ) {
+      final int start = i;
+      final int pixel = pixels[i];
+      do {
+        i++;
+      } while (i < pixelCount && pixels[i] == pixel);
+      runs.put(i - start);
+      runs.put(pixel);
+    }
+    return new CompressedFrame(runs, bitmap.getWidth(), bitmap.getHeight());
+  }
+
+  @GuardedBy("this")
+  private CloseableReference<Bitmap> expand(CompressedFrame frame) {
+    final long startTimeNs = mMonotonicNanoClock.nowNanos();
+    final IntBuffer runs = frame.mRuns;
+    final IntBuffer pixelBuffer = getPixels(frame.mWidth * frame.mHeight);
+    final int[] pixels = pixelBuffer.array();
+    int pixelIndex = 0;
+    for (int i = 0; i < runs.capacity(); i += 2) {
+      final int runLength = runs.get(i);
+      Arrays.fill(pixels, pixelIndex, pixelIndex + runLength, runs.get(i + 1));
+      pixelIndex += runLength;
+    }
+
+    Bitmap bitmap = mFreeExpandedBitmap;
+    mFreeExpandedBitmap = null;
+    if (bitmap == null
+        || bitmap.getWidth() != frame.mWidth
+        || bitmap.getHeight() != frame.mHeight) {
+      bitmap = Bitmap.createBitmap(frame.mWidth, frame.mHeight, Bitmap.Config.ARGB_8888);
+    }
+    pixelBuffer.rewind();
+    bitmap.copyPixelsFromBuffer(pixelBuffer);
+
+    mExpansionTimeNs += mMonotonicNanoClock.nowNanos() - startTimeNs;
+    mExpandedFrames++;
+    return CloseableReference.of(bitmap, mExpandedBitmapReleaser);
+  }
+
+  /** Returns the pixels of the bitmap, as stored in memory, in a buffer reused across frames. */
+  @GuardedBy("this")
+  private int[] readPixels(Bitmap bitmap) {
+    IntBuffer pixelBuffer = getPixels(bitmap.getWidth() * bitmap.getHeight());
+    pixelBuffer.rewind();
+    bitmap.copyPixelsToBuffer(pixelBuffer);
+    return pixelBuffer.array();
+  }
+
+  @GuardedBy("this")
+  private IntBuffer getPixels(int pixelCount) {
+    if (mPixels == null || mPixels.capacity() < pixelCount) {
+      mPixels = IntBuffer.wrap(new int[pixelCount]);
+    }
+    return mPixels;
+  }
+
+  private synchronized void releaseExpandedBitmap(Bitmap bitmap) {
+    if (mFreeExpandedBitmap == null && !mFrames.isEmpty()) {
+      mFreeExpandedBitmap = bitmap;
+    } else {
+      bitmap.recycle();
+    }
+  }
+
+  @GuardedBy("this")
+  private void evict(Iterator<Map.Entry<Integer, CompressedFrame>> iterator) {
+    Map.Entry<Integer, CompressedFrame> entry = iterator.next();
+    CompressedFrame frame = entry.getValue();
+    CloseableReference.closeSafely(frame.mBitmapReference);
+    mFramesSizeInBytes -= frame.mSizeInBytes;
+    iterator.remove();
+    if (mFrameCacheListener != null) {
+      mFrameCacheListener.onFrameEvicted(this, entry.getKey());
+    }
+  }
+}
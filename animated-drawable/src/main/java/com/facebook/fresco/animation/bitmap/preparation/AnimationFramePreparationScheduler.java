@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.fresco.animation.bitmap.preparation;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.logging.FLog;
+import com.facebook.common.time.MonotonicClock;
+import com.facebook.fresco.animation.backend.AnimationBackend;
+import com.facebook.fresco.animation.bitmap.BitmapFrameCache;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Frame preparation strategy shared by all the animations of a factory, that splits a total budget
+ * of frames prepared ahead between the animations being drawn, instead of letting each of them
+ * prepare a fixed number of frames.
+ *
+ * <p>An animation is active while it keeps being drawn. Each active animation gets an equal share
+ * of the budget, and only prepares the frames that are displayed within the look-ahead time, so
+ * animations with long frames prepare fewer of them. An animation that hasn't been drawn for the
+ * inactivity threshold is dropped, and its frames that are still scheduled are cancelled. Inactive
+ * animations are dropped whenever an animation is drawn or the statistics are read, and right away
+ * when the owner of an animation calls {@link #onAnimationInactive}.
+ *
+ * <p>The frames are prepared on {@link #getExecutorService}, which the {@link
+ * DefaultBitmapFramePreparer}s of the animations have to share. No more frames than the budget are
+ * scheduled on it at any time. See {@link #getStats} for its queue and latency.
+ */
+@ThreadSafe
+public class AnimationFramePreparationScheduler implements BitmapFramePreparationStrategy {
+
+  private static final Class<?> TAG = AnimationFramePreparationScheduler.class;
+
+  /** Statistics about the frames prepared by an {@link AnimationFramePreparationScheduler} */
+  public static class Stats {
+    /** Number of animations drawn within the inactivity threshold */
+    public final int activeAnimations;
+    /** Number of frames scheduled and not taken off the queue yet */
+    public final int queuedFrames;
+    /** Number of frames taken off the queue and being prepared */
+    public final int runningFrames;
+    /** Number of frames prepared so far, including the cancelled ones */
+    public final int finishedFrames;
+    /** Number of frames cancelled so far because their animation became inactive */
+    public final int cancelledFrames;
+    /** Average time between scheduling a frame and taking it off the queue, in ms */
+    public final long averageLatencyMs;
+    /** Longest time between scheduling a frame and taking it off the queue, in ms */
+    public final long maxLatencyMs;
+
+    Stats(
+        int activeAnimations,
+        int queuedFrames,
+        int runningFrames,
+        int finishedFrames,
+        int cancelledFrames,
+        long averageLatencyMs,
+        long maxLatencyMs) {
+      this.activeAnimations = activeAnimations;
+      this.queuedFrames = queuedFrames;
+      this.runningFrames = runningFrames;
+      this.finishedFrames = finishedFrames;
+      this.cancelledFrames = cancelledFrames;
+      this.averageLatencyMs = averageLatencyMs;
+      this.maxLatencyMs = maxLatencyMs;
+    }
+  }
+
+  private static class AnimationState {
+    final BitmapFramePreparer mBitmapFramePreparer;
+    long mLastDrawnTimeMs;
+
+    AnimationState(BitmapFramePreparer bitmapFramePreparer) {
+      mBitmapFramePreparer = bitmapFramePreparer;
+    }
+  }
+
+  private final ExecutorService mExecutorService;
+  private final MonotonicClock mMonotonicClock;
+  private final int mMaxFramesToPrepare;
+  private final long mLookAheadMs;
+  private final long mInactivityThresholdMs;
+
+  /** The animations drawn recently. Weak keys, so that an animation that is gone can't leak. */
+  @GuardedBy("this")
+  private final Map<AnimationBackend, AnimationState> mActiveAnimations = new WeakHashMap<>();
+
+  @GuardedBy("this")
+  private int mQueuedFrames;
+
+  @GuardedBy("this")
+  private int mRunningFrames;
+
+  @GuardedBy("this")
+  private int mStartedFrames;
+
+  @GuardedBy("this")
+  private int mFinishedFrames;
+
+  @GuardedBy("this")
+  private int mCancelledFrames;
+
+  @GuardedBy("this")
+  private long mTotalLatencyMs;
+
+  @GuardedBy("this")
+  private long mMaxLatencyMs;
+
+  /**
+   * @param executorService the executor to prepare the frames of all the animations on
+   * @param monotonicClock the clock to tell when animations become inactive
+   * @param maxFramesToPrepare the number of frames that can be scheduled at any time
+   * @param lookAheadMs how far ahead of the drawn frame an animation prepares frames
+   * @param inactivityThresholdMs the time after which an animation that isn't drawn is inactive
+   */
+  public AnimationFramePreparationScheduler(
+      ExecutorService executorService,
+      MonotonicClock monotonicClock,
+      int maxFramesToPrepare,
+      long lookAheadMs,
+      long inactivityThresholdMs) {
+    Preconditions.checkArgument(maxFramesToPrepare > 0);
+    mExecutorService = new MeasuredExecutorService(executorService);
+    mMonotonicClock = monotonicClock;
+    mMaxFramesToPrepare = maxFramesToPrepare;
+    mLookAheadMs = lookAheadMs;
+    mInactivityThresholdMs = inactivityThresholdMs;
+  }
+
+  /** Returns the executor that the frame preparers of the animations have to use. */
+  public ExecutorService getExecutorService() {
+    return mExecutorService;
+  }
+
+  @Override
+  public void prepareFrames(
+      BitmapFramePreparer bitmapFramePreparer,
+      BitmapFrameCache bitmapFrameCache,
+      AnimationBackend animationBackend,
+      int lastDrawnFrameNumber) {
+    final int framesToPrepare;
+    synchronized (this) {
+      final long nowMs = mMonotonicClock.now();
+      AnimationState animationState = mActiveAnimations.get(animationBackend);
+      if (animationState == null) {
+        animationState = new AnimationState(bitmapFramePreparer);
+        mActiveAnimations.put(animationBackend, animationState);
+      }
+      animationState.mLastDrawnTimeMs = nowMs;
+      dropInactiveAnimations(nowMs);
+      framesToPrepare =
+          getFramesToPrepare(
+              animationBackend,
+              lastDrawnFrameNumber,
+              Math.max(1, mMaxFramesToPrepare / mActiveAnimations.size()));
+    }
+
+    final int frameCount = animationBackend.getFrameCount();
+    for (int i = 1; i <= framesToPrepare; i++) {
+      synchronized (this) {
+        if (mQueuedFrames + mRunningFrames >= mMaxFramesToPrepare) {
+          // The frames of other animations use the whole budget
+          return;
+        }
+      }
+      int nextFrameNumber = (lastDrawnFrameNumber + i) % frameCount;
+      if (FLog.isLoggable(FLog.VERBOSE)) {
+        FLog.v(TAG, "Preparing frame %d, last drawn: %d", nextFrameNumber, lastDrawnFrameNumber);
+      }
+      if (!bitmapFramePreparer.prepareFrame(bitmapFrameCache, animationBackend, nextFrameNumber)) {
+        // We cannot prepare more frames, so we return early
+        return;
+      }
+    }
+  }
+
+  /**
+   * Drops an animation that became inactive, and cancels its frames that are still scheduled,
+   * without waiting for another animation to be drawn.
+   */
+  public synchronized void onAnimationInactive(AnimationBackend animationBackend) {
+    final AnimationState animationState = mActiveAnimations.remove(animationBackend);
+    if (animationState != null) {
+      cancelPendingFrames(animationBackend, animationState);
+    }
+  }
+
+  /** Returns the current statistics of the scheduler. */
+  public synchronized Stats getStats() {
+    dropInactiveAnimations(mMonotonicClock.now());
+    return new Stats(
+        mActiveAnimations.size(),
+        mQueuedFrames,
+        mRunningFrames,
+        mFinishedFrames,
+        mCancelledFrames,
+        mStartedFrames > 0 ? mTotalLatencyMs / mStartedFrames : 0,
+        mMaxLatencyMs);
+  }
+
+  /**
+   * Returns the number of frames following the drawn one that are displayed within the look-ahead
+   * time, up to the share of the budget of the animation.
+   */
+  private int getFramesToPrepare(
+      AnimationBackend animationBackend, int lastDrawnFrameNumber, int maxFramesToPrepare) {
+    final int frameCount = animationBackend.getFrameCount();
+    int framesToPrepare = 0;
+    long lookAheadMs = 0;
+    while (framesToPrepare < maxFramesToPrepare
+        && framesToPrepare < frameCount - 1
+        && lookAheadMs < mLookAheadMs) {
+      framesToPrepare++;
+      lookAheadMs +=
+          animationBackend.getFrameDurationMs(
+              (lastDrawnFrameNumber + framesToPrepare) % frameCount);
+    }
+    return framesToPrepare;
+  }
+
+  @GuardedBy("this")
+  private void dropInactiveAnimations(long nowMs) {
+    Iterator<Map.Entry<AnimationBackend, AnimationState>> iterator =
+        mActiveAnimations.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<AnimationBackend, AnimationState> entry = iterator.next();
+      AnimationState animationState = entry.getValue();
+      if (nowMs - animationState.mLastDrawnTimeMs <= mInactivityThresholdMs) {
+        continue;
+      }
+      cancelPendingFrames(entry.getKey(), animationState);
+      iterator.remove();
+    }
+  }
+
+  @GuardedBy("this")
+  private void cancelPendingFrames(
+      AnimationBackend animationBackend, AnimationState animationState) {
+    if (animationState.mBitmapFramePreparer instanceof DefaultBitmapFramePreparer) {
+      mCancelledFrames +=
+          ((DefaultBitmapFramePreparer) animationState.mBitmapFramePreparer)
+              .cancelPendingFrames(animationBackend);
+    }
+  }
+
+  private synchronized void onFrameScheduled() {
+    mQueuedFrames++;
+  }
+
+  private synchronized void onFrameStarted(long latencyMs) {
+    mQueuedFrames--;
+    mRunningFrames++;
+    mStartedFrames++;
+    mTotalLatencyMs += latencyMs;
+    mMaxLatencyMs = Math.max(mMaxLatencyMs, latencyMs);
+  }
+
+  private synchronized void onFrameDone() {
+    mRunningFrames--;
+    mFinishedFrames++;
+  }
+
+  /** Executor that keeps track of the frames scheduled on it and of how long they wait. */
+  private class MeasuredExecutorService extends AbstractExecutorService {
+
+    private final ExecutorService mDelegate;
+
+    MeasuredExecutorService(ExecutorService delegate) {
+      mDelegate = delegate;
+    }
+
+    @Override
+    public void execute(final Runnable runnable) {
+      final long scheduledTimeMs = mMonotonicClock.now();
+      onFrameScheduled();
+      mDelegate.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              // the latency doesn't include the time the frame takes to prepare
+              onFrameStarted(mMonotonicClock.now() - scheduledTimeMs);
+              try {
+                runnable.run();
+              } finally {
+                onFrameDone();
+              }
+            }
+          });
+    }
+
+    @Override
+    public void shutdown() {
+      mDelegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      return mDelegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return mDelegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return mDelegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+      return mDelegate.awaitTermination(timeout, unit);
+    }
+  }
+}
@@ -30,7 +30,7 @@ public class DefaultBitmapFramePreparer implements BitmapFramePreparer {
   private final BitmapFrameRenderer mBitmapFrameRenderer;
   private final Bitmap.Config mBitmapConfig;
   private final ExecutorService mExecutorService;
-  private final SparseArray<Runnable> mPendingFrameDecodeJobs;
+  private final SparseArray<FrameDecodeRunnable> mPendingFrameDecodeJobs;
 
   public DefaultBitmapFramePreparer(
       PlatformBitmapFactory platformBitmapFactory,
@@ -60,7 +60,7 @@ public class DefaultBitmapFramePreparer implements BitmapFramePreparer {
         FLog.v(TAG, "Frame %d is cached already.", frameNumber);
         return true;
       }
-      Runnable frameDecodeRunnable =
+      FrameDecodeRunnable frameDecodeRunnable =
           new FrameDecodeRunnable(animationBackend, bitmapFrameCache, frameNumber, frameId);
       mPendingFrameDecodeJobs.put(frameId, frameDecodeRunnable);
       mExecutorService.execute(frameDecodeRunnable);
@@ -68,6 +68,28 @@ public class DefaultBitmapFramePreparer implements BitmapFramePreparer {
     return true;
   }
 
+  /**
+   * Cancels the frames of the given backend that are scheduled but not being prepared yet. They
+   * are skipped when the executor gets to them.
+   *
+   * @param animationBackend the backend to cancel the frames of
+   * @return the number of frames cancelled
+   */
+  public int cancelPendingFrames(AnimationBackend animationBackend) {
+    int cancelledFrames = 0;
+    synchronized (mPendingFrameDecodeJobs) {
+      for (int i = mPendingFrameDecodeJobs.size() - 1; i >= 0; i--) {
+        FrameDecodeRunnable frameDecodeRunnable = mPendingFrameDecodeJobs.valueAt(i);
+        if (frameDecodeRunnable.mAnimationBackend == animationBackend) {
+          frameDecodeRunnable.mCancelled = true;
+          mPendingFrameDecodeJobs.removeAt(i);
+          cancelledFrames++;
+        }
+      }
+    }
+    return cancelledFrames;
+  }
+
   private static int getUniqueId(AnimationBackend backend, int frameNumber) {
     int result = backend.hashCode();
     result = 31 * result + frameNumber;
@@ -80,6 +102,7 @@ public class DefaultBitmapFramePreparer implements BitmapFramePreparer {
     private final AnimationBackend mAnimationBackend;
     private final int mFrameNumber;
     private final int mHashCode;
+    private volatile boolean mCancelled;
 
     public FrameDecodeRunnable(
         AnimationBackend animationBackend,
@@ -94,6 +117,10 @@ public class DefaultBitmapFramePreparer implements BitmapFramePreparer {
 
     @Override
     public void run() {
+      if (mCancelled) {
+        FLog.v(TAG, "Frame %d was cancelled.", mFrameNumber);
+        return;
+      }
       try {
         // If we have a cached frame already, we don't need to do anything.
         if (mBitmapFrameCache.contains(mFrameNumber)) {
@@ -109,7 +136,10 @@ public class DefaultBitmapFramePreparer implements BitmapFramePreparer {
         }
       } finally {
         synchronized (mPendingFrameDecodeJobs) {
-          mPendingFrameDecodeJobs.remove(mHashCode);
+          // the job may have been cancelled and scheduled again in the meantime
+          if (mPendingFrameDecodeJobs.get(mHashCode) == this) {
+            mPendingFrameDecodeJobs.remove(mHashCode);
+          }
         }
       }
     }
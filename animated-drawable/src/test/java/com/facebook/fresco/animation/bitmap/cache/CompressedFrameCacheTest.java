@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.fresco.animation.bitmap.cache;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.time.MonotonicNanoClock;
+import com.facebook.fresco.animation.bitmap.BitmapAnimationBackend;
+import com.facebook.imagepipeline.bitmaps.SimpleBitmapReleaser;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Tests {@link CompressedFrameCache}. */
+@RunWith(RobolectricTestRunner.class)
+public class CompressedFrameCacheTest {
+
+  private static final int SIZE = 16;
+  private static final int FRAME_BYTES = SIZE * SIZE * 4;
+
+  private long mNowNanos;
+  private CompressedFrameCache mCompressedFrameCache;
+
+  @Before
+  public void setup() {
+    mCompressedFrameCache =
+        new CompressedFrameCache(
+            Integer.MAX_VALUE,
+            true,
+            new MonotonicNanoClock() {
+              @Override
+              public long nowNanos() {
+                return mNowNanos += 10;
+              }
+            });
+  }
+
+  @Test
+  public void testFlatFrameIsRunLengthEncoded() {
+    CloseableReference<Bitmap> frame = createFrame(Color.TRANSPARENT, Color.RED);
+
+    cacheFrame(0, frame);
+
+    CompressedFrameCache.Stats stats = mCompressedFrameCache.getStats();
+    assertThat(stats.cachedFrames).isEqualTo(1);
+    assertThat(stats.runLengthEncodedFrames).isEqualTo(1);
+    assertThat(stats.sizeInBytes).isLessThan(FRAME_BYTES);
+    assertThat(stats.uncompressedSizeInBytes).isEqualTo(FRAME_BYTES);
+    assertThat(stats.compressedFrames).isEqualTo(1);
+    assertThat(stats.compressionTimeNs).isEqualTo(10);
+
+    CloseableReference<Bitmap> cachedFrame = mCompressedFrameCache.getCachedFrame(0);
+    assertThat(cachedFrame).isNotNull();
+    assertSamePixels(frame.get(), cachedFrame.get());
+    assertThat(mCompressedFrameCache.getStats().expandedFrames).isEqualTo(1);
+    cachedFrame.close();
+  }
+
+  @Test
+  public void testOpaqueFrameIsStoredAsRgb565() {
+    CloseableReference<Bitmap> frame = createNoisyFrame(0xFF000000);
+
+    cacheFrame(0, frame);
+
+    assertThat(mCompressedFrameCache.getStats().rgb565Frames).isEqualTo(1);
+    assertThat(mCompressedFrameCache.getSizeInBytes()).isLessThan(FRAME_BYTES * 2);
+    CloseableReference<Bitmap> cachedFrame = mCompressedFrameCache.getCachedFrame(0);
+    assertThat(cachedFrame.get().getConfig()).isEqualTo(Bitmap.Config.RGB_565);
+    cachedFrame.close();
+  }
+
+  @Test
+  public void testFrameThatDoesNotCompressIsKeptAsIs() {
+    CloseableReference<Bitmap> frame = createNoisyFrame(0x80000000);
+
+    cacheFrame(0, frame);
+
+    CompressedFrameCache.Stats stats = mCompressedFrameCache.getStats();
+    assertThat(stats.rgb565Frames).isEqualTo(0);
+    assertThat(stats.runLengthEncodedFrames).isEqualTo(0);
+    assertThat(stats.sizeInBytes).isEqualTo(FRAME_BYTES);
+    CloseableReference<Bitmap> cachedFrame = mCompressedFrameCache.getCachedFrame(0);
+    assertThat(cachedFrame.get()).isSameAs(frame.get());
+    cachedFrame.close();
+    // the bitmap is used by the frame, so it can't be reused
+    assertThat(mCompressedFrameCache.getBitmapToReuseForFrame(1, SIZE, SIZE)).isNull();
+  }
+
+  @Test
+  public void testBitmapIsReusedOnceCompressed() {
+    CloseableReference<Bitmap> frame = createFrame(Color.TRANSPARENT, Color.BLUE);
+
+    cacheFrame(0, frame);
+
+    assertThat(mCompressedFrameCache.getBitmapToReuseForFrame(1, SIZE + 1, SIZE)).isNull();
+    cacheFrame(1, frame);
+    CloseableReference<Bitmap> bitmapToReuse =
+        mCompressedFrameCache.getBitmapToReuseForFrame(1, SIZE, SIZE);
+    assertThat(bitmapToReuse).isNotNull();
+    assertThat(bitmapToReuse.get()).isSameAs(frame.get());
+    bitmapToReuse.close();
+  }
+
+  @Test
+  public void testEvictsOldestFrames() {
+    mCompressedFrameCache = new CompressedFrameCache(FRAME_BYTES * 2, false);
+
+    for (int i = 0; i < 3; i++) {
+      cacheFrame(i, createNoisyFrame(0x80000000));
+    }
+
+    assertThat(mCompressedFrameCache.contains(0)).isFalse();
+    assertThat(mCompressedFrameCache.contains(1)).isTrue();
+    assertThat(mCompressedFrameCache.contains(2)).isTrue();
+    assertThat(mCompressedFrameCache.getStats().sizeInBytes).isEqualTo(FRAME_BYTES * 2);
+
+    mCompressedFrameCache.clear();
+
+    assertThat(mCompressedFrameCache.getSizeInBytes()).isEqualTo(0);
+    assertThat(mCompressedFrameCache.contains(2)).isFalse();
+  }
+
+  private void cacheFrame(int frameNumber, CloseableReference<Bitmap> frame) {
+    mCompressedFrameCache.onFrameRendered(
+        frameNumber, frame, BitmapAnimationBackend.FRAME_TYPE_CREATED);
+  }
+
+  /** Creates a frame with a square of the foreground color in the middle */
+  private static CloseableReference<Bitmap> createFrame(int backgroundColor, int foregroundColor) {
+    Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+    for (int y = 0; y < SIZE; y++) {
+      for (int x = 0; x < SIZE; x++) {
+        boolean inside = x >= SIZE / 4 && x < SIZE * 3 / 4 && y >= SIZE / 4 && y < SIZE * 3 / 4;
+        bitmap.setPixel(x, y, inside ? foregroundColor : backgroundColor);
+      }
+    }
+    return CloseableReference.of(bitmap, SimpleBitmapReleaser.getInstance());
+  }
+
+  /** Creates a frame where no two neighbouring pixels are the same */
+  private static CloseableReference<Bitmap> createNoisyFrame(int alpha) {
+    Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+    for (int y = 0; y < SIZE; y++) {
+      for (int x = 0; x < SIZE; x++) {
+        bitmap.setPixel(x, y, alpha | (y * SIZE + x) * 0x010101);
+      }
+    }
+    return CloseableReference.of(bitmap, SimpleBitmapReleaser.getInstance());
+  }
+
+  private static void assertSamePixels(Bitmap expected, Bitmap actual) {
+    assertThat(actual.getWidth()).isEqualTo(expected.getWidth());
+    assertThat(actual.getHeight()).isEqualTo(expected.getHeight());
+    for (int y = 0; y < expected.getHeight(); y++) {
+      for (int x = 0; x < expected.getWidth(); x++) {
+        assertThat(actual.getPixel(x, y)).isEqualTo(expected.getPixel(x, y));
+      }
+    }
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.fresco.animation.bitmap.preparation;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.facebook.fresco.animation.backend.AnimationBackend;
+import com.facebook.fresco.animation.bitmap.BitmapFrameCache;
+import com.facebook.imagepipeline.testing.FakeClock;
+import com.facebook.imagepipeline.testing.TestExecutorService;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.robolectric.RobolectricTestRunner;
+
+/** Tests {@link AnimationFramePreparationScheduler}. */
+@RunWith(RobolectricTestRunner.class)
+public class AnimationFramePreparationSchedulerTest {
+
+  private static final int MAX_FRAMES_TO_PREPARE = 4;
+  private static final long LOOK_AHEAD_MS = 250;
+  private static final long INACTIVITY_THRESHOLD_MS = 1000;
+  private static final int FRAME_COUNT = 10;
+  private static final int FRAME_DURATION_MS = 100;
+
+  private FakeClock mFakeClock;
+  private TestExecutorService mExecutorService;
+  private BitmapFrameCache mBitmapFrameCache;
+  private AnimationFramePreparationScheduler mScheduler;
+
+  @Before
+  public void setup() {
+    mFakeClock = new FakeClock();
+    // the executor has its own clock, so that time can pass without running the frames
+    mExecutorService = new TestExecutorService(new FakeClock());
+    mBitmapFrameCache = mock(BitmapFrameCache.class);
+    mScheduler =
+        new AnimationFramePreparationScheduler(
+            mExecutorService,
+            mFakeClock,
+            MAX_FRAMES_TO_PREPARE,
+            LOOK_AHEAD_MS,
+            INACTIVITY_THRESHOLD_MS);
+  }
+
+  @Test
+  public void testPreparesFramesWithinLookAhead() {
+    AnimationBackend animationBackend = createAnimationBackend(FRAME_DURATION_MS);
+    BitmapFramePreparer bitmapFramePreparer = createBitmapFramePreparer();
+
+    mScheduler.prepareFrames(bitmapFramePreparer, mBitmapFrameCache, animationBackend, 8);
+
+    verifyPrepareCalledForFramesInOrder(bitmapFramePreparer, animationBackend, 9, 0, 1);
+    verify(bitmapFramePreparer, never()).prepareFrame(mBitmapFrameCache, animationBackend, 2);
+  }
+
+  @Test
+  public void testSplitsBudgetBetweenActiveAnimations() {
+    AnimationBackend animationBackend1 = createAnimationBackend(1);
+    AnimationBackend animationBackend2 = createAnimationBackend(1);
+    BitmapFramePreparer bitmapFramePreparer1 = createBitmapFramePreparer();
+    BitmapFramePreparer bitmapFramePreparer2 = createBitmapFramePreparer();
+
+    mScheduler.prepareFrames(bitmapFramePreparer1, mBitmapFrameCache, animationBackend1, 0);
+    mScheduler.prepareFrames(bitmapFramePreparer2, mBitmapFrameCache, animationBackend2, 0);
+
+    verifyPrepareCalledForFramesInOrder(bitmapFramePreparer1, animationBackend1, 1, 2, 3, 4);
+    verifyPrepareCalledForFramesInOrder(bitmapFramePreparer2, animationBackend2, 1, 2);
+    verify(bitmapFramePreparer2, never()).prepareFrame(mBitmapFrameCache, animationBackend2, 3);
+    assertEquals(2, mScheduler.getStats().activeAnimations);
+  }
+
+  @Test
+  public void testCancelsFramesOfInactiveAnimations() {
+    AnimationBackend animationBackend1 = createAnimationBackend(FRAME_DURATION_MS);
+    AnimationBackend animationBackend2 = createAnimationBackend(FRAME_DURATION_MS);
+    DefaultBitmapFramePreparer bitmapFramePreparer1 = mock(DefaultBitmapFramePreparer.class);
+    when(bitmapFramePreparer1.cancelPendingFrames(animationBackend1)).thenReturn(3);
+    BitmapFramePreparer bitmapFramePreparer2 = createBitmapFramePreparer();
+
+    mScheduler.prepareFrames(bitmapFramePreparer1, mBitmapFrameCache, animationBackend1, 0);
+    mFakeClock.incrementBy(INACTIVITY_THRESHOLD_MS + 1);
+    mScheduler.prepareFrames(bitmapFramePreparer2, mBitmapFrameCache, animationBackend2, 0);
+
+    verify(bitmapFramePreparer1).cancelPendingFrames(animationBackend1);
+    AnimationFramePreparationScheduler.Stats stats = mScheduler.getStats();
+    assertEquals(1, stats.activeAnimations);
+    assertEquals(3, stats.cancelledFrames);
+  }
+
+  @Test
+  public void testDoesNotExceedBudget() {
+    for (int i = 0; i < MAX_FRAMES_TO_PREPARE; i++) {
+      mScheduler.getExecutorService().execute(mock(Runnable.class));
+    }
+    AnimationBackend animationBackend = createAnimationBackend(FRAME_DURATION_MS);
+    BitmapFramePreparer bitmapFramePreparer = createBitmapFramePreparer();
+
+    mScheduler.prepareFrames(bitmapFramePreparer, mBitmapFrameCache, animationBackend, 0);
+
+    verify(bitmapFramePreparer, never())
+        .prepareFrame(any(BitmapFrameCache.class), any(AnimationBackend.class), anyInt());
+  }
+
+  @Test
+  public void testQueueAndLatencyStats() {
+    mScheduler.getExecutorService().execute(mock(Runnable.class));
+    mFakeClock.incrementBy(10);
+    mScheduler.getExecutorService().execute(mock(Runnable.class));
+    assertEquals(2, mScheduler.getStats().queuedFrames);
+
+    mFakeClock.incrementBy(20);
+    mExecutorService.runUntilIdle();
+
+    AnimationFramePreparationScheduler.Stats stats = mScheduler.getStats();
+    assertEquals(0, stats.queuedFrames);
+    assertEquals(2, stats.finishedFrames);
+    assertEquals(25, stats.averageLatencyMs);
+    assertEquals(30, stats.maxLatencyMs);
+  }
+
+  @Test
+  public void testLatencyExcludesPreparationTime() {
+    final AnimationFramePreparationScheduler.Stats[] statsWhileRunning =
+        new AnimationFramePreparationScheduler.Stats[1];
+    mScheduler
+        .getExecutorService()
+        .execute(
+            new Runnable() {
+              @Override
+              public void run() {
+                statsWhileRunning[0] = mScheduler.getStats();
+                mFakeClock.incrementBy(50);
+              }
+            });
+    mFakeClock.incrementBy(10);
+
+    mExecutorService.runUntilIdle();
+
+    assertEquals(0, statsWhileRunning[0].queuedFrames);
+    assertEquals(1, statsWhileRunning[0].runningFrames);
+    AnimationFramePreparationScheduler.Stats stats = mScheduler.getStats();
+    assertEquals(0, stats.runningFrames);
+    assertEquals(1, stats.finishedFrames);
+    assertEquals(10, stats.averageLatencyMs);
+    assertEquals(10, stats.maxLatencyMs);
+  }
+
+  @Test
+  public void testCancelsFramesWhenAnimationBecomesInactive() {
+    AnimationBackend animationBackend = createAnimationBackend(FRAME_DURATION_MS);
+    DefaultBitmapFramePreparer bitmapFramePreparer = mock(DefaultBitmapFramePreparer.class);
+    when(bitmapFramePreparer.cancelPendingFrames(animationBackend)).thenReturn(2);
+
+    mScheduler.prepareFrames(bitmapFramePreparer, mBitmapFrameCache, animationBackend, 0);
+    mScheduler.onAnimationInactive(animationBackend);
+
+    verify(bitmapFramePreparer).cancelPendingFrames(animationBackend);
+    AnimationFramePreparationScheduler.Stats stats = mScheduler.getStats();
+    assertEquals(0, stats.activeAnimations);
+    assertEquals(2, stats.cancelledFrames);
+  }
+
+  @Test
+  public void testStatsDropInactiveAnimations() {
+    AnimationBackend animationBackend = createAnimationBackend(FRAME_DURATION_MS);
+    mScheduler.prepareFrames(createBitmapFramePreparer(), mBitmapFrameCache, animationBackend, 0);
+    assertEquals(1, mScheduler.getStats().activeAnimations);
+
+    mFakeClock.incrementBy(INACTIVITY_THRESHOLD_MS + 1);
+
+    assertEquals(0, mScheduler.getStats().activeAnimations);
+  }
+
+  private AnimationBackend createAnimationBackend(int frameDurationMs) {
+    AnimationBackend animationBackend = mock(AnimationBackend.class);
+    when(animationBackend.getFrameCount()).thenReturn(FRAME_COUNT);
+    when(animationBackend.getFrameDurationMs(anyInt())).thenReturn(frameDurationMs);
+    return animationBackend;
+  }
+
+  private BitmapFramePreparer createBitmapFramePreparer() {
+    BitmapFramePreparer bitmapFramePreparer = mock(BitmapFramePreparer.class);
+    when(bitmapFramePreparer.prepareFrame(
+            any(BitmapFrameCache.class), any(AnimationBackend.class), anyInt()))
+        .thenReturn(true);
+    return bitmapFramePreparer;
+  }
+
+  private void verifyPrepareCalledForFramesInOrder(
+      BitmapFramePreparer bitmapFramePreparer,
+      AnimationBackend animationBackend,
+      int... frameNumbers) {
+    InOrder inOrder = inOrder(bitmapFramePreparer);
+    for (int frameNumber : frameNumbers) {
+      inOrder
+          .verify(bitmapFramePreparer)
+          .prepareFrame(eq(mBitmapFrameCache), eq(animationBackend), eq(frameNumber));
+    }
+  }
+}
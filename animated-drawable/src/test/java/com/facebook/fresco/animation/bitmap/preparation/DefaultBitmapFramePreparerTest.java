@@ -8,6 +8,7 @@
 package com.facebook.fresco.animation.bitmap.preparation;
 
 import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -198,4 +199,23 @@ public class DefaultBitmapFramePreparerTest {
 
     verifyNoMoreInteractions(mBitmapFrameCache);
   }
+
+  @Test
+  public void testCancelPendingFrames_thenSkipFrames() {
+    AnimationBackend otherAnimationBackend = mock(AnimationBackend.class);
+    mDefaultBitmapFramePreparer.prepareFrame(mBitmapFrameCache, mAnimationBackend, 1);
+    mDefaultBitmapFramePreparer.prepareFrame(mBitmapFrameCache, mAnimationBackend, 2);
+    mDefaultBitmapFramePreparer.prepareFrame(mBitmapFrameCache, otherAnimationBackend, 1);
+
+    assertThat(mDefaultBitmapFramePreparer.cancelPendingFrames(mAnimationBackend)).isEqualTo(2);
+    reset(mBitmapFrameCache);
+    mExecutorService.getScheduledQueue().runNextPendingCommand();
+    mExecutorService.getScheduledQueue().runNextPendingCommand();
+
+    verifyZeroInteractions(mBitmapFrameCache, mPlatformBitmapFactory, mBitmapFrameRenderer);
+
+    // frames can be scheduled again once cancelled
+    mDefaultBitmapFramePreparer.prepareFrame(mBitmapFrameCache, mAnimationBackend, 1);
+    assertThat(mExecutorService.getPendingCount()).isEqualTo(2);
+  }
 }
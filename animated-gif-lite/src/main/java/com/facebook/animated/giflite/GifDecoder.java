@@ -9,6 +9,8 @@ package com.facebook.animated.giflite;
 
 import android.graphics.Movie;
 import com.facebook.animated.giflite.decoder.GifMetadataDecoder;
+import com.facebook.animated.giflite.decoder.GifStructureIndex;
+import com.facebook.animated.giflite.decoder.GifStructureIndexer;
 import com.facebook.animated.giflite.draw.MovieAnimatedImage;
 import com.facebook.animated.giflite.draw.MovieDrawer;
 import com.facebook.animated.giflite.draw.MovieFrame;
@@ -28,6 +30,15 @@ import java.io.InputStream;
 /** A simple Gif decoder that uses Android's {@link Movie} class to decode Gif images. */
 public class GifDecoder implements ImageDecoder {
 
+  /** Indexers reuse their arrays between gifs but aren't thread safe, so each thread has its own */
+  private static final ThreadLocal<GifStructureIndexer> sGifStructureIndexer =
+      new ThreadLocal<GifStructureIndexer>() {
+        @Override
+        protected GifStructureIndexer initialValue() {
+          return new GifStructureIndexer();
+        }
+      };
+
   @Override
   public CloseableImage decode(
       final EncodedImage encodedImage,
@@ -36,13 +47,17 @@ public class GifDecoder implements ImageDecoder {
       ImageDecodeOptions options) {
     InputStream is = encodedImage.getInputStream();
     try {
-      ByteArrayOutputStream out = new ByteArrayOutputStream();
-
-      GifMetadataDecoder decoder = GifMetadataDecoder.create(is, out);
+      GifStructureIndex index = sGifStructureIndexer.get().index(is);
 
-      if (out.size() > 0) { // let's use the fixed gif version if exists
-        is.close();
-        is = new ByteArrayInputStream(out.toByteArray());
+      if (index.hasUnspecifiedFrameDurations()) {
+        // Movie doesn't give a default duration to frames without one, so let's fix the gif
+        is.reset();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GifMetadataDecoder.create(is, out);
+        if (out.size() > 0) {
+          is.close();
+          is = new ByteArrayInputStream(out.toByteArray());
+        }
       }
 
       is.reset();
@@ -51,10 +66,10 @@ public class GifDecoder implements ImageDecoder {
 
       MovieDrawer drawer = new MovieDrawer(movie);
 
-      MovieFrame[] frames = new MovieFrame[decoder.getFrameCount()];
+      MovieFrame[] frames = new MovieFrame[index.getFrameCount()];
       int currTime = 0;
       for (int frameNumber = 0, N = frames.length; frameNumber < N; frameNumber++) {
-        int frameDuration = decoder.getFrameDurationMs(frameNumber);
+        int frameDuration = index.getFrameDurationMs(frameNumber);
         currTime += frameDuration;
         frames[frameNumber] =
             new MovieFrame(
@@ -63,13 +78,13 @@ public class GifDecoder implements ImageDecoder {
                 frameDuration,
                 movie.width(),
                 movie.height(),
-                translateFrameDisposal(decoder.getFrameDisposal(frameNumber)));
+                translateFrameDisposal(index.getFrameDisposal(frameNumber)));
       }
 
       return new CloseableAnimatedImage(
           AnimatedImageResult.forAnimatedImage(
               new MovieAnimatedImage(
-                  frames, encodedImage.getSize(), movie.duration(), decoder.getLoopCount())),
+                  frames, encodedImage.getSize(), movie.duration(), index.getLoopCount())),
           false);
     } catch (IOException e) {
       throw new RuntimeException("Error while decoding gif", e);
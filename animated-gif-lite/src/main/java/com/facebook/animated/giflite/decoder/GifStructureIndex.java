@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.animated.giflite.decoder;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The structure of a gif, as found by {@link GifStructureIndexer}: the size of the image, its loop
+ * count, and for every frame its timing, its disposal method, its bounds and the bytes it spans in
+ * the file.
+ *
+ * <p>A frame spans from its graphics control extension, if any, to the end of its image data, so
+ * it can be decoded on its own once the header and the global color table are known. The index
+ * can be written next to the encoded image with {@link #writeTo} and read back with {@link
+ * #readFrom}, to skip parsing the gif again.
+ */
+public class GifStructureIndex {
+
+  private static final int FORMAT_MAGIC = 0x47494649; // "GIFI"
+  private static final int FORMAT_VERSION = 1;
+
+  private final int mWidth;
+  private final int mHeight;
+  private final int mLoopCount;
+  private final int mHeaderLength;
+  private final boolean mHasUnspecifiedFrameDurations;
+  private final int[] mFrameOffsets;
+  private final int[] mFrameLengths;
+  private final int[] mFrameDurationsMs;
+  private final int[] mFrameDisposals;
+  /** x, y, width and height of every frame, one after the other */
+  private final int[] mFrameBounds;
+
+  GifStructureIndex(
+      int width,
+      int height,
+      int loopCount,
+      int headerLength,
+      boolean hasUnspecifiedFrameDurations,
+      int[] frameOffsets,
+      int[] frameLengths,
+      int[] frameDurationsMs,
+      int[] frameDisposals,
+      int[] frameBounds) {
+    mWidth = width;
+    mHeight = height;
+    mLoopCount = loopCount;
+    mHeaderLength = headerLength;
+    mHasUnspecifiedFrameDurations = hasUnspecifiedFrameDurations;
+    mFrameOffsets = frameOffsets;
+    mFrameLengths = frameLengths;
+    mFrameDurationsMs = frameDurationsMs;
+    mFrameDisposals = frameDisposals;
+    mFrameBounds = frameBounds;
+  }
+
+  public int getWidth() {
+    return mWidth;
+  }
+
+  public int getHeight() {
+    return mHeight;
+  }
+
+  public int getLoopCount() {
+    return mLoopCount;
+  }
+
+  /** Returns the length of the header, including the global color table, in bytes. */
+  public int getHeaderLength() {
+    return mHeaderLength;
+  }
+
+  /**
+   * Returns whether a graphics control extension of the gif has no delay. Such frames are given a
+   * default duration, which {@link android.graphics.Movie} doesn't do.
+   */
+  public boolean hasUnspecifiedFrameDurations() {
+    return mHasUnspecifiedFrameDurations;
+  }
+
+  public int getFrameCount() {
+    return mFrameOffsets.length;
+  }
+
+  /** Returns the offset in the file of the first byte of the frame. */
+  public int getFrameOffset(int frameNumber) {
+    return mFrameOffsets[frameNumber];
+  }
+
+  /** Returns the number of bytes of the file the frame spans. */
+  public int getFrameLength(int frameNumber) {
+    return mFrameLengths[frameNumber];
+  }
+
+  public int getFrameDurationMs(int frameNumber) {
+    // For frame number higher than frame count, returning 1 ms ensures that animation backend can
+    // fetch loop duration of a frame correctly in case when some frames do not have correct delay.
+    if (frameNumber >= getFrameCount()) {
+      return 1;
+    }
+    return mFrameDurationsMs[frameNumber];
+  }
+
+  /** Returns the disposal method of the frame, as stored in the gif. */
+  public int getFrameDisposal(int frameNumber) {
+    return mFrameDisposals[frameNumber];
+  }
+
+  public int getFrameXOffset(int frameNumber) {
+    return mFrameBounds[frameNumber * 4];
+  }
+
+  public int getFrameYOffset(int frameNumber) {
+    return mFrameBounds[frameNumber * 4 + 1];
+  }
+
+  public int getFrameWidth(int frameNumber) {
+    return mFrameBounds[frameNumber * 4 + 2];
+  }
+
+  public int getFrameHeight(int frameNumber) {
+    return mFrameBounds[frameNumber * 4 + 3];
+  }
+
+  /** Writes the index to the given stream, in a form that {@link #readFrom} reads back. */
+  public void writeTo(OutputStream os) throws IOException {
+    DataOutputStream out = new DataOutputStream(os);
+    out.writeInt(FORMAT_MAGIC);
+    out.writeInt(FORMAT_VERSION);
+    out.writeInt(mWidth);
+    out.writeInt(mHeight);
+    out.writeInt(mLoopCount);
+    out.writeInt(mHeaderLength);
+    out.writeBoolean(mHasUnspecifiedFrameDurations);
+    final int frameCount = getFrameCount();
+    out.writeInt(frameCount);
+    for (int i = 0; i < frameCount; i++) {
+      out.writeInt(mFrameOffsets[i]);
+      out.writeInt(mFrameLengths[i]);
+      out.writeInt(mFrameDurationsMs[i]);
+      out.writeByte(mFrameDisposals[i]);
+      for (int j = i * 4; j < i * 4 + 4; j++) {
+        out.writeShort(mFrameBounds[j]);
+      }
+    }
+    out.flush();
+  }
+
+  /**
+   * Reads an index written by {@link #writeTo}.
+   *
+   * @throws IOException if the stream doesn't hold an index in the current format
+   */
+  public static GifStructureIndex readFrom(InputStream is) throws IOException {
+    DataInputStream in = new DataInputStream(is);
+    if (in.readInt() != FORMAT_MAGIC || in.readInt() != FORMAT_VERSION) {
+      throw new IOException("Not a gif structure index");
+    }
+    final int width = in.readInt();
+    final int height = in.readInt();
+    final int loopCount = in.readInt();
+    final int headerLength = in.readInt();
+    final boolean hasUnspecifiedFrameDurations = in.readBoolean();
+    final int frameCount = in.readInt();
+    if (frameCount < 0) {
+      throw new IOException("Invalid frame count [" + frameCount + "]");
+    }
+    final int[] frameOffsets = new int[frameCount];
+    final int[] frameLengths = new int[frameCount];
+    final int[] frameDurationsMs = new int[frameCount];
+    final int[] frameDisposals = new int[frameCount];
+    final int[] frameBounds = new int[frameCount * 4];
+    for (int i = 0; i < frameCount; i++) {
+      frameOffsets[i] = in.readInt();
+      frameLengths[i] = in.readInt();
+      frameDurationsMs[i] = in.readInt();
+      frameDisposals[i] = in.readUnsignedByte();
+      for (int j = i * 4; j < i * 4 + 4; j++) {
+        frameBounds[j] = in.readUnsignedShort();
+      }
+    }
+    return new GifStructureIndex(
+        width,
+        height,
+        loopCount,
+        headerLength,
+        hasUnspecifiedFrameDurations,
+        frameOffsets,
+        frameLengths,
+        frameDurationsMs,
+        frameDisposals,
+        frameBounds);
+  }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.animated.giflite.decoder;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import javax.annotation.Nullable;
+
+/**
+ * Finds the structure of a gif in a single pass over the stream, see {@link GifStructureIndex}.
+ *
+ * <p>Unlike {@link GifMetadataDecoder}, only the bytes describing the structure are read: color
+ * tables and image data are skipped without being copied anywhere, and nothing is allocated while
+ * parsing besides the arrays of the index, which are reused across calls. An indexer isn't thread
+ * safe.
+ */
+public class GifStructureIndexer {
+
+  private static final int INITIAL_FRAME_CAPACITY = 16;
+  private static final int DEFAULT_FRAME_DURATION_MS = 100;
+  private static final int NO_OFFSET = -1;
+  private static final byte[] NETSCAPE =
+      new byte[] {'N', 'E', 'T', 'S', 'C', 'A', 'P', 'E', '2', '.', '0'};
+
+  @Nullable private InputStream mInputStream;
+  private int mCurrentOffset;
+
+  private int mWidth;
+  private int mHeight;
+  private int mLoopCount;
+  private int mHeaderLength;
+  private boolean mHasUnspecifiedFrameDurations;
+  private int mFrameDisposal;
+  private int mFrameDurationMs;
+  private int mFrameOffset;
+
+  private int mFrameCount;
+  private int[] mFrameOffsets = new int[INITIAL_FRAME_CAPACITY];
+  private int[] mFrameLengths = new int[INITIAL_FRAME_CAPACITY];
+  private int[] mFrameDurationsMs = new int[INITIAL_FRAME_CAPACITY];
+  private int[] mFrameDisposals = new int[INITIAL_FRAME_CAPACITY];
+  private int[] mFrameBounds = new int[INITIAL_FRAME_CAPACITY * 4];
+
+  /**
+   * Indexes the gif read from the given stream, which is read up to the trailer of the gif.
+   *
+   * @throws IOException if the stream can't be read or doesn't hold a valid gif
+   */
+  public GifStructureIndex index(InputStream is) throws IOException {
+    mInputStream = is;
+    mCurrentOffset = 0;
+    mLoopCount = 1; // default loop count is 1
+    mHasUnspecifiedFrameDurations = false;
+    mFrameDisposal = 0;
+    mFrameDurationMs = 0;
+    mFrameOffset = NO_OFFSET;
+    mFrameCount = 0;
+    try {
+      readHeader();
+      readBlocks();
+    } finally {
+      mInputStream = null;
+    }
+    return new GifStructureIndex(
+        mWidth,
+        mHeight,
+        mLoopCount,
+        mHeaderLength,
+        mHasUnspecifiedFrameDurations,
+        Arrays.copyOf(mFrameOffsets, mFrameCount),
+        Arrays.copyOf(mFrameLengths, mFrameCount),
+        Arrays.copyOf(mFrameDurationsMs, mFrameCount),
+        Arrays.copyOf(mFrameDisposals, mFrameCount),
+        Arrays.copyOf(mFrameBounds, mFrameCount * 4));
+  }
+
+  private void readHeader() throws IOException {
+    boolean valid =
+        readNextByte() == 'G'
+            & readNextByte() == 'I'
+            & readNextByte() == 'F'
+            & readNextByte() == '8';
+    int version = readNextByte();
+    valid &= (version == '7' || version == '9') & readNextByte() == 'a';
+    if (!valid) {
+      throw new IOException("Illegal header for gif");
+    }
+
+    mWidth = readTwoByteInt();
+    mHeight = readTwoByteInt();
+    int fields = readNextByte();
+    skipBytes(2); // bgc index, aspect ratio
+    if ((fields & 0x80) != 0) {
+      skipColorTable(fields);
+    }
+    mHeaderLength = mCurrentOffset;
+  }
+
+  private void readBlocks() throws IOException {
+    while (true) {
+      final int blockOffset = mCurrentOffset;
+      int code = readNextByte();
+      switch (code) {
+        case 0x21: // extension
+          int extCode = readNextByte();
+          switch (extCode) {
+            case 0xff: // application extension
+              readApplicationExtension();
+              break;
+            case 0xf9: // graphics control extension
+              if (mFrameOffset == NO_OFFSET) {
+                mFrameOffset = blockOffset;
+              }
+              readGraphicsControlExtension();
+              break;
+            case 0x01: // plain text extension, counts as a frame
+              readPlainTextExtension(blockOffset);
+              break;
+            default:
+              skipSubBlocks();
+          }
+          break;
+        case 0x2C: // image
+          readImage(blockOffset);
+          break;
+        case 0x3b: // trailer
+          return;
+        default:
+          throw new IOException("Unknown block header [" + Integer.toHexString(code) + "]");
+      }
+    }
+  }
+
+  private void readApplicationExtension() throws IOException {
+    int size = readNextByte();
+    boolean netscape = size == NETSCAPE.length;
+    for (int i = 0; i < size; i++) {
+      int b = readNextByte();
+      netscape &= i < NETSCAPE.length && b == NETSCAPE[i];
+    }
+    if (!netscape) {
+      skipSubBlocks();
+      return;
+    }
+    while ((size = readNextByte()) > 0) {
+      if (size >= 3 && readNextByte() == 1) {
+        mLoopCount = readTwoByteInt();
+        skipBytes(size - 3);
+      } else {
+        skipBytes(size - (size >= 3 ? 1 : 0));
+      }
+    }
+  }
+
+  private void readGraphicsControlExtension() throws IOException {
+    int size = readNextByte();
+    if (size < 3) {
+      throw new IOException("Invalid graphics control extension size [" + size + "]");
+    }
+    int flags = readNextByte();
+    mFrameDisposal = (flags & 0x1c) >> 2;
+    mFrameDurationMs = readTwoByteInt() * 10;
+    if (mFrameDurationMs == 0) {
+      mFrameDurationMs = DEFAULT_FRAME_DURATION_MS;
+      mHasUnspecifiedFrameDurations = true;
+    }
+    skipBytes(size - 3);
+    skipSubBlocks();
+  }
+
+  private void readPlainTextExtension(int blockOffset) throws IOException {
+    int size = readNextByte();
+    if (size < 8) {
+      throw new IOException("Invalid plain text extension size [" + size + "]");
+    }
+    int x = readTwoByteInt();
+    int y = readTwoByteInt();
+    int width = readTwoByteInt();
+    int height = readTwoByteInt();
+    skipBytes(size - 8);
+    skipSubBlocks();
+    addFrame(blockOffset, x, y, width, height);
+  }
+
+  private void readImage(int blockOffset) throws IOException {
+    int x = readTwoByteInt();
+    int y = readTwoByteInt();
+    int width = readTwoByteInt();
+    int height = readTwoByteInt();
+    int flags = readNextByte();
+    if ((flags & 0x80) != 0) {
+      skipColorTable(flags);
+    }
+    skipBytes(1); // LZW minimum code size
+    skipSubBlocks();
+    addFrame(blockOffset, x, y, width, height);
+  }
+
+  private void addFrame(int blockOffset, int x, int y, int width, int height) {
+    if (mFrameCount == mFrameOffsets.length) {
+      final int capacity = mFrameCount * 2;
+      mFrameOffsets = Arrays.copyOf(mFrameOffsets, capacity);
+      mFrameLengths = Arrays.copyOf(mFrameLengths, capacity);
+      mFrameDurationsMs = Arrays.copyOf(mFrameDurationsMs, capacity);
+      mFrameDisposals = Arrays.copyOf(mFrameDisposals, capacity);
+      mFrameBounds = Arrays.copyOf(mFrameBounds, capacity * 4);
+    }
+    final int frameOffset = mFrameOffset != NO_OFFSET ? mFrameOffset : blockOffset;
+    mFrameOffsets[mFrameCount] = frameOffset;
+    mFrameLengths[mFrameCount] = mCurrentOffset - frameOffset;
+    // Like GifMetadataDecoder, a frame without a graphics control extension keeps the previous one
+    mFrameDurationsMs[mFrameCount] = mFrameDurationMs;
+    mFrameDisposals[mFrameCount] = mFrameDisposal;
+    mFrameBounds[mFrameCount * 4] = x;
+    mFrameBounds[mFrameCount * 4 + 1] = y;
+    mFrameBounds[mFrameCount * 4 + 2] = width;
+    mFrameBounds[mFrameCount * 4 + 3] = height;
+    mFrameCount++;
+    mFrameOffset = NO_OFFSET;
+  }
+
+  private void skipColorTable(int fields) throws IOException {
+    skipBytes(3 * (2 << (fields & 7)));
+  }
+
+  private void skipSubBlocks() throws IOException {
+    int size;
+    while ((size = readNextByte()) > 0) {
+      skipBytes(size);
+    }
+  }
+
+  private int readNextByte() throws IOException {
+    int read = mInputStream.read();
+    if (read == -1) {
+      throw new EOFException("Unexpected end of gif file");
+    }
+    mCurrentOffset++;
+    return read;
+  }
+
+  private int readTwoByteInt() throws IOException {
+    return readNextByte() | (readNextByte() << 8);
+  }
+
+  private void skipBytes(int length) throws IOException {
+    while (length > 0) {
+      long skipped = mInputStream.skip(length);
+      if (skipped <= 0) {
+        // skip may not make progress without being at the end of the stream, read instead
+        readNextByte();
+        skipped = 1;
+      } else {
+        mCurrentOffset += skipped;
+      }
+      length -= skipped;
+    }
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.animated.giflite.decoder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests {@link GifStructureIndexer}. */
+@RunWith(JUnit4.class)
+public class GifStructureIndexerTest {
+
+  private static final int HEADER_LENGTH = 19;
+  private static final int FRAME_0_OFFSET = 38;
+  private static final int FRAME_0_LENGTH = 23;
+  private static final int FRAME_1_OFFSET = FRAME_0_OFFSET + FRAME_0_LENGTH;
+  private static final int FRAME_1_LENGTH = 28;
+
+  /** A 2x2 gif looping 5 times, with a full frame and a 1x1 frame without a delay */
+  private static final byte[] GIF =
+      bytes(
+          // header, with a global color table of 2 colors
+          'G', 'I', 'F', '8', '9', 'a', 2, 0, 2, 0, 0x80, 0, 0,
+          0, 0, 0, 0xff, 0xff, 0xff,
+          // netscape extension
+          0x21, 0xff, 11, 'N', 'E', 'T', 'S', 'C', 'A', 'P', 'E', '2', '.', '0',
+          3, 1, 5, 0, 0,
+          // frame 0: disposal to background, 100ms
+          0x21, 0xf9, 4, 0x08, 10, 0, 0, 0,
+          0x2c, 0, 0, 0, 0, 2, 0, 2, 0, 0, 2, 2, 0xaa, 0xbb, 0,
+          // frame 1: no disposal, no delay, with a local color table of 2 colors
+          0x21, 0xf9, 4, 0x04, 0, 0, 0, 0,
+          0x2c, 1, 0, 1, 0, 1, 0, 1, 0, 0x80, 0, 0, 0, 1, 1, 1, 2, 1, 0xcc, 0,
+          // trailer
+          0x3b);
+
+  private GifStructureIndexer mGifStructureIndexer;
+
+  @Before
+  public void setup() {
+    mGifStructureIndexer = new GifStructureIndexer();
+  }
+
+  @Test
+  public void testIndex() throws IOException {
+    GifStructureIndex index = mGifStructureIndexer.index(new ByteArrayInputStream(GIF));
+
+    assertIndex(index);
+  }
+
+  @Test
+  public void testIndex_whenStreamDoesNotSkip() throws IOException {
+    InputStream is =
+        new FilterInputStream(new ByteArrayInputStream(GIF)) {
+          @Override
+          public long skip(long n) {
+            return 0;
+          }
+        };
+
+    assertIndex(mGifStructureIndexer.index(is));
+  }
+
+  @Test
+  public void testIndex_reusesIndexer() throws IOException {
+    mGifStructureIndexer.index(new ByteArrayInputStream(GIF));
+
+    assertIndex(mGifStructureIndexer.index(new ByteArrayInputStream(GIF)));
+  }
+
+  @Test
+  public void testFrameBytesMatchFile() throws IOException {
+    GifStructureIndex index = mGifStructureIndexer.index(new ByteArrayInputStream(GIF));
+
+    assertEquals(0x21, GIF[index.getFrameOffset(1)] & 0xff);
+    assertEquals(0x3b, GIF[index.getFrameOffset(1) + index.getFrameLength(1)] & 0xff);
+  }
+
+  @Test
+  public void testWriteAndRead() throws IOException {
+    GifStructureIndex index = mGifStructureIndexer.index(new ByteArrayInputStream(GIF));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    index.writeTo(out);
+
+    assertIndex(GifStructureIndex.readFrom(new ByteArrayInputStream(out.toByteArray())));
+  }
+
+  @Test(expected = IOException.class)
+  public void testRead_whenNotAnIndex() throws IOException {
+    GifStructureIndex.readFrom(new ByteArrayInputStream(GIF));
+  }
+
+  @Test(expected = IOException.class)
+  public void testIndex_whenNotAGif() throws IOException {
+    byte[] png = Arrays.copyOf(GIF, GIF.length);
+    png[0] = (byte) 0x89;
+
+    mGifStructureIndexer.index(new ByteArrayInputStream(png));
+  }
+
+  @Test(expected = EOFException.class)
+  public void testIndex_whenTruncated() throws IOException {
+    mGifStructureIndexer.index(
+        new ByteArrayInputStream(Arrays.copyOf(GIF, FRAME_1_OFFSET + FRAME_1_LENGTH / 2)));
+  }
+
+  private static void assertIndex(GifStructureIndex index) {
+    assertEquals(2, index.getWidth());
+    assertEquals(2, index.getHeight());
+    assertEquals(5, index.getLoopCount());
+    assertEquals(HEADER_LENGTH, index.getHeaderLength());
+    assertTrue(index.hasUnspecifiedFrameDurations());
+    assertEquals(2, index.getFrameCount());
+
+    assertEquals(FRAME_0_OFFSET, index.getFrameOffset(0));
+    assertEquals(FRAME_0_LENGTH, index.getFrameLength(0));
+    assertEquals(100, index.getFrameDurationMs(0));
+    assertEquals(2, index.getFrameDisposal(0));
+    assertEquals(0, index.getFrameXOffset(0));
+    assertEquals(0, index.getFrameYOffset(0));
+    assertEquals(2, index.getFrameWidth(0));
+    assertEquals(2, index.getFrameHeight(0));
+
+    assertEquals(FRAME_1_OFFSET, index.getFrameOffset(1));
+    assertEquals(FRAME_1_LENGTH, index.getFrameLength(1));
+    assertEquals(100, index.getFrameDurationMs(1));
+    assertEquals(1, index.getFrameDisposal(1));
+    assertEquals(1, index.getFrameXOffset(1));
+    assertEquals(1, index.getFrameYOffset(1));
+    assertEquals(1, index.getFrameWidth(1));
+    assertEquals(1, index.getFrameHeight(1));
+
+    assertEquals(1, index.getFrameDurationMs(2));
+  }
+
+  private static byte[] bytes(int... values) {
+    byte[] bytes = new byte[values.length];
+    for (int i = 0; i < values.length; i++) {
+      bytes[i] = (byte) values[i];
+    }
+    return bytes;
+  }
+}
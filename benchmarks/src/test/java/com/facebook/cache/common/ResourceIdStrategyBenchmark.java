@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.common;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Benchmarks for the computation of the disk cache resource ids of a {@link CacheKey}. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ResourceIdStrategyBenchmark {
+
+  private static final int KEY_COUNT = 1024;
+
+  @Param({"sha1", "murmur3"})
+  public String strategy;
+
+  private ResourceIdStrategy mStrategy;
+  private String[] mUris;
+  private SimpleCacheKey[] mKeys;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    mStrategy =
+        "murmur3".equals(strategy)
+            ? Murmur3ResourceIdStrategy.getInstance()
+            : Sha1ResourceIdStrategy.getInstance();
+    mUris = new String[KEY_COUNT];
+    mKeys = new SimpleCacheKey[KEY_COUNT];
+    for (int i = 0; i < KEY_COUNT; i++) {
+      mUris[i] =
+          "https://scontent.xx.fbcdn.net/v/t1.0-9/" + i + "_n.jpg?_nc_cat=1&oh=0123456789abcdef";
+      mKeys[i] = new SimpleCacheKey(mUris[i]);
+    }
+  }
+
+  /** Hashes a key, as done for every key the first time it reaches the disk cache. */
+  @Benchmark
+  public String getResourceId() {
+    return mStrategy.getResourceId(new SimpleCacheKey(mUris[nextIndex()]));
+  }
+
+  /** Gets the ids of a key that has already been hashed. */
+  @Benchmark
+  public List<String> getMemoizedResourceIds() {
+    return CacheKeyUtil.getResourceIds(mKeys[nextIndex()], mStrategy);
+  }
+
+  private static int nextIndex() {
+    return ThreadLocalRandom.current().nextInt(KEY_COUNT);
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.cache.common.NoOpCacheErrorLogger;
+import com.facebook.cache.common.NoOpCacheEventListener;
+import com.facebook.cache.common.SimpleCacheKey;
+import com.facebook.cache.common.WriterCallback;
+import com.facebook.cache.common.WriterCallbacks;
+import com.facebook.common.disk.NoOpDiskTrimmableRegistry;
+import com.facebook.common.executors.CallerThreadExecutor;
+import com.facebook.common.file.FileTree;
+import com.facebook.common.util.ByteConstants;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmarks for {@link DiskStorageCache} lookups and insertions, backed by a {@link
+ * DefaultDiskStorage} in a temporary directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DiskStorageCacheBenchmark {
+
+  private static final int ENTRY_COUNT = 512;
+  private static final int ENTRY_SIZE = 8 * ByteConstants.KB;
+  private static final long CACHE_SIZE = 64 * ByteConstants.MB;
+
+  @Param({"false", "true"})
+  public boolean lockFreeReads;
+
+  @Param({"false", "true"})
+  public boolean journal;
+
+  private final AtomicInteger mInsertCount = new AtomicInteger();
+
+  private File mDirectory;
+  private DiskStorageCache mCache;
+  private WriterCallback mWriterCallback;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    mDirectory = Files.createTempDirectory("fresco-disk-cache").toFile();
+    byte[] data = new byte[ENTRY_SIZE];
+    new Random(42).nextBytes(data);
+    mWriterCallback = WriterCallbacks.from(data);
+    mCache =
+        new DiskStorageCache(
+            new DefaultDiskStorage(mDirectory, 1, NoOpCacheErrorLogger.getInstance(), journal),
+            new DefaultEntryEvictionComparatorSupplier(),
+            new DiskStorageCache.Params(0, CACHE_SIZE, CACHE_SIZE),
+            NoOpCacheEventListener.getInstance(),
+            NoOpCacheErrorLogger.getInstance(),
+            NoOpDiskTrimmableRegistry.getInstance(),
+            CallerThreadExecutor.getInstance(),
+            true,
+            lockFreeReads);
+    for (int i = 0; i < ENTRY_COUNT; i++) {
+      mCache.insert(key(i), mWriterCallback);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    mCache.clearAll();
+    FileTree.deleteRecursively(mDirectory);
+  }
+
+  /** Reads an entry that is in the cache. */
+  @Benchmark
+  public long getResourceHit() throws IOException {
+    BinaryResource resource =
+        mCache.getResource(key(ThreadLocalRandom.current().nextInt(ENTRY_COUNT)));
+    return resource.size();
+  }
+
+  /** Looks up a key that was never inserted. */
+  @Benchmark
+  public boolean getResourceMiss() {
+    return mCache.getResource(key(-1 - ThreadLocalRandom.current().nextInt(ENTRY_COUNT))) != null;
+  }
+
+  /** Checks the in-memory index for an entry that is in the cache. */
+  @Benchmark
+  public boolean hasKeySync() {
+    return mCache.hasKeySync(key(ThreadLocalRandom.current().nextInt(ENTRY_COUNT)));
+  }
+
+  /** Writes a new entry, evicting the oldest ones once the cache is full. */
+  @Benchmark
+  public long insert() throws IOException {
+    return mCache.insert(key(ENTRY_COUNT + mInsertCount.getAndIncrement()), mWriterCallback).size();
+  }
+
+  private static SimpleCacheKey key(int index) {
+    return new SimpleCacheKey("https://www.facebook.com/images/" + index + ".jpg");
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imageformat;
+
+import com.facebook.imagepipeline.benchmark.SampleImages;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Benchmarks for the detection of the format of an encoded image from its header. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ImageFormatCheckerBenchmark {
+
+  @Param({"jpeg", "png", "gif", "webp"})
+  public String format;
+
+  private byte[] mImage;
+  private byte[] mHeader;
+  private int mHeaderSize;
+  private DefaultImageFormatChecker mDefaultChecker;
+  private ImageFormatChecker mChecker;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    if ("png".equals(format)) {
+      mImage = SampleImages.png();
+    } else if ("gif".equals(format)) {
+      mImage = SampleImages.gif();
+    } else if ("webp".equals(format)) {
+      mImage = SampleImages.extendedWebp(1024);
+    } else {
+      mImage = SampleImages.progressiveJpeg(1, 1024);
+    }
+    mDefaultChecker = new DefaultImageFormatChecker();
+    mHeaderSize = Math.min(mDefaultChecker.getHeaderSize(), mImage.length);
+    mHeader = new byte[mDefaultChecker.getHeaderSize()];
+    System.arraycopy(mImage, 0, mHeader, 0, mHeaderSize);
+    mChecker = ImageFormatChecker.getInstance();
+  }
+
+  /** Matches a header that has already been read against the built-in formats. */
+  @Benchmark
+  public ImageFormat determineFormat() {
+    return mDefaultChecker.determineFormat(mHeader, mHeaderSize);
+  }
+
+  /** Reads the header from a stream and matches it, as done for every encoded image. */
+  @Benchmark
+  public ImageFormat determineImageFormat() throws IOException {
+    return mChecker.determineImageFormat(new ByteArrayInputStream(mImage));
+  }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.animated.impl;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import com.facebook.cache.common.SimpleCacheKey;
+import com.facebook.common.internal.Suppliers;
+import com.facebook.common.memory.NoOpMemoryTrimmableRegistry;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.util.ByteConstants;
+import com.facebook.imagepipeline.animated.base.AnimatedDrawableBackend;
+import com.facebook.imagepipeline.animated.base.AnimatedDrawableFrameInfo;
+import com.facebook.imagepipeline.animated.base.AnimatedDrawableFrameInfo.BlendOperation;
+import com.facebook.imagepipeline.animated.base.AnimatedDrawableFrameInfo.DisposalMethod;
+import com.facebook.imagepipeline.animated.base.AnimatedImageResult;
+import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
+import com.facebook.imagepipeline.bitmaps.SimpleBitmapReleaser;
+import com.facebook.imagepipeline.cache.BitmapCountingMemoryCacheFactory;
+import com.facebook.imagepipeline.cache.MemoryCacheParams;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the time to render a frame after a seek in a long animation, with and without {@link
+ * AnimatedFrameCheckpoints}. Only the first frame of the animation is a key frame, and rendering a
+ * frame costs a fixed amount of CPU, standing in for the native decoder.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AnimatedImageSeekBenchmark {
+
+  private static final int FRAME_COUNT = 100;
+  private static final int SIZE = 100;
+  private static final int SEEK_COUNT = 1024;
+
+  private static final AnimatedImageCompositor.Callback NO_CACHE_CALLBACK =
+      new AnimatedImageCompositor.Callback() {
+        @Override
+        public void onIntermediateResult(int frameNumber, Bitmap bitmap) {}
+
+        @Nullable
+        @Override
+        public CloseableReference<Bitmap> getCachedBitmap(int frameNumber) {
+          return null;
+        }
+      };
+
+  /** Interval between the checkpoints, 0 to composite every frame from the key frame. */
+  @Param({"0", "10"})
+  public int checkpointInterval;
+
+  /** CPU spent rendering a single frame, in JMH tokens. */
+  @Param({"1000"})
+  public int frameRenderTokens;
+
+  private AnimatedImageCompositor mCompositor;
+  private @Nullable AnimatedFrameCheckpoints mCheckpoints;
+  private Bitmap mBitmap;
+  private int[] mSeeks;
+  private int mSeekIndex;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    AnimatedDrawableBackend backend = new FakeAnimatedDrawableBackend(frameRenderTokens);
+    if (checkpointInterval > 0) {
+      MemoryCacheParams params =
+          new MemoryCacheParams(
+              64 * ByteConstants.MB,
+              256,
+              Integer.MAX_VALUE,
+              Integer.MAX_VALUE,
+              Integer.MAX_VALUE,
+              TimeUnit.MINUTES.toMillis(5));
+      AnimatedFrameCache animatedFrameCache =
+          new AnimatedFrameCache(
+              new SimpleCacheKey("animation"),
+              BitmapCountingMemoryCacheFactory.get(
+                  Suppliers.of(params), NoOpMemoryTrimmableRegistry.getInstance()));
+      mCheckpoints =
+          new AnimatedFrameCheckpoints(
+              animatedFrameCache,
+              new PlatformBitmapFactory() {
+                @Override
+                public CloseableReference<Bitmap> createBitmapInternal(
+                    int width, int height, Bitmap.Config bitmapConfig) {
+                  return CloseableReference.of(
+                      Bitmap.createBitmap(width, height, bitmapConfig),
+                      SimpleBitmapReleaser.getInstance());
+                }
+              },
+              checkpointInterval,
+              Integer.MAX_VALUE);
+      mCompositor =
+          new CheckpointingAnimatedImageCompositor(backend, NO_CACHE_CALLBACK, mCheckpoints);
+    } else {
+      mCompositor = new AnimatedImageCompositor(backend, NO_CACHE_CALLBACK);
+    }
+    mBitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+    // the animation has been played through once, so all the checkpoints are taken
+    mCompositor.renderFrame(FRAME_COUNT - 1, mBitmap);
+
+    Random random = new Random(42);
+    mSeeks = new int[SEEK_COUNT];
+    for (int i = 0; i < SEEK_COUNT; i++) {
+      mSeeks[i] = random.nextInt(FRAME_COUNT);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    if (mCheckpoints != null) {
+      mCheckpoints.release();
+    }
+  }
+
+  /** Renders a random frame of the animation, like a seek does. */
+  @Benchmark
+  public Bitmap seek() {
+    final int frameNumber = mSeeks[mSeekIndex];
+    mSeekIndex = (mSeekIndex + 1) % SEEK_COUNT;
+    mCompositor.renderFrame(frameNumber, mBitmap);
+    return mBitmap;
+  }
+
+  /** Animation whose frames cover part of the image and blend with the previous ones. */
+  private static class FakeAnimatedDrawableBackend implements AnimatedDrawableBackend {
+
+    private final int mFrameRenderTokens;
+
+    FakeAnimatedDrawableBackend(int frameRenderTokens) {
+      mFrameRenderTokens = frameRenderTokens;
+    }
+
+    @Override
+    public AnimatedImageResult getAnimatedImageResult() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int getDurationMs() {
+      return FRAME_COUNT * 100;
+    }
+
+    @Override
+    public int getFrameCount() {
+      return FRAME_COUNT;
+    }
+
+    @Override
+    public int getLoopCount() {
+      return 0;
+    }
+
+    @Override
+    public int getWidth() {
+      return SIZE;
+    }
+
+    @Override
+    public int getHeight() {
+      return SIZE;
+    }
+
+    @Override
+    public int getRenderedWidth() {
+      return SIZE;
+    }
+
+    @Override
+    public int getRenderedHeight() {
+      return SIZE;
+    }
+
+    @Override
+    public AnimatedDrawableFrameInfo getFrameInfo(int frameNumber) {
+      return new AnimatedDrawableFrameInfo(
+          frameNumber,
+          1,
+          1,
+          SIZE - 1,
+          SIZE - 1,
+          BlendOperation.BLEND_WITH_PREVIOUS,
+          DisposalMethod.DISPOSE_DO_NOT);
+    }
+
+    @Override
+    public void renderFrame(int frameNumber, Canvas canvas) {
+      Blackhole.consumeCPU(mFrameRenderTokens);
+    }
+
+    @Override
+    public int getFrameForTimestampMs(int timestampMs) {
+      return (timestampMs / 100) % FRAME_COUNT;
+    }
+
+    @Override
+    public int getTimestampMsForFrame(int frameNumber) {
+      return frameNumber * 100;
+    }
+
+    @Override
+    public int getDurationMsForFrame(int frameNumber) {
+      return 100;
+    }
+
+    @Override
+    public int getFrameForPreview() {
+      return 0;
+    }
+
+    @Override
+    public AnimatedDrawableBackend forNewBounds(Rect bounds) {
+      return this;
+    }
+
+    @Override
+    public int getMemoryUsage() {
+      return 0;
+    }
+
+    @Nullable
+    @Override
+    public CloseableReference<Bitmap> getPreDecodedFrame(int frameNumber) {
+      return null;
+    }
+
+    @Override
+    public boolean hasPreDecodedFrame(int frameNumber) {
+      return false;
+    }
+
+    @Override
+    public void dropCaches() {}
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.benchmark;
+
+import static org.junit.Assume.assumeNotNull;
+
+import java.io.File;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Runs the JMH benchmarks of this module inside the Robolectric sandbox, so that the framework
+ * classes they reach behave like they do in the unit tests of the libraries.
+ *
+ * <p>The benchmarks are not forked, as a forked JVM would leave the sandbox, and are run once for
+ * every thread count given in {@code fresco.benchmark.threads}. Skipped unless {@code
+ * fresco.benchmark.include} is set, see build.gradle.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BenchmarkRunnerTest {
+
+  private static final int WARMUP_ITERATIONS = 3;
+  private static final int MEASUREMENT_ITERATIONS = 5;
+
+  @Test
+  public void runBenchmarks() throws Exception {
+    String include = System.getProperty("fresco.benchmark.include");
+    assumeNotNull(include);
+    File resultDir = new File(System.getProperty("fresco.benchmark.resultDir", "."));
+    resultDir.mkdirs();
+
+    for (String threads : System.getProperty("fresco.benchmark.threads", "1").split(",")) {
+      int threadCount = Integer.parseInt(threads.trim());
+      ChainedOptionsBuilder options =
+          new OptionsBuilder()
+              .forks(0)
+              .threads(threadCount)
+              .warmupIterations(WARMUP_ITERATIONS)
+              .measurementIterations(MEASUREMENT_ITERATIONS)
+              .resultFormat(ResultFormatType.JSON)
+              .result(new File(resultDir, "threads-" + threadCount + ".json").getPath());
+      if (!include.isEmpty()) {
+        options.include(include);
+      }
+      new Runner(options.build()).run();
+    }
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.benchmark;
+
+import com.facebook.common.memory.PooledByteBuffer;
+import java.nio.ByteBuffer;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link PooledByteBuffer} exposing the first {@code size} bytes of a byte array, as an encoded
+ * image that is still being downloaded.
+ */
+public class ByteArrayPooledByteBuffer implements PooledByteBuffer {
+
+  private final byte[] mData;
+  private final int mSize;
+  private boolean mClosed;
+
+  public ByteArrayPooledByteBuffer(byte[] data, int size) {
+    mData = data;
+    mSize = size;
+  }
+
+  @Override
+  public int size() {
+    return mSize;
+  }
+
+  @Override
+  public byte read(int offset) {
+    return mData[offset];
+  }
+
+  @Override
+  public int read(int offset, byte[] buffer, int bufferOffset, int length) {
+    int count = Math.min(length, mSize - offset);
+    System.arraycopy(mData, offset, buffer, bufferOffset, count);
+    return count;
+  }
+
+  @Override
+  public long getNativePtr() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  @Nullable
+  public ByteBuffer getByteBuffer() {
+    return null;
+  }
+
+  @Override
+  public void close() {
+    mClosed = true;
+  }
+
+  @Override
+  public boolean isClosed() {
+    return mClosed;
+  }
+}
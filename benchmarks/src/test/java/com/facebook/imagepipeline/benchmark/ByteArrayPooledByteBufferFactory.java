@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.benchmark;
+
+import com.facebook.common.internal.ByteStreams;
+import com.facebook.common.memory.PooledByteBuffer;
+import com.facebook.common.memory.PooledByteBufferFactory;
+import com.facebook.common.memory.PooledByteBufferOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A {@link PooledByteBufferFactory} that reads streams into plain byte arrays, so that the
+ * benchmarks measure the code reading the bytes rather than a memory pool.
+ */
+public class ByteArrayPooledByteBufferFactory implements PooledByteBufferFactory {
+
+  private static final int DEFAULT_INITIAL_CAPACITY = 16 * 1024;
+
+  @Override
+  public PooledByteBuffer newByteBuffer(int size) {
+    return new ByteArrayPooledByteBuffer(new byte[size], size);
+  }
+
+  @Override
+  public PooledByteBuffer newByteBuffer(InputStream inputStream) throws IOException {
+    return newByteBuffer(inputStream, DEFAULT_INITIAL_CAPACITY);
+  }
+
+  @Override
+  public PooledByteBuffer newByteBuffer(byte[] bytes) {
+    return new ByteArrayPooledByteBuffer(bytes, bytes.length);
+  }
+
+  @Override
+  public PooledByteBuffer newByteBuffer(InputStream inputStream, int initialCapacity)
+      throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream(initialCapacity);
+    ByteStreams.copy(inputStream, outputStream);
+    return newByteBuffer(outputStream.toByteArray());
+  }
+
+  @Override
+  public PooledByteBufferOutputStream newOutputStream() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public PooledByteBufferOutputStream newOutputStream(int initialCapacity) {
+    throw new UnsupportedOperationException();
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+/**
+ * Synthetic encoded images for the benchmarks.
+ *
+ * <p>The images are only structurally valid: their headers and segments are well formed, so that
+ * they exercise the same parsing paths as real images, but their entropy-coded data is random and
+ * they can't be decoded.
+ */
+public final class SampleImages {
+
+  public static final int WIDTH = 1024;
+  public static final int HEIGHT = 768;
+
+  /** EXIF orientation stored in the JPEG samples: rotated by 90 degrees. */
+  public static final int EXIF_ORIENTATION = 6;
+
+  private static final long SEED = 42;
+
+  private SampleImages() {}
+
+  /**
+   * Returns a progressive JPEG with an APP1 EXIF segment, followed by {@code scanCount} scans of
+   * {@code scanSize} bytes each.
+   */
+  public static byte[] progressiveJpeg(int scanCount, int scanSize) {
+    Random random = new Random(SEED);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    // SOI
+    out.write(0xFF);
+    out.write(0xD8);
+    // APP1 with a big endian TIFF header, holding a single IFD with the orientation
+    byte[] tiff = {
+      'M', 'M', 0x00, 0x2A, 0, 0, 0, 8, // byte order, first IFD offset
+      0, 2, // entry count
+      0x01, 0x0F, 0, 2, 0, 0, 0, 4, 'F', 'B', 'K', 0, // make
+      0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, EXIF_ORIENTATION, 0, 0, // orientation
+      0, 0, 0, 0, // next IFD offset
+    };
+    writeSegment(out, 0xE1, concat(new byte[] {'E', 'x', 'i', 'f', 0, 0}, tiff));
+    // DQT
+    byte[] quantizationTable = new byte[65];
+    random.nextBytes(quantizationTable);
+    quantizationTable[0] = 0;
+    writeSegment(out, 0xDB, quantizationTable);
+    // SOF2
+    writeSegment(
+        out,
+        0xC2,
+        new byte[] {
+          8,
+          (byte) (HEIGHT >> 8),
+          (byte) HEIGHT,
+          (byte) (WIDTH >> 8),
+          (byte) WIDTH,
+          3,
+          1, 0x22, 0,
+          2, 0x11, 0,
+          3, 0x11, 0,
+        });
+    for (int scan = 0; scan < scanCount; scan++) {
+      // SOS, followed by the entropy-coded data of the scan
+      writeSegment(out, 0xDA, new byte[] {3, 1, 0, 2, 0x11, 3, 0x11, 0, 63, 0});
+      for (int i = 0; i < scanSize; i++) {
+        int value = random.nextInt(256);
+        out.write(value);
+        if (value == 0xFF) {
+          // byte stuffing
+          out.write(0x00);
+        }
+      }
+    }
+    // EOI
+    out.write(0xFF);
+    out.write(0xD9);
+    return out.toByteArray();
+  }
+
+  /** Returns an extended (VP8X) WebP header followed by {@code payloadSize} bytes. */
+  public static byte[] extendedWebp(int payloadSize) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeAscii(out, "RIFF");
+    writeIntLittleEndian(out, 4 + 8 + 10 + payloadSize);
+    writeAscii(out, "WEBP");
+    writeAscii(out, "VP8X");
+    writeIntLittleEndian(out, 10);
+    writeIntLittleEndian(out, 0); // flags and reserved bytes
+    write3BytesLittleEndian(out, WIDTH - 1);
+    write3BytesLittleEndian(out, HEIGHT - 1);
+    byte[] payload = new byte[payloadSize];
+    new Random(SEED).nextBytes(payload);
+    out.write(payload, 0, payload.length);
+    return out.toByteArray();
+  }
+
+  /** Returns a PNG signature and IHDR chunk. */
+  public static byte[] png() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(new byte[] {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'}, 0, 8);
+    writeIntBigEndian(out, 13);
+    writeAscii(out, "IHDR");
+    writeIntBigEndian(out, WIDTH);
+    writeIntBigEndian(out, HEIGHT);
+    out.write(new byte[] {8, 6, 0, 0, 0}, 0, 5);
+    writeIntBigEndian(out, 0); // CRC, not checked
+    return out.toByteArray();
+  }
+
+  /** Returns a GIF89a header and logical screen descriptor. */
+  public static byte[] gif() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeAscii(out, "GIF89a");
+    out.write(WIDTH & 0xFF);
+    out.write(WIDTH >> 8);
+    out.write(HEIGHT & 0xFF);
+    out.write(HEIGHT >> 8);
+    out.write(new byte[] {0, 0, 0}, 0, 3);
+    return out.toByteArray();
+  }
+
+  private static void writeSegment(ByteArrayOutputStream out, int marker, byte[] payload) {
+    out.write(0xFF);
+    out.write(marker);
+    int length = payload.length + 2;
+    out.write(length >> 8);
+    out.write(length & 0xFF);
+    out.write(payload, 0, payload.length);
+  }
+
+  private static void writeAscii(ByteArrayOutputStream out, String value) {
+    for (int i = 0; i < value.length(); i++) {
+      out.write(value.charAt(i));
+    }
+  }
+
+  private static void writeIntBigEndian(ByteArrayOutputStream out, int value) {
+    out.write(value >>> 24);
+    out.write(value >>> 16);
+    out.write(value >>> 8);
+    out.write(value);
+  }
+
+  private static void writeIntLittleEndian(ByteArrayOutputStream out, int value) {
+    write3BytesLittleEndian(out, value);
+    out.write(value >>> 24);
+  }
+
+  private static void write3BytesLittleEndian(ByteArrayOutputStream out, int value) {
+    out.write(value);
+    out.write(value >>> 8);
+    out.write(value >>> 16);
+  }
+
+  private static byte[] concat(byte[] first, byte[] second) {
+    byte[] result = new byte[first.length + second.length];
+    System.arraycopy(first, 0, result, 0, first.length);
+    System.arraycopy(second, 0, result, first.length, second.length);
+    return result;
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.cache.common.NoOpCacheErrorLogger;
+import com.facebook.cache.common.NoOpCacheEventListener;
+import com.facebook.cache.common.SimpleCacheKey;
+import com.facebook.cache.common.WriterCallbacks;
+import com.facebook.cache.disk.DefaultDiskStorage;
+import com.facebook.cache.disk.DefaultEntryEvictionComparatorSupplier;
+import com.facebook.cache.disk.DiskStorageCache;
+import com.facebook.common.disk.NoOpDiskTrimmableRegistry;
+import com.facebook.common.executors.CallerThreadExecutor;
+import com.facebook.common.file.FileTree;
+import com.facebook.common.memory.ByteArrayPool;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.memory.PooledByteStreams;
+import com.facebook.common.util.ByteConstants;
+import com.facebook.imagepipeline.benchmark.ByteArrayPooledByteBufferFactory;
+import com.facebook.imagepipeline.image.EncodedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmarks for {@link BufferedDiskCache} hits read in parallel, backed by a {@link
+ * DiskStorageCache} in a temporary directory. The reads run on the benchmark threads, so run it
+ * with several thread counts to see how the disk cache scales with concurrent readers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BufferedDiskCacheBenchmark {
+
+  private static final int ENTRY_COUNT = 512;
+  private static final int ENTRY_SIZE = 32 * ByteConstants.KB;
+  private static final long CACHE_SIZE = 64 * ByteConstants.MB;
+
+  @Param({"false", "true"})
+  public boolean lockFreeReads;
+
+  /** The minimum size of the memory mapped files, -1 to copy every file */
+  @Param({"-1", "0"})
+  public int memoryMappedReadMinSize;
+
+  private final AtomicBoolean mIsCancelled = new AtomicBoolean();
+
+  private File mDirectory;
+  private DiskStorageCache mFileCache;
+  private BufferedDiskCache mBufferedDiskCache;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    mDirectory = Files.createTempDirectory("fresco-buffered-disk-cache").toFile();
+    byte[] data = new byte[ENTRY_SIZE];
+    new Random(42).nextBytes(data);
+    mFileCache =
+        new DiskStorageCache(
+            new DefaultDiskStorage(mDirectory, 1, NoOpCacheErrorLogger.getInstance()),
+            new DefaultEntryEvictionComparatorSupplier(),
+            new DiskStorageCache.Params(0, CACHE_SIZE, CACHE_SIZE),
+            NoOpCacheEventListener.getInstance(),
+            NoOpCacheErrorLogger.getInstance(),
+            NoOpDiskTrimmableRegistry.getInstance(),
+            CallerThreadExecutor.getInstance(),
+            true,
+            lockFreeReads);
+    // the entries are written straight to the disk cache, so that every read goes to disk
+    for (int i = 0; i < ENTRY_COUNT; i++) {
+      mFileCache.insert(key(i), WriterCallbacks.from(data));
+    }
+    mBufferedDiskCache =
+        new BufferedDiskCache(
+            mFileCache,
+            new ByteArrayPooledByteBufferFactory(),
+            new PooledByteStreams(new UnpooledByteArrayPool()),
+            CallerThreadExecutor.getInstance(),
+            CallerThreadExecutor.getInstance(),
+            NoOpImageCacheStatsTracker.getInstance(),
+            memoryMappedReadMinSize);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    mFileCache.clearAll();
+    FileTree.deleteRecursively(mDirectory);
+  }
+
+  /** Reads an image that is in the disk cache, on the calling thread. */
+  @Benchmark
+  public int getHit() {
+    EncodedImage encodedImage =
+        mBufferedDiskCache
+            .get(key(ThreadLocalRandom.current().nextInt(ENTRY_COUNT)), mIsCancelled)
+            .getResult();
+    try {
+      return encodedImage.getSize();
+    } finally {
+      EncodedImage.closeSafely(encodedImage);
+    }
+  }
+
+  /** Looks up an image that was never cached. */
+  @Benchmark
+  public boolean getMiss() {
+    EncodedImage encodedImage =
+        mBufferedDiskCache
+            .get(key(-1 - ThreadLocalRandom.current().nextInt(ENTRY_COUNT)), mIsCancelled)
+            .getResult();
+    return encodedImage != null;
+  }
+
+  private static SimpleCacheKey key(int index) {
+    return new SimpleCacheKey("https://www.facebook.com/images/" + index + ".jpg");
+  }
+
+  /** Only used for writes, which aren't measured. */
+  private static class UnpooledByteArrayPool implements ByteArrayPool {
+    @Override
+    public byte[] get(int size) {
+      return new byte[size];
+    }
+
+    @Override
+    public void release(byte[] value) {}
+
+    @Override
+    public void trim(MemoryTrimType trimType) {}
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.internal.Suppliers;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmarks for {@link CountingMemoryCache} lookups, insertions and evictions.
+ *
+ * <p>With a {@code segmentCount} greater than one, the cache is a {@link
+ * SegmentedCountingMemoryCache}, which shows how lock striping scales with the number of threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CountingMemoryCacheBenchmark {
+
+  private static final int VALUE_SIZE = 1024;
+
+  private static final ResourceReleaser<Integer> NO_OP_RELEASER =
+      new ResourceReleaser<Integer>() {
+        @Override
+        public void release(Integer value) {}
+      };
+
+  private static final ValueDescriptor<Integer> VALUE_DESCRIPTOR =
+      new ValueDescriptor<Integer>() {
+        @Override
+        public int getSizeInBytes(Integer value) {
+          return value;
+        }
+      };
+
+  @Param({"1", "8"})
+  public int segmentCount;
+
+  /** Number of distinct keys, half of which fit in the cache. */
+  @Param({"1024"})
+  public int keyCount;
+
+  private CountingMemoryCache<String, Integer> mCache;
+  private String[] mKeys;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    int capacity = keyCount / 2;
+    Supplier<MemoryCacheParams> params =
+        Suppliers.of(
+            new MemoryCacheParams(
+                capacity * VALUE_SIZE,
+                capacity,
+                capacity * VALUE_SIZE,
+                capacity,
+                VALUE_SIZE,
+                TimeUnit.MINUTES.toMillis(5)));
+    mCache =
+        segmentCount > 1
+            ? new SegmentedCountingMemoryCache<String, Integer>(
+                VALUE_DESCRIPTOR, new NativeMemoryCacheTrimStrategy(), params, segmentCount)
+            : new CountingMemoryCache<String, Integer>(
+                VALUE_DESCRIPTOR, new NativeMemoryCacheTrimStrategy(), params);
+    mKeys = new String[keyCount];
+    for (int i = 0; i < keyCount; i++) {
+      mKeys[i] = "https://www.facebook.com/images/" + i + ".jpg";
+    }
+    for (int i = 0; i < capacity; i++) {
+      cacheExclusive(mKeys[i]);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    mCache.clear();
+  }
+
+  /** Looks up a key that is in the cache. */
+  @Benchmark
+  public boolean getHit() {
+    return getAndClose(mKeys[ThreadLocalRandom.current().nextInt(keyCount / 2)]);
+  }
+
+  /**
+   * Looks up a random key and inserts it on a miss, which evicts the least recently used entry once
+   * the cache is full.
+   */
+  @Benchmark
+  public boolean getOrCache() {
+    String key = mKeys[ThreadLocalRandom.current().nextInt(keyCount)];
+    if (getAndClose(key)) {
+      return true;
+    }
+    cacheExclusive(key);
+    return false;
+  }
+
+  private boolean getAndClose(String key) {
+    CloseableReference<Integer> ref = mCache.get(key);
+    if (ref == null) {
+      return false;
+    }
+    ref.close();
+    return true;
+  }
+
+  private void cacheExclusive(String key) {
+    CloseableReference<Integer> original = CloseableReference.of(VALUE_SIZE, NO_OP_RELEASER);
+    CloseableReference.closeSafely(mCache.cache(key, original));
+    original.close();
+  }
+}
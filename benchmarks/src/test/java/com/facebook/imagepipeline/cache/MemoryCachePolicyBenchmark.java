@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.common.internal.Suppliers;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Replays a trace of memory cache lookups against each {@link MemoryCacheParams.EvictionPolicy}.
+ *
+ * <p>The trace mixes images whose popularity follows a Zipf distribution, like the avatars and
+ * stickers of a feed, with runs of images that are only seen once, like the photos of a fling
+ * through new content. Every step looks up an image and caches it on a miss, and the {@code hits}
+ * and {@code misses} counters of the results give the hit rate of the policy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MemoryCachePolicyBenchmark {
+
+  private static final int VALUE_SIZE = 1024;
+  private static final int TRACE_LENGTH = 1 << 18;
+  private static final long TRACE_SEED = 42;
+
+  private static final ResourceReleaser<Integer> NO_OP_RELEASER =
+      new ResourceReleaser<Integer>() {
+        @Override
+        public void release(Integer value) {}
+      };
+
+  private static final ValueDescriptor<Integer> VALUE_DESCRIPTOR =
+      new ValueDescriptor<Integer>() {
+        @Override
+        public int getSizeInBytes(Integer value) {
+          return value;
+        }
+      };
+
+  @Param({"LRU", "TINY_LFU"})
+  public MemoryCacheParams.EvictionPolicy evictionPolicy;
+
+  @Param({"512"})
+  public int capacity;
+
+  /** Number of distinct popular images, most of which don't fit in the cache. */
+  @Param({"8192"})
+  public int popularKeyCount;
+
+  /** Number of images seen only once after every 1000 lookups of popular images. */
+  @Param({"0", "500"})
+  public int scanLength;
+
+  private CountingMemoryCache<String, Integer> mCache;
+  private String[] mTrace;
+  private int mPosition;
+
+  /** The lookups of the current iteration, reported next to the throughput. */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Counters {
+    public long hits;
+    public long misses;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      hits = 0;
+      misses = 0;
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    mCache =
+        new CountingMemoryCache<String, Integer>(
+            VALUE_DESCRIPTOR,
+            new NativeMemoryCacheTrimStrategy(),
+            Suppliers.of(
+                new MemoryCacheParams(
+                    capacity * VALUE_SIZE,
+                    capacity,
+                    capacity * VALUE_SIZE,
+                    capacity,
+                    VALUE_SIZE,
+                    TimeUnit.MINUTES.toMillis(5),
+                    evictionPolicy)));
+    mTrace = newTrace();
+    mPosition = 0;
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    mCache.clear();
+  }
+
+  /** Replays the next step of the trace. */
+  @Benchmark
+  public boolean replay(Counters counters) {
+    final String key = mTrace[mPosition];
+    mPosition = (mPosition + 1) % TRACE_LENGTH;
+    final CloseableReference<Integer> ref = mCache.get(key);
+    if (ref != null) {
+      ref.close();
+      counters.hits++;
+      return true;
+    }
+    counters.misses++;
+    final CloseableReference<Integer> original = CloseableReference.of(VALUE_SIZE, NO_OP_RELEASER);
+    CloseableReference.closeSafely(mCache.cache(key, original));
+    original.close();
+    return false;
+  }
+
+  private String[] newTrace() {
+    final Random random = new Random(TRACE_SEED);
+    final double[] cumulativeWeights = new double[popularKeyCount];
+    double totalWeight = 0;
+    for (int i = 0; i < popularKeyCount; i++) {
+      totalWeight += 1 / Math.pow(i + 1, 0.9);
+      cumulativeWeights[i] = totalWeight;
+    }
+    final String[] trace = new String[TRACE_LENGTH];
+    int scanKey = 0;
+    for (int i = 0; i < TRACE_LENGTH; ) {
+      for (int j = 0; j < 1000 && i < TRACE_LENGTH; j++, i++) {
+        int rank = Arrays.binarySearch(cumulativeWeights, random.nextDouble() * totalWeight);
+        rank = rank >= 0 ? rank : -rank - 1;
+        trace[i] = "https://www.facebook.com/images/" + Math.min(rank, popularKeyCount - 1);
+      }
+      for (int j = 0; j < scanLength && i < TRACE_LENGTH; j++, i++) {
+        trace[i] = "https://www.facebook.com/photos/" + scanKey++;
+      }
+    }
+    return trace;
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.decoder;
+
+import com.facebook.common.memory.ByteArrayPool;
+import com.facebook.common.memory.NoOpMemoryTrimmableRegistry;
+import com.facebook.common.memory.PooledByteBuffer;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.benchmark.ByteArrayPooledByteBuffer;
+import com.facebook.imagepipeline.benchmark.SampleImages;
+import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.memory.DefaultByteArrayPoolParams;
+import com.facebook.imagepipeline.memory.GenericByteArrayPool;
+import com.facebook.imagepipeline.memory.NoOpPoolStatsTracker;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmark for {@link ProgressiveJpegParser#parseMoreData}, fed with a progressive JPEG as it
+ * would arrive from the network, one chunk at a time.
+ *
+ * <p>The large images received in small chunks show whether parsing costs more than reading each
+ * byte once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProgressiveJpegParserBenchmark {
+
+  private static final int SCAN_COUNT = 10;
+
+  /** Number of bytes of entropy-coded data of each scan. */
+  @Param({"32768", "262144"})
+  public int scanSize;
+
+  /** Number of bytes received between two calls to the parser. */
+  @Param({"1024", "4096", "65536"})
+  public int chunkSize;
+
+  private byte[] mJpeg;
+  private ByteArrayPool mByteArrayPool;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    mJpeg = SampleImages.progressiveJpeg(SCAN_COUNT, scanSize);
+    mByteArrayPool =
+        new GenericByteArrayPool(
+            NoOpMemoryTrimmableRegistry.getInstance(),
+            DefaultByteArrayPoolParams.get(),
+            NoOpPoolStatsTracker.getInstance());
+  }
+
+  /**
+   * Parses the whole image, passed as all the data received so far, and returns the number of the
+   * last complete scan found.
+   */
+  @Benchmark
+  public int parseImage() {
+    ProgressiveJpegParser parser = new ProgressiveJpegParser(mByteArrayPool);
+    for (int size = chunkSize; size < mJpeg.length + chunkSize; size += chunkSize) {
+      CloseableReference<PooledByteBuffer> ref =
+          CloseableReference.<PooledByteBuffer>of(
+              new ByteArrayPooledByteBuffer(mJpeg, Math.min(size, mJpeg.length)));
+      EncodedImage encodedImage = new EncodedImage(ref);
+      try {
+        parser.parseMoreData(encodedImage);
+      } finally {
+        EncodedImage.closeSafely(encodedImage);
+        ref.close();
+      }
+    }
+    return parser.getBestScanNumber();
+  }
+
+  /** Parses the whole image, pushed one chunk at a time. */
+  @Benchmark
+  public int pushImage() {
+    ProgressiveJpegParser parser = new ProgressiveJpegParser(mByteArrayPool);
+    for (int offset = 0; offset < mJpeg.length; offset += chunkSize) {
+      parser.parseMoreData(mJpeg, offset, Math.min(chunkSize, mJpeg.length - offset));
+    }
+    return parser.getBestScanNumber();
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import android.util.SparseIntArray;
+import com.facebook.common.memory.NoOpMemoryTrimmableRegistry;
+import com.facebook.common.util.ByteConstants;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Benchmarks for {@link BasePool#get} and {@link BasePool#release}, on a byte array pool. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BasePoolBenchmark {
+
+  private static final int BUCKET_LENGTH = 16;
+
+  /** Requested buffer size, rounded up by the pool to the next bucket size. */
+  @Param({"4000", "65536"})
+  public int size;
+
+  /** Values cached by each thread for every size, 0 to go through the pool lock every time. */
+  @Param({"0", "4"})
+  public int threadCacheLength;
+
+  private GenericByteArrayPool mPool;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    SparseIntArray buckets = new SparseIntArray();
+    for (int bucketSize = 4 * ByteConstants.KB;
+        bucketSize <= 128 * ByteConstants.KB;
+        bucketSize *= 2) {
+      buckets.put(bucketSize, BUCKET_LENGTH);
+    }
+    PoolParams poolParams = new PoolParams(4 * ByteConstants.MB, 16 * ByteConstants.MB, buckets);
+    poolParams.threadCacheLength = threadCacheLength;
+    poolParams.threadCacheMaxSizeInBytes = ByteConstants.MB;
+    mPool =
+        new GenericByteArrayPool(
+            NoOpMemoryTrimmableRegistry.getInstance(),
+            poolParams,
+            NoOpPoolStatsTracker.getInstance());
+  }
+
+  /** Gets a buffer from the pool and releases it right away, the common pattern for I/O buffers. */
+  @Benchmark
+  public int getAndRelease() {
+    byte[] buffer = mPool.get(size);
+    int length = buffer.length;
+    mPool.release(buffer);
+    return length;
+  }
+
+  /**
+   * Holds two buffers of different sizes at once, like a decode reading from a network buffer into
+   * a larger output buffer, while the other threads do the same.
+   */
+  @Benchmark
+  public int getTwoAndRelease() {
+    byte[] input = mPool.get(size);
+    byte[] output = mPool.get(2 * size);
+    int length = input.length + output.length;
+    mPool.release(input);
+    mPool.release(output);
+    return length;
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.request.ImageRequest;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmark for the fan-out of {@link MultiplexProducer}: a number of consumers request the same
+ * key, and the intermediate and final results of the single underlying request are delivered to
+ * all of them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MultiplexProducerBenchmark {
+
+  private static final String PRODUCER_NAME = "MultiplexProducerBenchmark";
+
+  private static final ResourceReleaser<Integer> NO_OP_RELEASER =
+      new ResourceReleaser<Integer>() {
+        @Override
+        public void release(Integer value) {}
+      };
+
+  /** Number of consumers requesting the same key. */
+  @Param({"1", "4", "16"})
+  public int consumerCount;
+
+  private final ThreadLocal<Consumer<CloseableReference<Integer>>> mInputConsumer =
+      new ThreadLocal<>();
+
+  private KeyMultiplexProducer mProducer;
+  private CloseableReference<Integer> mResult;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    mProducer =
+        new KeyMultiplexProducer(
+            new Producer<CloseableReference<Integer>>() {
+              @Override
+              public void produceResults(
+                  Consumer<CloseableReference<Integer>> consumer, ProducerContext context) {
+                // the input producer is started synchronously, by the thread adding the consumer
+                mInputConsumer.set(consumer);
+              }
+            });
+    mResult = CloseableReference.of(42, NO_OP_RELEASER);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    mResult.close();
+  }
+
+  /**
+   * Every thread multiplexes its own key, so with several threads this also measures the
+   * contention between keys.
+   */
+  @Benchmark
+  public int fanOut() {
+    String key = Thread.currentThread().getName();
+    CountingConsumer consumer = new CountingConsumer();
+    for (int i = 0; i < consumerCount; i++) {
+      mProducer.produceResults(consumer, newProducerContext(key));
+    }
+    Consumer<CloseableReference<Integer>> inputConsumer = mInputConsumer.get();
+    inputConsumer.onNewResult(mResult, Consumer.NO_FLAGS);
+    inputConsumer.onNewResult(mResult, Consumer.IS_LAST);
+    return consumer.mResultCount;
+  }
+
+  private static ProducerContext newProducerContext(String key) {
+    return new BaseProducerContext(
+        null,
+        key,
+        NoOpProducerListener.INSTANCE,
+        PRODUCER_NAME,
+        ImageRequest.RequestLevel.FULL_FETCH,
+        false,
+        true,
+        Priority.MEDIUM,
+        null);
+  }
+
+  private static class KeyMultiplexProducer
+      extends MultiplexProducer<String, CloseableReference<Integer>> {
+
+    KeyMultiplexProducer(Producer<CloseableReference<Integer>> inputProducer) {
+      super(inputProducer, PRODUCER_NAME);
+    }
+
+    @Override
+    protected String getKey(ProducerContext producerContext) {
+      return producerContext.getId();
+    }
+
+    @Override
+    protected CloseableReference<Integer> cloneOrNull(CloseableReference<Integer> object) {
+      return CloseableReference.cloneOrNull(object);
+    }
+  }
+
+  /**
+   * Counts the results delivered to all the consumers of an iteration. A single instance is added
+   * once per consumer, so its callbacks are not limited to a single final result.
+   */
+  private static class CountingConsumer implements Consumer<CloseableReference<Integer>> {
+
+    int mResultCount;
+
+    @Override
+    public synchronized void onNewResult(
+        @Nullable CloseableReference<Integer> newResult, @Status int status) {
+      mResultCount++;
+    }
+
+    @Override
+    public void onFailure(Throwable t) {
+      throw new IllegalStateException(t);
+    }
+
+    @Override
+    public void onCancellation() {}
+
+    @Override
+    public void onProgressUpdate(float progress) {}
+  }
+
+  private static class NoOpProducerListener implements ProducerListener2 {
+
+    static final NoOpProducerListener INSTANCE = new NoOpProducerListener();
+
+    @Override
+    public void onProducerStart(ProducerContext producerContext, String producerName) {}
+
+    @Override
+    public void onProducerEvent(
+        ProducerContext producerContext, String producerName, String eventName) {}
+
+    @Override
+    public void onProducerFinishWithSuccess(
+        ProducerContext producerContext,
+        String producerName,
+        @Nullable Map<String, String> extraMap) {}
+
+    @Override
+    public void onProducerFinishWithFailure(
+        ProducerContext producerContext,
+        String producerName,
+        Throwable t,
+        @Nullable Map<String, String> extraMap) {}
+
+    @Override
+    public void onProducerFinishWithCancellation(
+        ProducerContext producerContext,
+        String producerName,
+        @Nullable Map<String, String> extraMap) {}
+
+    @Override
+    public void onUltimateProducerReached(
+        ProducerContext producerContext, String producerName, boolean successful) {}
+
+    @Override
+    public boolean requiresExtraMap(ProducerContext producerContext, String producerName) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imageutils;
+
+import android.util.Pair;
+import com.facebook.imagepipeline.benchmark.SampleImages;
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks for the parsing of the metadata of encoded images by {@link JfifUtil} and {@link
+ * WebpUtil}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ImageMetadataBenchmark {
+
+  private byte[] mJpeg;
+  private byte[] mWebp;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    mJpeg = SampleImages.progressiveJpeg(4, 16 * 1024);
+    mWebp = SampleImages.extendedWebp(16 * 1024);
+    if (JfifUtil.getOrientation(mJpeg) != SampleImages.EXIF_ORIENTATION) {
+      throw new IllegalStateException("Unexpected JPEG orientation");
+    }
+  }
+
+  @Benchmark
+  public int jpegOrientation() {
+    return JfifUtil.getOrientation(new ByteArrayInputStream(mJpeg));
+  }
+
+  @Benchmark
+  public Pair<Integer, Integer> webpSize() {
+    return WebpUtil.getSize(new ByteArrayInputStream(mWebp));
+  }
+}
@@ -10,6 +10,7 @@ package com.facebook.common.memory;
 import com.facebook.common.internal.Throwables;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * An OutputStream that produces a PooledByteBuffer.
@@ -38,6 +39,26 @@ public abstract class PooledByteBufferOutputStream extends OutputStream {
    */
   public abstract int size();
 
+  /**
+   * Writes the remaining bytes of the byte buffer to this stream and advances its position.
+   * Subclasses backed by native memory override this to copy the bytes without an intermediate
+   * byte array.
+   *
+   * @param byteBuffer the byte buffer to read from
+   * @throws IOException if an error occurs while writing to this stream
+   */
+  public void write(ByteBuffer byteBuffer) throws IOException {
+    final int count = byteBuffer.remaining();
+    if (byteBuffer.hasArray()) {
+      write(byteBuffer.array(), byteBuffer.arrayOffset() + byteBuffer.position(), count);
+      byteBuffer.position(byteBuffer.position() + count);
+    } else {
+      final byte[] bytes = new byte[count];
+      byteBuffer.get(bytes);
+      write(bytes, 0, count);
+    }
+  }
+
   /** Closes the stream. */
   @Override
   public void close() {
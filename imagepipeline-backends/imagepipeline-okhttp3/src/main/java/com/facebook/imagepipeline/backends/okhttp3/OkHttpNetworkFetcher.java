@@ -19,6 +19,7 @@ import com.facebook.imagepipeline.producers.FetchState;
 import com.facebook.imagepipeline.producers.NetworkFetcher;
 import com.facebook.imagepipeline.producers.ProducerContext;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.Executor;
@@ -29,6 +30,7 @@ import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
+import okio.BufferedSource;
 
 /** Network fetcher that uses OkHttp 3 as a backend. */
 public class OkHttpNetworkFetcher
@@ -50,6 +52,19 @@ public class OkHttpNetworkFetcher
   private static final String FETCH_TIME = "fetch_time";
   private static final String TOTAL_TIME = "total_time";
   private static final String IMAGE_SIZE = "image_size";
+  private static final int READ_SIZE = 16 * 1024;
+
+  /**
+   * The buffers the responses are read to when the callback takes byte buffers. OkHttp reads the
+   * responses on the threads of its dispatcher, so each of them reuses its own buffer.
+   */
+  private static final ThreadLocal<ByteBuffer> sReadBuffers =
+      new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+          return ByteBuffer.allocateDirect(READ_SIZE);
+        }
+      };
 
   private final Call.Factory mCallFactory;
   private final @Nullable CacheControl mCacheControl;
@@ -182,7 +197,14 @@ public class OkHttpNetworkFetcher
               if (contentLength < 0) {
                 contentLength = 0;
               }
-              callback.onResponse(body.byteStream(), (int) contentLength);
+              if (callback instanceof NetworkFetcher.ByteBufferCallback) {
+                readResponse(
+                    body.source(),
+                    (int) contentLength,
+                    (NetworkFetcher.ByteBufferCallback) callback);
+              } else {
+                callback.onResponse(body.byteStream(), (int) contentLength);
+              }
             } catch (Exception e) {
               handleException(call, e, callback);
             } finally {
@@ -197,6 +219,24 @@ public class OkHttpNetworkFetcher
         });
   }
 
+  /**
+   * Reads the response into a direct byte buffer and passes it to the callback one part at a time,
+   * so that it is copied to pooled memory without going through a byte array of the pipeline.
+   */
+  private static void readResponse(
+      BufferedSource source, int contentLength, NetworkFetcher.ByteBufferCallback callback)
+      throws IOException {
+    final ByteBuffer buffer = sReadBuffers.get();
+    buffer.clear();
+    callback.onResponseStarted(contentLength);
+    while (source.read(buffer) >= 0) {
+      buffer.flip();
+      callback.onResponseData(buffer);
+      buffer.clear();
+    }
+    callback.onResponseCompleted();
+  }
+
   /**
    * Handles exceptions.
    *
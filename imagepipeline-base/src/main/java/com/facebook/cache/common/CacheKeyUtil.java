@@ -7,54 +7,101 @@
 
 package com.facebook.cache.common;
 
-import com.facebook.common.util.SecureHashUtil;
-import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import javax.annotation.Nullable;
 
 public final class CacheKeyUtil {
 
+  /** The resource ids of a key, memoized on the key together with the strategy computing them. */
+  static final class MemoizedResourceIds {
+    final ResourceIdStrategy strategy;
+    final List<String> ids;
+
+    MemoizedResourceIds(ResourceIdStrategy strategy, List<String> ids) {
+      this.strategy = strategy;
+      this.ids = ids;
+    }
+  }
+
   /**
    * Get a list of possible resourceIds from MultiCacheKey or get single resourceId from CacheKey.
    */
   public static List<String> getResourceIds(final CacheKey key) {
-    try {
-      final List<String> ids;
-      if (key instanceof MultiCacheKey) {
-        List<CacheKey> keys = ((MultiCacheKey) key).getCacheKeys();
-        ids = new ArrayList<>(keys.size());
-        for (int i = 0; i < keys.size(); i++) {
-          ids.add(secureHashKey(keys.get(i)));
-        }
+    return getResourceIds(key, Sha1ResourceIdStrategy.getInstance());
+  }
+
+  /**
+   * Get a list of possible resourceIds from MultiCacheKey or from a single CacheKey, computed by
+   * the given strategy. If the strategy is a {@link MigratingResourceIdStrategy}, the legacy id of
+   * each key follows its current id.
+   *
+   * <p>The returned list is immutable and is memoized on {@link SimpleCacheKey} and {@link
+   * MultiCacheKey} instances.
+   */
+  public static List<String> getResourceIds(final CacheKey key, ResourceIdStrategy strategy) {
+    MemoizedResourceIds memoized = getMemoized(key);
+    if (memoized != null && memoized.strategy == strategy) {
+      return memoized.ids;
+    }
+    final List<String> ids;
+    if (key instanceof MultiCacheKey) {
+      List<CacheKey> keys = ((MultiCacheKey) key).getCacheKeys();
+      ids = new ArrayList<>(keys.size());
+      for (int i = 0; i < keys.size(); i++) {
+        ids.addAll(getResourceIds(keys.get(i), strategy));
+      }
+    } else {
+      String id = strategy.getResourceId(key);
+      if (strategy instanceof MigratingResourceIdStrategy) {
+        String legacyId = ((MigratingResourceIdStrategy) strategy).getLegacyResourceId(key);
+        ids = id.equals(legacyId) ? Collections.singletonList(id) : listOf(id, legacyId);
       } else {
-        ids = new ArrayList<>(1);
-        ids.add(secureHashKey(key));
+        ids = Collections.singletonList(id);
       }
-      return ids;
-    } catch (UnsupportedEncodingException e) {
-      // This should never happen. All VMs support UTF-8
-      throw new RuntimeException(e);
     }
+    List<String> result = Collections.unmodifiableList(ids);
+    memoize(key, new MemoizedResourceIds(strategy, result));
+    return result;
   }
 
   /**
    * Get the resourceId from the first key in MultiCacheKey or get single resourceId from CacheKey.
    */
   public static String getFirstResourceId(final CacheKey key) {
-    try {
-      if (key instanceof MultiCacheKey) {
-        List<CacheKey> keys = ((MultiCacheKey) key).getCacheKeys();
-        return secureHashKey(keys.get(0));
-      } else {
-        return secureHashKey(key);
-      }
-    } catch (UnsupportedEncodingException e) {
-      // This should never happen. All VMs support UTF-8
-      throw new RuntimeException(e);
+    return getFirstResourceId(key, Sha1ResourceIdStrategy.getInstance());
+  }
+
+  /**
+   * Get the resourceId computed by the given strategy from the first key in MultiCacheKey or from a
+   * single CacheKey. This is the id new resources are written with.
+   */
+  public static String getFirstResourceId(final CacheKey key, ResourceIdStrategy strategy) {
+    return getResourceIds(key, strategy).get(0);
+  }
+
+  private static List<String> listOf(String first, String second) {
+    List<String> ids = new ArrayList<>(2);
+    ids.add(first);
+    ids.add(second);
+    return ids;
+  }
+
+  private static @Nullable MemoizedResourceIds getMemoized(CacheKey key) {
+    if (key instanceof SimpleCacheKey) {
+      return ((SimpleCacheKey) key).mMemoizedResourceIds;
+    } else if (key instanceof MultiCacheKey) {
+      return ((MultiCacheKey) key).mMemoizedResourceIds;
     }
+    return null;
   }
 
-  private static String secureHashKey(final CacheKey key) throws UnsupportedEncodingException {
-    return SecureHashUtil.makeSHA1HashBase64(key.getUriString().getBytes("UTF-8"));
+  private static void memoize(CacheKey key, MemoizedResourceIds memoized) {
+    if (key instanceof SimpleCacheKey) {
+      ((SimpleCacheKey) key).mMemoizedResourceIds = memoized;
+    } else if (key instanceof MultiCacheKey) {
+      ((MultiCacheKey) key).mMemoizedResourceIds = memoized;
+    }
   }
 }
@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.common;
+
+/**
+ * A {@link ResourceIdStrategy} used to move an existing cache to a new strategy.
+ *
+ * <p>New resources are written with the ids of the current strategy, while lookups and removals
+ * also consider the ids of the legacy strategy, so that the files written before the switch stay
+ * readable until they are evicted.
+ */
+public class MigratingResourceIdStrategy implements ResourceIdStrategy {
+
+  private final ResourceIdStrategy mCurrentStrategy;
+  private final ResourceIdStrategy mLegacyStrategy;
+
+  public MigratingResourceIdStrategy(
+      ResourceIdStrategy currentStrategy, ResourceIdStrategy legacyStrategy) {
+    mCurrentStrategy = currentStrategy;
+    mLegacyStrategy = legacyStrategy;
+  }
+
+  @Override
+  public String getResourceId(CacheKey key) {
+    return mCurrentStrategy.getResourceId(key);
+  }
+
+  /** Returns the id the resource of the given key might have been stored with before the switch. */
+  public String getLegacyResourceId(CacheKey key) {
+    return mLegacyStrategy.getResourceId(key);
+  }
+}
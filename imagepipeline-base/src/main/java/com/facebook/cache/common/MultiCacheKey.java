@@ -10,6 +10,7 @@ package com.facebook.cache.common;
 import android.net.Uri;
 import com.facebook.common.internal.Preconditions;
 import java.util.List;
+import javax.annotation.Nullable;
 
 /**
  * A cache key that wraps multiple cache keys.
@@ -27,6 +28,9 @@ public class MultiCacheKey implements CacheKey {
 
   final List<CacheKey> mCacheKeys;
 
+  // Written by CacheKeyUtil, so that the resource ids are only computed once per key.
+  @Nullable volatile CacheKeyUtil.MemoizedResourceIds mMemoizedResourceIds;
+
   public MultiCacheKey(List<CacheKey> cacheKeys) {
     mCacheKeys = Preconditions.checkNotNull(cacheKeys);
   }
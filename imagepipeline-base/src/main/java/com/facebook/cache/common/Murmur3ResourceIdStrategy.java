@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.common;
+
+/**
+ * A {@link ResourceIdStrategy} based on the 128-bit x64 variant of MurmurHash3.
+ *
+ * <p>The hash is not cryptographic, but its 128 bits make accidental collisions between the uris
+ * stored in a cache negligible, and it is several times cheaper to compute than SHA-1. The ids are
+ * the URL-safe Base64 encoding of the hash (22 characters), so they never clash with the 27
+ * characters SHA-1 ids of {@link Sha1ResourceIdStrategy}.
+ *
+ * <p>Switching an existing cache to this strategy makes all of its files unreachable, use {@link
+ * MigratingResourceIdStrategy} to keep reading them until they get evicted.
+ */
+public class Murmur3ResourceIdStrategy implements ResourceIdStrategy {
+
+  private static final int HASH_LENGTH = 16;
+  private static final long C1 = 0x87c37b91114253d5L;
+  private static final long C2 = 0x4cf5ad432745937fL;
+
+  private static final Murmur3ResourceIdStrategy sInstance = new Murmur3ResourceIdStrategy();
+
+  private static final ThreadLocal<byte[]> sHash =
+      new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+          return new byte[HASH_LENGTH];
+        }
+      };
+
+  public static Murmur3ResourceIdStrategy getInstance() {
+    return sInstance;
+  }
+
+  @Override
+  public String getResourceId(CacheKey key) {
+    String uri = key.getUriString();
+    byte[] bytes = ResourceIdEncoder.getBuffer(uri.length());
+    int length = ResourceIdEncoder.encodeUtf8(uri, bytes);
+    byte[] hash = sHash.get();
+    hash128(bytes, length, 0, hash);
+    return ResourceIdEncoder.toBase64UrlSafe(hash, HASH_LENGTH);
+  }
+
+  /** Computes MurmurHash3_x64_128 of the first {@code length} bytes into {@code out}. */
+  static void hash128(byte[] data, int length, int seed, byte[] out) {
+    long h1 = seed & 0xFFFFFFFFL;
+    long h2 = seed & 0xFFFFFFFFL;
+    int blocks = length / 16;
+
+    for (int i = 0; i < blocks; i++) {
+      int offset = i * 16;
+      long k1 = getLittleEndianLong(data, offset);
+      long k2 = getLittleEndianLong(data, offset + 8);
+
+      k1 *= C1;
+      k1 = Long.rotateLeft(k1, 31);
+      k1 *= C2;
+      h1 ^= k1;
+      h1 = Long.rotateLeft(h1, 27);
+      h1 += h2;
+      h1 = h1 * 5 + 0x52dce729;
+
+      k2 *= C2;
+      k2 = Long.rotateLeft(k2, 33);
+      k2 *= C1;
+      h2 ^= k2;
+      h2 = Long.rotateLeft(h2, 31);
+      h2 += h1;
+      h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    int tail = blocks * 16;
+    long k1 = 0;
+    long k2 = 0;
+    switch (length & 15) {
+      case 15:
+        k2 ^= ((long) data[tail + 14] & 0xFF) << 48;
+        // fall through
+      case 14:
+        k2 ^= ((long) data[tail + 13] & 0xFF) << 40;
+        // fall through
+      case 13:
+        k2 ^= ((long) data[tail + 12] & 0xFF) << 32;
+        // fall through
+      case 12:
+        k2 ^= ((long) data[tail + 11] & 0xFF) << 24;
+        // fall through
+      case 11:
+        k2 ^= ((long) data[tail + 10] & 0xFF) << 16;
+        // fall through
+      case 10:
+        k2 ^= ((long) data[tail + 9] & 0xFF) << 8;
+        // fall through
+      case 9:
+        k2 ^= ((long) data[tail + 8] & 0xFF);
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1;
+        h2 ^= k2;
+        // fall through
+      case 8:
+        k1 ^= ((long) data[tail + 7] & 0xFF) << 56;
+        // fall through
+      case 7:
+        k1 ^= ((long) data[tail + 6] & 0xFF) << 48;
+        // fall through
+      case 6:
+        k1 ^= ((long) data[tail + 5] & 0xFF) << 40;
+        // fall through
+      case 5:
+        k1 ^= ((long) data[tail + 4] & 0xFF) << 32;
+        // fall through
+      case 4:
+        k1 ^= ((long) data[tail + 3] & 0xFF) << 24;
+        // fall through
+      case 3:
+        k1 ^= ((long) data[tail + 2] & 0xFF) << 16;
+        // fall through
+      case 2:
+        k1 ^= ((long) data[tail + 1] & 0xFF) << 8;
+        // fall through
+      case 1:
+        k1 ^= ((long) data[tail] & 0xFF);
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+        h1 ^= k1;
+        // fall through
+      default:
+        break;
+    }
+
+    h1 ^= length;
+    h2 ^= length;
+    h1 += h2;
+    h2 += h1;
+    h1 = fmix64(h1);
+    h2 = fmix64(h2);
+    h1 += h2;
+    h2 += h1;
+
+    putLittleEndianLong(h1, out, 0);
+    putLittleEndianLong(h2, out, 8);
+  }
+
+  private static long fmix64(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+
+  private static long getLittleEndianLong(byte[] data, int offset) {
+    return ((long) data[offset] & 0xFF)
+        | (((long) data[offset + 1] & 0xFF) << 8)
+        | (((long) data[offset + 2] & 0xFF) << 16)
+        | (((long) data[offset + 3] & 0xFF) << 24)
+        | (((long) data[offset + 4] & 0xFF) << 32)
+        | (((long) data[offset + 5] & 0xFF) << 40)
+        | (((long) data[offset + 6] & 0xFF) << 48)
+        | (((long) data[offset + 7] & 0xFF) << 56);
+  }
+
+  private static void putLittleEndianLong(long value, byte[] out, int offset) {
+    for (int i = 0; i < 8; i++) {
+      out[offset + i] = (byte) (value >>> (8 * i));
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.common;
+
+/** Allocation-free helpers shared by the {@link ResourceIdStrategy} implementations. */
+final class ResourceIdEncoder {
+
+  private static final char[] BASE64_URL_SAFE =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+  private static final int INITIAL_BUFFER_SIZE = 256;
+
+  private static final ThreadLocal<byte[]> sBuffer =
+      new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+          return new byte[INITIAL_BUFFER_SIZE];
+        }
+      };
+
+  private ResourceIdEncoder() {}
+
+  /** Returns a per-thread buffer large enough to hold the UTF-8 encoding of the given chars. */
+  static byte[] getBuffer(int charCount) {
+    byte[] buffer = sBuffer.get();
+    // a char never takes more than 3 bytes, surrogate pairs take 4 bytes for 2 chars
+    int required = charCount * 3;
+    if (buffer.length < required) {
+      buffer = new byte[Math.max(required, buffer.length * 2)];
+      sBuffer.set(buffer);
+    }
+    return buffer;
+  }
+
+  /**
+   * Writes the UTF-8 encoding of the string into the buffer, replacing malformed surrogates with
+   * '?' like {@link String#getBytes(String)} does.
+   *
+   * @return the number of bytes written
+   */
+  static int encodeUtf8(String s, byte[] out) {
+    int length = s.length();
+    int pos = 0;
+    for (int i = 0; i < length; i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        out[pos++] = (byte) c;
+      } else if (c < 0x800) {
+        out[pos++] = (byte) (0xC0 | (c >> 6));
+        out[pos++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c)
+          && i + 1 < length
+          && Character.isLowSurrogate(s.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, s.charAt(++i));
+        out[pos++] = (byte) (0xF0 | (codePoint >> 18));
+        out[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        out[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        out[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+      } else if (Character.isSurrogate(c)) {
+        out[pos++] = '?';
+      } else {
+        out[pos++] = (byte) (0xE0 | (c >> 12));
+        out[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        out[pos++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+    return pos;
+  }
+
+  /**
+   * Encodes the first {@code length} bytes with the URL-safe Base64 alphabet, without padding nor
+   * line wrapping.
+   */
+  static String toBase64UrlSafe(byte[] bytes, int length) {
+    char[] chars = new char[(length * 4 + 2) / 3];
+    int pos = 0;
+    int i = 0;
+    for (; i + 2 < length; i += 3) {
+      int v = ((bytes[i] & 0xFF) << 16) | ((bytes[i + 1] & 0xFF) << 8) | (bytes[i + 2] & 0xFF);
+      chars[pos++] = BASE64_URL_SAFE[(v >> 18) & 0x3F];
+      chars[pos++] = BASE64_URL_SAFE[(v >> 12) & 0x3F];
+      chars[pos++] = BASE64_URL_SAFE[(v >> 6) & 0x3F];
+      chars[pos++] = BASE64_URL_SAFE[v & 0x3F];
+    }
+    int remaining = length - i;
+    if (remaining == 1) {
+      int v = (bytes[i] & 0xFF) << 16;
+      chars[pos++] = BASE64_URL_SAFE[(v >> 18) & 0x3F];
+      chars[pos++] = BASE64_URL_SAFE[(v >> 12) & 0x3F];
+    } else if (remaining == 2) {
+      int v = ((bytes[i] & 0xFF) << 16) | ((bytes[i + 1] & 0xFF) << 8);
+      chars[pos++] = BASE64_URL_SAFE[(v >> 18) & 0x3F];
+      chars[pos++] = BASE64_URL_SAFE[(v >> 12) & 0x3F];
+      chars[pos++] = BASE64_URL_SAFE[(v >> 6) & 0x3F];
+    }
+    return new String(chars, 0, pos);
+  }
+}
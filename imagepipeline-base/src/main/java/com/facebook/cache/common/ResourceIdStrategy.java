@@ -0,0 +1,23 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.common;
+
+/**
+ * Computes the id under which the resource of a {@link CacheKey} is stored in a disk cache.
+ *
+ * <p>Implementations must be thread-safe and must always return the same id for keys with the same
+ * {@link CacheKey#getUriString()}, as the id is used as the name of the cache file.
+ */
+public interface ResourceIdStrategy {
+
+  /**
+   * Returns the resource id of the given key. Keys wrapping other keys, such as {@link
+   * MultiCacheKey}, are expanded by {@link CacheKeyUtil} before calling this method.
+   */
+  String getResourceId(CacheKey key);
+}
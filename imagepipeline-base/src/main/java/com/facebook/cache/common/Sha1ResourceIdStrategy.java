@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.common;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The default {@link ResourceIdStrategy}: the URL-safe Base64 encoding of the SHA-1 hash of the
+ * UTF-8 encoded uri string of the key.
+ *
+ * <p>The ids are identical to the ones produced by previous versions, but the digest and the
+ * encoding buffer are reused per thread instead of being allocated for every lookup.
+ */
+public class Sha1ResourceIdStrategy implements ResourceIdStrategy {
+
+  private static final int SHA1_LENGTH = 20;
+
+  private static final Sha1ResourceIdStrategy sInstance = new Sha1ResourceIdStrategy();
+
+  private static final ThreadLocal<MessageDigest> sDigest =
+      new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+          try {
+            return MessageDigest.getInstance("SHA-1");
+          } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      };
+
+  private static final ThreadLocal<byte[]> sHash =
+      new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+          return new byte[SHA1_LENGTH];
+        }
+      };
+
+  public static Sha1ResourceIdStrategy getInstance() {
+    return sInstance;
+  }
+
+  @Override
+  public String getResourceId(CacheKey key) {
+    String uri = key.getUriString();
+    byte[] bytes = ResourceIdEncoder.getBuffer(uri.length());
+    int length = ResourceIdEncoder.encodeUtf8(uri, bytes);
+    MessageDigest digest = sDigest.get();
+    byte[] hash = sHash.get();
+    digest.reset();
+    digest.update(bytes, 0, length);
+    try {
+      digest.digest(hash, 0, SHA1_LENGTH);
+    } catch (DigestException e) {
+      throw new RuntimeException(e);
+    }
+    return ResourceIdEncoder.toBase64UrlSafe(hash, SHA1_LENGTH);
+  }
+}
@@ -9,6 +9,7 @@ package com.facebook.cache.common;
 
 import android.net.Uri;
 import com.facebook.common.internal.Preconditions;
+import javax.annotation.Nullable;
 
 /**
  * {@link CacheKey} implementation that is a simple wrapper around a {@link String} object.
@@ -19,6 +20,9 @@ import com.facebook.common.internal.Preconditions;
 public class SimpleCacheKey implements CacheKey {
   final String mKey;
 
+  // Written by CacheKeyUtil, so that the resource ids are only computed once per key.
+  @Nullable volatile CacheKeyUtil.MemoizedResourceIds mMemoizedResourceIds;
+
   public SimpleCacheKey(final String key) {
     mKey = Preconditions.checkNotNull(key);
   }
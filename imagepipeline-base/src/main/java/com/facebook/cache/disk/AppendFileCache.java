@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.WriterCallback;
+import java.io.IOException;
+
+/**
+ * Optional capability of a {@link FileCache} that can add content to the end of a resource, for
+ * resources that are written in several parts, like the partial downloads of an image. Callers
+ * check for it with instanceof.
+ */
+public interface AppendFileCache extends FileCache {
+
+  /**
+   * Appends to the resource of the key, creating it if needed. The resource is replaced once the
+   * new content is written, so readers of the previous resource are not affected, and a failed
+   * append leaves it as it was.
+   *
+   * <p>The append fails if the resource doesn't have the expected size when it is read, for
+   * example because it was evicted, so that the appended content never ends up at the wrong
+   * offset.
+   *
+   * @param key cache key
+   * @param expectedSize the size the resource must have before the append, 0 if it doesn't exist
+   * @param writer Callback that writes the content to append to an output stream
+   * @return the resource, with the appended content
+   * @throws IOException if the resource doesn't have the expected size, or could not be written
+   */
+  BinaryResource append(CacheKey key, long expectedSize, WriterCallback writer)
+      throws IOException;
+}
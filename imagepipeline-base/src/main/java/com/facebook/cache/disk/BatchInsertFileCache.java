@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.WriterCallback;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Optional capability of a {@link FileCache} that can insert several resources at once, cheaper
+ * than inserting them one by one. Callers check for it with instanceof, and insert the resources
+ * one by one otherwise.
+ */
+public interface BatchInsertFileCache extends FileCache {
+
+  /**
+   * Inserts several resources at once. The cache size is checked once for the whole batch, and the
+   * files are committed together. A failure to write one of the resources doesn't prevent the
+   * others from being inserted.
+   *
+   * @param keys cache keys
+   * @param writers callbacks that write to an output stream, one for each key
+   * @return the inserted resources, in the order of the keys. The resources that couldn't be
+   *     written are null
+   * @throws IOException if the cache couldn't be prepared for the batch
+   */
+  List<BinaryResource> insertAll(List<CacheKey> keys, List<WriterCallback> writers)
+      throws IOException;
+}
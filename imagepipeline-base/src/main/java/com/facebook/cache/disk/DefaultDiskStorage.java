@@ -76,6 +76,9 @@ public class DefaultDiskStorage implements DiskStorage {
   private final CacheErrorLogger mCacheErrorLogger;
   private final Clock mClock;
 
+  /** The journal of the content files, null if the journal is disabled. */
+  private final @Nullable DiskStorageJournal mJournal;
+
   /**
    * Instantiates a ShardedDiskStorage that will use the directory to save a map between keys and
    * files. The version is very important if clients change the format saved in those files.
@@ -88,6 +91,20 @@ public class DefaultDiskStorage implements DiskStorage {
    * @param cacheErrorLogger logger for various events
    */
   public DefaultDiskStorage(File rootDirectory, int version, CacheErrorLogger cacheErrorLogger) {
+    this(rootDirectory, version, cacheErrorLogger, false);
+  }
+
+  /**
+   * Instantiates a ShardedDiskStorage, optionally maintaining a journal of its content files.
+   *
+   * @param journalEnabled if true, insertions, accesses and removals are recorded in an append-only
+   *     journal which is replayed by {@link #getEntries()} instead of walking all the directories.
+   *     The directories are only walked by {@link #getEntries()}, when the journal is missing or
+   *     corrupt. Accesses are only written to the journal when the entries are listed.
+   * @see #DefaultDiskStorage(File, int, CacheErrorLogger)
+   */
+  public DefaultDiskStorage(
+      File rootDirectory, int version, CacheErrorLogger cacheErrorLogger, boolean journalEnabled) {
     Preconditions.checkNotNull(rootDirectory);
 
     mRootDirectory = rootDirectory;
@@ -101,6 +118,7 @@ public class DefaultDiskStorage implements DiskStorage {
     mCacheErrorLogger = cacheErrorLogger;
     recreateDirectoryIfVersionChanges();
     mClock = SystemClock.get();
+    mJournal = journalEnabled ? new DiskStorageJournal(mVersionDirectory, cacheErrorLogger) : null;
   }
 
   private static boolean isExternal(File directory, CacheErrorLogger cacheErrorLogger) {
@@ -284,6 +302,10 @@ public class DefaultDiskStorage implements DiskStorage {
       }
     }
 
+    private boolean isJournalFile(File file) {
+      return mJournal != null && mJournal.isJournalFile(file);
+    }
+
     @Override
     public void postVisitDirectory(File directory) {
       if (!mRootDirectory.equals(directory)) { // if it's root directory we must not touch it
@@ -299,6 +321,9 @@ public class DefaultDiskStorage implements DiskStorage {
     }
 
     private boolean isExpectedFile(File file) {
+      if (isJournalFile(file)) {
+        return true;
+      }
       FileInfo info = getShardFileInfo(file);
       if (info == null) {
         return false;
@@ -362,9 +387,17 @@ public class DefaultDiskStorage implements DiskStorage {
   public @Nullable BinaryResource getResource(String resourceId, Object debugInfo) {
     final File file = getContentFileFor(resourceId);
     if (file.exists()) {
-      file.setLastModified(mClock.now());
+      long now = mClock.now();
+      file.setLastModified(now);
+      if (mJournal != null) {
+        mJournal.recordTouch(resourceId, now);
+      }
       return FileBinaryResource.createOrNull(file);
     }
+    if (mJournal != null) {
+      // the file may have been deleted behind our back
+      mJournal.recordMissing(resourceId);
+    }
     return null;
   }
 
@@ -388,7 +421,11 @@ public class DefaultDiskStorage implements DiskStorage {
     File contentFile = getContentFileFor(resourceId);
     boolean exists = contentFile.exists();
     if (touch && exists) {
-      contentFile.setLastModified(mClock.now());
+      long now = mClock.now();
+      contentFile.setLastModified(now);
+      if (mJournal != null) {
+        mJournal.recordTouch(resourceId, now);
+      }
     }
     return exists;
   }
@@ -398,19 +435,26 @@ public class DefaultDiskStorage implements DiskStorage {
     // it should be one entry return by us :)
     EntryImpl entryImpl = (EntryImpl) entry;
     FileBinaryResource resource = entryImpl.getResource();
-    return doRemove(resource.getFile());
+    return doRemove(entryImpl.getId(), resource.getFile());
   }
 
   @Override
   public long remove(final String resourceId) {
-    return doRemove(getContentFileFor(resourceId));
+    return doRemove(resourceId, getContentFileFor(resourceId));
   }
 
-  private long doRemove(final File contentFile) {
+  private long doRemove(final String resourceId, final File contentFile) {
     if (!contentFile.exists()) {
+      if (mJournal != null) {
+        mJournal.recordMissing(resourceId);
+      }
       return 0;
     }
 
+    if (mJournal != null) {
+      mJournal.recordRemove(resourceId);
+    }
+
     final long fileSize = contentFile.length();
     if (contentFile.delete()) {
       return fileSize;
@@ -421,6 +465,9 @@ public class DefaultDiskStorage implements DiskStorage {
 
   public void clearAll() {
     FileTree.deleteContents(mRootDirectory);
+    if (mJournal != null) {
+      mJournal.clear();
+    }
   }
 
   @Override
@@ -476,9 +523,31 @@ public class DefaultDiskStorage implements DiskStorage {
    * <p>This list is immutable.
    */
   public List<Entry> getEntries() throws IOException {
+    if (mJournal != null && mJournal.load()) {
+      // the entries are listed when the cache is trimmed, which is when the accesses are persisted
+      mJournal.flushTouches();
+      List<DiskStorageJournal.Record> records = mJournal.getRecords();
+      List<Entry> entries = new ArrayList<>(records.size());
+      for (DiskStorageJournal.Record record : records) {
+        entries.add(
+            new EntryImpl(
+                record.resourceId,
+                getContentFileFor(record.resourceId),
+                record.size,
+                record.timestamp));
+      }
+      return Collections.unmodifiableList(entries);
+    }
+    if (mJournal != null) {
+      mJournal.beginRebuild();
+    }
     EntriesCollector collector = new EntriesCollector();
     FileTree.walkFileTree(mVersionDirectory, collector);
-    return collector.getEntries();
+    List<Entry> entries = collector.getEntries();
+    if (mJournal != null) {
+      mJournal.rebuild(entries);
+    }
+    return entries;
   }
 
   /** Implementation of Entry listed by entriesIterator. */
@@ -490,11 +559,15 @@ public class DefaultDiskStorage implements DiskStorage {
     private long timestamp;
 
     private EntryImpl(String id, File cachedFile) {
+      this(id, cachedFile, -1, -1);
+    }
+
+    private EntryImpl(String id, File cachedFile, long size, long timestamp) {
       Preconditions.checkNotNull(cachedFile);
       this.id = Preconditions.checkNotNull(id);
       this.resource = FileBinaryResource.createOrNull(cachedFile);
-      this.size = -1;
-      this.timestamp = -1;
+      this.size = size;
+      this.timestamp = timestamp;
     }
 
     @Override
@@ -626,6 +699,8 @@ public class DefaultDiskStorage implements DiskStorage {
 
     @VisibleForTesting /* package protected*/ final File mTemporaryFile;
 
+    private long mWrittenLength = -1;
+
     public InserterImpl(String resourceId, File temporaryFile) {
       mResourceId = resourceId;
       mTemporaryFile = temporaryFile;
@@ -664,6 +739,7 @@ public class DefaultDiskStorage implements DiskStorage {
       if (mTemporaryFile.length() != length) {
         throw new IncompleteFileException(length, mTemporaryFile.length());
       }
+      mWrittenLength = length;
     }
 
     @Override
@@ -690,7 +766,12 @@ public class DefaultDiskStorage implements DiskStorage {
         throw re;
       }
       if (targetFile.exists()) {
-        targetFile.setLastModified(mClock.now());
+        long now = mClock.now();
+        targetFile.setLastModified(now);
+        if (mJournal != null) {
+          mJournal.recordPut(
+              mResourceId, mWrittenLength >= 0 ? mWrittenLength : targetFile.length(), now);
+        }
       }
       return FileBinaryResource.createOrNull(targetFile);
     }
@@ -12,6 +12,8 @@ import com.facebook.cache.common.CacheErrorLogger;
 import com.facebook.cache.common.CacheEventListener;
 import com.facebook.cache.common.NoOpCacheErrorLogger;
 import com.facebook.cache.common.NoOpCacheEventListener;
+import com.facebook.cache.common.ResourceIdStrategy;
+import com.facebook.cache.common.Sha1ResourceIdStrategy;
 import com.facebook.common.disk.DiskTrimmable;
 import com.facebook.common.disk.DiskTrimmableRegistry;
 import com.facebook.common.disk.NoOpDiskTrimmableRegistry;
@@ -37,6 +39,9 @@ public class DiskCacheConfig {
   private final DiskTrimmableRegistry mDiskTrimmableRegistry;
   private final Context mContext;
   private final boolean mIndexPopulateAtStartupEnabled;
+  private final boolean mLockFreeReadsEnabled;
+  private final boolean mJournalEnabled;
+  private final ResourceIdStrategy mResourceIdStrategy;
 
   private DiskCacheConfig(Builder builder) {
     mVersion = builder.mVersion;
@@ -61,6 +66,9 @@ public class DiskCacheConfig {
             : builder.mDiskTrimmableRegistry;
     mContext = builder.mContext;
     mIndexPopulateAtStartupEnabled = builder.mIndexPopulateAtStartupEnabled;
+    mLockFreeReadsEnabled = builder.mLockFreeReadsEnabled;
+    mJournalEnabled = builder.mJournalEnabled;
+    mResourceIdStrategy = builder.mResourceIdStrategy;
   }
 
   public int getVersion() {
@@ -111,6 +119,18 @@ public class DiskCacheConfig {
     return mIndexPopulateAtStartupEnabled;
   }
 
+  public boolean getLockFreeReadsEnabled() {
+    return mLockFreeReadsEnabled;
+  }
+
+  public boolean getJournalEnabled() {
+    return mJournalEnabled;
+  }
+
+  public ResourceIdStrategy getResourceIdStrategy() {
+    return mResourceIdStrategy;
+  }
+
   /**
    * Create a new builder.
    *
@@ -138,6 +158,9 @@ public class DiskCacheConfig {
     private CacheEventListener mCacheEventListener;
     private DiskTrimmableRegistry mDiskTrimmableRegistry;
     private boolean mIndexPopulateAtStartupEnabled;
+    private boolean mLockFreeReadsEnabled;
+    private boolean mJournalEnabled;
+    private ResourceIdStrategy mResourceIdStrategy = Sha1ResourceIdStrategy.getInstance();
 
     private final @Nullable Context mContext;
 
@@ -236,6 +259,38 @@ public class DiskCacheConfig {
       return this;
     }
 
+    /**
+     * If enabled, cache lookups perform their file system accesses outside of the cache lock, so
+     * that a slow read does not block other readers or the writers. The lock is then only held for
+     * size accounting, index updates and eviction.
+     *
+     * <p>Combined with {@link #setIndexPopulateAtStartupEnabled(boolean)}, lookups of keys which are
+     * not part of the in-memory index are answered without touching the file system.
+     */
+    public Builder setLockFreeReadsEnabled(boolean lockFreeReadsEnabled) {
+      mLockFreeReadsEnabled = lockFreeReadsEnabled;
+      return this;
+    }
+
+    /**
+     * If enabled, the storage keeps an append-only journal of its files, so that the size and the
+     * content of the cache can be determined at startup without listing every file of the cache.
+     */
+    public Builder setJournalEnabled(boolean journalEnabled) {
+      mJournalEnabled = journalEnabled;
+      return this;
+    }
+
+    /**
+     * Provides the logic to compute the names of the cache files from the cache keys. Changing the
+     * strategy of an existing cache makes its files unreachable, unless a {@link
+     * com.facebook.cache.common.MigratingResourceIdStrategy} is used.
+     */
+    public Builder setResourceIdStrategy(ResourceIdStrategy resourceIdStrategy) {
+      mResourceIdStrategy = resourceIdStrategy;
+      return this;
+    }
+
     public DiskCacheConfig build() {
       Preconditions.checkState(
           mBaseDirectoryPathSupplier != null || mContext != null,
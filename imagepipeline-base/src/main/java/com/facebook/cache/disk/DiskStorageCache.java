@@ -12,21 +12,27 @@ import com.facebook.cache.common.CacheErrorLogger;
 import com.facebook.cache.common.CacheEventListener;
 import com.facebook.cache.common.CacheKey;
 import com.facebook.cache.common.CacheKeyUtil;
+import com.facebook.cache.common.ResourceIdStrategy;
+import com.facebook.cache.common.Sha1ResourceIdStrategy;
 import com.facebook.cache.common.WriterCallback;
 import com.facebook.common.disk.DiskTrimmable;
 import com.facebook.common.disk.DiskTrimmableRegistry;
+import com.facebook.common.internal.ByteStreams;
 import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.common.logging.FLog;
 import com.facebook.common.statfs.StatFsHelper;
 import com.facebook.common.time.Clock;
 import com.facebook.common.time.SystemClock;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
@@ -36,7 +42,7 @@ import javax.annotation.concurrent.ThreadSafe;
 
 /** Cache that manages disk storage. */
 @ThreadSafe
-public class DiskStorageCache implements FileCache, DiskTrimmable {
+public class DiskStorageCache implements BatchInsertFileCache, AppendFileCache, DiskTrimmable {
 
   private static final Class<?> TAG = DiskStorageCache.class;
 
@@ -58,10 +64,9 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
 
   private final CacheEventListener mCacheEventListener;
 
-  @GuardedBy("mLock")
-  // All resourceId stored on disk (if any).
-  @VisibleForTesting
-  final Set<String> mResourceIndex;
+  // All resourceId stored on disk (if any). Guarded by mLock, unless lock-free reads are enabled
+  // in which case it is a concurrent set that is only modified while holding mLock.
+  @VisibleForTesting final Set<String> mResourceIndex;
 
   private long mCacheSizeLastUpdateTime;
 
@@ -73,6 +78,8 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
   private final EntryEvictionComparatorSupplier mEntryEvictionComparatorSupplier;
   private final CacheErrorLogger mCacheErrorLogger;
   private final boolean mIndexPopulateAtStartupEnabled;
+  private final boolean mLockFreeReadsEnabled;
+  private final ResourceIdStrategy mResourceIdStrategy;
 
   private final CacheStats mCacheStats;
 
@@ -83,6 +90,12 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
 
   private boolean mIndexReady;
 
+  /**
+   * Whether the index has been populated with every entry of the storage, so that lock-free reads
+   * can trust it for misses. Unlike {@link #mIndexReady}, not set when populating the index failed
+   */
+  private volatile boolean mIndexComplete;
+
   /**
    * Stats about the cache - currently size of the cache (in bytes) and number of items in the cache
    */
@@ -147,6 +160,60 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
       @Nullable DiskTrimmableRegistry diskTrimmableRegistry,
       final Executor executorForBackgrountInit,
       boolean indexPopulateAtStartupEnabled) {
+    this(
+        diskStorage,
+        entryEvictionComparatorSupplier,
+        params,
+        cacheEventListener,
+        cacheErrorLogger,
+        diskTrimmableRegistry,
+        executorForBackgrountInit,
+        indexPopulateAtStartupEnabled,
+        false);
+  }
+
+  /**
+   * @param lockFreeReadsEnabled if true, {@link #getResource}, {@link #probe} and {@link #hasKey}
+   *     perform their file system accesses without holding the cache lock, which is then only used
+   *     for size accounting, index updates and eviction
+   */
+  public DiskStorageCache(
+      DiskStorage diskStorage,
+      EntryEvictionComparatorSupplier entryEvictionComparatorSupplier,
+      Params params,
+      CacheEventListener cacheEventListener,
+      CacheErrorLogger cacheErrorLogger,
+      @Nullable DiskTrimmableRegistry diskTrimmableRegistry,
+      final Executor executorForBackgrountInit,
+      boolean indexPopulateAtStartupEnabled,
+      boolean lockFreeReadsEnabled) {
+    this(
+        diskStorage,
+        entryEvictionComparatorSupplier,
+        params,
+        cacheEventListener,
+        cacheErrorLogger,
+        diskTrimmableRegistry,
+        executorForBackgrountInit,
+        indexPopulateAtStartupEnabled,
+        lockFreeReadsEnabled,
+        Sha1ResourceIdStrategy.getInstance());
+  }
+
+  /**
+   * @param resourceIdStrategy computes the ids under which the resources are stored in the storage
+   */
+  public DiskStorageCache(
+      DiskStorage diskStorage,
+      EntryEvictionComparatorSupplier entryEvictionComparatorSupplier,
+      Params params,
+      CacheEventListener cacheEventListener,
+      CacheErrorLogger cacheErrorLogger,
+      @Nullable DiskTrimmableRegistry diskTrimmableRegistry,
+      final Executor executorForBackgrountInit,
+      boolean indexPopulateAtStartupEnabled,
+      boolean lockFreeReadsEnabled,
+      ResourceIdStrategy resourceIdStrategy) {
     this.mLowDiskSpaceCacheSizeLimit = params.mLowDiskSpaceCacheSizeLimit;
     this.mDefaultCacheSizeLimit = params.mDefaultCacheSizeLimit;
     this.mCacheSizeLimit = params.mDefaultCacheSizeLimit;
@@ -170,7 +237,14 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
 
     mIndexPopulateAtStartupEnabled = indexPopulateAtStartupEnabled;
 
-    this.mResourceIndex = new HashSet<>();
+    mLockFreeReadsEnabled = lockFreeReadsEnabled;
+
+    mResourceIdStrategy = resourceIdStrategy;
+
+    this.mResourceIndex =
+        lockFreeReadsEnabled
+            ? Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>())
+            : new HashSet<String>();
 
     if (diskTrimmableRegistry != null) {
       diskTrimmableRegistry.registerDiskTrimmable(this);
@@ -184,11 +258,14 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
 
             @Override
             public void run() {
-              synchronized (mLock) {
-                maybeUpdateFileCacheSize();
+              try {
+                synchronized (mLock) {
+                  maybeUpdateFileCacheSize();
+                }
+              } finally {
+                mIndexReady = true;
+                mCountDownLatch.countDown();
               }
-              mIndexReady = true;
-              mCountDownLatch.countDown();
             }
           });
     } else {
@@ -238,28 +315,13 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
    */
   @Override
   public @Nullable BinaryResource getResource(final CacheKey key) {
-    String resourceId = null;
     SettableCacheEvent cacheEvent = SettableCacheEvent.obtain().setCacheKey(key);
     try {
+      if (mLockFreeReadsEnabled) {
+        return getResourceInternal(key, cacheEvent);
+      }
       synchronized (mLock) {
-        BinaryResource resource = null;
-        List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
-        for (int i = 0; i < resourceIds.size(); i++) {
-          resourceId = resourceIds.get(i);
-          cacheEvent.setResourceId(resourceId);
-          resource = mStorage.getResource(resourceId, key);
-          if (resource != null) {
-            break;
-          }
-        }
-        if (resource == null) {
-          mCacheEventListener.onMiss(cacheEvent);
-          mResourceIndex.remove(resourceId);
-        } else {
-          mCacheEventListener.onHit(cacheEvent);
-          mResourceIndex.add(resourceId);
-        }
-        return resource;
+        return getResourceInternal(key, cacheEvent);
       }
     } catch (IOException ioe) {
       mCacheErrorLogger.logError(
@@ -272,6 +334,82 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
     }
   }
 
+  /**
+   * Looks up the resource in the storage. Must be called while holding mLock unless lock-free reads
+   * are enabled.
+   */
+  private @Nullable BinaryResource getResourceInternal(
+      final CacheKey key, SettableCacheEvent cacheEvent) throws IOException {
+    String resourceId = null;
+    BinaryResource resource = null;
+    List<String> resourceIds = CacheKeyUtil.getResourceIds(key, mResourceIdStrategy);
+    if (isKnownMissing(resourceIds)) {
+      cacheEvent.setResourceId(resourceIds.get(0));
+      mCacheEventListener.onMiss(cacheEvent);
+      return null;
+    }
+    for (int i = 0; i < resourceIds.size(); i++) {
+      resourceId = resourceIds.get(i);
+      cacheEvent.setResourceId(resourceId);
+      resource = mStorage.getResource(resourceId, key);
+      if (resource != null) {
+        break;
+      }
+    }
+    if (resource == null) {
+      mCacheEventListener.onMiss(cacheEvent);
+      // Without the lock, a concurrent insert might have just added this id, so the index is only
+      // cleaned up by the writers.
+      if (!mLockFreeReadsEnabled) {
+        mResourceIndex.remove(resourceId);
+      }
+    } else {
+      mCacheEventListener.onHit(cacheEvent);
+      addToIndex(resourceId, key);
+    }
+    return resource;
+  }
+
+  /**
+   * Adds a resource id found in the storage to the index.
+   *
+   * <p>With lock-free reads the entry might have been evicted since it was found, so the id is only
+   * added while holding mLock and after checking that the entry is still in the storage. Otherwise
+   * an evicted entry would stay in the index and {@link #hasKeySync} would keep returning true.
+   */
+  private void addToIndex(String resourceId, CacheKey key) throws IOException {
+    if (!mLockFreeReadsEnabled) {
+      mResourceIndex.add(resourceId);
+      return;
+    }
+    if (mResourceIndex.contains(resourceId)) {
+      return;
+    }
+    synchronized (mLock) {
+      if (mStorage.contains(resourceId, key)) {
+        mResourceIndex.add(resourceId);
+      }
+    }
+  }
+
+  /**
+   * Returns true if the in-memory index is known to be complete and none of the given ids is part
+   * of it, which allows to skip the file system accesses of a lookup.
+   *
+   * <p>Only used with lock-free reads, as only then the index is consulted without the lock.
+   */
+  private boolean isKnownMissing(List<String> resourceIds) {
+    if (!mLockFreeReadsEnabled || !mIndexPopulateAtStartupEnabled || !mIndexComplete) {
+      return false;
+    }
+    for (int i = 0; i < resourceIds.size(); i++) {
+      if (mResourceIndex.contains(resourceIds.get(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   /**
    * Probes whether the object corresponding to the mKey is in the cache. Note that the act of
    * probing touches the item (if present in cache), thus changing its LRU timestamp.
@@ -285,8 +423,21 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
   public boolean probe(final CacheKey key) {
     String resourceId = null;
     try {
+      List<String> resourceIds = CacheKeyUtil.getResourceIds(key, mResourceIdStrategy);
+      if (mLockFreeReadsEnabled) {
+        if (isKnownMissing(resourceIds)) {
+          return false;
+        }
+        for (int i = 0; i < resourceIds.size(); i++) {
+          resourceId = resourceIds.get(i);
+          if (mStorage.touch(resourceId, key)) {
+            addToIndex(resourceId, key);
+            return true;
+          }
+        }
+        return false;
+      }
       synchronized (mLock) {
-        List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
         for (int i = 0; i < resourceIds.size(); i++) {
           resourceId = resourceIds.get(i);
           if (mStorage.touch(resourceId, key)) {
@@ -333,11 +484,8 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
     // when writing files.
     SettableCacheEvent cacheEvent = SettableCacheEvent.obtain().setCacheKey(key);
     mCacheEventListener.onWriteAttempt(cacheEvent);
-    String resourceId;
-    synchronized (mLock) {
-      // for multiple resource ids associated with the same image, we only write one file
-      resourceId = CacheKeyUtil.getFirstResourceId(key);
-    }
+    // for multiple resource ids associated with the same image, we only write one file
+    String resourceId = CacheKeyUtil.getFirstResourceId(key, mResourceIdStrategy);
     cacheEvent.setResourceId(resourceId);
     try {
       // getting the file is synchronized
@@ -364,12 +512,160 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
     }
   }
 
+  @Override
+  public BinaryResource append(
+      final CacheKey key, final long expectedSize, final WriterCallback callback)
+      throws IOException {
+    SettableCacheEvent cacheEvent = SettableCacheEvent.obtain().setCacheKey(key);
+    mCacheEventListener.onWriteAttempt(cacheEvent);
+    String resourceId = CacheKeyUtil.getFirstResourceId(key, mResourceIdStrategy);
+    cacheEvent.setResourceId(resourceId);
+    try {
+      // the previous content is copied to a temp file before the new one, so that the resource is
+      // never modified in place, where it may be read or mapped in the meantime
+      DiskStorage.Inserter inserter = startInsert(resourceId, key);
+      try {
+        // the size is checked after the eviction, which may have removed the resource
+        final BinaryResource previous;
+        // the size is kept, as the resource reports the new size once the new file replaces it
+        final long previousSize;
+        synchronized (mLock) {
+          previous = mStorage.getResource(resourceId, key);
+          previousSize = previous != null ? previous.size() : 0;
+          checkSize(key, previousSize, expectedSize);
+        }
+        inserter.writeData(
+            new WriterCallback() {
+              @Override
+              public void write(OutputStream os) throws IOException {
+                if (previous != null) {
+                  InputStream is = previous.openStream();
+                  try {
+                    // the resource may still change before it is read
+                    checkSize(key, ByteStreams.copy(is, os), expectedSize);
+                  } finally {
+                    is.close();
+                  }
+                }
+                callback.write(os);
+              }
+            },
+            key);
+        BinaryResource resource;
+        synchronized (mLock) {
+          resource = inserter.commit(key);
+          mResourceIndex.add(resourceId);
+          mCacheStats.increment(resource.size() - previousSize, previous != null ? 0 : 1);
+        }
+        cacheEvent.setItemSize(resource.size()).setCacheSize(mCacheStats.getSize());
+        mCacheEventListener.onWriteSuccess(cacheEvent);
+        return resource;
+      } finally {
+        if (!inserter.cleanUp()) {
+          FLog.e(TAG, "Failed to delete temp file");
+        }
+      }
+    } catch (IOException ioe) {
+      cacheEvent.setException(ioe);
+      mCacheEventListener.onWriteException(cacheEvent);
+      FLog.e(TAG, "Failed appending to a file of the cache", ioe);
+      throw ioe;
+    } finally {
+      cacheEvent.recycle();
+    }
+  }
+
+  private static void checkSize(CacheKey key, long size, long expectedSize) throws IOException {
+    if (size != expectedSize) {
+      throw new IOException(
+          "Resource for key "
+              + key.getUriString()
+              + " has "
+              + size
+              + " bytes, expected "
+              + expectedSize);
+    }
+  }
+
+  @Override
+  public List<BinaryResource> insertAll(List<CacheKey> keys, List<WriterCallback> writers)
+      throws IOException {
+    final int count = keys.size();
+    if (writers.size() != count) {
+      throw new IllegalArgumentException("Expected one writer per key");
+    }
+    final SettableCacheEvent[] cacheEvents = new SettableCacheEvent[count];
+    final DiskStorage.Inserter[] inserters = new DiskStorage.Inserter[count];
+    final String[] resourceIds = new String[count];
+    final IOException[] exceptions = new IOException[count];
+    final List<BinaryResource> resources = new ArrayList<>(count);
+    // a single size check and eviction for the whole batch, instead of one per file
+    maybeEvictFilesInCacheDir();
+    try {
+      // Write all the temp files outside the session lock
+      for (int i = 0; i < count; i++) {
+        final CacheKey key = keys.get(i);
+        cacheEvents[i] = SettableCacheEvent.obtain().setCacheKey(key);
+        mCacheEventListener.onWriteAttempt(cacheEvents[i]);
+        resourceIds[i] = CacheKeyUtil.getFirstResourceId(key, mResourceIdStrategy);
+        cacheEvents[i].setResourceId(resourceIds[i]);
+        try {
+          inserters[i] = mStorage.insert(resourceIds[i], key);
+          inserters[i].writeData(writers.get(i), key);
+        } catch (IOException ioe) {
+          exceptions[i] = ioe;
+        }
+      }
+      // ... then commit them, and update the size of the cache, in one go
+      synchronized (mLock) {
+        long sizeIncrement = 0;
+        int countIncrement = 0;
+        for (int i = 0; i < count; i++) {
+          BinaryResource resource = null;
+          if (exceptions[i] == null) {
+            try {
+              resource = inserters[i].commit(keys.get(i));
+              mResourceIndex.add(resourceIds[i]);
+              sizeIncrement += resource.size();
+              countIncrement++;
+            } catch (IOException ioe) {
+              exceptions[i] = ioe;
+            }
+          }
+          resources.add(resource);
+        }
+        mCacheStats.increment(sizeIncrement, countIncrement);
+      }
+      final long cacheSize = mCacheStats.getSize();
+      for (int i = 0; i < count; i++) {
+        if (exceptions[i] == null) {
+          cacheEvents[i].setItemSize(resources.get(i).size()).setCacheSize(cacheSize);
+          mCacheEventListener.onWriteSuccess(cacheEvents[i]);
+        } else {
+          cacheEvents[i].setException(exceptions[i]);
+          mCacheEventListener.onWriteException(cacheEvents[i]);
+          FLog.e(TAG, "Failed inserting a file into the cache", exceptions[i]);
+        }
+      }
+      return resources;
+    } finally {
+      for (int i = 0; i < count; i++) {
+        if (inserters[i] != null && !inserters[i].cleanUp()) {
+          FLog.e(TAG, "Failed to delete temp file");
+        }
+        if (cacheEvents[i] != null) {
+          cacheEvents[i].recycle();
+        }
+      }
+    }
+  }
+
   @Override
   public void remove(CacheKey key) {
     synchronized (mLock) {
       try {
         String resourceId = null;
-        List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
+        List<String> resourceIds = CacheKeyUtil.getResourceIds(key, mResourceIdStrategy);
         for (int i = 0; i < resourceIds.size(); i++) {
           resourceId = resourceIds.get(i);
           mStorage.remove(resourceId);
@@ -576,39 +872,50 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
 
   @Override
   public boolean hasKeySync(CacheKey key) {
+    if (mLockFreeReadsEnabled) {
+      return hasKeyInIndex(key);
+    }
     synchronized (mLock) {
-      String resourceId = null;
-      List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
-      for (int i = 0; i < resourceIds.size(); i++) {
-        resourceId = resourceIds.get(i);
-        if (mResourceIndex.contains(resourceId)) {
-          return true;
-        }
+      return hasKeyInIndex(key);
+    }
+  }
+
+  private boolean hasKeyInIndex(CacheKey key) {
+    String resourceId = null;
+    List<String> resourceIds = CacheKeyUtil.getResourceIds(key, mResourceIdStrategy);
+    for (int i = 0; i < resourceIds.size(); i++) {
+      resourceId = resourceIds.get(i);
+      if (mResourceIndex.contains(resourceId)) {
+        return true;
       }
-      return false;
     }
+    return false;
   }
 
   @Override
   public boolean hasKey(final CacheKey key) {
+    if (mLockFreeReadsEnabled) {
+      return hasKeyInIndex(key) || hasKeyInStorage(key);
+    }
     synchronized (mLock) {
-      if (hasKeySync(key)) {
-        return true;
-      }
-      try {
-        String resourceId = null;
-        List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
-        for (int i = 0; i < resourceIds.size(); i++) {
-          resourceId = resourceIds.get(i);
-          if (mStorage.contains(resourceId, key)) {
-            mResourceIndex.add(resourceId);
-            return true;
-          }
+      return hasKeyInIndex(key) || hasKeyInStorage(key);
+    }
+  }
+
+  private boolean hasKeyInStorage(final CacheKey key) {
+    try {
+      String resourceId = null;
+      List<String> resourceIds = CacheKeyUtil.getResourceIds(key, mResourceIdStrategy);
+      for (int i = 0; i < resourceIds.size(); i++) {
+        resourceId = resourceIds.get(i);
+        if (mStorage.contains(resourceId, key)) {
+          addToIndex(resourceId, key);
+          return true;
         }
-        return false;
-      } catch (IOException e) {
-        return false;
       }
+      return false;
+    } catch (IOException e) {
+      return false;
     }
   }
 
@@ -695,6 +1002,11 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
           numFutureFiles++;
           sizeFutureFiles += entry.getSize();
           maxTimeDelta = Math.max(entry.getTimestamp() - now, maxTimeDelta);
+          // entries with a future timestamp are still readable, and lock-free reads trust the
+          // index for misses, so it has to hold them too
+          if (mIndexPopulateAtStartupEnabled && mLockFreeReadsEnabled) {
+            tempResourceIndex.add(entry.getId());
+          }
         } else if (mIndexPopulateAtStartupEnabled) {
           tempResourceIndex.add(entry.getId());
         }
@@ -714,7 +1026,12 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
       }
       if (mCacheStats.getCount() != count || mCacheStats.getSize() != size) {
         if (mIndexPopulateAtStartupEnabled && mResourceIndex != tempResourceIndex) {
-          mResourceIndex.clear();
+          if (mLockFreeReadsEnabled) {
+            // never leave the index empty while lock-free readers may be consulting it
+            mResourceIndex.retainAll(tempResourceIndex);
+          } else {
+            mResourceIndex.clear();
+          }
           mResourceIndex.addAll(tempResourceIndex);
         }
         mCacheStats.set(size, count);
@@ -728,6 +1045,9 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
       return false;
     }
     mCacheSizeLastUpdateTime = now;
+    if (mIndexPopulateAtStartupEnabled) {
+      mIndexComplete = true;
+    }
     return true;
   }
 }
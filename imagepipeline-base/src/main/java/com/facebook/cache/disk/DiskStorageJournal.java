@@ -0,0 +1,460 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import com.facebook.cache.common.CacheErrorLogger;
+import com.facebook.common.file.FileUtils;
+import com.facebook.common.internal.Closeables;
+import com.facebook.common.internal.VisibleForTesting;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Append-only journal of the content files stored by a {@link DefaultDiskStorage}.
+ *
+ * <p>Every insertion, access and removal of a content file is appended to the journal as a single
+ * line, so that the list of entries (with their sizes and last access times) can be rebuilt at
+ * startup by replaying the journal instead of walking and stat-ing every file of every shard.
+ *
+ * <p>Lines have the following format:
+ *
+ * <ul>
+ *   <li>{@code P <resourceId> <size> <timestamp>}: the content file was written
+ *   <li>{@code T <resourceId> <timestamp>}: the content file was accessed
+ *   <li>{@code R <resourceId>}: the content file was removed
+ * </ul>
+ *
+ * <p>Accesses are only kept in memory until {@link #flushTouches} is called when the storage is
+ * trimmed, so that reads don't write to the disk. Accesses that weren't flushed are lost, which
+ * only makes the entries look older than they are.
+ *
+ * <p>Replaying the journal doesn't check that the content files still exist, as that would stat
+ * every file again. A content file deleted without going through the storage is dropped from the
+ * journal when a read finds it missing, see {@link #recordMissing}.
+ *
+ * <p>Once enough redundant lines have been appended, the journal is compacted by rewriting it with
+ * a single line per entry. If the journal cannot be read or written, it is deleted and the storage
+ * falls back to walking the directories, after which the journal is rebuilt from the walk. The
+ * walk is only done by {@link DiskStorage#getEntries()}, which the cache calls from its background
+ * executor: changes made before the journal is loaded are appended to the existing journal if any,
+ * and changes made during the walk are applied on top of its result.
+ */
+@ThreadSafe
+class DiskStorageJournal {
+
+  private static final Class<?> TAG = DiskStorageJournal.class;
+
+  static final String JOURNAL_FILE_NAME = "journal.jnl";
+  static final String JOURNAL_COMPACTION_FILE_NAME = "journal.jnl.new";
+
+  private static final String MAGIC = "fresco.disk.journal";
+  private static final String VERSION = "1";
+
+  private static final String PUT = "P";
+  private static final String TOUCH = "T";
+  private static final String REMOVE = "R";
+
+  @VisibleForTesting static final int COMPACTION_THRESHOLD = 2000;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /** A content file as recorded in the journal. */
+  static class Record {
+    public final String resourceId;
+    public final long size;
+    public final long timestamp;
+
+    Record(String resourceId, long size, long timestamp) {
+      this.resourceId = resourceId;
+      this.size = size;
+      this.timestamp = timestamp;
+    }
+  }
+
+  private final File mDirectory;
+  private final File mJournalFile;
+  private final File mCompactionFile;
+  private final CacheErrorLogger mCacheErrorLogger;
+
+  @GuardedBy("this")
+  private final Map<String, Record> mRecords = new HashMap<>();
+
+  @GuardedBy("this")
+  private boolean mLoaded;
+
+  @GuardedBy("this")
+  private int mRedundantRecordCount;
+
+  /** The entries accessed since the last time the accesses were written to the journal */
+  @GuardedBy("this")
+  private final Set<String> mTouchedResourceIds = new HashSet<>();
+
+  /**
+   * The changes made while the directories are walked, a null record meaning the entry was removed.
+   * Null when no walk is in progress.
+   */
+  @GuardedBy("this")
+  private @Nullable Map<String, Record> mChangesDuringRebuild;
+
+  @GuardedBy("this")
+  private @Nullable Writer mWriter;
+
+  DiskStorageJournal(File directory, CacheErrorLogger cacheErrorLogger) {
+    mDirectory = directory;
+    mJournalFile = new File(directory, JOURNAL_FILE_NAME);
+    mCompactionFile = new File(directory, JOURNAL_COMPACTION_FILE_NAME);
+    mCacheErrorLogger = cacheErrorLogger;
+  }
+
+  /** Returns true if the given file is one of the files owned by the journal. */
+  boolean isJournalFile(File file) {
+    return mJournalFile.equals(file) || mCompactionFile.equals(file);
+  }
+
+  /** Returns true if the records reflect the content of the storage. */
+  synchronized boolean isLoaded() {
+    return mLoaded;
+  }
+
+  /**
+   * Replays the journal from disk.
+   *
+   * @return true if the journal was read successfully, false if it is missing or corrupt, in which
+   *     case {@link #beginRebuild} and {@link #rebuild} must be called around a walk of the storage
+   */
+  synchronized boolean load() {
+    if (mLoaded) {
+      return true;
+    }
+    mRecords.clear();
+    mRedundantRecordCount = 0;
+    if (!mJournalFile.exists()) {
+      return false;
+    }
+    BufferedReader reader = null;
+    try {
+      reader =
+          new BufferedReader(new InputStreamReader(new FileInputStream(mJournalFile), UTF_8));
+      if (!(MAGIC + " " + VERSION).equals(reader.readLine())) {
+        throw new IOException("Unexpected journal header");
+      }
+      String line = reader.readLine();
+      while (line != null) {
+        String next = reader.readLine();
+        if (!replay(line) && next != null) {
+          // Only the very last line may be malformed, as the result of an interrupted write.
+          throw new IOException("Malformed journal line: " + line);
+        }
+        line = next;
+      }
+      mLoaded = true;
+    } catch (IOException | NumberFormatException e) {
+      mCacheErrorLogger.logError(
+          CacheErrorLogger.CacheErrorCategory.READ_INVALID_ENTRY, TAG, "load: corrupt journal", e);
+      mRecords.clear();
+      mJournalFile.delete();
+    } finally {
+      Closeables.closeQuietly(reader);
+    }
+    return mLoaded;
+  }
+
+  private boolean replay(String line) {
+    String[] parts = line.split(" ");
+    if (PUT.equals(parts[0]) && parts.length == 4) {
+      Record old =
+          mRecords.put(
+              parts[1], new Record(parts[1], Long.parseLong(parts[2]), Long.parseLong(parts[3])));
+      if (old != null) {
+        mRedundantRecordCount++;
+      }
+      return true;
+    } else if (TOUCH.equals(parts[0]) && parts.length == 3) {
+      Record old = mRecords.get(parts[1]);
+      if (old != null) {
+        mRecords.put(parts[1], new Record(parts[1], old.size, Long.parseLong(parts[2])));
+      }
+      mRedundantRecordCount++;
+      return true;
+    } else if (REMOVE.equals(parts[0]) && parts.length == 2) {
+      mRecords.remove(parts[1]);
+      mRedundantRecordCount += 2;
+      return true;
+    }
+    return false;
+  }
+
+  /** Starts recording the changes made while the storage is walked for {@link #rebuild}. */
+  synchronized void beginRebuild() {
+    mChangesDuringRebuild = new HashMap<>();
+  }
+
+  /**
+   * Replaces the content of the journal with the given entries, obtained from the storage, and the
+   * changes made since {@link #beginRebuild}.
+   */
+  synchronized void rebuild(List<DiskStorage.Entry> entries) {
+    mRecords.clear();
+    for (DiskStorage.Entry entry : entries) {
+      mRecords.put(
+          entry.getId(), new Record(entry.getId(), entry.getSize(), entry.getTimestamp()));
+    }
+    if (mChangesDuringRebuild != null) {
+      for (Map.Entry<String, Record> change : mChangesDuringRebuild.entrySet()) {
+        if (change.getValue() != null) {
+          mRecords.put(change.getKey(), change.getValue());
+        } else {
+          mRecords.remove(change.getKey());
+        }
+      }
+      mChangesDuringRebuild = null;
+    }
+    mLoaded = true;
+    compact();
+  }
+
+  /** Returns a snapshot of the entries currently recorded in the journal. */
+  synchronized List<Record> getRecords() {
+    return new ArrayList<>(mRecords.values());
+  }
+
+  synchronized void recordPut(String resourceId, long size, long timestamp) {
+    final String line = PUT + " " + resourceId + " " + size + " " + timestamp;
+    if (!mLoaded) {
+      recordUnloaded(resourceId, new Record(resourceId, size, timestamp), line);
+      return;
+    }
+    if (mRecords.put(resourceId, new Record(resourceId, size, timestamp)) != null) {
+      mRedundantRecordCount++;
+    }
+    mTouchedResourceIds.remove(resourceId);
+    append(line);
+  }
+
+  /** Records an access in memory only, see {@link #flushTouches}. */
+  synchronized void recordTouch(String resourceId, long timestamp) {
+    if (!mLoaded) {
+      return;
+    }
+    Record old = mRecords.get(resourceId);
+    if (old == null) {
+      return;
+    }
+    mRecords.put(resourceId, new Record(resourceId, old.size, timestamp));
+    mTouchedResourceIds.add(resourceId);
+  }
+
+  synchronized void recordRemove(String resourceId) {
+    final String line = REMOVE + " " + resourceId;
+    if (!mLoaded) {
+      recordUnloaded(resourceId, null, line);
+      return;
+    }
+    mTouchedResourceIds.remove(resourceId);
+    if (mRecords.remove(resourceId) == null) {
+      return;
+    }
+    mRedundantRecordCount += 2;
+    append(line);
+  }
+
+  /**
+   * Records that the content file of an entry was found missing. Unlike {@link #recordRemove},
+   * nothing is written unless the journal has a record of the entry, so that looking up entries
+   * that aren't in the storage doesn't write to the disk.
+   */
+  synchronized void recordMissing(String resourceId) {
+    if (!mLoaded) {
+      if (mChangesDuringRebuild != null) {
+        mChangesDuringRebuild.put(resourceId, null);
+      }
+      return;
+    }
+    if (mRecords.containsKey(resourceId)) {
+      recordRemove(resourceId);
+    }
+  }
+
+  /**
+   * Records a change made before the journal is loaded: it is appended to the existing journal, if
+   * any, for {@link #load} to replay it, and kept for {@link #rebuild} if the storage is being
+   * walked.
+   */
+  @GuardedBy("this")
+  private void recordUnloaded(String resourceId, @Nullable Record record, String line) {
+    if (mChangesDuringRebuild != null) {
+      mChangesDuringRebuild.put(resourceId, record);
+    }
+    if (mJournalFile.exists()) {
+      append(line);
+    }
+  }
+
+  /** Writes the accesses recorded since the last call to the journal. */
+  synchronized void flushTouches() {
+    if (!mLoaded || mTouchedResourceIds.isEmpty()) {
+      return;
+    }
+    mRedundantRecordCount += mTouchedResourceIds.size();
+    if (shouldCompact()) {
+      compact();
+      return;
+    }
+    try {
+      Writer writer = getWriter();
+      if (writer == null) {
+        return;
+      }
+      for (String resourceId : mTouchedResourceIds) {
+        Record record = mRecords.get(resourceId);
+        if (record != null) {
+          writer.write(TOUCH + " " + resourceId + " " + record.timestamp + "\n");
+        }
+      }
+      writer.flush();
+      mTouchedResourceIds.clear();
+    } catch (IOException e) {
+      onWriteError("flushTouches", e);
+    }
+  }
+
+  /** Called when all the content of the storage has been deleted. */
+  synchronized void clear() {
+    closeWriter();
+    mRecords.clear();
+    mTouchedResourceIds.clear();
+    if (mChangesDuringRebuild != null) {
+      mChangesDuringRebuild.clear();
+    }
+    mRedundantRecordCount = 0;
+    mJournalFile.delete();
+    mLoaded = true;
+  }
+
+  @GuardedBy("this")
+  private void append(String line) {
+    if (mLoaded && shouldCompact()) {
+      compact();
+      return;
+    }
+    try {
+      Writer writer = getWriter();
+      if (writer == null) {
+        return;
+      }
+      writer.write(line);
+      writer.write('\n');
+      writer.flush();
+    } catch (IOException e) {
+      onWriteError("append", e);
+    }
+  }
+
+  @GuardedBy("this")
+  private boolean shouldCompact() {
+    return mRedundantRecordCount >= COMPACTION_THRESHOLD
+        && mRedundantRecordCount >= mRecords.size();
+  }
+
+  /**
+   * Returns the writer appending to the journal, or null if the journal had to be created from the
+   * records instead, which is only done once they are loaded.
+   */
+  @GuardedBy("this")
+  private @Nullable Writer getWriter() throws FileNotFoundException {
+    if (mWriter == null) {
+      if (!mJournalFile.exists()) {
+        if (mLoaded) {
+          compact();
+        }
+        return null;
+      }
+      mWriter = newWriter(mJournalFile, true);
+    }
+    return mWriter;
+  }
+
+  /** Rewrites the journal with a single line per entry. */
+  @GuardedBy("this")
+  private void compact() {
+    closeWriter();
+    Writer writer = null;
+    try {
+      FileUtils.mkdirs(mDirectory);
+      writer = newWriter(mCompactionFile, false);
+      writer.write(MAGIC + " " + VERSION + "\n");
+      for (Record record : mRecords.values()) {
+        writer.write(
+            PUT + " " + record.resourceId + " " + record.size + " " + record.timestamp + "\n");
+      }
+      writer.close();
+      writer = null;
+      FileUtils.rename(mCompactionFile, mJournalFile);
+      mRedundantRecordCount = 0;
+      mTouchedResourceIds.clear();
+    } catch (IOException e) {
+      closeQuietly(writer);
+      mCompactionFile.delete();
+      onWriteError("compact", e);
+    }
+  }
+
+  /**
+   * Drops the journal when it can't be kept in sync with the storage, so that the next start falls
+   * back to walking the directories.
+   */
+  @GuardedBy("this")
+  private void onWriteError(String message, IOException e) {
+    mCacheErrorLogger.logError(
+        CacheErrorLogger.CacheErrorCategory.WRITE_UPDATE_FILE_NOT_FOUND, TAG, message, e);
+    closeWriter();
+    mJournalFile.delete();
+    mRecords.clear();
+    mTouchedResourceIds.clear();
+    mLoaded = false;
+  }
+
+  @GuardedBy("this")
+  private void closeWriter() {
+    closeQuietly(mWriter);
+    mWriter = null;
+  }
+
+  private static void closeQuietly(@Nullable Writer writer) {
+    if (writer == null) {
+      return;
+    }
+    try {
+      writer.close();
+    } catch (IOException e) {
+      // nothing to do, the journal is either complete or about to be dropped
+    }
+  }
+
+  private static Writer newWriter(File file, boolean append) throws FileNotFoundException {
+    return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, append), UTF_8));
+  }
+}
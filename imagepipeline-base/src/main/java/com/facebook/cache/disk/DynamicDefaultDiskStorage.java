@@ -28,6 +28,7 @@ public class DynamicDefaultDiskStorage implements DiskStorage {
   private final Supplier<File> mBaseDirectoryPathSupplier;
   private final String mBaseDirectoryName;
   private final CacheErrorLogger mCacheErrorLogger;
+  private final boolean mJournalEnabled;
 
   @VisibleForTesting volatile State mCurrentState;
 
@@ -49,7 +50,17 @@ public class DynamicDefaultDiskStorage implements DiskStorage {
       Supplier<File> baseDirectoryPathSupplier,
       String baseDirectoryName,
       CacheErrorLogger cacheErrorLogger) {
+    this(version, baseDirectoryPathSupplier, baseDirectoryName, cacheErrorLogger, false);
+  }
+
+  public DynamicDefaultDiskStorage(
+      int version,
+      Supplier<File> baseDirectoryPathSupplier,
+      String baseDirectoryName,
+      CacheErrorLogger cacheErrorLogger,
+      boolean journalEnabled) {
     mVersion = version;
+    mJournalEnabled = journalEnabled;
     mCacheErrorLogger = cacheErrorLogger;
     mBaseDirectoryPathSupplier = baseDirectoryPathSupplier;
     mBaseDirectoryName = baseDirectoryName;
@@ -175,7 +186,8 @@ public class DynamicDefaultDiskStorage implements DiskStorage {
   private void createStorage() throws IOException {
     File rootDirectory = new File(mBaseDirectoryPathSupplier.get(), mBaseDirectoryName);
     createRootDirectoryIfNecessary(rootDirectory);
-    DiskStorage storage = new DefaultDiskStorage(rootDirectory, mVersion, mCacheErrorLogger);
+    DiskStorage storage =
+        new DefaultDiskStorage(rootDirectory, mVersion, mCacheErrorLogger, mJournalEnabled);
     mCurrentState = new State(rootDirectory, storage);
   }
 
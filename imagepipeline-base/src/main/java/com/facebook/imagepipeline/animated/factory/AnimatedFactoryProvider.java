@@ -8,11 +8,13 @@
 package com.facebook.imagepipeline.animated.factory;
 
 import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.disk.FileCache;
 import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
 import com.facebook.imagepipeline.cache.CountingMemoryCache;
 import com.facebook.imagepipeline.core.ExecutorSupplier;
 import com.facebook.imagepipeline.image.CloseableImage;
 import java.lang.reflect.Constructor;
+import javax.annotation.Nullable;
 
 public class AnimatedFactoryProvider {
 
@@ -25,6 +27,34 @@ public class AnimatedFactoryProvider {
       ExecutorSupplier executorSupplier,
       CountingMemoryCache<CacheKey, CloseableImage> backingCache,
       boolean downscaleFrameToDrawableDimensions) {
+    return getAnimatedFactory(
+        platformBitmapFactory,
+        executorSupplier,
+        backingCache,
+        downscaleFrameToDrawableDimensions,
+        0,
+        0,
+        0,
+        null);
+  }
+
+  /**
+   * @param checkpointInterval the number of frames between two snapshots of the animations, 0 to
+   *     disable the snapshots
+   * @param maxCheckpointBytes the size of the snapshots kept from being evicted, per image
+   * @param framePreparationBudget the number of frames prepared ahead for all the animations, 0
+   *     to prepare a fixed number of frames for each animation
+   * @param frameDiskCache the disk cache to keep the prepared frames in, null to not cache them
+   */
+  public static AnimatedFactory getAnimatedFactory(
+      PlatformBitmapFactory platformBitmapFactory,
+      ExecutorSupplier executorSupplier,
+      CountingMemoryCache<CacheKey, CloseableImage> backingCache,
+      boolean downscaleFrameToDrawableDimensions,
+      int checkpointInterval,
+      int maxCheckpointBytes,
+      int framePreparationBudget,
+      @Nullable FileCache frameDiskCache) {
     if (!sImplLoaded) {
       try {
         final Class<?> clazz =
@@ -34,14 +64,22 @@ public class AnimatedFactoryProvider {
                 PlatformBitmapFactory.class,
                 ExecutorSupplier.class,
                 CountingMemoryCache.class,
-                Boolean.TYPE);
+                Boolean.TYPE,
+                Integer.TYPE,
+                Integer.TYPE,
+                Integer.TYPE,
+                FileCache.class);
         sImpl =
             (AnimatedFactory)
                 constructor.newInstance(
                     platformBitmapFactory,
                     executorSupplier,
                     backingCache,
-                    downscaleFrameToDrawableDimensions);
+                    downscaleFrameToDrawableDimensions,
+                    checkpointInterval,
+                    maxCheckpointBytes,
+                    framePreparationBudget,
+                    frameDiskCache);
       } catch (Throwable e) {
         // Head in the sand
       }
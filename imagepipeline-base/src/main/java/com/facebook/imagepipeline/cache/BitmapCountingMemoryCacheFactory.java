@@ -27,6 +27,18 @@ public class BitmapCountingMemoryCacheFactory {
       Supplier<MemoryCacheParams> bitmapMemoryCacheParamsSupplier,
       MemoryTrimmableRegistry memoryTrimmableRegistry,
       CountingMemoryCache.CacheTrimStrategy trimStrategy) {
+    return get(bitmapMemoryCacheParamsSupplier, memoryTrimmableRegistry, trimStrategy, 1);
+  }
+
+  /**
+   * @param segmentCount the number of independently locked segments of the cache. If greater than
+   *     one, a {@link SegmentedCountingMemoryCache} is returned.
+   */
+  public static CountingMemoryCache<CacheKey, CloseableImage> get(
+      Supplier<MemoryCacheParams> bitmapMemoryCacheParamsSupplier,
+      MemoryTrimmableRegistry memoryTrimmableRegistry,
+      CountingMemoryCache.CacheTrimStrategy trimStrategy,
+      int segmentCount) {
 
     ValueDescriptor<CloseableImage> valueDescriptor =
         new ValueDescriptor<CloseableImage>() {
@@ -37,7 +49,11 @@ public class BitmapCountingMemoryCacheFactory {
         };
 
     CountingMemoryCache<CacheKey, CloseableImage> countingCache =
-        new CountingMemoryCache<>(valueDescriptor, trimStrategy, bitmapMemoryCacheParamsSupplier);
+        segmentCount > 1
+            ? new SegmentedCountingMemoryCache<>(
+                valueDescriptor, trimStrategy, bitmapMemoryCacheParamsSupplier, segmentCount)
+            : new CountingMemoryCache<>(
+                valueDescriptor, trimStrategy, bitmapMemoryCacheParamsSupplier);
 
     memoryTrimmableRegistry.registerMemoryTrimmable(countingCache);
 
@@ -29,7 +29,8 @@ import javax.annotation.concurrent.ThreadSafe;
  * Layer of memory cache stack responsible for managing eviction of the the cached items.
  *
  * <p>This layer is responsible for LRU eviction strategy and for maintaining the size boundaries of
- * the cached items.
+ * the cached items. The {@link MemoryCacheParams#evictionPolicy} of the params the cache is created
+ * with can replace the LRU eviction with a {@link TinyLfuEvictionPolicy}.
  *
  * <p>Only the exclusively owned elements, i.e. the elements not referenced by any client, can be
  * evicted.
@@ -109,6 +110,18 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
   @GuardedBy("this")
   private long mLastCacheParamsCheck;
 
+  // Chooses the exclusively owned items to evict, null to evict the least recently used ones.
+  @GuardedBy("this")
+  @Nullable
+  @VisibleForTesting
+  final TinyLfuEvictionPolicy<K, V> mEvictionPolicy;
+
+  @GuardedBy("this")
+  private long mHitCount;
+
+  @GuardedBy("this")
+  private long mMissCount;
+
   public CountingMemoryCache(
       ValueDescriptor<V> valueDescriptor,
       CacheTrimStrategy cacheTrimStrategy,
@@ -120,6 +133,11 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
     mMemoryCacheParamsSupplier = memoryCacheParamsSupplier;
     mMemoryCacheParams = mMemoryCacheParamsSupplier.get();
     mLastCacheParamsCheck = SystemClock.uptimeMillis();
+    mEvictionPolicy =
+        mMemoryCacheParams.evictionPolicy == MemoryCacheParams.EvictionPolicy.TINY_LFU
+            ? new TinyLfuEvictionPolicy<>(
+                wrapValueDescriptor(valueDescriptor), mMemoryCacheParams.maxCacheEntries)
+            : null;
   }
 
   private ValueDescriptor<Entry<K, V>> wrapValueDescriptor(
@@ -174,6 +192,9 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
       if (canCacheNewValue(valueRef.get())) {
         Entry<K, V> newEntry = Entry.of(key, valueRef, observer);
         mCachedEntries.put(key, newEntry);
+        if (mEvictionPolicy != null) {
+          mEvictionPolicy.onAdd(newEntry);
+        }
         clientRef = newClientReference(newEntry);
       }
     }
@@ -207,6 +228,12 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
       Entry<K, V> entry = mCachedEntries.get(key);
       if (entry != null) {
         clientRef = newClientReference(entry);
+        mHitCount++;
+      } else {
+        mMissCount++;
+      }
+      if (mEvictionPolicy != null) {
+        mEvictionPolicy.onLookup(key, entry, mMemoryCacheParams.maxCacheSize);
       }
     }
     maybeNotifyExclusiveEntryRemoval(oldExclusive);
@@ -248,6 +275,9 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
   private synchronized boolean maybeAddToExclusives(Entry<K, V> entry) {
     if (!entry.isOrphan && entry.clientCount == 0) {
       mExclusiveEntries.put(entry.key, entry);
+      if (mEvictionPolicy != null) {
+        mEvictionPolicy.onExclusive(entry);
+      }
       return true;
     }
     return false;
@@ -270,6 +300,9 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
         Entry<K, V> entry = mCachedEntries.remove(key);
         Preconditions.checkNotNull(entry);
         Preconditions.checkState(entry.clientCount == 0);
+        if (mEvictionPolicy != null) {
+          mEvictionPolicy.onRemove(entry);
+        }
         // optimization: instead of cloning and then closing the original reference,
         // we just do a move
         clientRef = entry.valueRef;
@@ -411,9 +444,20 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
     }
     ArrayList<Entry<K, V>> oldEntries = new ArrayList<>();
     while (mExclusiveEntries.getCount() > count || mExclusiveEntries.getSizeInBytes() > size) {
-      K key = mExclusiveEntries.getFirstKey();
+      K key = null;
+      if (mEvictionPolicy != null) {
+        key = mEvictionPolicy.getEvictionCandidate(mMemoryCacheParams.maxCacheSize);
+      }
+      if (key == null) {
+        key = mExclusiveEntries.getFirstKey();
+      }
       mExclusiveEntries.remove(key);
-      oldEntries.add(mCachedEntries.remove(key));
+      Entry<K, V> oldEntry = mCachedEntries.remove(key);
+      if (mEvictionPolicy != null) {
+        // the entry is orphaned later, but the policy must not pick it again
+        mEvictionPolicy.onRemove(oldEntry);
+      }
+      oldEntries.add(oldEntry);
     }
     return oldEntries;
   }
@@ -466,6 +510,9 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
     Preconditions.checkNotNull(entry);
     Preconditions.checkState(!entry.isOrphan);
     entry.isOrphan = true;
+    if (mEvictionPolicy != null) {
+      mEvictionPolicy.onRemove(entry);
+    }
   }
 
   /** Increases the entry's client count. */
@@ -521,10 +568,22 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
     return mExclusiveEntries.getSizeInBytes();
   }
 
+  /** Gets the number of lookups that found an item. */
+  public synchronized long getHitCount() {
+    return mHitCount;
+  }
+
+  /** Gets the number of lookups that didn't find an item. */
+  public synchronized long getMissCount() {
+    return mMissCount;
+  }
+
   public String reportData() {
     return Objects.toStringHelper("CountingMemoryCache")
         .add("cached_entries_count:", mCachedEntries.getCount())
         .add("exclusive_entries_count", mExclusiveEntries.getCount())
+        .add("hit_count", getHitCount())
+        .add("miss_count", getMissCount())
         .toString();
   }
 }
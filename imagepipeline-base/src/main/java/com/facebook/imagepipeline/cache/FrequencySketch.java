@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.common.internal.Preconditions;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A probabilistic estimate of how often keys were used recently: a count-min sketch of 4-bit
+ * counters.
+ *
+ * <p>Each key is counted in four counters picked by different hashes, and its frequency is the
+ * smallest of them, so collisions can only overestimate it. The counters saturate at 15. Once the
+ * sketch has been incremented ten times per key it is sized for, all the counters are halved, so
+ * that the keys that stopped being used age out.
+ *
+ * <p>The sketch takes 8 bytes per key it is sized for, rounded up to a power of two.
+ */
+@NotThreadSafe
+class FrequencySketch {
+
+  static final int MAX_FREQUENCY = 15;
+
+  private static final long[] SEEDS = {
+    0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+  };
+  private static final long RESET_MASK = 0x7777777777777777L;
+  private static final long ONE_MASK = 0x1111111111111111L;
+  private static final int SAMPLE_SIZE_MULTIPLIER = 10;
+
+  // every long holds 16 counters, in 4 groups of 4: a key uses one counter of a group in 4 longs
+  private final long[] mTable;
+  private final int mTableMask;
+  private final int mSampleSize;
+  private int mAdditions;
+
+  /** @param capacity the number of distinct keys to track, rounded up to a power of two */
+  FrequencySketch(int capacity) {
+    Preconditions.checkArgument(capacity > 0);
+    int size = 1;
+    while (size < capacity) {
+      size <<= 1;
+    }
+    mTable = new long[size];
+    mTableMask = size - 1;
+    mSampleSize = SAMPLE_SIZE_MULTIPLIER * size;
+  }
+
+  /** Returns the estimated number of uses of the key, between 0 and {@link #MAX_FREQUENCY}. */
+  int frequency(Object key) {
+    final int hash = spread(key.hashCode());
+    final int start = (hash & 3) << 2;
+    int frequency = MAX_FREQUENCY;
+    for (int i = 0; i < 4; i++) {
+      final int index = indexOf(hash, i);
+      final int count = (int) ((mTable[index] >>> ((start + i) << 2)) & 0xfL);
+      frequency = Math.min(frequency, count);
+    }
+    return frequency;
+  }
+
+  /** Counts a use of the key, and ages all the counters once enough uses were counted. */
+  void increment(Object key) {
+    final int hash = spread(key.hashCode());
+    final int start = (hash & 3) << 2;
+    boolean added = false;
+    for (int i = 0; i < 4; i++) {
+      added |= incrementAt(indexOf(hash, i), start + i);
+    }
+    if (added && ++mAdditions == mSampleSize) {
+      reset();
+    }
+  }
+
+  private boolean incrementAt(int index, int counter) {
+    final int offset = counter << 2;
+    final long mask = 0xfL << offset;
+    if ((mTable[index] & mask) != mask) {
+      mTable[index] += 1L << offset;
+      return true;
+    }
+    return false;
+  }
+
+  /** Halves all the counters. */
+  private void reset() {
+    int oddCounters = 0;
+    for (int i = 0; i < mTable.length; i++) {
+      oddCounters += Long.bitCount(mTable[i] & ONE_MASK);
+      mTable[i] = (mTable[i] >>> 1) & RESET_MASK;
+    }
+    // each key has 4 counters, whose odd halves are lost
+    mAdditions = (mAdditions >>> 1) - (oddCounters >>> 2);
+  }
+
+  private int indexOf(int hash, int i) {
+    long index = (hash + SEEDS[i]) * SEEDS[i];
+    index += (index >>> 32);
+    return ((int) index) & mTableMask;
+  }
+
+  /** Spreads the bits of the hash code, as keys frequently have poorly distributed hash codes. */
+  private static int spread(int hash) {
+    hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+    hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+    return (hash >>> 16) ^ hash;
+  }
+}
@@ -12,12 +12,25 @@ import java.util.concurrent.TimeUnit;
 /** Configuration for a memory cache. */
 public class MemoryCacheParams {
 
+  /** The policies that choose which of the unused entries of the cache get evicted first. */
+  public enum EvictionPolicy {
+    /** Evicts the least recently used entries first. */
+    LRU,
+    /**
+     * Evicts the entries by their recency and their frequency of use, so that a burst of entries
+     * used once, like during a fast scroll, doesn't flush the entries that are used repeatedly.
+     * See {@link TinyLfuEvictionPolicy}.
+     */
+    TINY_LFU
+  }
+
   public final int maxCacheSize;
   public final int maxCacheEntries;
   public final int maxEvictionQueueSize;
   public final int maxEvictionQueueEntries;
   public final int maxCacheEntrySize;
   public final long paramsCheckIntervalMs;
+  public final EvictionPolicy evictionPolicy;
 
   /**
    * Pass arguments to control the cache's behavior in the constructor.
@@ -62,11 +75,43 @@ public class MemoryCacheParams {
       int maxEvictionQueueEntries,
       int maxCacheEntrySize,
       long paramsCheckIntervalMs) {
+    this(
+        maxCacheSize,
+        maxCacheEntries,
+        maxEvictionQueueSize,
+        maxEvictionQueueEntries,
+        maxCacheEntrySize,
+        paramsCheckIntervalMs,
+        EvictionPolicy.LRU);
+  }
+
+  /**
+   * Pass arguments to control the cache's behavior in the constructor.
+   *
+   * @param maxCacheSize The maximum size of the cache, in bytes.
+   * @param maxCacheEntries The maximum number of items that can live in the cache.
+   * @param maxEvictionQueueSize The eviction queue is an area of memory that stores items ready for
+   *     eviction but have not yet been deleted. This is the maximum size of that queue in bytes.
+   * @param maxEvictionQueueEntries The maximum number of entries in the eviction queue.
+   * @param maxCacheEntrySize The maximum size of a single cache entry.
+   * @param paramsCheckIntervalMs Interval between checking parameters for updated values in ms.
+   * @param evictionPolicy The policy that chooses the entries to evict. Only the policy of the
+   *     params the cache is created with is used: later updates of the params don't change it.
+   */
+  public MemoryCacheParams(
+      int maxCacheSize,
+      int maxCacheEntries,
+      int maxEvictionQueueSize,
+      int maxEvictionQueueEntries,
+      int maxCacheEntrySize,
+      long paramsCheckIntervalMs,
+      EvictionPolicy evictionPolicy) {
     this.maxCacheSize = maxCacheSize;
     this.maxCacheEntries = maxCacheEntries;
     this.maxEvictionQueueSize = maxEvictionQueueSize;
     this.maxEvictionQueueEntries = maxEvictionQueueEntries;
     this.maxCacheEntrySize = maxCacheEntrySize;
     this.paramsCheckIntervalMs = paramsCheckIntervalMs;
+    this.evictionPolicy = evictionPolicy;
   }
 }
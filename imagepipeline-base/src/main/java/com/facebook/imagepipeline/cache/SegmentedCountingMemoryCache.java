@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.common.internal.Objects;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.Predicate;
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.logging.FLog;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.references.CloseableReference;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A {@link CountingMemoryCache} that splits its content across a number of independent segments.
+ *
+ * <p>Each key is routed to a single segment based on its hash code. Every segment is a regular
+ * {@link CountingMemoryCache} with its own lock and its own LRU queues, so operations on keys that
+ * live in different segments never contend with each other.
+ *
+ * <p>The limits of the {@link MemoryCacheParams} supplied to this cache are global: each segment
+ * gets an equal share of them, so the sum of all the segments never exceeds the configured limits.
+ * Since every segment evicts on its own, the LRU order is only maintained per segment.
+ *
+ * <p>As an entry has to fit in a single segment, the size of an entry is also capped to the share
+ * of the cache size of a segment. Entries between that share and {@link
+ * MemoryCacheParams#maxCacheEntrySize} can't be cached, so this cache should only be used when the
+ * cache is large compared to the entries, and a warning is logged when the cap applies.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+@ThreadSafe
+public class SegmentedCountingMemoryCache<K, V> extends CountingMemoryCache<K, V> {
+
+  public static final int MAX_SEGMENT_COUNT = 64;
+
+  @VisibleForTesting final CountingMemoryCache<K, V>[] mSegments;
+  private final int mSegmentMask;
+  private final Supplier<MemoryCacheParams> mMemoryCacheParamsSupplier;
+
+  /**
+   * @param segmentCount the number of segments, rounded up to the next power of two and capped to
+   *     {@link #MAX_SEGMENT_COUNT}
+   */
+  @SuppressWarnings("unchecked")
+  public SegmentedCountingMemoryCache(
+      ValueDescriptor<V> valueDescriptor,
+      CacheTrimStrategy cacheTrimStrategy,
+      Supplier<MemoryCacheParams> memoryCacheParamsSupplier,
+      int segmentCount) {
+    super(valueDescriptor, cacheTrimStrategy, memoryCacheParamsSupplier);
+    Preconditions.checkArgument(segmentCount > 0);
+    int size = 1;
+    while (size < segmentCount && size < MAX_SEGMENT_COUNT) {
+      size <<= 1;
+    }
+    mMemoryCacheParamsSupplier = memoryCacheParamsSupplier;
+    mSegmentMask = size - 1;
+    mSegments = new CountingMemoryCache[size];
+    Supplier<MemoryCacheParams> segmentParamsSupplier =
+        new SegmentParamsSupplier(memoryCacheParamsSupplier, size);
+    for (int i = 0; i < size; i++) {
+      mSegments[i] =
+          new CountingMemoryCache<>(valueDescriptor, cacheTrimStrategy, segmentParamsSupplier);
+    }
+  }
+
+  @VisibleForTesting
+  CountingMemoryCache<K, V> segmentFor(K key) {
+    // spread the higher bits downwards, as keys frequently have poorly distributed lower bits
+    int hash = key.hashCode();
+    hash ^= (hash >>> 16);
+    return mSegments[hash & mSegmentMask];
+  }
+
+  public int getSegmentCount() {
+    return mSegments.length;
+  }
+
+  /**
+   * Returns the segments, which hold the entries of this cache. The fields inherited from {@link
+   * CountingMemoryCache} are not used, so tools that inspect the entries have to go through the
+   * segments.
+   */
+  public List<CountingMemoryCache<K, V>> getSegments() {
+    return Collections.unmodifiableList(Arrays.asList(mSegments));
+  }
+
+  @Override
+  public @Nullable CloseableReference<V> cache(
+      final K key, final CloseableReference<V> valueRef, final EntryStateObserver<K> observer) {
+    Preconditions.checkNotNull(key);
+    return segmentFor(key).cache(key, valueRef, observer);
+  }
+
+  @Nullable
+  @Override
+  public CloseableReference<V> get(final K key) {
+    Preconditions.checkNotNull(key);
+    return segmentFor(key).get(key);
+  }
+
+  @Nullable
+  @Override
+  public CloseableReference<V> reuse(K key) {
+    Preconditions.checkNotNull(key);
+    return segmentFor(key).reuse(key);
+  }
+
+  @Override
+  public int removeAll(Predicate<K> predicate) {
+    int removed = 0;
+    for (CountingMemoryCache<K, V> segment : mSegments) {
+      removed += segment.removeAll(predicate);
+    }
+    return removed;
+  }
+
+  @Override
+  public void clear() {
+    for (CountingMemoryCache<K, V> segment : mSegments) {
+      segment.clear();
+    }
+  }
+
+  @Override
+  public boolean contains(Predicate<K> predicate) {
+    for (CountingMemoryCache<K, V> segment : mSegments) {
+      if (segment.contains(predicate)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean contains(K key) {
+    return segmentFor(key).contains(key);
+  }
+
+  @Override
+  public void trim(MemoryTrimType trimType) {
+    for (CountingMemoryCache<K, V> segment : mSegments) {
+      segment.trim(trimType);
+    }
+  }
+
+  /** Returns the global params, as opposed to the share of them that each segment is given. */
+  @Override
+  public MemoryCacheParams getMemoryCacheParams() {
+    return mMemoryCacheParamsSupplier.get();
+  }
+
+  @Override
+  public int getCount() {
+    int count = 0;
+    for (CountingMemoryCache<K, V> segment : mSegments) {
+      count += segment.getCount();
+    }
+    return count;
+  }
+
+  @Override
+  public int getSizeInBytes() {
+    int size = 0;
+    for (CountingMemoryCache<K, V> segment : mSegments) {
+      size += segment.getSizeInBytes();
+    }
+    return size;
+  }
+
+  @Override
+  public int getInUseCount() {
+    int count = 0;
+    for (CountingMemoryCache<K, V> segment : mSegments) {
+      count += segment.getInUseCount();
+    }
+    return count;
+  }
+
+  @Override
+  public int getInUseSizeInBytes() {
+    int size = 0;
+    for (CountingMemoryCache<K, V> segment : mSegments) {
+      size += segment.getInUseSizeInBytes();
+    }
+    return size;
+  }
+
+  @Override
+  public int getEvictionQueueCount() {
+    int count = 0;
+    for (CountingMemoryCache<K, V> segment : mSegments) {
+      count += segment.getEvictionQueueCount();
+    }
+    return count;
+  }
+
+  @Override
+  public int getEvictionQueueSizeInBytes() {
+    int size = 0;
+    for (CountingMemoryCache<K, V> segment : mSegments) {
+      size += segment.getEvictionQueueSizeInBytes();
+    }
+    return size;
+  }
+
+  @Override
+  public long getHitCount() {
+    long count = 0;
+    for (CountingMemoryCache<K, V> segment : mSegments) {
+      count += segment.getHitCount();
+    }
+    return count;
+  }
+
+  @Override
+  public long getMissCount() {
+    long count = 0;
+    for (CountingMemoryCache<K, V> segment : mSegments) {
+      count += segment.getMissCount();
+    }
+    return count;
+  }
+
+  @Override
+  public String reportData() {
+    return Objects.toStringHelper("SegmentedCountingMemoryCache")
+        .add("segment_count", mSegments.length)
+        .add("cached_entries_count:", getCount())
+        .add("exclusive_entries_count", getEvictionQueueCount())
+        .add("hit_count", getHitCount())
+        .add("miss_count", getMissCount())
+        .toString();
+  }
+
+  /**
+   * Divides the limits of the global params evenly between the segments. The max entry size is
+   * capped to the max size of a segment, since a larger entry couldn't be cached by any segment.
+   */
+  @VisibleForTesting
+  static class SegmentParamsSupplier implements Supplier<MemoryCacheParams> {
+
+    private static final Class<?> TAG = SegmentParamsSupplier.class;
+
+    private final Supplier<MemoryCacheParams> mDelegate;
+    private final int mSegmentCount;
+    private int mLastLoggedMaxCacheEntrySize = -1;
+
+    SegmentParamsSupplier(Supplier<MemoryCacheParams> delegate, int segmentCount) {
+      mDelegate = delegate;
+      mSegmentCount = segmentCount;
+    }
+
+    @Override
+    public MemoryCacheParams get() {
+      MemoryCacheParams params = mDelegate.get();
+      int maxCacheSize = share(params.maxCacheSize);
+      if (params.maxCacheEntrySize > maxCacheSize
+          && params.maxCacheEntrySize != mLastLoggedMaxCacheEntrySize) {
+        mLastLoggedMaxCacheEntrySize = params.maxCacheEntrySize;
+        FLog.w(
+            TAG,
+            "Max cache entry size %d capped to the size of a segment: %d",
+            params.maxCacheEntrySize,
+            maxCacheSize);
+      }
+      return new MemoryCacheParams(
+          maxCacheSize,
+          share(params.maxCacheEntries),
+          share(params.maxEvictionQueueSize),
+          share(params.maxEvictionQueueEntries),
+          Math.min(params.maxCacheEntrySize, maxCacheSize),
+          params.paramsCheckIntervalMs,
+          params.evictionPolicy);
+    }
+
+    private int share(int limit) {
+      // round down, so that the sum of the segments never exceeds the global limit
+      return limit == Integer.MAX_VALUE ? limit : limit / mSegmentCount;
+    }
+  }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.common.internal.VisibleForTesting;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Chooses the entries a {@link CountingMemoryCache} evicts, following the W-TinyLFU policy.
+ *
+ * <p>The cached entries are split into three LRU queues:
+ *
+ * <ul>
+ *   <li>the window, where the new entries go. It only takes a small share of the cache, so that
+ *       entries used in bursts get a chance to be used again;
+ *   <li>the probation queue, for the entries that left the window or the protected queue;
+ *   <li>the protected queue, for the entries used again while on probation. It takes most of the
+ *       cache.
+ * </ul>
+ *
+ * <p>When the window is over its share, its oldest entry moves to probation. Once the main queues
+ * are full, it has to compete with the oldest entry on probation instead: the entry that was used
+ * less often according to a {@link FrequencySketch} of the recent lookups is evicted, and the other
+ * one stays on probation. A long run of entries used only
+ * once thus only ever evicts the other entries of the run, instead of flushing the entries used
+ * repeatedly.
+ *
+ * <p>The shares of the queues are in bytes. The share of the window adapts to the workload: it is
+ * periodically grown or shrunk, and the direction is reversed whenever the hit rate got worse.
+ *
+ * <p>Only the entries not used by any client can be evicted. Every queue keeps those in a second
+ * LRU order, by the time they were released, so that the oldest one is found without going
+ * through the entries in use. All the methods must be called under the lock of the cache.
+ */
+@NotThreadSafe
+class TinyLfuEvictionPolicy<K, V> {
+
+  @VisibleForTesting static final float INITIAL_WINDOW_RATIO = 0.01f;
+  @VisibleForTesting static final float MIN_WINDOW_RATIO = 0.01f;
+  @VisibleForTesting static final float MAX_WINDOW_RATIO = 0.8f;
+  @VisibleForTesting static final float WINDOW_RATIO_STEP = 0.05f;
+  private static final float PROTECTED_RATIO = 0.8f;
+
+  private static final int MIN_SKETCH_CAPACITY = 16;
+  private static final int MAX_SKETCH_CAPACITY = 4096;
+  private static final int SAMPLE_SIZE_MULTIPLIER = 10;
+
+  private final ValueDescriptor<CountingMemoryCache.Entry<K, V>> mValueDescriptor;
+  private final int mSketchCapacity;
+  private final int mSampleSize;
+
+  @VisibleForTesting final Queue mWindow = new Queue();
+  @VisibleForTesting final Queue mProbation = new Queue();
+  @VisibleForTesting final Queue mProtected = new Queue();
+
+  // allocated on first use, as a segmented cache never uses the policy of its parent
+  private @Nullable FrequencySketch mSketch;
+
+  private float mWindowRatio = INITIAL_WINDOW_RATIO;
+  private float mWindowRatioStep = WINDOW_RATIO_STEP;
+  private float mPreviousHitRate = -1;
+  private int mSampleHitCount;
+  private int mSampleMissCount;
+
+  /**
+   * @param valueDescriptor the descriptor of the size of the entries
+   * @param maxCacheEntries the maximum number of entries of the cache, which sizes the frequency
+   *     sketch
+   */
+  TinyLfuEvictionPolicy(
+      ValueDescriptor<CountingMemoryCache.Entry<K, V>> valueDescriptor, int maxCacheEntries) {
+    mValueDescriptor = valueDescriptor;
+    mSketchCapacity = Math.max(MIN_SKETCH_CAPACITY, Math.min(maxCacheEntries, MAX_SKETCH_CAPACITY));
+    mSampleSize = SAMPLE_SIZE_MULTIPLIER * mSketchCapacity;
+  }
+
+  /**
+   * Records a lookup of the key, where the entry is the cached entry if there is one. The entry is
+   * then used by the client that looked it up.
+   */
+  void onLookup(K key, @Nullable CountingMemoryCache.Entry<K, V> entry, int maxCacheSize) {
+    getSketch().increment(key);
+    if (entry == null) {
+      mSampleMissCount++;
+    } else {
+      mSampleHitCount++;
+      onHit(entry, maxCacheSize);
+    }
+    if (mSampleHitCount + mSampleMissCount >= mSampleSize) {
+      adaptWindow();
+    }
+  }
+
+  /** Adds a new entry of the cache to the window, where it is used by the client that cached it. */
+  void onAdd(CountingMemoryCache.Entry<K, V> entry) {
+    mWindow.add(entry, false);
+  }
+
+  /** Records that the entry is no longer used by any client, which makes it evictable. */
+  void onExclusive(CountingMemoryCache.Entry<K, V> entry) {
+    final Queue queue = getQueue(entry);
+    if (queue != null) {
+      queue.setExclusive(entry, true);
+    }
+  }
+
+  /** Forgets an entry that is no longer tracked by the cache. */
+  void onRemove(CountingMemoryCache.Entry<K, V> entry) {
+    final Queue queue = getQueue(entry);
+    if (queue != null) {
+      queue.remove(entry);
+    }
+  }
+
+  /**
+   * Returns the key of the next entry to evict among the exclusively owned ones, or null if there
+   * are none. The caller is expected to remove the entry before asking for the next one.
+   */
+  @Nullable
+  K getEvictionCandidate(int maxCacheSize) {
+    final int maxWindowSize = getMaxWindowSize(maxCacheSize);
+    while (mWindow.mSizeInBytes > maxWindowSize) {
+      final CountingMemoryCache.Entry<K, V> candidate = mWindow.getOldestExclusive();
+      if (candidate == null) {
+        break;
+      }
+      final CountingMemoryCache.Entry<K, V> victim = getMainVictim();
+      final boolean isMainFull =
+          mProbation.mSizeInBytes + mProtected.mSizeInBytes + sizeOf(candidate)
+              > maxCacheSize - maxWindowSize;
+      if (isMainFull
+          && victim != null
+          && getSketch().frequency(candidate.key) <= getSketch().frequency(victim.key)) {
+        return candidate.key;
+      }
+      // the candidate makes it to the main queues, and if they are full the victim is evicted once
+      // the window is back within its share
+      mWindow.remove(candidate);
+      mProbation.add(candidate, true);
+    }
+    final CountingMemoryCache.Entry<K, V> victim = getMainVictim();
+    if (victim != null) {
+      return victim.key;
+    }
+    final CountingMemoryCache.Entry<K, V> oldest = mWindow.getOldestExclusive();
+    return oldest == null ? null : oldest.key;
+  }
+
+  @VisibleForTesting
+  float getWindowRatio() {
+    return mWindowRatio;
+  }
+
+  private void onHit(CountingMemoryCache.Entry<K, V> entry, int maxCacheSize) {
+    if (mWindow.contains(entry)) {
+      mWindow.moveToTail(entry);
+    } else if (mProtected.contains(entry)) {
+      mProtected.moveToTail(entry);
+    } else if (mProbation.contains(entry)) {
+      mProbation.remove(entry);
+      mProtected.add(entry, false);
+      final int maxProtectedSize =
+          (int) ((maxCacheSize - getMaxWindowSize(maxCacheSize)) * PROTECTED_RATIO);
+      // demote the oldest protected entries, but keep the one just promoted
+      while (mProtected.mSizeInBytes > maxProtectedSize && mProtected.mEntries.size() > 1) {
+        final CountingMemoryCache.Entry<K, V> demoted = mProtected.getOldest();
+        mProbation.add(demoted, mProtected.remove(demoted));
+      }
+    }
+  }
+
+  /** Grows or shrinks the window, in the direction that last improved the hit rate. */
+  private void adaptWindow() {
+    final float hitRate = (float) mSampleHitCount / (mSampleHitCount + mSampleMissCount);
+    if (mPreviousHitRate >= 0 && hitRate < mPreviousHitRate) {
+      mWindowRatioStep = -mWindowRatioStep;
+    }
+    mWindowRatio =
+        Math.max(MIN_WINDOW_RATIO, Math.min(MAX_WINDOW_RATIO, mWindowRatio + mWindowRatioStep));
+    mPreviousHitRate = hitRate;
+    mSampleHitCount = 0;
+    mSampleMissCount = 0;
+  }
+
+  private int getMaxWindowSize(int maxCacheSize) {
+    return (int) (maxCacheSize * mWindowRatio);
+  }
+
+  private FrequencySketch getSketch() {
+    if (mSketch == null) {
+      mSketch = new FrequencySketch(mSketchCapacity);
+    }
+    return mSketch;
+  }
+
+  private int sizeOf(CountingMemoryCache.Entry<K, V> entry) {
+    return mValueDescriptor.getSizeInBytes(entry);
+  }
+
+  @Nullable
+  private Queue getQueue(CountingMemoryCache.Entry<K, V> entry) {
+    if (mWindow.contains(entry)) {
+      return mWindow;
+    } else if (mProbation.contains(entry)) {
+      return mProbation;
+    } else if (mProtected.contains(entry)) {
+      return mProtected;
+    }
+    return null;
+  }
+
+  @Nullable
+  private CountingMemoryCache.Entry<K, V> getMainVictim() {
+    final CountingMemoryCache.Entry<K, V> victim = mProbation.getOldestExclusive();
+    return victim != null ? victim : mProtected.getOldestExclusive();
+  }
+
+  /**
+   * An LRU queue of entries, which also keeps its exclusively owned entries in the order they were
+   * released.
+   */
+  @VisibleForTesting
+  class Queue {
+
+    final LinkedHashMap<K, CountingMemoryCache.Entry<K, V>> mEntries = new LinkedHashMap<>();
+    final LinkedHashMap<K, CountingMemoryCache.Entry<K, V>> mExclusiveEntries =
+        new LinkedHashMap<>();
+    int mSizeInBytes;
+
+    boolean isEmpty() {
+      return mEntries.isEmpty();
+    }
+
+    boolean contains(CountingMemoryCache.Entry<K, V> entry) {
+      return mEntries.get(entry.key) == entry;
+    }
+
+    void add(CountingMemoryCache.Entry<K, V> entry, boolean isExclusive) {
+      mEntries.put(entry.key, entry);
+      if (isExclusive) {
+        mExclusiveEntries.put(entry.key, entry);
+      }
+      mSizeInBytes += sizeOf(entry);
+    }
+
+    /** Removes the entry, and returns whether it was exclusively owned. */
+    boolean remove(CountingMemoryCache.Entry<K, V> entry) {
+      mEntries.remove(entry.key);
+      mSizeInBytes -= sizeOf(entry);
+      return mExclusiveEntries.remove(entry.key) != null;
+    }
+
+    /** Moves the entry to the tail of the queue. The entry is now used by a client. */
+    void moveToTail(CountingMemoryCache.Entry<K, V> entry) {
+      mEntries.remove(entry.key);
+      mEntries.put(entry.key, entry);
+      mExclusiveEntries.remove(entry.key);
+    }
+
+    void setExclusive(CountingMemoryCache.Entry<K, V> entry, boolean isExclusive) {
+      mExclusiveEntries.remove(entry.key);
+      if (isExclusive) {
+        mExclusiveEntries.put(entry.key, entry);
+      }
+    }
+
+    CountingMemoryCache.Entry<K, V> getOldest() {
+      return mEntries.values().iterator().next();
+    }
+
+    @Nullable
+    CountingMemoryCache.Entry<K, V> getOldestExclusive() {
+      final Iterator<CountingMemoryCache.Entry<K, V>> iterator =
+          mExclusiveEntries.values().iterator();
+      return iterator.hasNext() ? iterator.next() : null;
+    }
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.common;
+
+import android.graphics.Rect;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.util.HashCodeUtil;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import javax.annotation.Nullable;
+
+/**
+ * Options for requesting a single tile of a large image instead of the whole image.
+ *
+ * <p>The image is split in levels: level 0 is the image at its full resolution, and every level
+ * halves the resolution of the previous one, so that the sample size of level n is 2^n. Every level
+ * is split in a grid of square tiles of {@link #tileSize} pixels, and a tile is identified by its
+ * level, column and row. The tiles of a level cover {@code tileSize * 2^level} pixels of the
+ * encoded image each, and the ones on the right and bottom edges are clipped to the image.
+ *
+ * <p>The coordinates are the ones of the encoded image, before any rotation.
+ */
+public class TileOptions {
+
+  public static final int DEFAULT_TILE_SIZE = 512;
+
+  // the sample size of the deepest level still fits in an int
+  private static final int MAX_LEVEL = 30;
+
+  /* level of the tile, the tile is decoded with a sample size of 2^level */
+  public final int level;
+
+  /* column of the tile in the grid of its level */
+  public final int column;
+
+  /* row of the tile in the grid of its level */
+  public final int row;
+
+  /* size (in pixels) of the side of the decoded tile */
+  public final int tileSize;
+
+  public static TileOptions forTile(int level, int column, int row) {
+    return new TileOptions(level, column, row, DEFAULT_TILE_SIZE);
+  }
+
+  public TileOptions(int level, int column, int row, int tileSize) {
+    Preconditions.checkArgument(level >= 0 && level <= MAX_LEVEL);
+    Preconditions.checkArgument(column >= 0);
+    Preconditions.checkArgument(row >= 0);
+    Preconditions.checkArgument(tileSize > 0);
+    this.level = level;
+    this.column = column;
+    this.row = row;
+    this.tileSize = tileSize;
+  }
+
+  /** @return the sample size the tile is decoded with */
+  public int getSampleSize() {
+    return 1 << level;
+  }
+
+  /**
+   * Gets the region of the encoded image that the tile covers.
+   *
+   * @param imageWidth the width of the encoded image
+   * @param imageHeight the height of the encoded image
+   * @return the region, clipped to the image, or null if the tile is outside of the image
+   */
+  public @Nullable Rect getSourceRect(int imageWidth, int imageHeight) {
+    final long sourceTileSize = (long) tileSize << level;
+    final long left = column * sourceTileSize;
+    final long top = row * sourceTileSize;
+    if (left >= imageWidth || top >= imageHeight) {
+      return null;
+    }
+    return new Rect(
+        (int) left,
+        (int) top,
+        (int) Math.min(imageWidth, left + sourceTileSize),
+        (int) Math.min(imageHeight, top + sourceTileSize));
+  }
+
+  /**
+   * Gets the level to display the image at the given scale from, which is the lowest resolution
+   * that is still sharp at that scale.
+   *
+   * @param scale the size the image is displayed at, relative to its full resolution
+   */
+  public static int getLevelForScale(float scale) {
+    Preconditions.checkArgument(scale > 0);
+    int level = 0;
+    while (level < MAX_LEVEL && (2L << level) * scale <= 1) {
+      level++;
+    }
+    return level;
+  }
+
+  /**
+   * Gets the tiles needed to display a part of the image.
+   *
+   * @param imageWidth the width of the encoded image
+   * @param imageHeight the height of the encoded image
+   * @param visibleRect the visible part of the encoded image
+   * @param scale the size the image is displayed at, relative to its full resolution
+   * @param tileSize the size of the side of the tiles
+   * @return the tiles that intersect the visible part, row by row
+   */
+  public static List<TileOptions> getVisibleTiles(
+      int imageWidth, int imageHeight, Rect visibleRect, float scale, int tileSize) {
+    Preconditions.checkArgument(tileSize > 0);
+    final List<TileOptions> tiles = new ArrayList<>();
+    final int left = Math.max(0, visibleRect.left);
+    final int top = Math.max(0, visibleRect.top);
+    final int right = Math.min(imageWidth, visibleRect.right);
+    final int bottom = Math.min(imageHeight, visibleRect.bottom);
+    if (left >= right || top >= bottom) {
+      return tiles;
+    }
+    final int level = getLevelForScale(scale);
+    final long sourceTileSize = (long) tileSize << level;
+    final int firstColumn = (int) (left / sourceTileSize);
+    final int lastColumn = (int) ((right - 1) / sourceTileSize);
+    final int firstRow = (int) (top / sourceTileSize);
+    final int lastRow = (int) ((bottom - 1) / sourceTileSize);
+    for (int row = firstRow; row <= lastRow; row++) {
+      for (int column = firstColumn; column <= lastColumn; column++) {
+        tiles.add(new TileOptions(level, column, row, tileSize));
+      }
+    }
+    return tiles;
+  }
+
+  @Override
+  public int hashCode() {
+    return HashCodeUtil.hashCode(level, column, row, tileSize);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (other == this) {
+      return true;
+    }
+    if (!(other instanceof TileOptions)) {
+      return false;
+    }
+    TileOptions that = (TileOptions) other;
+    return this.level == that.level
+        && this.column == that.column
+        && this.row == that.row
+        && this.tileSize == that.tileSize;
+  }
+
+  @Override
+  public String toString() {
+    return String.format((Locale) null, "%d/%d/%d@%d", level, column, row, tileSize);
+  }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.time.AwakeTimeSinceBootClock;
+import com.facebook.common.time.MonotonicClock;
+import com.facebook.imagepipeline.common.Priority;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Executor for the decodes that runs the most urgent queued task first, instead of the oldest one.
+ *
+ * <p>Tasks are ranked by the {@link Priority} of their {@link Request}, and the tasks of requests
+ * that are not prefetches come before the prefetches of the same priority. Every aging interval a
+ * task waited is worth one step of rank, so that prefetches make progress even while the visible
+ * images keep coming, and tasks of the same rank run in the order they were submitted. The tasks
+ * are kept in a {@link PriorityBlockingQueue} by that order, and a request whose priority changes
+ * is re-ranked by {@link #onRequestChanged}.
+ *
+ * <p>The queued tasks of a cancelled request are dropped by {@link #onRequestChanged}, which tells
+ * the caller so that it doesn't wait for them to run.
+ *
+ * <p>The executor keeps track of its queue depth and of how long the tasks waited, see {@link
+ * #getQueueDepth} and {@link #getAverageWaitTimeMs}.
+ */
+@ThreadSafe
+public class PriorityDecodeExecutor extends ThreadPoolExecutor {
+
+  /** The request a decode task is run for. */
+  public interface Request {
+
+    /** @return the current priority of the request */
+    Priority getPriority();
+
+    /** @return whether the request is a prefetch, which yields to the visible images */
+    boolean isPrefetch();
+
+    /** @return whether the request was cancelled, in which case its queued tasks are dropped */
+    boolean isCancelled();
+  }
+
+  /** How long a task waits before being ranked one step higher. */
+  public static final long DEFAULT_AGING_INTERVAL_MS = 500;
+
+  private static final Request DEFAULT_REQUEST =
+      new Request() {
+        @Override
+        public Priority getPriority() {
+          return Priority.MEDIUM;
+        }
+
+        @Override
+        public boolean isPrefetch() {
+          return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+          return false;
+        }
+      };
+
+  private final long mAgingIntervalMs;
+  private final MonotonicClock mClock;
+  private final AtomicLong mSequenceNumber = new AtomicLong();
+
+  @GuardedBy("this")
+  private int mMaxQueueDepth;
+
+  @GuardedBy("this")
+  private long mExecutedCount;
+
+  @GuardedBy("this")
+  private long mDroppedCount;
+
+  @GuardedBy("this")
+  private long mTotalWaitTimeMs;
+
+  @GuardedBy("this")
+  private long mMaxWaitTimeMs;
+
+  public PriorityDecodeExecutor(int maxThreads, ThreadFactory threadFactory) {
+    this(maxThreads, threadFactory, DEFAULT_AGING_INTERVAL_MS, AwakeTimeSinceBootClock.get());
+  }
+
+  public PriorityDecodeExecutor(
+      int maxThreads, ThreadFactory threadFactory, long agingIntervalMs, MonotonicClock clock) {
+    super(
+        maxThreads,
+        maxThreads,
+        0L,
+        TimeUnit.MILLISECONDS,
+        new PriorityBlockingQueue<Runnable>(),
+        threadFactory);
+    Preconditions.checkArgument(agingIntervalMs > 0);
+    mAgingIntervalMs = agingIntervalMs;
+    mClock = clock;
+  }
+
+  /** Runs the task with a medium priority. */
+  @Override
+  public void execute(Runnable runnable) {
+    execute(runnable, null);
+  }
+
+  /**
+   * Runs the task once there is no more urgent task queued.
+   *
+   * @param runnable the task
+   * @param request the request the task is run for, or null for a medium priority
+   */
+  public void execute(Runnable runnable, @Nullable Request request) {
+    Preconditions.checkNotNull(runnable);
+    super.execute(
+        newTask(
+            runnable,
+            request != null ? request : DEFAULT_REQUEST,
+            mClock.now(),
+            mSequenceNumber.getAndIncrement()));
+    final int queueDepth = getQueue().size();
+    synchronized (this) {
+      mMaxQueueDepth = Math.max(mMaxQueueDepth, queueDepth);
+    }
+  }
+
+  /**
+   * Re-ranks the queued tasks of the request after its priority or prefetch state changed, or drops
+   * them if it was cancelled.
+   *
+   * @return whether a task of the request was dropped, in which case it never runs
+   */
+  public boolean onRequestChanged(Request request) {
+    boolean isDropped = false;
+    // the iterator is a snapshot, and a task already taken by a worker is not removed
+    for (Runnable queued : getQueue()) {
+      final Task task = (Task) queued;
+      if (task.request != request || !remove(task)) {
+        continue;
+      }
+      if (request.isCancelled()) {
+        isDropped = true;
+        synchronized (this) {
+          mDroppedCount++;
+        }
+      } else {
+        getQueue().offer(newTask(task.runnable, request, task.submitTime, task.sequenceNumber));
+      }
+    }
+    return isDropped;
+  }
+
+  /** @return the number of tasks waiting to run */
+  public int getQueueDepth() {
+    return getQueue().size();
+  }
+
+  /** @return the highest number of tasks that were waiting to run at the same time */
+  public synchronized int getMaxQueueDepth() {
+    return mMaxQueueDepth;
+  }
+
+  /** @return the number of tasks that were run */
+  public synchronized long getExecutedCount() {
+    return mExecutedCount;
+  }
+
+  /** @return the number of tasks dropped because their request was cancelled */
+  public synchronized long getDroppedCount() {
+    return mDroppedCount;
+  }
+
+  /** @return the average time the tasks that were run waited in the queue */
+  public synchronized long getAverageWaitTimeMs() {
+    return mExecutedCount == 0 ? 0 : mTotalWaitTimeMs / mExecutedCount;
+  }
+
+  /** @return the longest time a task that was run waited in the queue */
+  public synchronized long getMaxWaitTimeMs() {
+    return mMaxWaitTimeMs;
+  }
+
+  @Override
+  protected void beforeExecute(Thread thread, Runnable runnable) {
+    super.beforeExecute(thread, runnable);
+    final long waitTimeMs = mClock.now() - ((Task) runnable).submitTime;
+    synchronized (this) {
+      mExecutedCount++;
+      mTotalWaitTimeMs += waitTimeMs;
+      mMaxWaitTimeMs = Math.max(mMaxWaitTimeMs, waitTimeMs);
+    }
+  }
+
+  private Task newTask(Runnable runnable, Request request, long submitTime, long sequenceNumber) {
+    final long rank = request.getPriority().ordinal() * 2L + (request.isPrefetch() ? 0 : 1);
+    // an older task goes first unless the other one is ranked higher by more than the difference
+    return new Task(
+        runnable, request, submitTime, submitTime - rank * mAgingIntervalMs, sequenceNumber);
+  }
+
+  @VisibleForTesting
+  static class Task implements Runnable, Comparable<Task> {
+    final Runnable runnable;
+    final Request request;
+    final long submitTime;
+    final long deadline;
+    final long sequenceNumber;
+
+    Task(Runnable runnable, Request request, long submitTime, long deadline, long sequenceNumber) {
+      this.runnable = runnable;
+      this.request = request;
+      this.submitTime = submitTime;
+      this.deadline = deadline;
+      this.sequenceNumber = sequenceNumber;
+    }
+
+    @Override
+    public void run() {
+      runnable.run();
+    }
+
+    @Override
+    public int compareTo(Task other) {
+      if (deadline != other.deadline) {
+        return deadline < other.deadline ? -1 : 1;
+      }
+      if (sequenceNumber != other.sequenceNumber) {
+        return sequenceNumber < other.sequenceNumber ? -1 : 1;
+      }
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import android.os.Process;
+import java.util.concurrent.Executor;
+
+/**
+ * {@link DefaultExecutorSupplier} whose decodes run on a {@link PriorityDecodeExecutor}, so that
+ * the decodes of the visible images go before the prefetches and the cancelled decodes are dropped.
+ *
+ * <p>The executor is exposed by {@link #getDecodeExecutor} for its queue metrics.
+ */
+public class PriorityDecodeExecutorSupplier extends DefaultExecutorSupplier {
+
+  private final PriorityDecodeExecutor mDecodeExecutor;
+
+  public PriorityDecodeExecutorSupplier(int numCpuBoundThreads) {
+    super(numCpuBoundThreads);
+    mDecodeExecutor =
+        new PriorityDecodeExecutor(
+            numCpuBoundThreads,
+            new PriorityThreadFactory(
+                Process.THREAD_PRIORITY_BACKGROUND, "FrescoPriorityDecodeExecutor", true));
+  }
+
+  @Override
+  public Executor forDecode() {
+    return mDecodeExecutor;
+  }
+
+  public PriorityDecodeExecutor getDecodeExecutor() {
+    return mDecodeExecutor;
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+import com.facebook.common.util.SecureHashUtil;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/** Test for {@link CacheKeyUtil} and the {@link ResourceIdStrategy} implementations. */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class CacheKeyUtilTest {
+
+  private static final String[] KEYS = {
+    "",
+    "a",
+    "http://www.facebook.com/image.jpg?width=100&height=100",
+    "héllo wörld € 😀",
+    "unpaired \ud800 surrogate",
+  };
+
+  @Test
+  public void testSha1IdsMatchLegacyIds() throws UnsupportedEncodingException {
+    for (String key : KEYS) {
+      assertEquals(
+          SecureHashUtil.makeSHA1HashBase64(key.getBytes("UTF-8")),
+          CacheKeyUtil.getFirstResourceId(new SimpleCacheKey(key)));
+    }
+  }
+
+  @Test
+  public void testMurmur3Ids() {
+    ResourceIdStrategy strategy = Murmur3ResourceIdStrategy.getInstance();
+    // MurmurHash3 x64_128 of this input is 6c1b07bc7bbc4be347939ac4a93c437a
+    assertEquals(
+        "bBsHvHu8S-NHk5rEqTxDeg",
+        strategy.getResourceId(new SimpleCacheKey("The quick brown fox jumps over the lazy dog")));
+    for (String key : KEYS) {
+      String id = strategy.getResourceId(new SimpleCacheKey(key));
+      assertEquals(22, id.length());
+      assertEquals(id, strategy.getResourceId(new SimpleCacheKey(key)));
+    }
+    assertNotEquals(
+        strategy.getResourceId(new SimpleCacheKey("a")),
+        strategy.getResourceId(new SimpleCacheKey("b")));
+  }
+
+  @Test
+  public void testResourceIdsAreMemoized() {
+    SimpleCacheKey key = new SimpleCacheKey("key");
+    List<String> ids = CacheKeyUtil.getResourceIds(key);
+    assertSame(ids, CacheKeyUtil.getResourceIds(key));
+
+    List<String> murmur3Ids =
+        CacheKeyUtil.getResourceIds(key, Murmur3ResourceIdStrategy.getInstance());
+    assertNotEquals(ids, murmur3Ids);
+    assertSame(
+        murmur3Ids, CacheKeyUtil.getResourceIds(key, Murmur3ResourceIdStrategy.getInstance()));
+  }
+
+  @Test
+  public void testMultiCacheKeyIdsAreInOrder() {
+    List<CacheKey> keys = new ArrayList<>();
+    keys.add(new SimpleCacheKey("first"));
+    keys.add(new SimpleCacheKey("second"));
+    MultiCacheKey multiKey = new MultiCacheKey(keys);
+
+    List<String> ids = CacheKeyUtil.getResourceIds(multiKey);
+    assertEquals(2, ids.size());
+    assertEquals(CacheKeyUtil.getFirstResourceId(keys.get(0)), ids.get(0));
+    assertEquals(CacheKeyUtil.getFirstResourceId(keys.get(1)), ids.get(1));
+    assertEquals(ids.get(0), CacheKeyUtil.getFirstResourceId(multiKey));
+  }
+
+  @Test
+  public void testMigratingStrategyListsLegacyIdAfterCurrentId() {
+    ResourceIdStrategy strategy =
+        new MigratingResourceIdStrategy(
+            Murmur3ResourceIdStrategy.getInstance(), Sha1ResourceIdStrategy.getInstance());
+    SimpleCacheKey key = new SimpleCacheKey("key");
+
+    List<String> ids = CacheKeyUtil.getResourceIds(key, strategy);
+    assertEquals(2, ids.size());
+    assertEquals(Murmur3ResourceIdStrategy.getInstance().getResourceId(key), ids.get(0));
+    assertEquals(Sha1ResourceIdStrategy.getInstance().getResourceId(key), ids.get(1));
+    assertEquals(ids.get(0), CacheKeyUtil.getFirstResourceId(key, strategy));
+  }
+}
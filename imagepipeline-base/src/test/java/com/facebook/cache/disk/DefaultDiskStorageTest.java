@@ -523,6 +523,170 @@ public class DefaultDiskStorageTest {
     Assert.assertEquals(files.get(2), entriesAfterRemoval.get(1).getResource().getFile());
   }
 
+  @Test
+  public void testJournalIsReplayedAtStartup() throws Exception {
+    when(mClock.now()).thenReturn(1000L);
+    DefaultDiskStorage storage = getLoadedJournalStorage();
+    writeFileToStorage(storage, "resource1", new byte[100]);
+    writeFileToStorage(storage, "resource2", new byte[50]);
+    when(mClock.now()).thenReturn(2000L);
+    Assert.assertNotNull(storage.getResource("resource2", null));
+    // listing the entries persists the accesses
+    storage.getEntries();
+
+    // The journal is the source of truth at startup: a file created without going through the
+    // storage goes unnoticed, which proves the directories are not walked.
+    DefaultDiskStorage restarted = getJournalStorage();
+    writeFileToStorage(getStorageSupplier(1).get(), "resource3", new byte[10]);
+    List<DefaultDiskStorage.EntryImpl> entries = retrieveEntries(restarted);
+    assertEquals(2, entries.size());
+    assertEquals("resource1", entries.get(0).getId());
+    assertEquals(100, entries.get(0).getSize());
+    assertEquals(1000L, entries.get(0).getTimestamp());
+    assertEquals("resource2", entries.get(1).getId());
+    assertEquals(50, entries.get(1).getSize());
+    assertEquals(2000L, entries.get(1).getTimestamp());
+  }
+
+  @Test
+  public void testJournalDropsDeletedFilesWhenReadsMissThem() throws Exception {
+    DefaultDiskStorage storage = getLoadedJournalStorage();
+    writeFileToStorage(storage, "resource1", new byte[100]);
+    File file2 = writeFileToStorage(storage, "resource2", new byte[50]);
+    Assert.assertTrue(file2.delete());
+
+    // replaying the journal doesn't check the files
+    DefaultDiskStorage restarted = getJournalStorage();
+    assertEquals(2, restarted.getEntries().size());
+
+    Assert.assertNull(restarted.getResource("resource2", null));
+    List<DiskStorage.Entry> entries = restarted.getEntries();
+    assertEquals(1, entries.size());
+    assertEquals("resource1", entries.get(0).getId());
+    assertEquals(1, getJournalStorage().getEntries().size());
+  }
+
+  @Test
+  public void testJournalIsNotWrittenOnReadMisses() throws Exception {
+    DefaultDiskStorage storage = getLoadedJournalStorage();
+    writeFileToStorage(storage, "resource1", new byte[100]);
+    File journal = getJournalFile();
+    long journalLength = journal.length();
+
+    Assert.assertNull(storage.getResource("resource2", null));
+    assertEquals(0, storage.remove("resource2"));
+    assertEquals(journalLength, journal.length());
+  }
+
+  @Test
+  public void testJournalDoesNotPersistAccessesUntilEntriesAreListed() throws Exception {
+    when(mClock.now()).thenReturn(1000L);
+    DefaultDiskStorage storage = getLoadedJournalStorage();
+    writeFileToStorage(storage, "resource1", new byte[100]);
+    File journal = getJournalFile();
+    long journalLength = journal.length();
+
+    when(mClock.now()).thenReturn(2000L);
+    Assert.assertNotNull(storage.getResource("resource1", null));
+    Assert.assertTrue(storage.touch("resource1", null));
+    assertEquals(journalLength, journal.length());
+    // the accesses are visible in memory
+    assertEquals(2000L, storage.getEntries().get(0).getTimestamp());
+
+    Assert.assertTrue(journal.length() > journalLength);
+    assertEquals(2000L, getJournalStorage().getEntries().get(0).getTimestamp());
+  }
+
+  @Test
+  public void testJournalIsNotRebuiltOnWrites() throws Exception {
+    DefaultDiskStorage storage = getJournalStorage();
+    writeFileToStorage(storage, "resource1", new byte[100]);
+    storage.remove("resource1");
+    writeFileToStorage(storage, "resource2", new byte[50]);
+    Assert.assertFalse(getJournalFile().exists());
+
+    List<DiskStorage.Entry> entries = storage.getEntries();
+    assertEquals(1, entries.size());
+    assertEquals("resource2", entries.get(0).getId());
+    Assert.assertTrue(getJournalFile().exists());
+  }
+
+  @Test
+  public void testJournalRecordsChangesMadeBeforeItIsLoaded() throws Exception {
+    getLoadedJournalStorage();
+    DefaultDiskStorage storage = getJournalStorage();
+    writeFileToStorage(storage, "resource1", new byte[100]);
+    writeFileToStorage(storage, "resource2", new byte[50]);
+    storage.remove("resource1");
+
+    List<DiskStorage.Entry> entries = getJournalStorage().getEntries();
+    assertEquals(1, entries.size());
+    assertEquals("resource2", entries.get(0).getId());
+  }
+
+  @Test
+  public void testJournalRecordsRemovals() throws Exception {
+    DefaultDiskStorage storage = getLoadedJournalStorage();
+    writeFileToStorage(storage, "resource1", new byte[100]);
+    writeFileToStorage(storage, "resource2", new byte[50]);
+    storage.remove("resource1");
+
+    List<DiskStorage.Entry> entries = getJournalStorage().getEntries();
+    assertEquals(1, entries.size());
+    assertEquals("resource2", entries.get(0).getId());
+
+    storage.clearAll();
+    assertEquals(0, getJournalStorage().getEntries().size());
+  }
+
+  @Test
+  public void testCorruptJournalFallsBackToDirectoryWalk() throws Exception {
+    DefaultDiskStorage storage = getLoadedJournalStorage();
+    writeFileToStorage(storage, "resource1", new byte[100]);
+    File journal = getJournalFile();
+    Assert.assertTrue(journal.exists());
+    FileOutputStream fos = new FileOutputStream(journal);
+    try {
+      fos.write("not a journal\nP resource2 10 0\n".getBytes("UTF-8"));
+    } finally {
+      fos.close();
+    }
+
+    List<DiskStorage.Entry> entries = getJournalStorage().getEntries();
+    assertEquals(1, entries.size());
+    assertEquals("resource1", entries.get(0).getId());
+    assertEquals(100, entries.get(0).getSize());
+    // the journal has been rebuilt from the walk
+    Assert.assertTrue(journal.exists());
+    assertEquals(1, getJournalStorage().getEntries().size());
+  }
+
+  @Test
+  public void testPurgeKeepsJournal() throws Exception {
+    DefaultDiskStorage storage = getLoadedJournalStorage();
+    writeFileToStorage(storage, "resource1", new byte[100]);
+    storage.purgeUnexpectedResources();
+    Assert.assertTrue(getJournalFile().exists());
+    assertEquals(1, getJournalStorage().getEntries().size());
+  }
+
+  private File getJournalFile() {
+    return new File(
+        new File(mDirectory, DefaultDiskStorage.getVersionSubdirectoryName(1)),
+        DiskStorageJournal.JOURNAL_FILE_NAME);
+  }
+
+  /** Returns a storage with a journal, loaded like the cache does from its background thread. */
+  private DefaultDiskStorage getLoadedJournalStorage() throws IOException {
+    DefaultDiskStorage storage = getJournalStorage();
+    storage.getEntries();
+    return storage;
+  }
+
+  private DefaultDiskStorage getJournalStorage() {
+    return new DefaultDiskStorage(mDirectory, 1, mock(CacheErrorLogger.class), true);
+  }
+
   private static FileBinaryResource writeToStorage(
       final DefaultDiskStorage storage, final String resourceId, final byte[] value)
       throws IOException {
@@ -551,14 +715,16 @@ public class DefaultDiskStorageTest {
 
   private static void writeToResource(DiskStorage.Inserter inserter, final byte[] content)
       throws IOException {
-    inserter.writeData(
-        new WriterCallback() {
-          @Override
-          public void write(OutputStream os) throws IOException {
-            os.write(content);
-          }
-        },
-        null);
+    inserter.writeData(newWriterCallback(content), null);
+  }
+
+  private static WriterCallback newWriterCallback(final byte[] content) {
+    return new WriterCallback() {
+      @Override
+      public void write(OutputStream os) throws IOException {
+        os.write(content);
+      }
+    };
   }
 
   private void purgeUnexpectedFiles(DefaultDiskStorage storage) throws IOException {
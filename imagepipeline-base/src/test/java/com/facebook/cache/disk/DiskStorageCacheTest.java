@@ -46,6 +46,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.CyclicBarrier;
@@ -56,6 +57,8 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareOnlyThisForTest;
@@ -128,6 +131,13 @@ public class DiskStorageCacheTest {
 
   private DiskStorageCache createDiskCache(
       DiskStorage diskStorage, boolean indexPopulateAtStartupEnabled) {
+    return createDiskCache(diskStorage, indexPopulateAtStartupEnabled, false);
+  }
+
+  private DiskStorageCache createDiskCache(
+      DiskStorage diskStorage,
+      boolean indexPopulateAtStartupEnabled,
+      boolean lockFreeReadsEnabled) {
     DiskStorageCache.Params diskStorageCacheParams =
         new DiskStorageCache.Params(
             0, FILE_CACHE_MAX_SIZE_LOW_LIMIT, FILE_CACHE_MAX_SIZE_HIGH_LIMIT);
@@ -140,7 +150,8 @@ public class DiskStorageCacheTest {
         mock(CacheErrorLogger.class),
         mDiskTrimmableRegistry,
         mBackgroundExecutor,
-        indexPopulateAtStartupEnabled);
+        indexPopulateAtStartupEnabled,
+        lockFreeReadsEnabled);
   }
 
   @Test
@@ -315,6 +326,157 @@ public class DiskStorageCacheTest {
     assertArrayEquals(value2, getContents(mCache.getResource(matchingSimpleKey)));
   }
 
+  @Test
+  public void testInsertAll() throws Exception {
+    CacheKey key1 = new SimpleCacheKey("foo");
+    byte[] value1 = new byte[41];
+    value1[20] = 'a';
+    CacheKey key2 = new SimpleCacheKey("bar");
+    final IOException writeException = new IOException();
+    CacheKey key3 = new SimpleCacheKey("baz");
+    byte[] value3 = new byte[42];
+    value3[20] = 'c';
+
+    List<BinaryResource> resources =
+        mCache.insertAll(
+            Arrays.asList(key1, key2, key3),
+            Arrays.asList(
+                WriterCallbacks.from(value1),
+                new WriterCallback() {
+                  @Override
+                  public void write(OutputStream os) throws IOException {
+                    throw writeException;
+                  }
+                },
+                WriterCallbacks.from(value3)));
+
+    assertEquals(3, resources.size());
+    assertArrayEquals(value1, getContents(resources.get(0)));
+    assertNull(resources.get(1));
+    assertArrayEquals(value3, getContents(resources.get(2)));
+    assertArrayEquals(value1, getContents(getResource(key1)));
+    assertNull(getResource(key2));
+    assertArrayEquals(value3, getContents(getResource(key3)));
+    assertEquals(value1.length + value3.length, mCache.getSize());
+    assertEquals(2, mCache.getCount());
+
+    ArgumentCaptor<CacheEvent> cacheEventCaptor = ArgumentCaptor.forClass(CacheEvent.class);
+    verify(mCacheEventListener, times(3)).onWriteAttempt(cacheEventCaptor.capture());
+    CacheEventAssert.assertThat(cacheEventCaptor.getAllValues().get(0)).hasCacheKey(key1);
+    CacheEventAssert.assertThat(cacheEventCaptor.getAllValues().get(1)).hasCacheKey(key2);
+    CacheEventAssert.assertThat(cacheEventCaptor.getAllValues().get(2)).hasCacheKey(key3);
+
+    cacheEventCaptor = ArgumentCaptor.forClass(CacheEvent.class);
+    verify(mCacheEventListener, times(2)).onWriteSuccess(cacheEventCaptor.capture());
+    CacheEventAssert.assertThat(cacheEventCaptor.getAllValues().get(0))
+        .hasCacheKey(key1)
+        .hasItemSize(value1.length);
+    CacheEventAssert.assertThat(cacheEventCaptor.getAllValues().get(1))
+        .hasCacheKey(key3)
+        .hasItemSize(value3.length);
+
+    cacheEventCaptor = ArgumentCaptor.forClass(CacheEvent.class);
+    verify(mCacheEventListener).onWriteException(cacheEventCaptor.capture());
+    CacheEventAssert.assertThat(cacheEventCaptor.getValue())
+        .hasCacheKey(key2)
+        .hasException(writeException);
+  }
+
+  @Test
+  public void testAppend() throws Exception {
+    CacheKey key1 = new SimpleCacheKey("foo");
+    byte[] value1 = new byte[41];
+    value1[20] = 'a';
+    mCache.insert(key1, WriterCallbacks.from(value1));
+
+    byte[] value2 = new byte[42];
+    value2[20] = 'b';
+    BinaryResource resource = mCache.append(key1, value1.length, WriterCallbacks.from(value2));
+
+    byte[] contents = getContents(resource);
+    assertEquals(value1.length + value2.length, contents.length);
+    assertEquals('a', contents[20]);
+    assertEquals('b', contents[value1.length + 20]);
+    assertArrayEquals(contents, getContents(getResource(key1)));
+    assertEquals(value1.length + value2.length, mCache.getSize());
+    assertEquals(1, mCache.getCount());
+  }
+
+  @Test
+  public void testAppendCreatesResource() throws Exception {
+    CacheKey key1 = new SimpleCacheKey("foo");
+    byte[] value1 = new byte[41];
+    value1[20] = 'a';
+
+    BinaryResource resource = mCache.append(key1, 0, WriterCallbacks.from(value1));
+
+    assertArrayEquals(value1, getContents(resource));
+    assertEquals(value1.length, mCache.getSize());
+    assertEquals(1, mCache.getCount());
+  }
+
+  @Test
+  public void testFailedAppendKeepsResource() throws Exception {
+    CacheKey key1 = new SimpleCacheKey("foo");
+    byte[] value1 = new byte[41];
+    value1[20] = 'a';
+    mCache.insert(key1, WriterCallbacks.from(value1));
+
+    try {
+      mCache.append(
+          key1,
+          value1.length,
+          new WriterCallback() {
+            @Override
+            public void write(OutputStream os) throws IOException {
+              os.write(new byte[10]);
+              throw new IOException();
+            }
+          });
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+
+    assertArrayEquals(value1, getContents(getResource(key1)));
+    assertEquals(value1.length, mCache.getSize());
+  }
+
+  @Test
+  public void testAppendFailsIfResourceDoesNotHaveExpectedSize() throws Exception {
+    CacheKey key1 = new SimpleCacheKey("foo");
+    byte[] value1 = new byte[41];
+    mCache.insert(key1, WriterCallbacks.from(value1));
+
+    try {
+      mCache.append(key1, value1.length - 1, WriterCallbacks.from(new byte[42]));
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+
+    assertArrayEquals(value1, getContents(getResource(key1)));
+    assertEquals(value1.length, mCache.getSize());
+  }
+
+  @Test
+  public void testAppendFailsIfResourceIsGone() throws Exception {
+    CacheKey key1 = new SimpleCacheKey("foo");
+    byte[] value1 = new byte[41];
+    mCache.insert(key1, WriterCallbacks.from(value1));
+    mCache.remove(key1);
+
+    try {
+      // only the tail would be written as the whole resource otherwise
+      mCache.append(key1, value1.length, WriterCallbacks.from(new byte[42]));
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+
+    assertNull(getResource(key1));
+  }
+
   @Test
   public void testCacheFileWithIOException() throws IOException {
     CacheKey key1 = new SimpleCacheKey("aaa");
@@ -665,6 +827,134 @@ public class DiskStorageCacheTest {
     assertFalse(mCache.hasKey(key));
   }
 
+  @Test
+  public void testLockFreeReads() throws Exception {
+    DiskStorageCache cache = createDiskCache(mStorage, false, true);
+    CacheKey key = putOneThingInCache(cache);
+    assertTrue(cache.hasKeySync(key));
+    assertTrue(cache.hasKey(key));
+    assertTrue(cache.probe(key));
+    assertNotNull(cache.getResource(key));
+    assertNull(cache.getResource(new SimpleCacheKey("bar")));
+    assertFalse(cache.probe(new SimpleCacheKey("bar")));
+  }
+
+  @Test
+  public void testLockFreeReadsSkipStorageForKeysMissingFromPopulatedIndex() throws Exception {
+    DiskStorage storageMock = mock(DiskStorage.class);
+    when(storageMock.getEntries()).thenReturn(new ArrayList<DiskStorage.Entry>());
+    DiskStorageCache cache = createDiskCache(storageMock, true, true);
+    mBackgroundExecutor.runUntilIdle();
+    assertTrue(cache.isIndexReady());
+
+    CacheKey key = new SimpleCacheKey("foo");
+    assertNull(cache.getResource(key));
+    assertFalse(cache.probe(key));
+    verify(storageMock, times(0)).getResource(CacheKeyUtil.getFirstResourceId(key), key);
+    verify(storageMock, times(0)).touch(CacheKeyUtil.getFirstResourceId(key), key);
+  }
+
+  @Test
+  public void testLockFreeReadsGoToStorageWhenTheIndexCouldNotBePopulated() throws Exception {
+    CacheKey key = new SimpleCacheKey("foo");
+    String resourceId = CacheKeyUtil.getFirstResourceId(key);
+    DiskStorage storageMock = mock(DiskStorage.class);
+    when(storageMock.getEntries()).thenThrow(new IOException());
+    when(storageMock.getResource(resourceId, key)).thenReturn(mock(BinaryResource.class));
+    DiskStorageCache cache = createDiskCache(storageMock, true, true);
+    mBackgroundExecutor.runUntilIdle();
+    // the initialization is over, but the index is incomplete
+    assertTrue(cache.isIndexReady());
+
+    assertNotNull(cache.getResource(key));
+  }
+
+  @Test
+  public void testLockFreeReadsFindEntriesWithFutureTimestamps() throws Exception {
+    CacheKey key = new SimpleCacheKey("foo");
+    String resourceId = CacheKeyUtil.getFirstResourceId(key);
+    DiskStorage.Entry entry = mock(DiskStorage.Entry.class);
+    when(entry.getId()).thenReturn(resourceId);
+    when(entry.getTimestamp()).thenReturn(Long.MAX_VALUE);
+    DiskStorage storageMock = mock(DiskStorage.class);
+    when(storageMock.getEntries()).thenReturn(Arrays.asList(entry));
+    when(storageMock.getResource(resourceId, key)).thenReturn(mock(BinaryResource.class));
+    DiskStorageCache cache = createDiskCache(storageMock, true, true);
+    mBackgroundExecutor.runUntilIdle();
+    assertTrue(cache.isIndexReady());
+
+    assertTrue(cache.hasKeySync(key));
+    assertNotNull(cache.getResource(key));
+  }
+
+  @Test
+  public void testLockFreeReadsDoNotIndexEntriesEvictedDuringTheRead() throws Exception {
+    CacheKey key = new SimpleCacheKey("foo");
+    String resourceId = CacheKeyUtil.getFirstResourceId(key);
+    DiskStorage storageMock = mock(DiskStorage.class);
+    // The entry is found by the read, but evicted before it is added to the index
+    when(storageMock.getResource(resourceId, key)).thenReturn(mock(BinaryResource.class));
+    when(storageMock.contains(resourceId, key)).thenReturn(false);
+    DiskStorageCache cache = createDiskCache(storageMock, false, true);
+
+    assertNotNull(cache.getResource(key));
+    assertFalse(cache.hasKeySync(key));
+
+    when(storageMock.contains(resourceId, key)).thenReturn(true);
+    assertNotNull(cache.getResource(key));
+    assertTrue(cache.hasKeySync(key));
+  }
+
+  /** Verify that multiple threads can read from the cache at the same time. */
+  @Test
+  public void testLockFreeReadsConcurrency() throws Exception {
+    final CyclicBarrier barrier = new CyclicBarrier(3);
+    final CacheKey key1 = new SimpleCacheKey("concurrent1");
+    final CacheKey key2 = new SimpleCacheKey("concurrent2");
+    DiskStorage storageMock = mock(DiskStorage.class);
+    when(storageMock.getResource(CacheKeyUtil.getFirstResourceId(key1), key1))
+        .thenAnswer(new BarrierAnswer(barrier));
+    when(storageMock.getResource(CacheKeyUtil.getFirstResourceId(key2), key2))
+        .thenAnswer(new BarrierAnswer(barrier));
+    final DiskStorageCache cache = createDiskCache(storageMock, false, true);
+    Thread t1 = runReadInSeparateThread(cache, key1);
+    Thread t2 = runReadInSeparateThread(cache, key2);
+    // Both threads need to hit this barrier. If reading is serialized, the second thread will never
+    // reach it as the first one holds the lock.
+    barrier.await(10, TimeUnit.SECONDS);
+    t1.join(1000);
+    t2.join(1000);
+  }
+
+  private static class BarrierAnswer implements Answer<BinaryResource> {
+
+    private final CyclicBarrier mBarrier;
+
+    BarrierAnswer(CyclicBarrier barrier) {
+      mBarrier = barrier;
+    }
+
+    @Override
+    public BinaryResource answer(InvocationOnMock invocation) throws Throwable {
+      mBarrier.await(10, TimeUnit.SECONDS);
+      return null;
+    }
+  }
+
+  private Thread runReadInSeparateThread(final DiskStorageCache cache, final CacheKey key) {
+    Thread thread =
+        new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                cache.getResource(key);
+              }
+            });
+    thread.setDaemon(true);
+    thread.start();
+    return thread;
+  }
+
   private CacheKey putOneThingInCache() throws IOException {
     return putOneThingInCache(mCache);
   }
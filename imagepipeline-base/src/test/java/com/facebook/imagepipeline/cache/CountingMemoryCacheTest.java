@@ -698,10 +698,127 @@ public class CountingMemoryCacheTest {
     assertFalse(mCache.contains(KEYS[0]));
   }
 
+  @Test
+  public void testHitAndMissCounts() {
+    assertNull(mCache.get(KEY));
+    cacheAndClose(KEY, 100);
+    mCache.get(KEY).close();
+    mCache.get(KEY).close();
+    assertNull(mCache.get(KEYS[0]));
+    assertEquals(2, mCache.getHitCount());
+    assertEquals(2, mCache.getMissCount());
+  }
+
+  @Test
+  public void testLruEvictsFrequentItemsOnScan() {
+    mCache = newCacheForScan(MemoryCacheParams.EvictionPolicy.LRU);
+    assertNull(mCache.mEvictionPolicy);
+    replayScan();
+    for (int i = 0; i < 5; i++) {
+      assertNotCached(KEYS[i], 100);
+    }
+  }
+
+  @Test
+  public void testTinyLfuKeepsFrequentItemsOnScan() {
+    mCache = newCacheForScan(MemoryCacheParams.EvictionPolicy.TINY_LFU);
+    assertNotNull(mCache.mEvictionPolicy);
+    replayScan();
+    for (int i = 0; i < 5; i++) {
+      assertExclusivelyOwned(KEYS[i], 100);
+    }
+    assertTotalSize(10, 1000);
+  }
+
+  @Test
+  public void testTinyLfuEvictsOnlyExclusivelyOwnedItems() {
+    mCache = newCacheForScan(MemoryCacheParams.EvictionPolicy.TINY_LFU);
+    CloseableReference<Integer>[] cachedRefs = new CloseableReference[10];
+    for (int i = 0; i < 10; i++) {
+      CloseableReference<Integer> originalRef = newReference(100);
+      cachedRefs[i] = mCache.cache(KEYS[i], originalRef);
+      originalRef.close();
+    }
+    cachedRefs[3].close();
+    cachedRefs[7].close();
+
+    // the oldest exclusively owned item is evicted, even though it never left the window
+    cacheAndClose(KEY, 100);
+    assertExclusivelyOwned(KEY, 100);
+    assertNotCached(KEYS[3], 100);
+    assertExclusivelyOwned(KEYS[7], 100);
+    assertSharedWithCount(KEYS[0], 100, 1);
+    verify(mReleaser).release(100);
+
+    mCache.clear();
+    assertTotalSize(0, 0);
+    assertTrue(mCache.mEvictionPolicy.mWindow.isEmpty());
+    assertTrue(mCache.mEvictionPolicy.mProbation.isEmpty());
+    assertTrue(mCache.mEvictionPolicy.mProtected.isEmpty());
+  }
+
+  @Test
+  public void testTinyLfuEvictsItemsInTheOrderTheyWereReleased() {
+    mCache = newCacheForScan(MemoryCacheParams.EvictionPolicy.TINY_LFU);
+    CloseableReference<Integer>[] cachedRefs = new CloseableReference[10];
+    for (int i = 0; i < 10; i++) {
+      CloseableReference<Integer> originalRef = newReference(100);
+      cachedRefs[i] = mCache.cache(KEYS[i], originalRef);
+      originalRef.close();
+    }
+    cachedRefs[7].close();
+    cachedRefs[3].close();
+    assertEquals(2, mCache.mEvictionPolicy.mWindow.mExclusiveEntries.size());
+
+    cacheAndClose(KEY, 100);
+    assertNotCached(KEYS[7], 100);
+    assertExclusivelyOwned(KEYS[3], 100);
+    assertExclusivelyOwned(KEY, 100);
+
+    // an item looked up again is no longer a candidate until it is released
+    CloseableReference<Integer> ref = mCache.get(KEYS[3]);
+    assertNull(mCache.mEvictionPolicy.mProbation.mExclusiveEntries.get(KEYS[3]));
+    ref.close();
+    assertNotNull(mCache.mEvictionPolicy.mProtected.mExclusiveEntries.get(KEYS[3]));
+  }
+
+  private CountingMemoryCache<String, Integer> newCacheForScan(
+      MemoryCacheParams.EvictionPolicy evictionPolicy) {
+    mParams =
+        new MemoryCacheParams(1000, 10, 1000, 10, 100, PARAMS_CHECK_INTERVAL_MS, evictionPolicy);
+    when(mParamsSupplier.get()).thenReturn(mParams);
+    return new CountingMemoryCache<>(mValueDescriptor, mCacheTrimStrategy, mParamsSupplier);
+  }
+
+  /** Uses the first 5 keys a few times each, and then looks up and caches 20 other keys once. */
+  private void replayScan() {
+    for (int i = 0; i < 5; i++) {
+      assertNull(mCache.get(KEYS[i]));
+      cacheAndClose(KEYS[i], 100);
+    }
+    for (int round = 0; round < 3; round++) {
+      for (int i = 0; i < 5; i++) {
+        mCache.get(KEYS[i]).close();
+      }
+    }
+    for (int i = 0; i < 20; i++) {
+      final String key = "scan" + i;
+      assertNull(mCache.get(key));
+      cacheAndClose(key, 100);
+    }
+  }
+
   private CloseableReference<Integer> newReference(int size) {
     return CloseableReference.of(size, mReleaser);
   }
 
+  private void cacheAndClose(String key, int size) {
+    CloseableReference<Integer> originalRef = newReference(size);
+    CloseableReference<Integer> cachedRef = mCache.cache(key, originalRef);
+    originalRef.close();
+    cachedRef.close();
+  }
+
   private void assertSharedWithCount(String key, Integer value, int count) {
     assertTrue("key not found in the cache", mCache.mCachedEntries.contains(key));
     assertFalse("key found in the exclusives", mCache.mExclusiveEntries.contains(key));
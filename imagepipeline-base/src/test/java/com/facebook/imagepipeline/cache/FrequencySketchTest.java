@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class FrequencySketchTest {
+
+  private static final int CAPACITY = 64;
+
+  private FrequencySketch mSketch;
+
+  @Before
+  public void setUp() {
+    mSketch = new FrequencySketch(CAPACITY);
+  }
+
+  @Test
+  public void testUnknownKey() {
+    assertEquals(0, mSketch.frequency("unknown"));
+  }
+
+  @Test
+  public void testIncrement() {
+    mSketch.increment("key");
+    assertEquals(1, mSketch.frequency("key"));
+    mSketch.increment("key");
+    mSketch.increment("key");
+    assertEquals(3, mSketch.frequency("key"));
+  }
+
+  @Test
+  public void testFrequencySaturates() {
+    for (int i = 0; i < 2 * FrequencySketch.MAX_FREQUENCY; i++) {
+      mSketch.increment("key");
+    }
+    assertEquals(FrequencySketch.MAX_FREQUENCY, mSketch.frequency("key"));
+  }
+
+  @Test
+  public void testFrequentKeysStandOut() {
+    for (int i = 0; i < 5; i++) {
+      mSketch.increment("frequent");
+    }
+    for (int i = 0; i < CAPACITY / 2; i++) {
+      mSketch.increment("rare" + i);
+    }
+    assertEquals(5, mSketch.frequency("frequent"));
+    int overestimated = 0;
+    for (int i = 0; i < CAPACITY / 2; i++) {
+      if (mSketch.frequency("rare" + i) > 1) {
+        overestimated++;
+      }
+    }
+    // collisions can only make a few of the rare keys look more frequent
+    assertTrue(overestimated < CAPACITY / 8);
+  }
+
+  @Test
+  public void testAging() {
+    for (int i = 0; i < 8; i++) {
+      mSketch.increment("old");
+    }
+    assertEquals(8, mSketch.frequency("old"));
+    // the counters are halved once there were ten increments per key the sketch is sized for
+    for (int i = 0; i < 10 * CAPACITY; i++) {
+      mSketch.increment("new" + i);
+    }
+    assertTrue(mSketch.frequency("old") <= 4);
+  }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import android.os.SystemClock;
+import com.facebook.common.internal.Predicate;
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@PrepareForTest({SystemClock.class})
+@PowerMockIgnore({"org.mockito.*", "org.robolectric.*", "androidx.*", "android.*"})
+@Config(manifest = Config.NONE)
+public class SegmentedCountingMemoryCacheTest {
+
+  private static final int SEGMENT_COUNT = 4;
+  private static final int CACHE_MAX_SIZE = 4000;
+  private static final int CACHE_MAX_COUNT = 400;
+  private static final int CACHE_EVICTION_QUEUE_MAX_SIZE = 2000;
+  private static final int CACHE_EVICTION_QUEUE_MAX_COUNT = 200;
+  private static final int CACHE_ENTRY_MAX_SIZE = 2000;
+  private static final long PARAMS_CHECK_INTERVAL_MS = TimeUnit.MINUTES.toMillis(5);
+
+  @Mock public CountingMemoryCache.CacheTrimStrategy mCacheTrimStrategy;
+  @Mock public Supplier<MemoryCacheParams> mParamsSupplier;
+
+  @Rule public PowerMockRule rule = new PowerMockRule();
+
+  private final AtomicInteger mReleasedCount = new AtomicInteger();
+  private final ResourceReleaser<Integer> mReleaser =
+      new ResourceReleaser<Integer>() {
+        @Override
+        public void release(Integer value) {
+          mReleasedCount.incrementAndGet();
+        }
+      };
+
+  private SegmentedCountingMemoryCache<String, Integer> mCache;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    PowerMockito.mockStatic(SystemClock.class);
+    PowerMockito.when(SystemClock.uptimeMillis()).thenReturn(0L);
+    ValueDescriptor<Integer> valueDescriptor =
+        new ValueDescriptor<Integer>() {
+          @Override
+          public int getSizeInBytes(Integer value) {
+            return value;
+          }
+        };
+    when(mParamsSupplier.get())
+        .thenReturn(
+            new MemoryCacheParams(
+                CACHE_MAX_SIZE,
+                CACHE_MAX_COUNT,
+                CACHE_EVICTION_QUEUE_MAX_SIZE,
+                CACHE_EVICTION_QUEUE_MAX_COUNT,
+                CACHE_ENTRY_MAX_SIZE,
+                PARAMS_CHECK_INTERVAL_MS));
+    mCache =
+        new SegmentedCountingMemoryCache<>(
+            valueDescriptor, mCacheTrimStrategy, mParamsSupplier, SEGMENT_COUNT);
+  }
+
+  @Test
+  public void testSegmentCountRoundedToPowerOfTwo() {
+    SegmentedCountingMemoryCache<String, Integer> cache =
+        new SegmentedCountingMemoryCache<>(
+            new ValueDescriptor<Integer>() {
+              @Override
+              public int getSizeInBytes(Integer value) {
+                return value;
+              }
+            },
+            mCacheTrimStrategy,
+            mParamsSupplier,
+            5);
+    assertEquals(8, cache.getSegmentCount());
+  }
+
+  @Test
+  public void testSegmentParamsAreShareOfGlobalParams() {
+    MemoryCacheParams params = mCache.mSegments[0].getMemoryCacheParams();
+    assertEquals(CACHE_MAX_SIZE / SEGMENT_COUNT, params.maxCacheSize);
+    assertEquals(CACHE_MAX_COUNT / SEGMENT_COUNT, params.maxCacheEntries);
+    assertEquals(CACHE_EVICTION_QUEUE_MAX_SIZE / SEGMENT_COUNT, params.maxEvictionQueueSize);
+    assertEquals(CACHE_EVICTION_QUEUE_MAX_COUNT / SEGMENT_COUNT, params.maxEvictionQueueEntries);
+    assertEquals(CACHE_MAX_SIZE / SEGMENT_COUNT, params.maxCacheEntrySize);
+    assertEquals(CACHE_MAX_SIZE, mCache.getMemoryCacheParams().maxCacheSize);
+  }
+
+  @Test
+  public void testGetSegmentsHoldEntries() {
+    CloseableReference<Integer> cachedRef =
+        mCache.cache("key", CloseableReference.of(10, mReleaser));
+
+    int segmentsWithEntry = 0;
+    for (CountingMemoryCache<String, Integer> segment : mCache.getSegments()) {
+      if (segment.contains("key")) {
+        segmentsWithEntry++;
+        assertEquals(1, segment.mCachedEntries.getCount());
+      }
+    }
+    assertEquals(1, segmentsWithEntry);
+    assertEquals(SEGMENT_COUNT, mCache.getSegments().size());
+    cachedRef.close();
+  }
+
+  @Test
+  public void testSegmentsUseEvictionPolicyOfGlobalParams() {
+    assertNull(mCache.mSegments[0].mEvictionPolicy);
+    when(mParamsSupplier.get())
+        .thenReturn(
+            new MemoryCacheParams(
+                CACHE_MAX_SIZE,
+                CACHE_MAX_COUNT,
+                CACHE_EVICTION_QUEUE_MAX_SIZE,
+                CACHE_EVICTION_QUEUE_MAX_COUNT,
+                CACHE_ENTRY_MAX_SIZE,
+                PARAMS_CHECK_INTERVAL_MS,
+                MemoryCacheParams.EvictionPolicy.TINY_LFU));
+    SegmentedCountingMemoryCache<String, Integer> cache =
+        new SegmentedCountingMemoryCache<>(
+            new ValueDescriptor<Integer>() {
+              @Override
+              public int getSizeInBytes(Integer value) {
+                return value;
+              }
+            },
+            mCacheTrimStrategy,
+            mParamsSupplier,
+            SEGMENT_COUNT);
+    for (CountingMemoryCache<String, Integer> segment : cache.mSegments) {
+      assertEquals(
+          MemoryCacheParams.EvictionPolicy.TINY_LFU,
+          segment.getMemoryCacheParams().evictionPolicy);
+      assertNotNull(segment.mEvictionPolicy);
+    }
+  }
+
+  @Test
+  public void testHitAndMissCountsAreSummedOverSegments() {
+    for (int i = 0; i < 8; i++) {
+      assertNull(mCache.get("key" + i));
+      cacheExclusive("key" + i, 10);
+      mCache.get("key" + i).close();
+    }
+    assertEquals(8, mCache.getHitCount());
+    assertEquals(8, mCache.getMissCount());
+  }
+
+  @Test
+  public void testCacheAndGet() {
+    CloseableReference<Integer> originalRef = newReference(100);
+    CloseableReference<Integer> cachedRef = mCache.cache("k1", originalRef);
+    originalRef.close();
+    assertNotNull(cachedRef);
+    assertEquals(1, mCache.getCount());
+    assertEquals(100, mCache.getSizeInBytes());
+    assertEquals(1, mCache.getInUseCount());
+    assertEquals(1, mCache.segmentFor("k1").getCount());
+
+    cachedRef.close();
+    assertEquals(0, mCache.getInUseCount());
+    assertEquals(1, mCache.getEvictionQueueCount());
+    assertEquals(100, mCache.getEvictionQueueSizeInBytes());
+
+    CloseableReference<Integer> ref = mCache.get("k1");
+    assertNotNull(ref);
+    assertEquals(100, (int) ref.get());
+    assertTrue(mCache.contains("k1"));
+    assertNull(mCache.get("k2"));
+    ref.close();
+  }
+
+  @Test
+  public void testKeysAreDistributedAcrossSegments() {
+    for (int i = 0; i < 64; i++) {
+      cacheExclusive("key" + i, 10);
+    }
+    int nonEmptySegments = 0;
+    for (CountingMemoryCache<String, Integer> segment : mCache.mSegments) {
+      if (segment.getCount() > 0) {
+        nonEmptySegments++;
+      }
+    }
+    assertTrue(nonEmptySegments > 1);
+    assertEquals(64, mCache.getCount());
+  }
+
+  @Test
+  public void testReuse() {
+    cacheExclusive("k1", 100);
+    CloseableReference<Integer> reused = mCache.reuse("k1");
+    assertNotNull(reused);
+    assertFalse(mCache.contains("k1"));
+    assertEquals(0, mCache.getCount());
+    reused.close();
+  }
+
+  @Test
+  public void testRemoveAllAndContainsPredicate() {
+    for (int i = 0; i < 10; i++) {
+      cacheExclusive("key" + i, 10);
+    }
+    Predicate<String> evenKeys =
+        new Predicate<String>() {
+          @Override
+          public boolean apply(String key) {
+            return Integer.parseInt(key.substring(3)) % 2 == 0;
+          }
+        };
+    assertTrue(mCache.contains(evenKeys));
+    assertEquals(5, mCache.removeAll(evenKeys));
+    assertFalse(mCache.contains(evenKeys));
+    assertEquals(5, mCache.getCount());
+    assertEquals(5, mReleasedCount.get());
+
+    mCache.clear();
+    assertEquals(0, mCache.getCount());
+    assertEquals(10, mReleasedCount.get());
+  }
+
+  @Test
+  public void testTrimAppliesToAllSegments() {
+    when(mCacheTrimStrategy.getTrimRatio(MemoryTrimType.OnSystemLowMemoryWhileAppInForeground))
+        .thenReturn(1.0);
+    for (int i = 0; i < 20; i++) {
+      cacheExclusive("key" + i, 10);
+    }
+    CloseableReference<Integer> inUse = mCache.get("key0");
+    mCache.trim(MemoryTrimType.OnSystemLowMemoryWhileAppInForeground);
+    assertEquals(1, mCache.getCount());
+    assertEquals(0, mCache.getEvictionQueueCount());
+    CloseableReference.closeSafely(inUse);
+  }
+
+  @Test
+  public void testGlobalLimitsAreNeverExceeded() {
+    for (int i = 0; i < CACHE_MAX_COUNT * 2; i++) {
+      cacheExclusive("key" + i, 30);
+    }
+    assertTrue(mCache.getCount() <= CACHE_MAX_COUNT);
+    assertTrue(mCache.getSizeInBytes() <= CACHE_MAX_SIZE);
+    assertTrue(mCache.getEvictionQueueCount() <= CACHE_EVICTION_QUEUE_MAX_COUNT);
+    assertTrue(mCache.getEvictionQueueSizeInBytes() <= CACHE_EVICTION_QUEUE_MAX_SIZE);
+  }
+
+  @Test
+  public void testConcurrentAccess() throws InterruptedException {
+    final int threadCount = 8;
+    final int iterations = 500;
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    final CountDownLatch doneLatch = new CountDownLatch(threadCount);
+    for (int t = 0; t < threadCount; t++) {
+      final int threadIndex = t;
+      new Thread(
+              new Runnable() {
+                @Override
+                public void run() {
+                  try {
+                    startLatch.await();
+                    for (int i = 0; i < iterations; i++) {
+                      String key = "key" + ((i * threadCount + threadIndex) % 100);
+                      CloseableReference<Integer> ref = mCache.get(key);
+                      if (ref == null) {
+                        CloseableReference<Integer> original = newReference(10);
+                        ref = mCache.cache(key, original);
+                        original.close();
+                      }
+                      CloseableReference.closeSafely(ref);
+                    }
+                  } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                  } finally {
+                    doneLatch.countDown();
+                  }
+                }
+              })
+          .start();
+    }
+    startLatch.countDown();
+    assertTrue(doneLatch.await(30, TimeUnit.SECONDS));
+    assertEquals(0, mCache.getInUseCount());
+    assertTrue(mCache.getCount() <= 100);
+    mCache.clear();
+    assertEquals(0, mCache.getCount());
+  }
+
+  private void cacheExclusive(String key, int size) {
+    CloseableReference<Integer> original = newReference(size);
+    CloseableReference.closeSafely(mCache.cache(key, original));
+    original.close();
+  }
+
+  private CloseableReference<Integer> newReference(int size) {
+    return CloseableReference.of(size, mReleaser);
+  }
+}
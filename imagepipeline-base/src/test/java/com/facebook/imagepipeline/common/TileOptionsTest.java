@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Rect;
+import java.util.List;
+import org.junit.Test;
+
+public class TileOptionsTest {
+
+  @Test
+  public void testSourceRectOfFullResolutionTile() {
+    Rect rect = new TileOptions(0, 1, 2, 256).getSourceRect(10000, 10000);
+
+    assertEquals(256, rect.left);
+    assertEquals(512, rect.top);
+    assertEquals(512, rect.right);
+    assertEquals(768, rect.bottom);
+  }
+
+  @Test
+  public void testSourceRectOfSampledTile() {
+    TileOptions tileOptions = new TileOptions(2, 1, 0, 256);
+    Rect rect = tileOptions.getSourceRect(10000, 10000);
+
+    assertEquals(4, tileOptions.getSampleSize());
+    assertEquals(1024, rect.left);
+    assertEquals(0, rect.top);
+    assertEquals(2048, rect.right);
+    assertEquals(1024, rect.bottom);
+  }
+
+  @Test
+  public void testSourceRectIsClippedToImage() {
+    Rect rect = new TileOptions(1, 1, 1, 512).getSourceRect(1500, 1200);
+
+    assertEquals(1024, rect.left);
+    assertEquals(1024, rect.top);
+    assertEquals(1500, rect.right);
+    assertEquals(1200, rect.bottom);
+  }
+
+  @Test
+  public void testSourceRectOutsideOfImage() {
+    assertNull(new TileOptions(0, 2, 0, 512).getSourceRect(1024, 1024));
+    assertNull(new TileOptions(0, 0, 2, 512).getSourceRect(1024, 1024));
+  }
+
+  @Test
+  public void testLevelForScale() {
+    assertEquals(0, TileOptions.getLevelForScale(2f));
+    assertEquals(0, TileOptions.getLevelForScale(1f));
+    assertEquals(0, TileOptions.getLevelForScale(0.6f));
+    assertEquals(1, TileOptions.getLevelForScale(0.5f));
+    assertEquals(1, TileOptions.getLevelForScale(0.3f));
+    assertEquals(3, TileOptions.getLevelForScale(0.1f));
+  }
+
+  @Test
+  public void testVisibleTiles() {
+    List<TileOptions> tiles =
+        TileOptions.getVisibleTiles(4000, 3000, new Rect(1000, 500, 2000, 1100), 0.5f, 512);
+
+    // at level 1 the tiles cover 1024 pixels of the image
+    assertEquals(4, tiles.size());
+    assertEquals(new TileOptions(1, 0, 0, 512), tiles.get(0));
+    assertEquals(new TileOptions(1, 1, 0, 512), tiles.get(1));
+    assertEquals(new TileOptions(1, 0, 1, 512), tiles.get(2));
+    assertEquals(new TileOptions(1, 1, 1, 512), tiles.get(3));
+  }
+
+  @Test
+  public void testVisibleTilesAreClippedToImage() {
+    List<TileOptions> tiles =
+        TileOptions.getVisibleTiles(1000, 1000, new Rect(-200, 900, 3000, 3000), 1f, 512);
+
+    assertEquals(2, tiles.size());
+    assertEquals(new TileOptions(0, 0, 1, 512), tiles.get(0));
+    assertEquals(new TileOptions(0, 1, 1, 512), tiles.get(1));
+    assertTrue(
+        TileOptions.getVisibleTiles(1000, 1000, new Rect(1000, 0, 2000, 500), 1f, 512).isEmpty());
+  }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.testing.FakeClock;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PriorityDecodeExecutorTest {
+
+  private static final long AGING_INTERVAL_MS = 500;
+
+  /** Creates workers that never start, so that the tasks stay queued. */
+  private static final ThreadFactory IDLE_THREAD_FACTORY =
+      new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          return new Thread(runnable) {
+            @Override
+            public synchronized void start() {}
+          };
+        }
+      };
+
+  private FakeClock mFakeClock;
+  private PriorityDecodeExecutor mExecutor;
+
+  @Before
+  public void setUp() {
+    mFakeClock = new FakeClock();
+    mExecutor = new PriorityDecodeExecutor(1, IDLE_THREAD_FACTORY, AGING_INTERVAL_MS, mFakeClock);
+    // with the worker already there, the tasks go to the queue
+    mExecutor.prestartAllCoreThreads();
+  }
+
+  @Test
+  public void testRunsHigherPrioritiesFirst() {
+    Runnable low = newRunnable();
+    Runnable high = newRunnable();
+    Runnable medium = newRunnable();
+    mExecutor.execute(low, new FakeRequest(Priority.LOW, false));
+    mExecutor.execute(high, new FakeRequest(Priority.HIGH, false));
+    mExecutor.execute(medium, new FakeRequest(Priority.MEDIUM, false));
+
+    assertSame(high, takeNextRunnable());
+    assertSame(medium, takeNextRunnable());
+    assertSame(low, takeNextRunnable());
+    assertNull(takeNextRunnable());
+  }
+
+  @Test
+  public void testRunsPrefetchesAfterVisibleImagesOfSamePriority() {
+    Runnable prefetch = newRunnable();
+    Runnable fetch = newRunnable();
+    mExecutor.execute(prefetch, new FakeRequest(Priority.HIGH, true));
+    mExecutor.execute(fetch, new FakeRequest(Priority.HIGH, false));
+
+    assertSame(fetch, takeNextRunnable());
+    assertSame(prefetch, takeNextRunnable());
+  }
+
+  @Test
+  public void testRunsSameRankInSubmissionOrder() {
+    Runnable first = newRunnable();
+    Runnable second = newRunnable();
+    Runnable third = newRunnable();
+    mExecutor.execute(first);
+    mExecutor.execute(second);
+    mExecutor.execute(third);
+
+    assertSame(first, takeNextRunnable());
+    assertSame(second, takeNextRunnable());
+    assertSame(third, takeNextRunnable());
+  }
+
+  @Test
+  public void testReordersWhenPriorityChanges() {
+    FakeRequest request = new FakeRequest(Priority.LOW, false);
+    Runnable promoted = newRunnable();
+    Runnable medium = newRunnable();
+    mExecutor.execute(promoted, request);
+    mExecutor.execute(medium, new FakeRequest(Priority.MEDIUM, false));
+
+    request.priority = Priority.HIGH;
+    mExecutor.onRequestChanged(request);
+
+    assertSame(promoted, takeNextRunnable());
+    assertSame(medium, takeNextRunnable());
+  }
+
+  @Test
+  public void testPromotesTasksThatWaitedLong() {
+    Runnable prefetch = newRunnable();
+    mExecutor.execute(prefetch, new FakeRequest(Priority.LOW, true));
+    mFakeClock.incrementBy(5 * AGING_INTERVAL_MS);
+    Runnable high = newRunnable();
+    mExecutor.execute(high, new FakeRequest(Priority.HIGH, false));
+
+    assertSame(prefetch, takeNextRunnable());
+    assertSame(high, takeNextRunnable());
+  }
+
+  @Test
+  public void testDropsTasksOfCancelledRequests() {
+    FakeRequest request = new FakeRequest(Priority.HIGH, false);
+    mExecutor.execute(newRunnable(), request);
+    mExecutor.execute(newRunnable(), request);
+    Runnable other = newRunnable();
+    mExecutor.execute(other, new FakeRequest(Priority.LOW, false));
+    assertEquals(3, mExecutor.getQueueDepth());
+
+    request.cancelled = true;
+    mExecutor.onRequestChanged(request);
+
+    assertEquals(1, mExecutor.getQueueDepth());
+    assertEquals(2, mExecutor.getDroppedCount());
+    assertSame(other, takeNextRunnable());
+  }
+
+  @Test
+  public void testTellsWhetherTasksWereDropped() {
+    FakeRequest request = new FakeRequest(Priority.HIGH, false);
+    mExecutor.execute(newRunnable(), request);
+
+    assertFalse(mExecutor.onRequestChanged(request));
+    assertEquals(1, mExecutor.getQueueDepth());
+
+    request.cancelled = true;
+    assertTrue(mExecutor.onRequestChanged(request));
+    assertFalse(mExecutor.onRequestChanged(request));
+    assertEquals(1, mExecutor.getDroppedCount());
+    assertEquals(0, mExecutor.getQueueDepth());
+  }
+
+  @Test
+  public void testRunsTasksAndRecordsMetrics() throws InterruptedException {
+    PriorityDecodeExecutor executor =
+        new PriorityDecodeExecutor(
+            2, Executors.defaultThreadFactory(), AGING_INTERVAL_MS, mFakeClock);
+    final CountDownLatch started = new CountDownLatch(2);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(3);
+    Runnable blocking =
+        new Runnable() {
+          @Override
+          public void run() {
+            started.countDown();
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              throw new RuntimeException(e);
+            }
+            done.countDown();
+          }
+        };
+    executor.execute(blocking);
+    executor.execute(blocking);
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            done.countDown();
+          }
+        });
+    assertEquals(1, executor.getQueueDepth());
+    mFakeClock.incrementBy(40);
+    release.countDown();
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(3, executor.getExecutedCount());
+    assertTrue(executor.getMaxQueueDepth() >= 1);
+    assertEquals(40, executor.getMaxWaitTimeMs());
+    assertEquals(0, executor.getQueueDepth());
+  }
+
+  private Runnable takeNextRunnable() {
+    PriorityDecodeExecutor.Task task = (PriorityDecodeExecutor.Task) mExecutor.getQueue().poll();
+    return task == null ? null : task.runnable;
+  }
+
+  private static Runnable newRunnable() {
+    return new Runnable() {
+      @Override
+      public void run() {}
+    };
+  }
+
+  private static class FakeRequest implements PriorityDecodeExecutor.Request {
+    Priority priority;
+    final boolean prefetch;
+    boolean cancelled;
+
+    FakeRequest(Priority priority, boolean prefetch) {
+      this.priority = priority;
+      this.prefetch = prefetch;
+    }
+
+    @Override
+    public Priority getPriority() {
+      return priority;
+    }
+
+    @Override
+    public boolean isPrefetch() {
+      return prefetch;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return cancelled;
+    }
+  }
+}
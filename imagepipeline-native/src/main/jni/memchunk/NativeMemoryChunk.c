@@ -81,6 +81,22 @@ static void NativeMemoryChunk_nativeCopyFromByteArray(
       JLONG_TO_PTR(lpointer));
 }
 
+static void NativeMemoryChunk_nativeCopyFromByteBuffer(
+    JNIEnv* env,
+    jclass clzz,
+    jlong lpointer,
+    jobject byteBuffer,
+    jint offset,
+    jint count) {
+  UNUSED(clzz);
+  jbyte* address = (*env)->GetDirectBufferAddress(env, byteBuffer);
+  if (!address) {
+    (*env)->ThrowNew(env, jRuntimeException_class, "could not access direct buffer");
+    return;
+  }
+  memcpy(JLONG_TO_PTR(lpointer), address + offset, count);
+}
+
 static void NativeMemoryChunk_nativeMemcpy(
     JNIEnv* env,
     jclass clzz,
@@ -109,6 +125,8 @@ static JNINativeMethod gNativeMemoryChunkMethods[] = {
     (void*) NativeMemoryChunk_nativeCopyToByteArray },
   { "nativeCopyFromByteArray", "(J[BII)V",
     (void*) NativeMemoryChunk_nativeCopyFromByteArray },
+  { "nativeCopyFromByteBuffer", "(JLjava/nio/ByteBuffer;II)V",
+    (void*) NativeMemoryChunk_nativeCopyFromByteBuffer },
   { "nativeMemcpy", "(JJI)V", (void*) NativeMemoryChunk_nativeMemcpy },
   { "nativeReadByte", "(J)B", (void*) NativeMemoryChunk_nativeReadByte },
 };
@@ -7,10 +7,14 @@
 
 package com.facebook.imagepipeline.cache;
 
+import bolts.Continuation;
 import bolts.Task;
 import com.facebook.binaryresource.BinaryResource;
+import com.facebook.binaryresource.FileBinaryResource;
 import com.facebook.cache.common.CacheKey;
 import com.facebook.cache.common.WriterCallback;
+import com.facebook.cache.disk.AppendFileCache;
+import com.facebook.cache.disk.BatchInsertFileCache;
 import com.facebook.cache.disk.FileCache;
 import com.facebook.common.internal.Preconditions;
 import com.facebook.common.logging.FLog;
@@ -18,17 +22,27 @@ import com.facebook.common.memory.PooledByteBuffer;
 import com.facebook.common.memory.PooledByteBufferFactory;
 import com.facebook.common.memory.PooledByteStreams;
 import com.facebook.common.references.CloseableReference;
+import com.facebook.common.util.StreamUtil;
+import com.facebook.imagepipeline.common.Priority;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.instrumentation.FrescoInstrumenter;
+import com.facebook.imagepipeline.memory.MappedPooledByteBuffer;
 import com.facebook.imagepipeline.systrace.FrescoSystrace;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 /**
  * BufferedDiskCache provides get and put operations to take care of scheduling disk-cache
@@ -44,6 +58,20 @@ public class BufferedDiskCache {
   private final Executor mWriteExecutor;
   private final StagingArea mStagingArea;
   private final ImageCacheStatsTracker mImageCacheStatsTracker;
+  private final int mMemoryMappedReadMinSize;
+  private final int mWriteBehindBatchSize;
+  private final int mWriteBehindMaxPendingWrites;
+
+  /** The writes waiting to be flushed in write-behind mode, from the oldest to the newest. */
+  @GuardedBy("mPendingWrites")
+  private final LinkedHashMap<CacheKey, PendingWrite> mPendingWrites = new LinkedHashMap<>();
+
+  @GuardedBy("mPendingWrites")
+  private boolean mFlushScheduled;
+
+  /** The last append to each entry that is being appended to. */
+  @GuardedBy("mAppendTasks")
+  private final Map<CacheKey, Task<Long>> mAppendTasks = new HashMap<>();
 
   public BufferedDiskCache(
       FileCache fileCache,
@@ -52,12 +80,63 @@ public class BufferedDiskCache {
       Executor readExecutor,
       Executor writeExecutor,
       ImageCacheStatsTracker imageCacheStatsTracker) {
+    this(
+        fileCache,
+        pooledByteBufferFactory,
+        pooledByteStreams,
+        readExecutor,
+        writeExecutor,
+        imageCacheStatsTracker,
+        -1);
+  }
+
+  public BufferedDiskCache(
+      FileCache fileCache,
+      PooledByteBufferFactory pooledByteBufferFactory,
+      PooledByteStreams pooledByteStreams,
+      Executor readExecutor,
+      Executor writeExecutor,
+      ImageCacheStatsTracker imageCacheStatsTracker,
+      int memoryMappedReadMinSize) {
+    this(
+        fileCache,
+        pooledByteBufferFactory,
+        pooledByteStreams,
+        readExecutor,
+        writeExecutor,
+        imageCacheStatsTracker,
+        memoryMappedReadMinSize,
+        0,
+        0);
+  }
+
+  /**
+   * @param memoryMappedReadMinSize cached files of at least this many bytes are memory mapped
+   *     instead of being copied into a pooled buffer, or -1 to always copy them
+   * @param writeBehindBatchSize the maximum number of images written to the disk cache in a
+   *     batch, or 0 to schedule a write for every image
+   * @param writeBehindMaxPendingWrites the maximum number of images waiting to be written in
+   *     batches, beyond which the writes of the lowest priority are dropped
+   */
+  public BufferedDiskCache(
+      FileCache fileCache,
+      PooledByteBufferFactory pooledByteBufferFactory,
+      PooledByteStreams pooledByteStreams,
+      Executor readExecutor,
+      Executor writeExecutor,
+      ImageCacheStatsTracker imageCacheStatsTracker,
+      int memoryMappedReadMinSize,
+      int writeBehindBatchSize,
+      int writeBehindMaxPendingWrites) {
     mFileCache = fileCache;
     mPooledByteBufferFactory = pooledByteBufferFactory;
     mPooledByteStreams = pooledByteStreams;
     mReadExecutor = readExecutor;
     mWriteExecutor = writeExecutor;
     mImageCacheStatsTracker = imageCacheStatsTracker;
+    mMemoryMappedReadMinSize = memoryMappedReadMinSize;
+    mWriteBehindBatchSize = writeBehindBatchSize;
+    mWriteBehindMaxPendingWrites = Math.max(writeBehindMaxPendingWrites, writeBehindBatchSize);
     mStagingArea = StagingArea.getInstance();
   }
 
@@ -240,6 +319,17 @@ public class BufferedDiskCache {
    * thread, so the caller of this method is not blocked
    */
   public void put(final CacheKey key, EncodedImage encodedImage) {
+    put(key, encodedImage, Priority.MEDIUM);
+  }
+
+  /**
+   * Associates encodedImage with given key in disk cache. Disk write is performed on background
+   * thread, so the caller of this method is not blocked
+   *
+   * @param priority the priority of the write. In write-behind mode, the pending writes of the
+   *     lowest priority are dropped first when there are too many of them
+   */
+  public void put(final CacheKey key, EncodedImage encodedImage, Priority priority) {
     try {
       if (FrescoSystrace.isTracing()) {
         FrescoSystrace.beginSection("BufferedDiskCache#put");
@@ -254,6 +344,10 @@ public class BufferedDiskCache {
       // count. When this write completes (with success/failure), then we will bump down the
       // ref count again.
       final EncodedImage finalEncodedImage = EncodedImage.cloneOrNull(encodedImage);
+      if (mWriteBehindBatchSize > 0) {
+        enqueueWrite(key, finalEncodedImage, priority);
+        return;
+      }
       try {
         final Object token = FrescoInstrumenter.onBeforeSubmitWork("BufferedDiskCache_putAsync");
         mWriteExecutor.execute(
@@ -284,10 +378,93 @@ public class BufferedDiskCache {
     }
   }
 
-  /** Removes the item from the disk cache and the staging area. */
+  /**
+   * Appends the bytes of the encoded image, from the given offset, to the disk cache entry of the
+   * key, for entries that are written in several parts. Unlike {@link #put}, the bytes are written
+   * at the end of the existing entry, and the appends to a key are written in the order they were
+   * made.
+   *
+   * <p>The append fails if the entry doesn't have the expected size anymore, so that a failed or
+   * concurrent write can't leave a gap in the entry.
+   *
+   * @param offset the offset of the first byte of the encoded image to append
+   * @param expectedSize the size the entry must have before the append, 0 if it doesn't exist
+   * @return task that completes with the size of the entry after the append
+   */
+  public Task<Long> append(
+      final CacheKey key, EncodedImage encodedImage, final int offset, final long expectedSize) {
+    Preconditions.checkNotNull(key);
+    Preconditions.checkArgument(EncodedImage.isValid(encodedImage));
+    Preconditions.checkArgument(offset >= 0 && offset <= encodedImage.getSize());
+    final EncodedImage finalEncodedImage = EncodedImage.cloneOrNull(encodedImage);
+    final Object token = FrescoInstrumenter.onBeforeSubmitWork("BufferedDiskCache_append");
+    final Callable<Long> append =
+        new Callable<Long>() {
+          @Override
+          public Long call() throws Exception {
+            final Object currentToken = FrescoInstrumenter.onBeginWork(token, null);
+            try {
+              return appendToDiskCache(key, finalEncodedImage, offset, expectedSize);
+            } finally {
+              EncodedImage.closeSafely(finalEncodedImage);
+              FrescoInstrumenter.onEndWork(currentToken);
+            }
+          }
+        };
+    synchronized (mAppendTasks) {
+      final Task<Long> previousTask = mAppendTasks.get(key);
+      final Task<Long> task =
+          previousTask == null
+              ? Task.call(append, mWriteExecutor)
+              : previousTask.continueWithTask(
+                  new Continuation<Long, Task<Long>>() {
+                    @Override
+                    public Task<Long> then(Task<Long> previous) {
+                      return Task.call(append, mWriteExecutor);
+                    }
+                  });
+      mAppendTasks.put(key, task);
+      task.continueWith(
+          new Continuation<Long, Void>() {
+            @Override
+            public Void then(Task<Long> finishedTask) {
+              synchronized (mAppendTasks) {
+                if (mAppendTasks.get(key) == finishedTask) {
+                  mAppendTasks.remove(key);
+                }
+              }
+              return null;
+            }
+          });
+      return task;
+    }
+  }
+
+  /**
+   * Removes the item from the disk cache and the staging area, once the appends to it that were
+   * already made are written.
+   */
   public Task<Void> remove(final CacheKey key) {
     Preconditions.checkNotNull(key);
+    final Task<Long> appendTask;
+    synchronized (mAppendTasks) {
+      appendTask = mAppendTasks.get(key);
+    }
+    if (appendTask == null) {
+      return removeAsync(key);
+    }
+    return appendTask.continueWithTask(
+        new Continuation<Long, Task<Void>>() {
+          @Override
+          public Task<Void> then(Task<Long> task) {
+            return removeAsync(key);
+          }
+        });
+  }
+
+  private Task<Void> removeAsync(final CacheKey key) {
     mStagingArea.remove(key);
+    dropPendingWrite(key);
     try {
       final Object token = FrescoInstrumenter.onBeforeSubmitWork("BufferedDiskCache_remove");
       return Task.call(
@@ -316,6 +493,7 @@ public class BufferedDiskCache {
   /** Clears the disk cache and the staging area. */
   public Task<Void> clearAll() {
     mStagingArea.clearAll();
+    dropPendingWrites();
     final Object token = FrescoInstrumenter.onBeforeSubmitWork("BufferedDiskCache_clearAll");
     try {
       return Task.call(
@@ -345,6 +523,147 @@ public class BufferedDiskCache {
     return mFileCache.getSize();
   }
 
+  /**
+   * Queues a write, replacing the pending write of the same key if there is one. When the queue is
+   * full, the oldest of the pending writes of the lowest priority is dropped, unless the new write
+   * has an even lower priority.
+   */
+  private void enqueueWrite(CacheKey key, EncodedImage encodedImage, Priority priority) {
+    PendingWrite write = new PendingWrite(key, encodedImage, priority);
+    final PendingWrite replaced;
+    PendingWrite dropped = null;
+    final boolean scheduleFlush;
+    synchronized (mPendingWrites) {
+      replaced = mPendingWrites.remove(key);
+      if (replaced != null) {
+        write =
+            new PendingWrite(
+                key, encodedImage, Priority.getHigherPriority(priority, replaced.mPriority));
+      } else if (mPendingWrites.size() >= mWriteBehindMaxPendingWrites) {
+        dropped = getLowestPriorityWrite();
+        if (dropped.mPriority.ordinal() > priority.ordinal()) {
+          dropped = write;
+        } else {
+          mPendingWrites.remove(dropped.mKey);
+        }
+      }
+      if (dropped != write) {
+        mPendingWrites.put(key, write);
+      }
+      scheduleFlush = !mFlushScheduled;
+      mFlushScheduled = true;
+    }
+    if (replaced != null) {
+      // the staging area already holds the new image
+      EncodedImage.closeSafely(replaced.mEncodedImage);
+    }
+    if (dropped != null) {
+      FLog.v(TAG, "Dropped disk-cache write for key %s", dropped.mKey.getUriString());
+      releasePendingWrite(dropped);
+    }
+    if (scheduleFlush) {
+      scheduleFlush();
+    }
+  }
+
+  /** Returns the oldest of the pending writes of the lowest priority. */
+  @GuardedBy("mPendingWrites")
+  private PendingWrite getLowestPriorityWrite() {
+    PendingWrite lowest = null;
+    for (PendingWrite write : mPendingWrites.values()) {
+      if (lowest == null || write.mPriority.ordinal() < lowest.mPriority.ordinal()) {
+        lowest = write;
+      }
+    }
+    return lowest;
+  }
+
+  private void scheduleFlush() {
+    try {
+      final Object token = FrescoInstrumenter.onBeforeSubmitWork("BufferedDiskCache_flushAsync");
+      mWriteExecutor.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              final Object currentToken = FrescoInstrumenter.onBeginWork(token, null);
+              try {
+                flushPendingWrites();
+              } finally {
+                FrescoInstrumenter.onEndWork(currentToken);
+              }
+            }
+          });
+    } catch (Exception exception) {
+      // We failed to enqueue the flush. Log failure and drop the pending writes
+      FLog.w(TAG, exception, "Failed to schedule disk-cache flush");
+      synchronized (mPendingWrites) {
+        mFlushScheduled = false;
+      }
+      dropPendingWrites();
+    }
+  }
+
+  /**
+   * Writes the oldest batch of pending writes, and schedules the next batch if there is one. The
+   * flush is rescheduled instead of looping over the batches so that the other tasks of the write
+   * executor can run in between.
+   */
+  private void flushPendingWrites() {
+    final List<PendingWrite> batch = new ArrayList<>(mWriteBehindBatchSize);
+    synchronized (mPendingWrites) {
+      final Iterator<PendingWrite> iterator = mPendingWrites.values().iterator();
+      while (iterator.hasNext() && batch.size() < mWriteBehindBatchSize) {
+        batch.add(iterator.next());
+        iterator.remove();
+      }
+    }
+    try {
+      if (!batch.isEmpty()) {
+        writeToDiskCache(batch);
+      }
+    } finally {
+      for (int i = 0; i < batch.size(); i++) {
+        releasePendingWrite(batch.get(i));
+      }
+    }
+    final boolean scheduleFlush;
+    synchronized (mPendingWrites) {
+      scheduleFlush = !mPendingWrites.isEmpty();
+      mFlushScheduled = scheduleFlush;
+    }
+    if (scheduleFlush) {
+      scheduleFlush();
+    }
+  }
+
+  /** Removes the image of the write from the staging area, and releases it. */
+  private void releasePendingWrite(PendingWrite write) {
+    mStagingArea.remove(write.mKey, write.mEncodedImage);
+    EncodedImage.closeSafely(write.mEncodedImage);
+  }
+
+  /** Drops the pending write of the key, if any, so that it can't undo a later remove. */
+  private void dropPendingWrite(CacheKey key) {
+    final PendingWrite write;
+    synchronized (mPendingWrites) {
+      write = mPendingWrites.remove(key);
+    }
+    if (write != null) {
+      releasePendingWrite(write);
+    }
+  }
+
+  private void dropPendingWrites() {
+    final List<PendingWrite> writes;
+    synchronized (mPendingWrites) {
+      writes = new ArrayList<>(mPendingWrites.values());
+      mPendingWrites.clear();
+    }
+    for (int i = 0; i < writes.size(); i++) {
+      releasePendingWrite(writes.get(i));
+    }
+  }
+
   private Task<EncodedImage> foundPinnedImage(CacheKey key, EncodedImage pinnedImage) {
     FLog.v(TAG, "Found image for %s in staging area", key.getUriString());
     mImageCacheStatsTracker.onStagingAreaHit(key);
@@ -367,11 +686,18 @@ public class BufferedDiskCache {
       }
 
       PooledByteBuffer byteBuffer;
-      final InputStream is = diskCacheResource.openStream();
-      try {
-        byteBuffer = mPooledByteBufferFactory.newByteBuffer(is, (int) diskCacheResource.size());
-      } finally {
-        is.close();
+      final long size = diskCacheResource.size();
+      if (mMemoryMappedReadMinSize >= 0
+          && size >= mMemoryMappedReadMinSize
+          && diskCacheResource instanceof FileBinaryResource) {
+        byteBuffer = MappedPooledByteBuffer.map(((FileBinaryResource) diskCacheResource).getFile());
+      } else {
+        final InputStream is = diskCacheResource.openStream();
+        try {
+          byteBuffer = mPooledByteBufferFactory.newByteBuffer(is, (int) size);
+        } finally {
+          is.close();
+        }
       }
 
       FLog.v(TAG, "Successful read from disk cache for %s", key.getUriString());
@@ -394,14 +720,7 @@ public class BufferedDiskCache {
   private void writeToDiskCache(final CacheKey key, final EncodedImage encodedImage) {
     FLog.v(TAG, "About to write to disk-cache for key %s", key.getUriString());
     try {
-      mFileCache.insert(
-          key,
-          new WriterCallback() {
-            @Override
-            public void write(OutputStream os) throws IOException {
-              mPooledByteStreams.copy(encodedImage.getInputStream(), os);
-            }
-          });
+      mFileCache.insert(key, newWriterCallback(encodedImage));
       mImageCacheStatsTracker.onDiskCachePut(key);
       FLog.v(TAG, "Successful disk-cache write for key %s", key.getUriString());
     } catch (IOException ioe) {
@@ -410,4 +729,133 @@ public class BufferedDiskCache {
       FLog.w(TAG, ioe, "Failed to write to disk-cache for key %s", key.getUriString());
     }
   }
+
+  private long appendToDiskCache(
+      final CacheKey key,
+      final EncodedImage encodedImage,
+      final int offset,
+      final long expectedSize)
+      throws IOException {
+    final WriterCallback writer =
+        new WriterCallback() {
+          @Override
+          public void write(OutputStream os) throws IOException {
+            final InputStream is = encodedImage.getInputStream();
+            try {
+              StreamUtil.skip(is, offset);
+              mPooledByteStreams.copy(is, os);
+            } finally {
+              is.close();
+            }
+          }
+        };
+    final BinaryResource resource;
+    if (mFileCache instanceof AppendFileCache) {
+      // the size of the entry is checked by the file cache, under its lock
+      resource = ((AppendFileCache) mFileCache).append(key, expectedSize, writer);
+    } else {
+      // without append, the entry is written again with the previous content first
+      final BinaryResource existingResource = mFileCache.getResource(key);
+      checkSize(key, existingResource != null ? existingResource.size() : 0, expectedSize);
+      resource =
+          mFileCache.insert(
+              key,
+              new WriterCallback() {
+                @Override
+                public void write(OutputStream os) throws IOException {
+                  if (existingResource != null) {
+                    final InputStream is = existingResource.openStream();
+                    try {
+                      checkSize(key, mPooledByteStreams.copy(is, os), expectedSize);
+                    } finally {
+                      is.close();
+                    }
+                  }
+                  writer.write(os);
+                }
+              });
+    }
+    FLog.v(TAG, "Successful disk-cache append for key %s", key.getUriString());
+    return resource.size();
+  }
+
+  private static void checkSize(CacheKey key, long size, long expectedSize) throws IOException {
+    if (size != expectedSize) {
+      throw new IOException(
+          "Disk-cache entry for key "
+              + key.getUriString()
+              + " has "
+              + size
+              + " bytes, expected "
+              + expectedSize);
+    }
+  }
+
+  /** Writes a batch of pending writes to disk cache */
+  private void writeToDiskCache(final List<PendingWrite> writes) {
+    FLog.v(TAG, "About to write %d images to disk-cache", writes.size());
+    final List<CacheKey> keys = new ArrayList<>(writes.size());
+    final List<WriterCallback> writers = new ArrayList<>(writes.size());
+    for (int i = 0; i < writes.size(); i++) {
+      keys.add(writes.get(i).mKey);
+      writers.add(newWriterCallback(writes.get(i).mEncodedImage));
+    }
+    try {
+      final List<BinaryResource> resources = insertAll(keys, writers);
+      for (int i = 0; i < keys.size(); i++) {
+        if (resources.get(i) != null) {
+          mImageCacheStatsTracker.onDiskCachePut(keys.get(i));
+        } else {
+          FLog.w(TAG, "Failed to write to disk-cache for key %s", keys.get(i).getUriString());
+        }
+      }
+    } catch (IOException ioe) {
+      FLog.w(TAG, ioe, "Failed to write %d images to disk-cache", writes.size());
+    }
+  }
+
+  /**
+   * Inserts the batch with {@link BatchInsertFileCache#insertAll} if the file cache supports it, or
+   * one resource at a time otherwise.
+   */
+  private List<BinaryResource> insertAll(List<CacheKey> keys, List<WriterCallback> writers)
+      throws IOException {
+    if (mFileCache instanceof BatchInsertFileCache) {
+      return ((BatchInsertFileCache) mFileCache).insertAll(keys, writers);
+    }
+    final List<BinaryResource> resources = new ArrayList<>(keys.size());
+    for (int i = 0; i < keys.size(); i++) {
+      BinaryResource resource = null;
+      try {
+        resource = mFileCache.insert(keys.get(i), writers.get(i));
+      } catch (IOException ioe) {
+        // like in a batch, the failed resource is null, which the caller logs, and the others are
+        // still written
+      }
+      resources.add(resource);
+    }
+    return resources;
+  }
+
+  private WriterCallback newWriterCallback(final EncodedImage encodedImage) {
+    return new WriterCallback() {
+      @Override
+      public void write(OutputStream os) throws IOException {
+        mPooledByteStreams.copy(encodedImage.getInputStream(), os);
+      }
+    };
+  }
+
+  /** An image waiting to be written to disk cache in write-behind mode. */
+  private static class PendingWrite {
+    private final CacheKey mKey;
+    private final EncodedImage mEncodedImage;
+    private final Priority mPriority;
+
+    private PendingWrite(CacheKey key, EncodedImage encodedImage, Priority priority) {
+      mKey = key;
+      mEncodedImage = encodedImage;
+      mPriority = priority;
+    }
+  }
 }
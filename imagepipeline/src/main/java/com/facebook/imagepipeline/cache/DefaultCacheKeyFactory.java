@@ -30,6 +30,12 @@ public class DefaultCacheKeyFactory implements CacheKeyFactory {
 
   @Override
   public CacheKey getBitmapCacheKey(ImageRequest request, Object callerContext) {
+    if (request.getTileOptions() != null) {
+      return new TileCacheKey(
+          getCacheKeySourceUri(request.getSourceUri()).toString(),
+          request.getTileOptions(),
+          request.getImageDecodeOptions());
+    }
     return new BitmapMemoryCacheKey(
         getCacheKeySourceUri(request.getSourceUri()).toString(),
         request.getResizeOptions(),
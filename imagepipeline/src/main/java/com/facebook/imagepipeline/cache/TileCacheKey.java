@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import android.net.Uri;
+import com.facebook.cache.common.CacheKey;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.util.HashCodeUtil;
+import com.facebook.imagepipeline.common.ImageDecodeOptions;
+import com.facebook.imagepipeline.common.TileOptions;
+import java.util.Locale;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Cache key for a tile of an image in the BitmapMemoryCache, identified by the source of the image
+ * and the level, column and row of the tile.
+ */
+@Immutable
+public class TileCacheKey implements CacheKey {
+
+  private final String mSourceString;
+  private final TileOptions mTileOptions;
+  private final ImageDecodeOptions mImageDecodeOptions;
+  private final int mHash;
+
+  public TileCacheKey(
+      String sourceString, TileOptions tileOptions, ImageDecodeOptions imageDecodeOptions) {
+    mSourceString = Preconditions.checkNotNull(sourceString);
+    mTileOptions = Preconditions.checkNotNull(tileOptions);
+    mImageDecodeOptions = Preconditions.checkNotNull(imageDecodeOptions);
+    mHash =
+        HashCodeUtil.hashCode(
+            sourceString.hashCode(), tileOptions.hashCode(), imageDecodeOptions.hashCode());
+  }
+
+  public TileOptions getTileOptions() {
+    return mTileOptions;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof TileCacheKey)) {
+      return false;
+    }
+    TileCacheKey otherKey = (TileCacheKey) o;
+    return mHash == otherKey.mHash
+        && mSourceString.equals(otherKey.mSourceString)
+        && mTileOptions.equals(otherKey.mTileOptions)
+        && mImageDecodeOptions.equals(otherKey.mImageDecodeOptions);
+  }
+
+  @Override
+  public int hashCode() {
+    return mHash;
+  }
+
+  @Override
+  public boolean containsUri(Uri uri) {
+    return getUriString().contains(uri.toString());
+  }
+
+  @Override
+  public String getUriString() {
+    return mSourceString;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        (Locale) null, "%s_tile_%s_%s_%d", mSourceString, mTileOptions, mImageDecodeOptions, mHash);
+  }
+}
@@ -20,6 +20,7 @@ public class DynamicDefaultDiskStorageFactory implements DiskStorageFactory {
         diskCacheConfig.getVersion(),
         diskCacheConfig.getBaseDirectoryPathSupplier(),
         diskCacheConfig.getBaseDirectoryName(),
-        diskCacheConfig.getCacheErrorLogger());
+        diskCacheConfig.getCacheErrorLogger(),
+        diskCacheConfig.getJournalEnabled());
   }
 }
@@ -10,6 +10,7 @@ package com.facebook.imagepipeline.core;
 import android.content.Context;
 import android.graphics.Bitmap;
 import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.disk.DiskCacheConfig;
 import com.facebook.common.internal.Supplier;
 import com.facebook.common.internal.Suppliers;
 import com.facebook.common.memory.ByteArrayPool;
@@ -24,6 +25,7 @@ import com.facebook.imagepipeline.decoder.ImageDecoder;
 import com.facebook.imagepipeline.decoder.ProgressiveJpegConfig;
 import com.facebook.imagepipeline.image.CloseableImage;
 import com.facebook.imageutils.BitmapUtil;
+import javax.annotation.Nullable;
 
 /**
  * Encapsulates additional elements of the {@link ImagePipelineConfig} which are currently in an
@@ -57,6 +59,17 @@ public class ImagePipelineExperiments {
   private boolean mKeepCancelledFetchAsLowPriority;
   private boolean mDownsampleIfLargeBitmap;
   private boolean mEncodedCacheEnabled;
+  private final int mBitmapMemoryCacheSegmentCount;
+  private final int mMemoryMappedDiskCacheReadMinSize;
+  private final int mDiskCacheWriteBehindBatchSize;
+  private final int mDiskCacheWriteBehindMaxPendingWrites;
+  private final boolean mDecodeFanOutEnabled;
+  private final boolean mResumableDownloadsEnabled;
+  private final boolean mAdaptiveNetworkThrottlingEnabled;
+  private final int mAnimationCheckpointInterval;
+  private final int mAnimationMaxCheckpointBytes;
+  private final int mAnimationFramePreparationBudget;
+  private final @Nullable DiskCacheConfig mAnimationFrameDiskCacheConfig;
 
   private ImagePipelineExperiments(Builder builder) {
     mWebpSupportEnabled = builder.mWebpSupportEnabled;
@@ -86,6 +99,17 @@ public class ImagePipelineExperiments {
     mKeepCancelledFetchAsLowPriority = builder.mKeepCancelledFetchAsLowPriority;
     mDownsampleIfLargeBitmap = builder.mDownsampleIfLargeBitmap;
     mEncodedCacheEnabled = builder.mEncodedCacheEnabled;
+    mBitmapMemoryCacheSegmentCount = builder.mBitmapMemoryCacheSegmentCount;
+    mMemoryMappedDiskCacheReadMinSize = builder.mMemoryMappedDiskCacheReadMinSize;
+    mDiskCacheWriteBehindBatchSize = builder.mDiskCacheWriteBehindBatchSize;
+    mDiskCacheWriteBehindMaxPendingWrites = builder.mDiskCacheWriteBehindMaxPendingWrites;
+    mDecodeFanOutEnabled = builder.mDecodeFanOutEnabled;
+    mResumableDownloadsEnabled = builder.mResumableDownloadsEnabled;
+    mAdaptiveNetworkThrottlingEnabled = builder.mAdaptiveNetworkThrottlingEnabled;
+    mAnimationCheckpointInterval = builder.mAnimationCheckpointInterval;
+    mAnimationMaxCheckpointBytes = builder.mAnimationMaxCheckpointBytes;
+    mAnimationFramePreparationBudget = builder.mAnimationFramePreparationBudget;
+    mAnimationFrameDiskCacheConfig = builder.mAnimationFrameDiskCacheConfig;
   }
 
   public boolean isEncodedCacheEnabled() {
@@ -185,6 +209,50 @@ public class ImagePipelineExperiments {
     return mKeepCancelledFetchAsLowPriority;
   }
 
+  public int getBitmapMemoryCacheSegmentCount() {
+    return mBitmapMemoryCacheSegmentCount;
+  }
+
+  public int getMemoryMappedDiskCacheReadMinSize() {
+    return mMemoryMappedDiskCacheReadMinSize;
+  }
+
+  public int getDiskCacheWriteBehindBatchSize() {
+    return mDiskCacheWriteBehindBatchSize;
+  }
+
+  public int getDiskCacheWriteBehindMaxPendingWrites() {
+    return mDiskCacheWriteBehindMaxPendingWrites;
+  }
+
+  public boolean isDecodeFanOutEnabled() {
+    return mDecodeFanOutEnabled;
+  }
+
+  public boolean isResumableDownloadsEnabled() {
+    return mResumableDownloadsEnabled;
+  }
+
+  public boolean isAdaptiveNetworkThrottlingEnabled() {
+    return mAdaptiveNetworkThrottlingEnabled;
+  }
+
+  public int getAnimationCheckpointInterval() {
+    return mAnimationCheckpointInterval;
+  }
+
+  public int getAnimationMaxCheckpointBytes() {
+    return mAnimationMaxCheckpointBytes;
+  }
+
+  public int getAnimationFramePreparationBudget() {
+    return mAnimationFramePreparationBudget;
+  }
+
+  public @Nullable DiskCacheConfig getAnimationFrameDiskCacheConfig() {
+    return mAnimationFrameDiskCacheConfig;
+  }
+
   public static class Builder {
 
     private final ImagePipelineConfig.Builder mConfigBuilder;
@@ -211,6 +279,17 @@ public class ImagePipelineExperiments {
     private boolean mKeepCancelledFetchAsLowPriority;
     public boolean mDownsampleIfLargeBitmap;
     public boolean mEncodedCacheEnabled = true;
+    private int mBitmapMemoryCacheSegmentCount = 1;
+    private int mMemoryMappedDiskCacheReadMinSize = -1;
+    private int mDiskCacheWriteBehindBatchSize = 0;
+    private int mDiskCacheWriteBehindMaxPendingWrites = 0;
+    private boolean mDecodeFanOutEnabled = false;
+    private boolean mResumableDownloadsEnabled = false;
+    private boolean mAdaptiveNetworkThrottlingEnabled = false;
+    private int mAnimationCheckpointInterval = 0;
+    private int mAnimationMaxCheckpointBytes = 0;
+    private int mAnimationFramePreparationBudget = 0;
+    private @Nullable DiskCacheConfig mAnimationFrameDiskCacheConfig = null;
 
     public Builder(ImagePipelineConfig.Builder configBuilder) {
       mConfigBuilder = configBuilder;
@@ -375,6 +454,146 @@ public class ImagePipelineExperiments {
       return mConfigBuilder;
     }
 
+    /**
+     * Splits the bitmap memory cache into the given number of independently locked segments, in
+     * order to reduce lock contention between the decode, UI and prefetch threads. The size limits
+     * of the cache are shared evenly between the segments. The default of 1 keeps a single
+     * segment.
+     *
+     * @param bitmapMemoryCacheSegmentCount number of segments, rounded up to a power of two
+     * @return The Builder itself for chaining
+     */
+    public ImagePipelineConfig.Builder setBitmapMemoryCacheSegmentCount(
+        int bitmapMemoryCacheSegmentCount) {
+      mBitmapMemoryCacheSegmentCount = bitmapMemoryCacheSegmentCount;
+      return mConfigBuilder;
+    }
+
+    /**
+     * Memory maps the disk cache files of at least the given size on a disk cache hit, instead of
+     * copying them into a pooled buffer. The encoded image is then read straight from the page
+     * cache by the decoders. Small files are cheaper to copy than to map. The default of -1
+     * disables memory mapping.
+     *
+     * @param memoryMappedDiskCacheReadMinSize the minimum size in bytes of the mapped files
+     * @return The Builder itself for chaining
+     */
+    public ImagePipelineConfig.Builder setMemoryMappedDiskCacheReadMinSize(
+        int memoryMappedDiskCacheReadMinSize) {
+      mMemoryMappedDiskCacheReadMinSize = memoryMappedDiskCacheReadMinSize;
+      return mConfigBuilder;
+    }
+
+    /**
+     * Queues the disk cache writes instead of scheduling a task for each of them. Pending writes
+     * of the same key are coalesced, and the queue is written out in batches that share a single
+     * size check and commit of the disk cache. The images stay readable from the staging area
+     * until they are written. When the queue is full, the writes of the lowest priority are
+     * dropped first. The default batch size of 0 writes every image on its own.
+     *
+     * @param batchSize the maximum number of images written in a batch
+     * @param maxPendingWrites the maximum number of queued images
+     * @return The Builder itself for chaining
+     */
+    public ImagePipelineConfig.Builder setDiskCacheWriteBehind(
+        int batchSize, int maxPendingWrites) {
+      mDiskCacheWriteBehindBatchSize = batchSize;
+      mDiskCacheWriteBehindMaxPendingWrites = maxPendingWrites;
+      return mConfigBuilder;
+    }
+
+    /**
+     * Decodes an image once for the concurrent requests of several sizes. A request that arrives
+     * while the same image is being decoded at a size at least as large as its own gets a bitmap
+     * downscaled from the result of that decode, instead of decoding the image again.
+     *
+     * @param decodeFanOutEnabled whether to share decodes between the sizes of an image
+     * @return The Builder itself for chaining
+     */
+    public ImagePipelineConfig.Builder setDecodeFanOutEnabled(boolean decodeFanOutEnabled) {
+      mDecodeFanOutEnabled = decodeFanOutEnabled;
+      return mConfigBuilder;
+    }
+
+    /**
+     * Persists the bytes of network images to the disk cache while they are downloaded, so that an
+     * interrupted download is resumed by requesting the remaining bytes only. The remainder is
+     * appended to the cached bytes on disk, instead of being merged with them in memory.
+     *
+     * <p>The network fetcher needs to support byte range requests for the downloads to be resumed.
+     *
+     * @param resumableDownloadsEnabled whether to persist and resume interrupted downloads
+     * @return The Builder itself for chaining
+     */
+    public ImagePipelineConfig.Builder setResumableDownloadsEnabled(
+        boolean resumableDownloadsEnabled) {
+      mResumableDownloadsEnabled = resumableDownloadsEnabled;
+      return mConfigBuilder;
+    }
+
+    /**
+     * Limits the number of simultaneous network fetches with a limit that adapts to the measured
+     * latency of the fetches: it grows while the network keeps up and is halved when requests queue
+     * up in it. Queued requests for visible images start before prefetches, which are deferred
+     * while the network is congested.
+     *
+     * @param adaptiveNetworkThrottlingEnabled whether to throttle network fetches adaptively
+     * @return The Builder itself for chaining
+     */
+    public ImagePipelineConfig.Builder setAdaptiveNetworkThrottlingEnabled(
+        boolean adaptiveNetworkThrottlingEnabled) {
+      mAdaptiveNetworkThrottlingEnabled = adaptiveNetworkThrottlingEnabled;
+      return mConfigBuilder;
+    }
+
+    /**
+     * Snapshots every given number of frames of the animations, so that seeking to a frame only
+     * composites the frames since the closest snapshot, instead of the frames since the last key
+     * frame. The snapshots are kept in the bitmap memory cache. The default interval of 0 disables
+     * the snapshots.
+     *
+     * @param checkpointInterval the number of frames between two snapshots
+     * @param maxCheckpointBytes the size of the snapshots kept from being evicted, per image
+     * @return The Builder itself for chaining
+     */
+    public ImagePipelineConfig.Builder setAnimationCheckpoints(
+        int checkpointInterval, int maxCheckpointBytes) {
+      mAnimationCheckpointInterval = checkpointInterval;
+      mAnimationMaxCheckpointBytes = maxCheckpointBytes;
+      return mConfigBuilder;
+    }
+
+    /**
+     * Shares a single budget of frames prepared ahead between all the animations being drawn,
+     * instead of preparing a fixed number of frames for each of them. The default budget of 0
+     * keeps the fixed number of frames per animation.
+     *
+     * @param framePreparationBudget the number of frames that can be scheduled at any time
+     * @return The Builder itself for chaining
+     */
+    public ImagePipelineConfig.Builder setAnimationFramePreparationBudget(
+        int framePreparationBudget) {
+      mAnimationFramePreparationBudget = framePreparationBudget;
+      return mConfigBuilder;
+    }
+
+    /**
+     * Keeps the frames of the animations in a disk cache of their own when they are prepared
+     * ahead, so that the frames of an animation shown again are read back instead of rendered. The
+     * animated images are identified by a hash of their encoded bytes, which is computed when they
+     * are decoded. Only rendering the frames is saved: the images are still fully decoded, and the
+     * hash adds to the decode time. Frames are only prepared ahead when the animations use a frame
+     * preparation strategy. The default of null doesn't cache the frames on disk.
+     *
+     * @param animationFrameDiskCacheConfig the config of the disk cache of the frames
+     * @return The Builder itself for chaining
+     */
+    public ImagePipelineConfig.Builder setAnimationFrameDiskCacheConfig(
+        @Nullable DiskCacheConfig animationFrameDiskCacheConfig) {
+      mAnimationFrameDiskCacheConfig = animationFrameDiskCacheConfig;
+      return mConfigBuilder;
+    }
+
     public ImagePipelineExperiments build() {
       return new ImagePipelineExperiments(this);
     }
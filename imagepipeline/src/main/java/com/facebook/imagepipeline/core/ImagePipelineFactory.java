@@ -130,6 +130,7 @@ public class ImagePipelineFactory {
   private ProducerSequenceFactory mProducerSequenceFactory;
   private BufferedDiskCache mSmallImageBufferedDiskCache;
   private FileCache mSmallImageFileCache;
+  private @Nullable FileCache mAnimationFrameFileCache;
 
   private PlatformBitmapFactory mPlatformBitmapFactory;
   private PlatformDecoder mPlatformDecoder;
@@ -164,7 +165,11 @@ public class ImagePipelineFactory {
               getPlatformBitmapFactory(),
               mConfig.getExecutorSupplier(),
               getBitmapCountingMemoryCache(),
-              mConfig.getExperiments().shouldDownscaleFrameToDrawableDimensions());
+              mConfig.getExperiments().shouldDownscaleFrameToDrawableDimensions(),
+              mConfig.getExperiments().getAnimationCheckpointInterval(),
+              mConfig.getExperiments().getAnimationMaxCheckpointBytes(),
+              mConfig.getExperiments().getAnimationFramePreparationBudget(),
+              getAnimationFrameFileCache());
     }
     return mAnimatedFactory;
   }
@@ -181,7 +186,8 @@ public class ImagePipelineFactory {
           BitmapCountingMemoryCacheFactory.get(
               mConfig.getBitmapMemoryCacheParamsSupplier(),
               mConfig.getMemoryTrimmableRegistry(),
-              mConfig.getBitmapMemoryCacheTrimStrategy());
+              mConfig.getBitmapMemoryCacheTrimStrategy(),
+              mConfig.getExperiments().getBitmapMemoryCacheSegmentCount());
     }
     return mBitmapCountingMemoryCache;
   }
@@ -259,7 +265,10 @@ public class ImagePipelineFactory {
               mConfig.getPoolFactory().getPooledByteStreams(),
               mConfig.getExecutorSupplier().forLocalStorageRead(),
               mConfig.getExecutorSupplier().forLocalStorageWrite(),
-              mConfig.getImageCacheStatsTracker());
+              mConfig.getImageCacheStatsTracker(),
+              mConfig.getExperiments().getMemoryMappedDiskCacheReadMinSize(),
+              mConfig.getExperiments().getDiskCacheWriteBehindBatchSize(),
+              mConfig.getExperiments().getDiskCacheWriteBehindMaxPendingWrites());
     }
     return mMainBufferedDiskCache;
   }
@@ -272,6 +281,15 @@ public class ImagePipelineFactory {
     return mMainFileCache;
   }
 
+  /** Returns the disk cache of the animation frames, or null if the frames aren't cached on disk */
+  public @Nullable FileCache getAnimationFrameFileCache() {
+    DiskCacheConfig diskCacheConfig = mConfig.getExperiments().getAnimationFrameDiskCacheConfig();
+    if (mAnimationFrameFileCache == null && diskCacheConfig != null) {
+      mAnimationFrameFileCache = mConfig.getFileCacheFactory().get(diskCacheConfig);
+    }
+    return mAnimationFrameFileCache;
+  }
+
   public ImagePipeline getImagePipeline() {
     if (mImagePipeline == null) {
       mImagePipeline =
@@ -363,7 +381,10 @@ public class ImagePipelineFactory {
               useBitmapPrepareToDraw,
               mConfig.getExperiments().isPartialImageCachingEnabled(),
               mConfig.isDiskCacheEnabled(),
-              getImageTranscoderFactory());
+              getImageTranscoderFactory(),
+              mConfig.getExperiments().isDecodeFanOutEnabled(),
+              mConfig.getExperiments().isResumableDownloadsEnabled(),
+              mConfig.getExperiments().isAdaptiveNetworkThrottlingEnabled());
     }
     return mProducerSequenceFactory;
   }
@@ -389,7 +410,10 @@ public class ImagePipelineFactory {
               mConfig.getPoolFactory().getPooledByteStreams(),
               mConfig.getExecutorSupplier().forLocalStorageRead(),
               mConfig.getExecutorSupplier().forLocalStorageWrite(),
-              mConfig.getImageCacheStatsTracker());
+              mConfig.getImageCacheStatsTracker(),
+              mConfig.getExperiments().getMemoryMappedDiskCacheReadMinSize(),
+              mConfig.getExperiments().getDiskCacheWriteBehindBatchSize(),
+              mConfig.getExperiments().getDiskCacheWriteBehindMaxPendingWrites());
     }
     return mSmallImageBufferedDiskCache;
   }
@@ -16,6 +16,7 @@ import com.facebook.common.memory.ByteArrayPool;
 import com.facebook.common.memory.PooledByteBuffer;
 import com.facebook.common.memory.PooledByteBufferFactory;
 import com.facebook.common.references.CloseableReference;
+import com.facebook.common.time.RealtimeSinceBootClock;
 import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
 import com.facebook.imagepipeline.cache.BufferedDiskCache;
 import com.facebook.imagepipeline.cache.CacheKeyFactory;
@@ -24,6 +25,7 @@ import com.facebook.imagepipeline.decoder.ImageDecoder;
 import com.facebook.imagepipeline.decoder.ProgressiveJpegConfig;
 import com.facebook.imagepipeline.image.CloseableImage;
 import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.producers.AdaptiveNetworkThrottlingProducer;
 import com.facebook.imagepipeline.producers.AddImageTransformMetaDataProducer;
 import com.facebook.imagepipeline.producers.BitmapMemoryCacheGetProducer;
 import com.facebook.imagepipeline.producers.BitmapMemoryCacheKeyMultiplexProducer;
@@ -31,6 +33,7 @@ import com.facebook.imagepipeline.producers.BitmapMemoryCacheProducer;
 import com.facebook.imagepipeline.producers.BitmapPrepareProducer;
 import com.facebook.imagepipeline.producers.BranchOnSeparateImagesProducer;
 import com.facebook.imagepipeline.producers.DataFetchProducer;
+import com.facebook.imagepipeline.producers.DecodeFanOutProducer;
 import com.facebook.imagepipeline.producers.DecodeProducer;
 import com.facebook.imagepipeline.producers.DiskCacheReadProducer;
 import com.facebook.imagepipeline.producers.DiskCacheWriteProducer;
@@ -58,6 +61,7 @@ import com.facebook.imagepipeline.producers.ThreadHandoffProducerQueue;
 import com.facebook.imagepipeline.producers.ThrottlingProducer;
 import com.facebook.imagepipeline.producers.ThumbnailBranchProducer;
 import com.facebook.imagepipeline.producers.ThumbnailProducer;
+import com.facebook.imagepipeline.producers.TiledDecodeProducer;
 import com.facebook.imagepipeline.producers.WebpTranscodeProducer;
 import com.facebook.imagepipeline.transcoder.ImageTranscoderFactory;
 
@@ -200,6 +204,15 @@ public class ProducerFactory {
         mCloseableReferenceFactory);
   }
 
+  public DecodeFanOutProducer newDecodeFanOutProducer(
+      Producer<CloseableReference<CloseableImage>> inputProducer) {
+    return new DecodeFanOutProducer(
+        inputProducer,
+        mCacheKeyFactory,
+        mPlatformBitmapFactory,
+        mExecutorSupplier.forBackgroundTasks());
+  }
+
   public DiskCacheReadProducer newDiskCacheReadProducer(Producer<EncodedImage> inputProducer) {
     return new DiskCacheReadProducer(
         mDefaultBufferedDiskCache, mSmallImageBufferedDiskCache, mCacheKeyFactory, inputProducer);
@@ -212,12 +225,18 @@ public class ProducerFactory {
 
   public PartialDiskCacheProducer newPartialDiskCacheProducer(
       Producer<EncodedImage> inputProducer) {
+    return newPartialDiskCacheProducer(inputProducer, false);
+  }
+
+  public PartialDiskCacheProducer newPartialDiskCacheProducer(
+      Producer<EncodedImage> inputProducer, boolean resumableDownloadsEnabled) {
     return new PartialDiskCacheProducer(
         mDefaultBufferedDiskCache,
         mCacheKeyFactory,
         mPooledByteBufferFactory,
         mByteArrayPool,
-        inputProducer);
+        inputProducer,
+        resumableDownloadsEnabled);
   }
 
   public EncodedCacheKeyMultiplexProducer newEncodedCacheKeyMultiplexProducer(
@@ -324,6 +343,22 @@ public class ProducerFactory {
         inputProducer);
   }
 
+  public AdaptiveNetworkThrottlingProducer newAdaptiveNetworkThrottlingProducer(
+      Producer<EncodedImage> inputProducer) {
+    return new AdaptiveNetworkThrottlingProducer(
+        mExecutorSupplier.forLightweightBackgroundTasks(),
+        RealtimeSinceBootClock.get(),
+        inputProducer);
+  }
+
+  public TiledDecodeProducer newTiledDecodeProducer(Producer<EncodedImage> inputProducer) {
+    return new TiledDecodeProducer(
+        inputProducer,
+        mExecutorSupplier.forDecode(),
+        mCacheKeyFactory,
+        TiledDecodeProducer.DEFAULT_MAX_CACHED_REGION_DECODERS);
+  }
+
   public WebpTranscodeProducer newWebpTranscodeProducer(Producer<EncodedImage> inputProducer) {
     return new WebpTranscodeProducer(
         mExecutorSupplier.forBackgroundTasks(), mPooledByteBufferFactory, inputProducer);
@@ -26,9 +26,9 @@ import com.facebook.common.references.CloseableReference;
 import com.facebook.common.webp.WebpSupportStatus;
 import com.facebook.imagepipeline.image.CloseableImage;
 import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.producers.AdaptiveNetworkThrottlingProducer;
 import com.facebook.imagepipeline.producers.BitmapMemoryCacheKeyMultiplexProducer;
 import com.facebook.imagepipeline.producers.BitmapMemoryCacheProducer;
-import com.facebook.imagepipeline.producers.DecodeProducer;
 import com.facebook.imagepipeline.producers.DiskCacheReadProducer;
 import com.facebook.imagepipeline.producers.EncodedMemoryCacheProducer;
 import com.facebook.imagepipeline.producers.LocalAssetFetchProducer;
@@ -53,6 +53,7 @@ import com.facebook.imagepipeline.systrace.FrescoSystrace;
 import com.facebook.imagepipeline.transcoder.ImageTranscoderFactory;
 import java.util.HashMap;
 import java.util.Map;
+import javax.annotation.Nullable;
 
 public class ProducerSequenceFactory {
 
@@ -67,6 +68,11 @@ public class ProducerSequenceFactory {
   private final boolean mUseBitmapPrepareToDraw;
   private final boolean mDiskCacheEnabled;
   private final ImageTranscoderFactory mImageTranscoderFactory;
+  private final boolean mDecodeFanOutEnabled;
+  private final boolean mResumableDownloadsEnabled;
+  private final boolean mAdaptiveNetworkThrottlingEnabled;
+
+  private @Nullable AdaptiveNetworkThrottlingProducer mAdaptiveNetworkThrottlingProducer;
 
   // Saved sequences
   @VisibleForTesting Producer<CloseableReference<CloseableImage>> mNetworkFetchSequence;
@@ -93,6 +99,8 @@ public class ProducerSequenceFactory {
   @VisibleForTesting Producer<CloseableReference<CloseableImage>> mLocalAssetFetchSequence;
   @VisibleForTesting Producer<CloseableReference<CloseableImage>> mDataFetchSequence;
   @VisibleForTesting Producer<CloseableReference<CloseableImage>> mQualifiedResourceFetchSequence;
+  @VisibleForTesting Producer<CloseableReference<CloseableImage>> mNetworkTileFetchSequence;
+  @VisibleForTesting Producer<CloseableReference<CloseableImage>> mLocalImageFileTileFetchSequence;
 
   @VisibleForTesting
   Map<Producer<CloseableReference<CloseableImage>>, Producer<CloseableReference<CloseableImage>>>
@@ -117,7 +125,10 @@ public class ProducerSequenceFactory {
       boolean useBitmapPrepareToDraw,
       boolean partialImageCachingEnabled,
       boolean diskCacheEnabled,
-      ImageTranscoderFactory imageTranscoderFactory) {
+      ImageTranscoderFactory imageTranscoderFactory,
+      boolean decodeFanOutEnabled,
+      boolean resumableDownloadsEnabled,
+      boolean adaptiveNetworkThrottlingEnabled) {
     mContentResolver = contentResolver;
     mProducerFactory = producerFactory;
     mNetworkFetcher = networkFetcher;
@@ -132,6 +143,9 @@ public class ProducerSequenceFactory {
     mPartialImageCachingEnabled = partialImageCachingEnabled;
     mDiskCacheEnabled = diskCacheEnabled;
     mImageTranscoderFactory = imageTranscoderFactory;
+    mDecodeFanOutEnabled = decodeFanOutEnabled;
+    mResumableDownloadsEnabled = resumableDownloadsEnabled;
+    mAdaptiveNetworkThrottlingEnabled = adaptiveNetworkThrottlingEnabled;
   }
 
   /**
@@ -342,6 +356,10 @@ public class ProducerSequenceFactory {
       Uri uri = imageRequest.getSourceUri();
       Preconditions.checkNotNull(uri, "Uri is null.");
 
+      if (imageRequest.getTileOptions() != null) {
+        return getTileFetchSequence(imageRequest);
+      }
+
       switch (imageRequest.getSourceUriType()) {
         case SOURCE_TYPE_NETWORK:
           return getNetworkFetchSequence();
@@ -373,6 +391,47 @@ public class ProducerSequenceFactory {
     }
   }
 
+  private Producer<CloseableReference<CloseableImage>> getTileFetchSequence(
+      ImageRequest imageRequest) {
+    switch (imageRequest.getSourceUriType()) {
+      case SOURCE_TYPE_NETWORK:
+        return getNetworkTileFetchSequence();
+      case SOURCE_TYPE_LOCAL_IMAGE_FILE:
+        return getLocalImageFileTileFetchSequence();
+      default:
+        throw new IllegalArgumentException(
+            "Unsupported uri scheme for tiles! Uri is: "
+                + getShortenedUriString(imageRequest.getSourceUri()));
+    }
+  }
+
+  /**
+   * bitmap cache get -> background thread hand-off -> multiplex -> bitmap cache -> tiled decode ->
+   * add meta data producer -> multiplex -> encoded cache -> disk cache -> (webp transcode) ->
+   * network fetch.
+   */
+  private synchronized Producer<CloseableReference<CloseableImage>>
+      getNetworkTileFetchSequence() {
+    if (mNetworkTileFetchSequence == null) {
+      mNetworkTileFetchSequence =
+          newBitmapCacheGetToTiledDecodeSequence(newNetworkFetchProducer());
+    }
+    return mNetworkTileFetchSequence;
+  }
+
+  /**
+   * bitmap cache get -> background thread hand-off -> multiplex -> bitmap cache -> tiled decode ->
+   * add meta data producer -> multiplex -> encoded cache -> (webp transcode) -> local file fetch.
+   */
+  private synchronized Producer<CloseableReference<CloseableImage>>
+      getLocalImageFileTileFetchSequence() {
+    if (mLocalImageFileTileFetchSequence == null) {
+      mLocalImageFileTileFetchSequence =
+          newBitmapCacheGetToTiledDecodeSequence(mProducerFactory.newLocalFileFetchProducer());
+    }
+    return mLocalImageFileTileFetchSequence;
+  }
+
   /**
    * swallow result if prefetch -> bitmap cache get -> background thread hand-off -> multiplex ->
    * bitmap cache -> decode -> multiplex -> encoded cache -> disk cache -> (webp transcode) ->
@@ -453,6 +512,33 @@ public class ProducerSequenceFactory {
     return mNetworkFetchToEncodedMemoryPrefetchSequence;
   }
 
+  /**
+   * Returns the network fetch producer of a new sequence. With adaptive throttling, all of the
+   * network sequences share a single throttling producer, so that its limit applies to all of the
+   * fetches.
+   */
+  private synchronized Producer<EncodedImage> newNetworkFetchProducer() {
+    if (!mAdaptiveNetworkThrottlingEnabled) {
+      return mProducerFactory.newNetworkFetchProducer(mNetworkFetcher);
+    }
+    if (mAdaptiveNetworkThrottlingProducer == null) {
+      mAdaptiveNetworkThrottlingProducer =
+          mProducerFactory.newAdaptiveNetworkThrottlingProducer(
+              mProducerFactory.newNetworkFetchProducer(mNetworkFetcher));
+    }
+    return mAdaptiveNetworkThrottlingProducer;
+  }
+
+  /**
+   * Returns the producer that throttles the network fetches, to read its current concurrency
+   * limit and queue, or null if adaptive network throttling is disabled or no network sequence was
+   * created yet.
+   */
+  public synchronized @Nullable AdaptiveNetworkThrottlingProducer
+      getAdaptiveNetworkThrottlingProducer() {
+    return mAdaptiveNetworkThrottlingProducer;
+  }
+
   /** multiplex -> encoded cache -> disk cache -> (webp transcode) -> network fetch. */
   private synchronized Producer<EncodedImage> getCommonNetworkFetchToEncodedMemorySequence() {
     if (FrescoSystrace.isTracing()) {
@@ -465,8 +551,7 @@ public class ProducerSequenceFactory {
             "ProducerSequenceFactory#getCommonNetworkFetchToEncodedMemorySequence:init");
       }
       Producer<EncodedImage> inputProducer =
-          newEncodedCacheMultiplexToTranscodeSequence(
-              mProducerFactory.newNetworkFetchProducer(mNetworkFetcher));
+          newEncodedCacheMultiplexToTranscodeSequence(newNetworkFetchProducer());
       mCommonNetworkFetchToEncodedMemorySequence =
           ProducerFactory.newAddImageTransformMetaDataProducer(inputProducer);
 
@@ -728,7 +813,8 @@ public class ProducerSequenceFactory {
   }
 
   /**
-   * Same as {@code newBitmapCacheGetToBitmapCacheSequence} but with an extra DecodeProducer.
+   * Same as {@code newBitmapCacheGetToBitmapCacheSequence} but with an extra DecodeProducer, and a
+   * DecodeFanOutProducer in front of it if enabled.
    *
    * @param inputProducer producer providing the input to the decode
    * @return bitmap cache get to decode sequence
@@ -738,7 +824,11 @@ public class ProducerSequenceFactory {
     if (FrescoSystrace.isTracing()) {
       FrescoSystrace.beginSection("ProducerSequenceFactory#newBitmapCacheGetToDecodeSequence");
     }
-    DecodeProducer decodeProducer = mProducerFactory.newDecodeProducer(inputProducer);
+    Producer<CloseableReference<CloseableImage>> decodeProducer =
+        mProducerFactory.newDecodeProducer(inputProducer);
+    if (mDecodeFanOutEnabled) {
+      decodeProducer = mProducerFactory.newDecodeFanOutProducer(decodeProducer);
+    }
     Producer<CloseableReference<CloseableImage>> result =
         newBitmapCacheGetToBitmapCacheSequence(decodeProducer);
     if (FrescoSystrace.isTracing()) {
@@ -747,6 +837,24 @@ public class ProducerSequenceFactory {
     return result;
   }
 
+  /**
+   * Bitmap cache get -> thread hand off -> multiplex -> bitmap cache -> tiled decode -> add meta
+   * data producer -> encoded cache multiplex -> encoded cache -> (disk cache) -> (webp transcode)
+   *
+   * <p>The encoded image is neither resized nor rotated, so that the tiles keep its coordinates.
+   *
+   * @param inputProducer producer providing the encoded image
+   * @return bitmap cache get to tiled decode sequence
+   */
+  private Producer<CloseableReference<CloseableImage>> newBitmapCacheGetToTiledDecodeSequence(
+      Producer<EncodedImage> inputProducer) {
+    Producer<EncodedImage> encodedImageProducer =
+        ProducerFactory.newAddImageTransformMetaDataProducer(
+            newEncodedCacheMultiplexToTranscodeSequence(inputProducer));
+    return newBitmapCacheGetToBitmapCacheSequence(
+        mProducerFactory.newTiledDecodeProducer(encodedImageProducer));
+  }
+
   /**
    * encoded cache multiplex -> encoded cache -> (disk cache) -> (webp transcode)
    *
@@ -772,9 +880,9 @@ public class ProducerSequenceFactory {
     if (FrescoSystrace.isTracing()) {
       FrescoSystrace.beginSection("ProducerSequenceFactory#newDiskCacheSequence");
     }
-    if (mPartialImageCachingEnabled) {
+    if (mPartialImageCachingEnabled || mResumableDownloadsEnabled) {
       Producer<EncodedImage> partialDiskCacheProducer =
-          mProducerFactory.newPartialDiskCacheProducer(inputProducer);
+          mProducerFactory.newPartialDiskCacheProducer(inputProducer, mResumableDownloadsEnabled);
       cacheWriteProducer = mProducerFactory.newDiskCacheWriteProducer(partialDiskCacheProducer);
     } else {
       cacheWriteProducer = mProducerFactory.newDiskCacheWriteProducer(inputProducer);
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.decoder;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.image.QualityInfo;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * {@link ProgressiveJpegConfig} that decodes fewer intermediate scans when nobody would see them or
+ * when the decoder is falling behind.
+ *
+ * <p>The scans to decode come from the given config, and are then thinned out depending on the
+ * request and on the load of the decoder:
+ *
+ * <ul>
+ *   <li>the prefetches and the requests of {@link Priority#LOW} only decode the final image;
+ *   <li>when the decoder is busy, at most every other scan is decoded;
+ *   <li>when the decoder is overloaded, only the first scan is decoded, as a preview.
+ * </ul>
+ *
+ * <p>A request of {@link Priority#LOW} is treated as not visible: that is the priority of the
+ * images that are off screen, so an app that shows an image with a low priority only gets its
+ * final image.
+ *
+ * <p>The load is estimated from the recent decodes, which report how long they waited and ran, and
+ * how many pixels they decoded, and from the depth of the decode queue if a supplier of it is
+ * given, like {@link com.facebook.imagepipeline.core.PriorityDecodeExecutor#getQueueDepth}. The
+ * final image of a request is always decoded.
+ */
+@ThreadSafe
+public class AdaptiveProgressiveJpegConfig implements ProgressiveJpegConfig {
+
+  @VisibleForTesting
+  enum LoadLevel {
+    NORMAL,
+    BUSY,
+    OVERLOADED
+  }
+
+  /** Decode latency, in milliseconds, above which the decoder is busy. */
+  public static final long BUSY_LATENCY_MS = 50;
+
+  /** Decode latency, in milliseconds, above which the decoder is overloaded. */
+  public static final long OVERLOADED_LATENCY_MS = 200;
+
+  /** Decode queue depth above which the decoder is busy. */
+  public static final int BUSY_QUEUE_DEPTH = 4;
+
+  /** Decode queue depth above which the decoder is overloaded. */
+  public static final int OVERLOADED_QUEUE_DEPTH = 12;
+
+  /**
+   * Number of pixels the decode times are scaled to, so that a few large images are not taken for
+   * a busy decoder.
+   */
+  public static final int REFERENCE_PIXEL_COUNT = 1024 * 1024;
+
+  // weight of the latest decode in the moving average of the latencies
+  private static final float LATENCY_SMOOTHING_FACTOR = 0.2f;
+
+  private final ProgressiveJpegConfig mProgressiveJpegConfig;
+  private final @Nullable Supplier<Integer> mDecodeQueueDepthSupplier;
+
+  @GuardedBy("this")
+  private float mAverageLatencyMs;
+
+  public AdaptiveProgressiveJpegConfig() {
+    this(new SimpleProgressiveJpegConfig(), null);
+  }
+
+  /**
+   * @param progressiveJpegConfig the config with the scans to decode when the decoder keeps up
+   * @param decodeQueueDepthSupplier supplies the number of decodes waiting to run, if known
+   */
+  public AdaptiveProgressiveJpegConfig(
+      ProgressiveJpegConfig progressiveJpegConfig,
+      @Nullable Supplier<Integer> decodeQueueDepthSupplier) {
+    mProgressiveJpegConfig = Preconditions.checkNotNull(progressiveJpegConfig);
+    mDecodeQueueDepthSupplier = decodeQueueDepthSupplier;
+  }
+
+  @Override
+  public int getNextScanNumberToDecode(int scanNumber) {
+    return getNextScanNumberToDecode(scanNumber, Priority.HIGH, false);
+  }
+
+  /**
+   * Gets the next scan-number that should be decoded after the given scan-number, for a request of
+   * the given priority.
+   *
+   * @param scanNumber the last decoded scan, 0 if none was
+   * @param priority the priority of the request, {@link Priority#LOW} meaning it is not visible
+   * @param isPrefetch whether the request is a prefetch
+   */
+  public int getNextScanNumberToDecode(int scanNumber, Priority priority, boolean isPrefetch) {
+    if (isPrefetch || priority == Priority.LOW) {
+      return Integer.MAX_VALUE;
+    }
+    final int nextScanNumber = mProgressiveJpegConfig.getNextScanNumberToDecode(scanNumber);
+    if (nextScanNumber == Integer.MAX_VALUE || scanNumber == 0) {
+      return nextScanNumber;
+    }
+    switch (getLoadLevel()) {
+      case BUSY:
+        return Math.max(nextScanNumber, scanNumber + 2);
+      case OVERLOADED:
+        return Integer.MAX_VALUE;
+      case NORMAL:
+      default:
+        return nextScanNumber;
+    }
+  }
+
+  @Override
+  public QualityInfo getQualityInfo(int scanNumber) {
+    return mProgressiveJpegConfig.getQualityInfo(scanNumber);
+  }
+
+  /**
+   * Records a decode that just finished.
+   *
+   * <p>The decode time of images larger than {@link #REFERENCE_PIXEL_COUNT} is scaled down to what
+   * an image of that size would have taken. Smaller images are not scaled up.
+   *
+   * @param queueTimeMs how long the decode waited for a thread
+   * @param decodeTimeMs how long the decode ran
+   * @param decodedPixelCount the number of pixels of the decoded image, 0 if unknown
+   */
+  public synchronized void onDecodeFinished(
+      long queueTimeMs, long decodeTimeMs, long decodedPixelCount) {
+    float normalizedDecodeTimeMs = Math.max(0, decodeTimeMs);
+    if (decodedPixelCount > REFERENCE_PIXEL_COUNT) {
+      normalizedDecodeTimeMs *= (float) REFERENCE_PIXEL_COUNT / decodedPixelCount;
+    }
+    final float latencyMs = Math.max(0, queueTimeMs) + normalizedDecodeTimeMs;
+    mAverageLatencyMs += LATENCY_SMOOTHING_FACTOR * (latencyMs - mAverageLatencyMs);
+  }
+
+  /** @return the moving average of the latencies of the recent decodes */
+  public synchronized long getAverageDecodeLatencyMs() {
+    return Math.round(mAverageLatencyMs);
+  }
+
+  @VisibleForTesting
+  LoadLevel getLoadLevel() {
+    final long latencyMs = getAverageDecodeLatencyMs();
+    final Integer queueDepth =
+        mDecodeQueueDepthSupplier == null ? null : mDecodeQueueDepthSupplier.get();
+    final int depth = queueDepth == null ? 0 : queueDepth;
+    if (latencyMs > OVERLOADED_LATENCY_MS || depth > OVERLOADED_QUEUE_DEPTH) {
+      return LoadLevel.OVERLOADED;
+    }
+    if (latencyMs > BUSY_LATENCY_MS || depth > BUSY_QUEUE_DEPTH) {
+      return LoadLevel.BUSY;
+    }
+    return LoadLevel.NORMAL;
+  }
+}
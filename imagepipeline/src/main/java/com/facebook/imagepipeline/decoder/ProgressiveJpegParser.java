@@ -11,12 +11,14 @@ import com.facebook.common.internal.Closeables;
 import com.facebook.common.internal.Preconditions;
 import com.facebook.common.internal.Throwables;
 import com.facebook.common.memory.ByteArrayPool;
-import com.facebook.common.memory.PooledByteArrayBufferedInputStream;
+import com.facebook.common.memory.PooledByteBuffer;
+import com.facebook.common.references.CloseableReference;
 import com.facebook.common.util.StreamUtil;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imageutils.JfifUtil;
 import java.io.IOException;
 import java.io.InputStream;
+import javax.annotation.Nullable;
 
 /**
  * Progressively scans jpeg data and instructs caller when enough data is available to decode a
@@ -24,8 +26,13 @@ import java.io.InputStream;
  *
  * <p>This class treats any sequence of bytes starting with 0xFFD8 as a valid jpeg image
  *
- * <p>Users should call parseMoreData method each time new chunk of data is received. The buffer
- * passed as a parameter should include entire image data received so far.
+ * <p>Users should call parseMoreData method each time new chunk of data is received. Either the
+ * buffer passed as a parameter includes entire image data received so far, of which only the bytes
+ * not parsed yet are read, or only the new bytes are pushed. The parser never reads a byte twice,
+ * and the segments it skips are not read at all, even when they span several chunks.
+ *
+ * <p>The cost of parsing an image is reported by {@link #getParseTimeNanos}, {@link
+ * #getBytesScanned} and {@link #getParseCallCount}.
  */
 public class ProgressiveJpegParser {
 
@@ -68,9 +75,12 @@ public class ProgressiveJpegParser {
   private int mParserState;
   private int mLastByteRead;
 
-  /** number of bytes consumed so far */
+  /** number of bytes consumed so far, including the skipped ones */
   private int mBytesParsed;
 
+  /** number of bytes of the current segment still to skip, which may not have been received yet */
+  private int mBytesToSkip;
+
   /** number of next fully parsed scan after reaching next SOS or EOI markers */
   private int mNextFullScanNumber;
 
@@ -78,11 +88,17 @@ public class ProgressiveJpegParser {
   private int mBestScanEndOffset;
   private boolean mEndMarkerRead;
 
+  // cost of parsing the image so far
+  private int mParseCallCount;
+  private int mBytesScanned;
+  private long mParseTimeNanos;
+
   private final ByteArrayPool mByteArrayPool;
 
   public ProgressiveJpegParser(ByteArrayPool byteArrayPool) {
     mByteArrayPool = Preconditions.checkNotNull(byteArrayPool);
     mBytesParsed = 0;
+    mBytesToSkip = 0;
     mLastByteRead = 0;
     mNextFullScanNumber = 0;
     mBestScanEndOffset = 0;
@@ -96,7 +112,8 @@ public class ProgressiveJpegParser {
    * ignored and false will be returned immediately on all subsequent calls.
    *
    * <p>This object maintains state of the position of the last read byte. On repeated calls to this
-   * method, it will continue from where it left off.
+   * method, it will continue from where it left off: only the bytes received since the previous
+   * call are read, straight from the pooled byte buffer of the image.
    *
    * @param encodedImage Next set of bytes received by the caller
    * @return true if a new full scan has been found
@@ -109,120 +126,219 @@ public class ProgressiveJpegParser {
     final int dataBufferSize = encodedImage.getSize();
 
     // Is there any new data to parse?
-    // mBytesParsed might be greater than size of dataBuffer - that happens when
-    // we skip more data than is available to read inside doParseMoreData method
     if (dataBufferSize <= mBytesParsed) {
       return false;
     }
 
-    final InputStream bufferedDataStream =
-        new PooledByteArrayBufferedInputStream(
-            encodedImage.getInputStream(), mByteArrayPool.get(BUFFER_SIZE), mByteArrayPool);
+    final long startTime = System.nanoTime();
+    final int oldBestScanNumber = mBestScanNumber;
+    final byte[] buffer = mByteArrayPool.get(BUFFER_SIZE);
+    final CloseableReference<PooledByteBuffer> pooledByteBufferRef =
+        encodedImage.getByteBufferRef();
     try {
-      StreamUtil.skip(bufferedDataStream, mBytesParsed);
-      return doParseMoreData(bufferedDataStream);
+      if (pooledByteBufferRef != null) {
+        parseFromPooledByteBuffer(pooledByteBufferRef.get(), dataBufferSize, buffer);
+      } else {
+        parseFromInputStream(encodedImage.getInputStream(), dataBufferSize, buffer);
+      }
     } catch (IOException ioe) {
       // Does not happen - streams returned by PooledByteBuffers do not throw IOExceptions
       Throwables.propagate(ioe);
       return false;
     } finally {
-      Closeables.closeQuietly(bufferedDataStream);
+      CloseableReference.closeSafely(pooledByteBufferRef);
+      mByteArrayPool.release(buffer);
+      onParseFinished(startTime);
     }
+    return mParserState != NOT_A_JPEG && mBestScanNumber != oldBestScanNumber;
   }
 
   /**
-   * Parses more data from inputStream.
+   * Parses bytes received after the ones already parsed.
+   *
+   * <p>Unlike {@link #parseMoreData(EncodedImage)}, the data only holds the new bytes, so that they
+   * can be pushed as they are received.
    *
-   * @param inputStream instance of buffered pooled byte buffer input stream
+   * @return true if a new full scan has been found
    */
-  private boolean doParseMoreData(final InputStream inputStream) {
+  public boolean parseMoreData(final byte[] data, final int offset, final int length) {
+    Preconditions.checkArgument(offset >= 0 && length >= 0 && offset + length <= data.length);
+    if (mParserState == NOT_A_JPEG || length == 0) {
+      return false;
+    }
+    final long startTime = System.nanoTime();
     final int oldBestScanNumber = mBestScanNumber;
     try {
-      int nextByte;
-      while (mParserState != NOT_A_JPEG && (nextByte = inputStream.read()) != -1) {
-        mBytesParsed++;
-        if (mEndMarkerRead) {
-          // There should be no more data after the EOI marker, just in case there is lets
-          // bail out instead of trying to parse the unknown data
-          mParserState = NOT_A_JPEG;
-          mEndMarkerRead = false;
-          return false;
-        }
-        switch (mParserState) {
-          case READ_FIRST_JPEG_BYTE:
-            if (nextByte == JfifUtil.MARKER_FIRST_BYTE) {
-              mParserState = READ_SECOND_JPEG_BYTE;
-            } else {
-              mParserState = NOT_A_JPEG;
-            }
-            break;
-
-          case READ_SECOND_JPEG_BYTE:
-            if (nextByte == JfifUtil.MARKER_SOI) {
-              mParserState = READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA;
-            } else {
-              mParserState = NOT_A_JPEG;
-            }
-            break;
-
-          case READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA:
-            if (nextByte == JfifUtil.MARKER_FIRST_BYTE) {
-              mParserState = READ_MARKER_SECOND_BYTE;
-            }
-            break;
+      parseBytes(data, offset, length);
+    } finally {
+      onParseFinished(startTime);
+    }
+    return mParserState != NOT_A_JPEG && mBestScanNumber != oldBestScanNumber;
+  }
 
-          case READ_MARKER_SECOND_BYTE:
-            if (nextByte == JfifUtil.MARKER_FIRST_BYTE) {
-              mParserState = READ_MARKER_SECOND_BYTE;
-            } else if (nextByte == JfifUtil.MARKER_ESCAPE_BYTE) {
-              mParserState = READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA;
-            } else if (nextByte == JfifUtil.MARKER_EOI) {
-              mEndMarkerRead = true;
-              newScanOrImageEndFound(mBytesParsed - 2);
-              // There should be no data after the EOI marker, but in case there is, let's process
-              // the next byte as a first marker byte.
-              mParserState = READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA;
-            } else {
-              if (nextByte == JfifUtil.MARKER_SOS) {
-                newScanOrImageEndFound(mBytesParsed - 2);
-              }
-
-              if (doesMarkerStartSegment(nextByte)) {
-                mParserState = READ_SIZE_FIRST_BYTE;
-              } else {
-                mParserState = READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA;
-              }
-            }
-            break;
+  /** Copies the new bytes out of the buffer in blocks, without copying the skipped segments. */
+  private void parseFromPooledByteBuffer(
+      final PooledByteBuffer pooledByteBuffer, final int size, final byte[] buffer) {
+    while (mParserState != NOT_A_JPEG && mBytesParsed < size) {
+      if (mBytesToSkip > 0) {
+        skipBytes(Math.min(mBytesToSkip, size - mBytesParsed));
+        continue;
+      }
+      final int count =
+          pooledByteBuffer.read(
+              mBytesParsed, buffer, 0, Math.min(buffer.length, size - mBytesParsed));
+      if (count <= 0) {
+        break;
+      }
+      parseBytes(buffer, 0, count);
+    }
+  }
 
-          case READ_SIZE_FIRST_BYTE:
-            mParserState = READ_SIZE_SECOND_BYTE;
+  /** Fallback for the images that are not held in memory, which skips what was parsed already. */
+  private void parseFromInputStream(
+      final @Nullable InputStream inputStream, final int size, final byte[] buffer)
+      throws IOException {
+    if (inputStream == null) {
+      return;
+    }
+    try {
+      if (StreamUtil.skip(inputStream, mBytesParsed) < mBytesParsed) {
+        return;
+      }
+      while (mParserState != NOT_A_JPEG && mBytesParsed < size) {
+        if (mBytesToSkip > 0) {
+          final long skipped =
+              StreamUtil.skip(inputStream, Math.min(mBytesToSkip, size - mBytesParsed));
+          if (skipped <= 0) {
             break;
+          }
+          skipBytes((int) skipped);
+          continue;
+        }
+        final int count =
+            inputStream.read(buffer, 0, Math.min(buffer.length, size - mBytesParsed));
+        if (count <= 0) {
+          break;
+        }
+        parseBytes(buffer, 0, count);
+      }
+    } finally {
+      Closeables.closeQuietly(inputStream);
+    }
+  }
 
-          case READ_SIZE_SECOND_BYTE:
-            final int size = (mLastByteRead << 8) + nextByte;
-            // We need to jump after the end of the segment - skip size-2 next bytes.
-            // We might want to skip more data than is available to read, in which case we will
-            // consume entire data in inputStream and exit this function before entering another
-            // iteration of the loop.
-            final int bytesToSkip = size - 2;
-            StreamUtil.skip(inputStream, bytesToSkip);
-            mBytesParsed += bytesToSkip;
-            mParserState = READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA;
-            break;
+  private void skipBytes(int count) {
+    mBytesToSkip -= count;
+    mBytesParsed += count;
+  }
 
-          case NOT_A_JPEG:
-          default:
-            Preconditions.checkState(false);
+  /** Runs the bytes through the state machine. */
+  private void parseBytes(final byte[] data, final int offset, final int length) {
+    final int end = offset + length;
+    int position = offset;
+    while (mParserState != NOT_A_JPEG && position < end) {
+      if (mBytesToSkip > 0) {
+        final int count = Math.min(mBytesToSkip, end - position);
+        skipBytes(count);
+        position += count;
+        continue;
+      }
+      if (mParserState == READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA && !mEndMarkerRead) {
+        // entropy coded data is most of the image: look for the next marker in a tight loop
+        int markerPosition = position;
+        while (markerPosition < end && data[markerPosition] != (byte) JfifUtil.MARKER_FIRST_BYTE) {
+          markerPosition++;
+        }
+        if (markerPosition > position) {
+          mBytesParsed += markerPosition - position;
+          mBytesScanned += markerPosition - position;
+          mLastByteRead = data[markerPosition - 1] & 0xFF;
+          position = markerPosition;
+          continue;
         }
+      }
+      final int nextByte = data[position++] & 0xFF;
+      mBytesParsed++;
+      mBytesScanned++;
+      if (mEndMarkerRead) {
+        // There should be no more data after the EOI marker, just in case there is lets
+        // bail out instead of trying to parse the unknown data
+        mParserState = NOT_A_JPEG;
+        mEndMarkerRead = false;
+        return;
+      }
+      switch (mParserState) {
+        case READ_FIRST_JPEG_BYTE:
+          if (nextByte == JfifUtil.MARKER_FIRST_BYTE) {
+            mParserState = READ_SECOND_JPEG_BYTE;
+          } else {
+            mParserState = NOT_A_JPEG;
+          }
+          break;
+
+        case READ_SECOND_JPEG_BYTE:
+          if (nextByte == JfifUtil.MARKER_SOI) {
+            mParserState = READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA;
+          } else {
+            mParserState = NOT_A_JPEG;
+          }
+          break;
+
+        case READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA:
+          if (nextByte == JfifUtil.MARKER_FIRST_BYTE) {
+            mParserState = READ_MARKER_SECOND_BYTE;
+          }
+          break;
+
+        case READ_MARKER_SECOND_BYTE:
+          if (nextByte == JfifUtil.MARKER_FIRST_BYTE) {
+            mParserState = READ_MARKER_SECOND_BYTE;
+          } else if (nextByte == JfifUtil.MARKER_ESCAPE_BYTE) {
+            mParserState = READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA;
+          } else if (nextByte == JfifUtil.MARKER_EOI) {
+            mEndMarkerRead = true;
+            newScanOrImageEndFound(mBytesParsed - 2);
+            // There should be no data after the EOI marker, but in case there is, let's process
+            // the next byte as a first marker byte.
+            mParserState = READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA;
+          } else {
+            if (nextByte == JfifUtil.MARKER_SOS) {
+              newScanOrImageEndFound(mBytesParsed - 2);
+            }
 
-        mLastByteRead = nextByte;
+            if (doesMarkerStartSegment(nextByte)) {
+              mParserState = READ_SIZE_FIRST_BYTE;
+            } else {
+              mParserState = READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA;
+            }
+          }
+          break;
+
+        case READ_SIZE_FIRST_BYTE:
+          mParserState = READ_SIZE_SECOND_BYTE;
+          break;
+
+        case READ_SIZE_SECOND_BYTE:
+          final int size = (mLastByteRead << 8) + nextByte;
+          // We need to jump after the end of the segment - skip size-2 next bytes.
+          // The segment might end after the data received so far, in which case the rest of it is
+          // skipped as soon as it is received.
+          mBytesToSkip = Math.max(0, size - 2);
+          mParserState = READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA;
+          break;
+
+        case NOT_A_JPEG:
+        default:
+          Preconditions.checkState(false);
       }
-    } catch (IOException ioe) {
-      // does not happen, input stream returned by pooled byte buffer does not throw IOExceptions
-      Throwables.propagate(ioe);
+
+      mLastByteRead = nextByte;
     }
-    return mParserState != NOT_A_JPEG && mBestScanNumber != oldBestScanNumber;
+  }
+
+  private void onParseFinished(long startTime) {
+    mParseCallCount++;
+    mParseTimeNanos += System.nanoTime() - startTime;
   }
 
   /** Not every marker is followed by associated segment */
@@ -263,4 +379,19 @@ public class ProgressiveJpegParser {
   public boolean isEndMarkerRead() {
     return mEndMarkerRead;
   }
+
+  /** @return the time spent parsing the image so far */
+  public long getParseTimeNanos() {
+    return mParseTimeNanos;
+  }
+
+  /** @return the number of bytes of the image read so far, which excludes the skipped segments */
+  public int getBytesScanned() {
+    return mBytesScanned;
+  }
+
+  /** @return the number of calls that parsed new data */
+  public int getParseCallCount() {
+    return mParseCallCount;
+  }
 }
@@ -18,11 +18,14 @@ import com.facebook.common.logging.FLog;
 import com.facebook.common.memory.MemoryTrimType;
 import com.facebook.common.memory.MemoryTrimmableRegistry;
 import com.facebook.common.memory.Pool;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.NotThreadSafe;
@@ -104,6 +107,11 @@ import javax.annotation.concurrent.NotThreadSafe;
  *       above, the maxLength here is a soft cap, in that it will not cause an exception on get; it
  *       simply controls the release path. If the BucketSizes parameter is null, then the pool will
  *       dynamically create buckets on demand.
+ *   <li>{@link PoolParams#threadCacheLength} When set, each thread keeps a few of the values it
+ *       released in a cache of its own, and gets them back before the values released by other
+ *       threads, without taking the pool lock. The cached values still count as in use until the
+ *       cache is emptied by a trim, or given back to the pool once its thread has terminated, see
+ *       {@link ThreadCache}.
  * </ul>
  */
 public abstract class BasePool<V> implements Pool<V> {
@@ -138,6 +146,22 @@ public abstract class BasePool<V> implements Pool<V> {
 
   private boolean mIgnoreHardCap;
 
+  /** The cache of each thread, or null if the thread caches are disabled */
+  private final @Nullable ThreadLocal<ThreadCache<V>> mThreadCache;
+
+  /** All the caches of live threads, so that they can be emptied from any thread */
+  private final List<ThreadCache<V>> mThreadCaches;
+
+  /**
+   * The values held by the thread caches once they have been checked, which are also in {@link
+   * #mInUseValues}. Values taken out of a thread cache stay in the set until the next flush.
+   */
+  @GuardedBy("this")
+  private final Set<V> mThreadCachedValues;
+
+  /** Whether the soft cap is exceeded, published for the thread caches which don't hold the lock */
+  private volatile boolean mSoftCapExceeded;
+
   /**
    * Creates a new instance of the pool.
    *
@@ -164,6 +188,28 @@ public abstract class BasePool<V> implements Pool<V> {
 
     mFree = new Counter();
     mUsed = new Counter();
+
+    mThreadCaches = new CopyOnWriteArrayList<>();
+    mThreadCachedValues = Sets.newIdentityHashSet();
+    if (mPoolParams.threadCacheLength > 0 && mPoolParams.threadCacheMaxSizeInBytes > 0) {
+      mThreadCache =
+          new ThreadLocal<ThreadCache<V>>() {
+            @Override
+            protected ThreadCache<V> initialValue() {
+              // threads come and go in executors, this is when the caches of the old ones go away
+              releaseDeadThreadCaches();
+              ThreadCache<V> threadCache =
+                  new ThreadCache<>(
+                      Thread.currentThread(),
+                      mPoolParams.threadCacheLength,
+                      mPoolParams.threadCacheMaxSizeInBytes);
+              mThreadCaches.add(threadCache);
+              return threadCache;
+            }
+          };
+    } else {
+      mThreadCache = null;
+    }
   }
 
   public BasePool(
@@ -199,11 +245,26 @@ public abstract class BasePool<V> implements Pool<V> {
    * @throws InvalidSizeException
    */
   public V get(int size) {
-    ensurePoolSizeInvariant();
-
     int bucketedSize = getBucketedSize(size);
     int sizeInBytes = -1;
 
+    if (mThreadCache != null) {
+      V value = getFromThreadCache(bucketedSize);
+      if (value != null) {
+        onValueReusedFromThreadCache(value);
+        if (FLog.isLoggable(FLog.VERBOSE)) {
+          FLog.v(
+              TAG,
+              "get (thread cache) (object, size) = (%x, %s)",
+              System.identityHashCode(value),
+              bucketedSize);
+        }
+        return value;
+      }
+    }
+
+    ensurePoolSizeInvariant();
+
     synchronized (this) {
       Bucket<V> bucket = getBucket(bucketedSize);
 
@@ -234,7 +295,12 @@ public abstract class BasePool<V> implements Pool<V> {
       }
       // check to see if we can allocate a value of the given size without exceeding the hard cap
       sizeInBytes = getSizeInBytes(bucketedSize);
-      if (!canAllocate(sizeInBytes)) {
+      boolean canAllocate = canAllocate(sizeInBytes);
+      if (!canAllocate && emptyThreadCaches()) {
+        // the values held by the thread caches counted as used, check again without them
+        canAllocate = canAllocate(sizeInBytes);
+      }
+      if (!canAllocate) {
         throw new PoolSizeViolationException(
             mPoolParams.maxSizeHardCap, mUsed.mNumBytes, mFree.mNumBytes, sizeInBytes);
       }
@@ -261,6 +327,7 @@ public abstract class BasePool<V> implements Pool<V> {
         if (bucket != null) {
           bucket.decrementInUseCount();
         }
+        updateSoftCapExceeded();
       }
       Throwables.propagateIfPossible(e);
     }
@@ -274,6 +341,7 @@ public abstract class BasePool<V> implements Pool<V> {
       Preconditions.checkState(mInUseValues.add(value));
       // If we're over the pool's max size, try to trim the pool appropriately
       trimToSoftCap();
+      updateSoftCapExceeded();
       mPoolStatsTracker.onAlloc(sizeInBytes);
       logStats();
       if (FLog.isLoggable(FLog.VERBOSE)) {
@@ -301,10 +369,140 @@ public abstract class BasePool<V> implements Pool<V> {
   public void release(V value) {
     Preconditions.checkNotNull(value);
 
+    if (mThreadCache != null && !mSoftCapExceeded && isReusable(value)) {
+      final int bucketedSize = getBucketedSizeForValue(value);
+      // values without a bucket are always freed, so they must not be cached either
+      if ((mPoolParams.bucketSizes == null || mPoolParams.bucketSizes.indexOfKey(bucketedSize) >= 0)
+          && releaseToThreadCache(bucketedSize, value)) {
+        if (FLog.isLoggable(FLog.VERBOSE)) {
+          FLog.v(
+              TAG,
+              "release (thread cache) (object, size) = (%x, %s)",
+              System.identityHashCode(value),
+              bucketedSize);
+        }
+        return;
+      }
+    }
+    releaseToPool(value, false);
+  }
+
+  /**
+   * Takes a value of the given size from the cache of the current thread. Only the values checked
+   * by a flush are handed out, so the cache is flushed first if it has unchecked values of the
+   * size, which is the only case where the pool lock is taken.
+   *
+   * @return the value, or null if the cache has none of that size
+   */
+  private @Nullable V getFromThreadCache(int bucketedSize) {
+    final ThreadCache<V> threadCache = mThreadCache.get();
+    final int sizeInBytes = getSizeInBytes(bucketedSize);
+    V value = threadCache.get(bucketedSize, sizeInBytes);
+    if (value == null && threadCache.hasReleasedValues(bucketedSize)) {
+      flushThreadCaches();
+      value = threadCache.get(bucketedSize, sizeInBytes);
+    }
+    return value;
+  }
+
+  /**
+   * Keeps a released value in the cache of the current thread, without taking the pool lock. The
+   * value is checked and its release tracked by the next flush, which happens once the thread has
+   * released {@link PoolParams#threadCacheLength} values, or when it needs an unchecked value back.
+   *
+   * @return true if the value was taken by the cache, false if it must be released to the pool
+   */
+  private boolean releaseToThreadCache(int bucketedSize, V value) {
+    final ThreadCache<V> threadCache = mThreadCache.get();
+    switch (threadCache.offer(bucketedSize, getSizeInBytes(bucketedSize), value)) {
+      case ThreadCache.CACHED:
+        if (threadCache.getReleasedCount() >= mPoolParams.threadCacheLength) {
+          flushThreadCaches();
+        }
+        return true;
+      case ThreadCache.ALREADY_CACHED:
+        FLog.e(
+            TAG,
+            "release (value released twice) (object, size) = (%x, %s)",
+            System.identityHashCode(value),
+            bucketedSize);
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Checks the values released to the thread caches since the last flush, and tracks their
+   * releases, and the reuses of the values taken out of the caches, like for the buckets. Values
+   * the pool doesn't know, or that another thread cache already holds, are removed from the caches
+   * and released to the pool, which reports them.
+   */
+  private synchronized void flushThreadCaches() {
+    // the values taken out first, as they may have been released to another cache since
+    for (ThreadCache<V> threadCache : mThreadCaches) {
+      final List<V> takenValues = threadCache.removeTakenValues();
+      for (int i = 0; i < takenValues.size(); ++i) {
+        final V value = takenValues.get(i);
+        mThreadCachedValues.remove(value);
+        mPoolStatsTracker.onValueReuse(getSizeInBytes(getBucketedSizeForValue(value)));
+      }
+    }
+    final List<V> rejectedValues = new ArrayList<>();
+    for (ThreadCache<V> threadCache : mThreadCaches) {
+      threadCache.checkReleasedValues(this, rejectedValues);
+    }
+    for (int i = 0; i < rejectedValues.size(); ++i) {
+      releaseToPool(rejectedValues.get(i), false);
+    }
+  }
+
+  /**
+   * Tells whether a value of {@link #mThreadCachedValues} is still held by a thread cache, rather
+   * than taken out of it since the last flush
+   */
+  @GuardedBy("this")
+  private boolean isHeldByThreadCache(V value) {
+    flushThreadCaches();
+    return mThreadCachedValues.contains(value);
+  }
+
+  /**
+   * Checks a value released to a thread cache, like {@link #releaseToPool} does.
+   *
+   * @return true if the cache may keep the value
+   */
+  @GuardedBy("this")
+  private boolean acceptThreadCachedValue(V value, int sizeInBytes) {
+    if (!mInUseValues.contains(value) || !mThreadCachedValues.add(value)) {
+      return false;
+    }
+    mPoolStatsTracker.onValueRelease(sizeInBytes);
+    return true;
+  }
+
+  /**
+   * Releases the given value to the pool itself, bypassing the thread cache.
+   *
+   * @param fromThreadCache whether the value is given back by a thread cache, in which case its
+   *     release has been tracked already
+   */
+  private void releaseToPool(V value, boolean fromThreadCache) {
     final int bucketedSize = getBucketedSizeForValue(value);
     final int sizeInBytes = getSizeInBytes(bucketedSize);
     synchronized (this) {
       final Bucket<V> bucket = getBucketIfPresent(bucketedSize);
+      if (fromThreadCache) {
+        mThreadCachedValues.remove(value);
+      } else if (mThreadCachedValues.contains(value) && isHeldByThreadCache(value)) {
+        // The value is still held by a thread cache, which will hand it out again
+        FLog.e(
+            TAG,
+            "release (value released twice) (object, size) = (%x, %s)",
+            System.identityHashCode(value),
+            bucketedSize);
+        return;
+      }
       if (!mInUseValues.remove(value)) {
         // This value was not 'known' to the pool (i.e.) allocated via the pool.
         // Something is going wrong, so let's free the value and report soft error.
@@ -342,12 +540,15 @@ public abstract class BasePool<V> implements Pool<V> {
           }
           free(value);
           mUsed.decrement(sizeInBytes);
+          updateSoftCapExceeded();
           mPoolStatsTracker.onFree(sizeInBytes);
         } else {
           bucket.release(value);
           mFree.increment(sizeInBytes);
           mUsed.decrement(sizeInBytes);
-          mPoolStatsTracker.onValueRelease(sizeInBytes);
+          if (!fromThreadCache) {
+            mPoolStatsTracker.onValueRelease(sizeInBytes);
+          }
           if (FLog.isLoggable(FLog.VERBOSE)) {
             FLog.v(
                 TAG,
@@ -434,6 +635,14 @@ public abstract class BasePool<V> implements Pool<V> {
     return true;
   }
 
+  /**
+   * Called when a value is handed out again from a thread cache, which bypasses {@link
+   * #getValue(Bucket)}. Subclasses that prepare values for reuse there should do the same here.
+   *
+   * @param value the value about to be returned by {@link #get(int)}
+   */
+  protected void onValueReusedFromThreadCache(V value) {}
+
   /**
    * Ensure pool size invariants. The pool must either be below the soft-cap OR it must have no free
    * values left
@@ -542,6 +751,8 @@ public abstract class BasePool<V> implements Pool<V> {
   void trimToNothing() {
     final List<Bucket<V>> bucketsToTrim;
 
+    emptyThreadCaches();
+
     synchronized (this) {
       if (mPoolParams.fixBucketsReinitialization) {
         bucketsToTrim = refillBuckets();
@@ -562,6 +773,7 @@ public abstract class BasePool<V> implements Pool<V> {
 
       // free up the stats
       mFree.reset();
+      updateSoftCapExceeded();
       logStats();
     }
 
@@ -647,6 +859,7 @@ public abstract class BasePool<V> implements Pool<V> {
     }
 
     // dump stats at the end
+    updateSoftCapExceeded();
     logStats();
     if (FLog.isLoggable(FLog.VERBOSE)) {
       FLog.v(
@@ -751,6 +964,51 @@ public abstract class BasePool<V> implements Pool<V> {
     return true;
   }
 
+  /**
+   * Gives the values held by all the thread caches back to the pool.
+   *
+   * @return true if any value was given back
+   */
+  private synchronized boolean emptyThreadCaches() {
+    releaseDeadThreadCaches();
+    flushThreadCaches();
+    boolean emptied = false;
+    for (ThreadCache<V> threadCache : mThreadCaches) {
+      emptied |= releaseToPool(threadCache.removeAll());
+    }
+    return emptied;
+  }
+
+  /**
+   * Forgets the caches of the threads that have terminated, and gives their values back to the
+   * pool. Nothing else would ever take these values out of the used counter.
+   */
+  private void releaseDeadThreadCaches() {
+    for (ThreadCache<V> threadCache : mThreadCaches) {
+      if (!threadCache.isOwnerAlive()) {
+        synchronized (this) {
+          flushThreadCaches();
+          mThreadCaches.remove(threadCache);
+          releaseToPool(threadCache.removeAll());
+        }
+      }
+    }
+  }
+
+  /** @return true if any value was given back */
+  private boolean releaseToPool(List<V> values) {
+    for (int i = 0; i < values.size(); ++i) {
+      releaseToPool(values.get(i), true);
+    }
+    return !values.isEmpty();
+  }
+
+  /** Publishes whether the soft cap is exceeded. The caller must hold the pool lock */
+  @SuppressLint("InvalidAccessToGuardedField")
+  private void updateSoftCapExceeded() {
+    mSoftCapExceeded = (mUsed.mNumBytes + mFree.mNumBytes) > mPoolParams.maxSizeSoftCap;
+  }
+
   /** Simple 'debug' logging of stats. WARNING: The caller is responsible for synchronization */
   @SuppressLint("InvalidAccessToGuardedField")
   private void logStats() {
@@ -835,6 +1093,189 @@ public abstract class BasePool<V> implements Pool<V> {
     }
   }
 
+  /**
+   * The values released by a single thread and kept for its next requests, like the magazines of a
+   * slab allocator. As far as the pool is concerned, cached values are still in use: they are in
+   * {@link BasePool#mInUseValues}, in the used counter and in the in-use count of their bucket.
+   *
+   * <p>The thread takes and releases values under the lock of its cache only, which nobody else
+   * contends for. The values released since the last flush are not handed out until the pool has
+   * checked them: {@link BasePool#flushThreadCaches} checks them and tracks their releases, and the
+   * reuses of the values taken out since, under the pool lock and in batches.
+   *
+   * <p>The cache lock may be taken while holding the pool lock, but not the other way around. The
+   * cache only keeps a weak reference to its thread, so that the pool can tell when the thread is
+   * gone without keeping it from being collected.
+   */
+  @VisibleForTesting
+  static class ThreadCache<V> {
+    /** The value was taken by the cache */
+    static final int CACHED = 0;
+    /** The cache is full, the value must be released to the pool */
+    static final int FULL = 1;
+    /** The cache already holds the value */
+    static final int ALREADY_CACHED = 2;
+
+    private final WeakReference<Thread> mOwner;
+    private final int mLength;
+    private final int mMaxSizeInBytes;
+
+    /** The values checked by the pool, which can be handed out */
+    @GuardedBy("this")
+    private final SparseArray<ArrayList<V>> mValues;
+
+    /** The values released since the last flush */
+    @GuardedBy("this")
+    private final SparseArray<ArrayList<V>> mReleasedValues;
+
+    /** The checked values handed out since the last flush */
+    @GuardedBy("this")
+    private final ArrayList<V> mTakenValues;
+
+    /** The size in bytes of the values of each bucketed size */
+    @GuardedBy("this")
+    private final SparseIntArray mSizesInBytes;
+
+    @GuardedBy("this")
+    private int mReleasedCount;
+
+    @GuardedBy("this")
+    private int mSizeInBytes;
+
+    ThreadCache(Thread owner, int length, int maxSizeInBytes) {
+      mOwner = new WeakReference<>(owner);
+      mLength = length;
+      mMaxSizeInBytes = maxSizeInBytes;
+      mValues = new SparseArray<>();
+      mReleasedValues = new SparseArray<>();
+      mTakenValues = new ArrayList<>(length);
+      mSizesInBytes = new SparseIntArray();
+    }
+
+    /**
+     * Removes a checked value of the given bucketed size from the cache.
+     *
+     * @return the value, or null if the cache has none of that size
+     */
+    @Nullable
+    synchronized V get(int bucketedSize, int sizeInBytes) {
+      ArrayList<V> values = mValues.get(bucketedSize);
+      if (values == null || values.isEmpty()) {
+        return null;
+      }
+      mSizeInBytes -= sizeInBytes;
+      V value = values.remove(values.size() - 1);
+      mTakenValues.add(value);
+      return value;
+    }
+
+    /** Returns true if values of the given bucketed size have been released since the last flush */
+    synchronized boolean hasReleasedValues(int bucketedSize) {
+      ArrayList<V> values = mReleasedValues.get(bucketedSize);
+      return values != null && !values.isEmpty();
+    }
+
+    /** Returns the number of values released since the last flush */
+    synchronized int getReleasedCount() {
+      return mReleasedCount;
+    }
+
+    /**
+     * Adds a released value to the cache, unless the cache is full or already holds it.
+     *
+     * @return {@link #CACHED}, {@link #FULL} or {@link #ALREADY_CACHED}
+     */
+    synchronized int offer(int bucketedSize, int sizeInBytes, V value) {
+      ArrayList<V> values = getOrCreate(mValues, bucketedSize);
+      ArrayList<V> releasedValues = getOrCreate(mReleasedValues, bucketedSize);
+      if (containsInstance(values, value) || containsInstance(releasedValues, value)) {
+        return ALREADY_CACHED;
+      }
+      if (values.size() + releasedValues.size() >= mLength
+          || sizeInBytes > mMaxSizeInBytes - mSizeInBytes) {
+        return FULL;
+      }
+      releasedValues.add(value);
+      mSizesInBytes.put(bucketedSize, sizeInBytes);
+      mReleasedCount++;
+      mSizeInBytes += sizeInBytes;
+      return CACHED;
+    }
+
+    private static <T> ArrayList<T> getOrCreate(SparseArray<ArrayList<T>> lists, int key) {
+      ArrayList<T> list = lists.get(key);
+      if (list == null) {
+        list = new ArrayList<>();
+        lists.put(key, list);
+      }
+      return list;
+    }
+
+    private static <T> boolean containsInstance(List<T> values, T value) {
+      for (int i = 0; i < values.size(); ++i) {
+        if (values.get(i) == value) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /** Removes the values taken out of the cache since the last flush, for the pool to track */
+    synchronized List<V> removeTakenValues() {
+      if (mTakenValues.isEmpty()) {
+        return Collections.emptyList();
+      }
+      List<V> taken = new ArrayList<>(mTakenValues);
+      mTakenValues.clear();
+      return taken;
+    }
+
+    /**
+     * Has the pool check the values released since the last flush. The values it accepts can be
+     * handed out from then on, the others are removed from the cache and added to the given list.
+     * The caller must hold the pool lock.
+     */
+    synchronized void checkReleasedValues(BasePool<V> pool, List<V> rejectedValues) {
+      for (int i = 0; i < mReleasedValues.size(); ++i) {
+        final int bucketedSize = mReleasedValues.keyAt(i);
+        final int sizeInBytes = pool.getSizeInBytes(bucketedSize);
+        final ArrayList<V> releasedValues = mReleasedValues.valueAt(i);
+        for (int j = 0; j < releasedValues.size(); ++j) {
+          final V value = releasedValues.get(j);
+          if (pool.acceptThreadCachedValue(value, sizeInBytes)) {
+            getOrCreate(mValues, bucketedSize).add(value);
+          } else {
+            mSizeInBytes -= sizeInBytes;
+            rejectedValues.add(value);
+          }
+        }
+        releasedValues.clear();
+      }
+      mReleasedCount = 0;
+    }
+
+    /** Returns false once the thread owning the cache has terminated */
+    boolean isOwnerAlive() {
+      Thread owner = mOwner.get();
+      return owner != null && owner.isAlive();
+    }
+
+    /**
+     * Removes all the checked values from the cache. The values released since the last flush stay
+     * in the cache until they are checked.
+     */
+    synchronized List<V> removeAll() {
+      List<V> removed = new ArrayList<>();
+      for (int i = 0; i < mValues.size(); ++i) {
+        final ArrayList<V> values = mValues.valueAt(i);
+        mSizeInBytes -= values.size() * mSizesInBytes.get(mValues.keyAt(i));
+        removed.addAll(values);
+        values.clear();
+      }
+      return removed;
+    }
+  }
+
   /** An exception to indicate if the 'value' is invalid. */
   public static class InvalidValueException extends RuntimeException {
     public InvalidValueException(Object value) {
@@ -126,4 +126,9 @@ public class BucketsBitmapPool extends BasePool<Bitmap> implements BitmapPool {
     }
     return result;
   }
+
+  @Override
+  protected void onValueReusedFromThreadCache(Bitmap value) {
+    value.eraseColor(Color.TRANSPARENT);
+  }
 }
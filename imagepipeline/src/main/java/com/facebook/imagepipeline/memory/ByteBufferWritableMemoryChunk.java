@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link MemoryChunk} that can copy byte buffers to its memory without going through an
+ * intermediate byte array. Other memory chunks are written through a byte array by {@link
+ * MemoryChunkUtil#write(MemoryChunk, int, ByteBuffer)}.
+ */
+public interface ByteBufferWritableMemoryChunk extends MemoryChunk {
+
+  /**
+   * Copy the remaining bytes of a byte buffer to memory. The position of the byte buffer is
+   * advanced by the number of bytes written.
+   *
+   * @param memoryOffset number of first byte to be written by copy operation
+   * @param byteBuffer byte buffer to copy from
+   * @return number of bytes written
+   */
+  int write(final int memoryOffset, final ByteBuffer byteBuffer);
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.memory.PooledByteBuffer;
+import com.facebook.common.references.CloseableReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * An implementation of {@link PooledByteBuffer} that stores its data in a list of {@link
+ * MemoryChunk}s, one after the other, rather than in a single one.
+ *
+ * <p>The data is not contiguous: {@link #getNativePtr} is not supported and {@link #getByteBuffer}
+ * returns null. The bytes can be read with {@link #read(int, byte[], int, int)}, which copies them
+ * one chunk at a time, or through a {@link com.facebook.common.memory.PooledByteBufferInputStream}.
+ */
+@ThreadSafe
+public class ChunkedPooledByteBuffer implements PooledByteBuffer {
+
+  private final int mSize;
+
+  /** Offset of the first byte of each chunk, followed by the total size of the chunks */
+  private final int[] mChunkOffsets;
+
+  @GuardedBy("this")
+  @VisibleForTesting
+  @Nullable
+  List<CloseableReference<MemoryChunk>> mChunkRefs;
+
+  /** Index of the chunk used by the last read, which sequential reads are likely to use again */
+  @GuardedBy("this")
+  private int mLastChunkIndex;
+
+  public ChunkedPooledByteBuffer(List<CloseableReference<MemoryChunk>> chunkRefs, int size) {
+    Preconditions.checkArgument(!chunkRefs.isEmpty());
+    mChunkRefs = new ArrayList<>(chunkRefs.size());
+    mChunkOffsets = new int[chunkRefs.size() + 1];
+    for (int i = 0; i < chunkRefs.size(); i++) {
+      final CloseableReference<MemoryChunk> chunkRef = Preconditions.checkNotNull(chunkRefs.get(i));
+      mChunkRefs.add(chunkRef.clone());
+      mChunkOffsets[i + 1] = mChunkOffsets[i] + chunkRef.get().getSize();
+    }
+    Preconditions.checkArgument(size >= 0 && size <= mChunkOffsets[chunkRefs.size()]);
+    mSize = size;
+  }
+
+  /**
+   * Gets the size of the ByteBuffer if it is valid. Otherwise, an exception is raised
+   *
+   * @return the size of the ByteBuffer if it is not closed.
+   * @throws {@link ClosedException}
+   */
+  @Override
+  public synchronized int size() {
+    ensureValid();
+    return mSize;
+  }
+
+  @Override
+  public synchronized byte read(int offset) {
+    ensureValid();
+    Preconditions.checkArgument(offset >= 0);
+    Preconditions.checkArgument(offset < mSize);
+    final int chunkIndex = getChunkIndex(offset);
+    return mChunkRefs.get(chunkIndex).get().read(offset - mChunkOffsets[chunkIndex]);
+  }
+
+  @Override
+  public synchronized int read(int offset, byte[] buffer, int bufferOffset, int length) {
+    ensureValid();
+    Preconditions.checkArgument(offset >= 0 && length >= 0);
+    Preconditions.checkArgument(offset + length <= mSize);
+    int copied = 0;
+    while (copied < length) {
+      final int chunkIndex = getChunkIndex(offset + copied);
+      final MemoryChunk chunk = mChunkRefs.get(chunkIndex).get();
+      final int chunkOffset = offset + copied - mChunkOffsets[chunkIndex];
+      copied +=
+          chunk.read(
+              chunkOffset,
+              buffer,
+              bufferOffset + copied,
+              Math.min(length - copied, chunk.getSize() - chunkOffset));
+    }
+    return copied;
+  }
+
+  @Override
+  public long getNativePtr() throws UnsupportedOperationException {
+    throw new UnsupportedOperationException("Cannot get the pointer of a ChunkedPooledByteBuffer");
+  }
+
+  @Override
+  @Nullable
+  public ByteBuffer getByteBuffer() {
+    return null;
+  }
+
+  @Override
+  public synchronized boolean isClosed() {
+    return mChunkRefs == null;
+  }
+
+  /**
+   * Closes this instance, and releases the underlying chunks to the pool. It is not an error to
+   * close an already closed ByteBuffer
+   */
+  @Override
+  public synchronized void close() {
+    CloseableReference.closeSafely(mChunkRefs);
+    mChunkRefs = null;
+  }
+
+  @VisibleForTesting
+  synchronized int getChunkCount() {
+    ensureValid();
+    return mChunkRefs.size();
+  }
+
+  /**
+   * Validates that the ByteBuffer instance is valid (aka not closed). If it is closed, then we
+   * raise a ClosedException
+   *
+   * @throws ClosedException
+   */
+  synchronized void ensureValid() {
+    if (isClosed()) {
+      throw new ClosedException();
+    }
+  }
+
+  @GuardedBy("this")
+  private int getChunkIndex(int offset) {
+    if (offset < mChunkOffsets[mLastChunkIndex] || offset >= mChunkOffsets[mLastChunkIndex + 1]) {
+      final int index = Arrays.binarySearch(mChunkOffsets, offset);
+      // an offset inside a chunk has the following chunk as its insertion point
+      mLastChunkIndex = index >= 0 ? index : -index - 2;
+    }
+    return mLastChunkIndex;
+  }
+}
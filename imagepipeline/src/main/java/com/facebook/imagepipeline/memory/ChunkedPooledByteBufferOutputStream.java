@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.memory.PooledByteBuffer;
+import com.facebook.common.memory.PooledByteBufferOutputStream;
+import com.facebook.common.references.CloseableReference;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * An implementation of {@link PooledByteBufferOutputStream} for contents of unknown size.
+ *
+ * <p>Instead of reallocating a larger {@link MemoryChunk} and copying the bytes written so far
+ * whenever it runs out of space, this stream appends another chunk, as large as the contents
+ * written so far, to a list of chunks. Once there is more than one chunk, {@link #toByteBuffer}
+ * returns a {@link ChunkedPooledByteBuffer} sharing them, so the contents are never copied.
+ */
+@NotThreadSafe
+public class ChunkedPooledByteBufferOutputStream extends PooledByteBufferOutputStream {
+  private final MemoryChunkPool mPool; // the pool to allocate memory chunks from
+  private final List<CloseableReference<MemoryChunk>> mChunks; // the chunks, in order
+  private int mLastChunkOffset; // offset of the last chunk, the one that we're writing to
+  private int mCapacity; // total size of the chunks
+  private int mCount; // number of bytes written
+
+  /**
+   * Construct a new instance of this OutputStream
+   *
+   * @param pool the pool to use
+   */
+  public ChunkedPooledByteBufferOutputStream(MemoryChunkPool pool) {
+    this(pool, pool.getMinBufferSize());
+  }
+
+  /**
+   * Construct a new instance of this output stream with this initial capacity. If the actual
+   * contents end up being larger than the initialCapacity, more chunks are added as needed.
+   *
+   * @param pool the pool to use
+   * @param initialCapacity initial capacity to allocate for this stream
+   */
+  public ChunkedPooledByteBufferOutputStream(MemoryChunkPool pool, int initialCapacity) {
+    super();
+
+    Preconditions.checkArgument(initialCapacity > 0);
+    mPool = Preconditions.checkNotNull(pool);
+    mChunks = new ArrayList<>();
+    mCount = 0;
+    addChunk(initialCapacity);
+  }
+
+  /**
+   * Gets a PooledByteBuffer from the current contents: a {@link MemoryPooledByteBuffer} if they fit
+   * in a single chunk, a {@link ChunkedPooledByteBuffer} otherwise. If the stream has already been
+   * closed, then an InvalidStreamException is thrown.
+   *
+   * @return a PooledByteBuffer instance for the contents of the stream
+   * @throws MemoryPooledByteBufferOutputStream.InvalidStreamException if the stream is invalid
+   */
+  @Override
+  public PooledByteBuffer toByteBuffer() {
+    ensureValid();
+    if (mChunks.size() == 1) {
+      return new MemoryPooledByteBuffer(mChunks.get(0), mCount);
+    }
+    return new ChunkedPooledByteBuffer(mChunks, mCount);
+  }
+
+  /**
+   * Returns the total number of bytes written to this stream so far.
+   *
+   * @return the number of bytes written to this stream.
+   */
+  @Override
+  public int size() {
+    return mCount;
+  }
+
+  /**
+   * Write one byte to the underlying stream. The underlying stream MUST be valid
+   *
+   * @param oneByte the one byte to write
+   * @throws MemoryPooledByteBufferOutputStream.InvalidStreamException if the stream is invalid
+   * @throws IOException in case of an I/O error during the write
+   */
+  @Override
+  public void write(int oneByte) throws IOException {
+    byte[] buf = new byte[1];
+    buf[0] = (byte) oneByte;
+    this.write(buf);
+  }
+
+  /**
+   * Writes {@code count} bytes from the byte array {@code buffer} starting at position {@code
+   * offset} to this stream. The underlying stream MUST be valid
+   *
+   * @param buffer the source buffer to read from
+   * @param offset the start position in {@code buffer} from where to get bytes.
+   * @param count the number of bytes from {@code buffer} to write to this stream.
+   * @throws IOException if an error occurs while writing to this stream.
+   * @throws IndexOutOfBoundsException if {@code offset < 0} or {@code count < 0}, or if {@code
+   *     offset + count} is bigger than the length of {@code buffer}.
+   * @throws MemoryPooledByteBufferOutputStream.InvalidStreamException if the stream is invalid
+   */
+  @Override
+  public void write(byte[] buffer, int offset, int count) throws IOException {
+    if (offset < 0 || count < 0 || offset + count > buffer.length) {
+      throw new ArrayIndexOutOfBoundsException(
+          "length=" + buffer.length + "; regionStart=" + offset + "; regionLength=" + count);
+    }
+    ensureValid();
+    while (count > 0) {
+      final int written =
+          getWritableChunk().write(mCount - mLastChunkOffset, buffer, offset, count);
+      mCount += written;
+      offset += written;
+      count -= written;
+    }
+  }
+
+  /**
+   * Writes the remaining bytes of {@code byteBuffer} straight into the underlying memory chunks.
+   * The underlying stream MUST be valid
+   *
+   * @param byteBuffer the byte buffer to read from
+   * @throws MemoryPooledByteBufferOutputStream.InvalidStreamException if the stream is invalid
+   */
+  @Override
+  public void write(ByteBuffer byteBuffer) {
+    ensureValid();
+    while (byteBuffer.hasRemaining()) {
+      mCount += MemoryChunkUtil.write(getWritableChunk(), mCount - mLastChunkOffset, byteBuffer);
+    }
+  }
+
+  /**
+   * Closes the stream. Owned resources are released back to the pool. It is not allowed to call
+   * toByteBuffer after call to this method.
+   */
+  @Override
+  public void close() {
+    CloseableReference.closeSafely(mChunks);
+    mChunks.clear();
+    mCount = -1;
+    super.close();
+  }
+
+  @VisibleForTesting
+  int getChunkCount() {
+    return mChunks.size();
+  }
+
+  /** Returns the last chunk, after adding a new one if it is full. */
+  private MemoryChunk getWritableChunk() {
+    if (mCount == mCapacity) {
+      // double the capacity, but keep the chunks small enough to be reused by the pool
+      addChunk(Math.min(mCapacity, mPool.getMaxBufferSize()));
+    }
+    return mChunks.get(mChunks.size() - 1).get();
+  }
+
+  private void addChunk(int size) {
+    final MemoryChunk chunk = mPool.get(size);
+    mChunks.add(CloseableReference.of(chunk, mPool));
+    mLastChunkOffset = mCapacity;
+    mCapacity += chunk.getSize();
+  }
+
+  /**
+   * Ensure that the current stream is valid, that is it hasn't been closed yet
+   *
+   * @throws MemoryPooledByteBufferOutputStream.InvalidStreamException if the stream is invalid
+   */
+  private void ensureValid() {
+    if (mCount < 0) {
+      throw new MemoryPooledByteBufferOutputStream.InvalidStreamException();
+    }
+  }
+}
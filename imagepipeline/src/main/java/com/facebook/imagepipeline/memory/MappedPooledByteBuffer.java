@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.memory.PooledByteBuffer;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * An implementation of {@link PooledByteBuffer} over a read-only memory mapping of a file.
+ *
+ * <p>Reads go straight to the page cache of the file, without copying the file into a pooled
+ * buffer first. The mapping can't be released explicitly: closing the buffer only drops the
+ * reference to it, and the mapping goes away once it is garbage collected. The mapping stays valid
+ * if the file is deleted in the meantime, but the file must not be truncated or rewritten while
+ * it is mapped.
+ */
+@ThreadSafe
+public class MappedPooledByteBuffer implements PooledByteBuffer {
+
+  private final int mSize;
+
+  @GuardedBy("this")
+  private @Nullable ByteBuffer mBuffer;
+
+  public MappedPooledByteBuffer(ByteBuffer buffer) {
+    mBuffer = Preconditions.checkNotNull(buffer);
+    mSize = buffer.capacity();
+  }
+
+  /**
+   * Maps the given file, and loads its content into the page cache so that readers of the buffer
+   * don't block on I/O.
+   *
+   * @param file the file to map
+   * @return the buffer over the mapped file
+   * @throws IOException if the file can't be mapped
+   */
+  public static MappedPooledByteBuffer map(File file) throws IOException {
+    final FileInputStream is = new FileInputStream(file);
+    try {
+      // the mapping stays valid after the channel is closed
+      final FileChannel channel = is.getChannel();
+      final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      buffer.load();
+      return new MappedPooledByteBuffer(buffer);
+    } finally {
+      is.close();
+    }
+  }
+
+  @Override
+  public synchronized int size() {
+    ensureValid();
+    return mSize;
+  }
+
+  @Override
+  public synchronized byte read(int offset) {
+    ensureValid();
+    Preconditions.checkArgument(offset >= 0);
+    Preconditions.checkArgument(offset < mSize);
+    return mBuffer.get(offset);
+  }
+
+  @Override
+  public synchronized int read(int offset, byte[] buffer, int bufferOffset, int length) {
+    ensureValid();
+    Preconditions.checkArgument(offset >= 0 && length >= 0);
+    final int count = Math.min(length, mSize - offset);
+    if (count <= 0) {
+      return 0;
+    }
+    // the buffer is shared with the users of getByteBuffer, so its position must not move
+    final ByteBuffer duplicate = mBuffer.duplicate();
+    duplicate.position(offset);
+    duplicate.get(buffer, bufferOffset, count);
+    return count;
+  }
+
+  @Override
+  public long getNativePtr() {
+    throw new UnsupportedOperationException("Cannot get the pointer of a MappedPooledByteBuffer");
+  }
+
+  @Override
+  @Nullable
+  public synchronized ByteBuffer getByteBuffer() {
+    return mBuffer;
+  }
+
+  @Override
+  public synchronized boolean isClosed() {
+    return mBuffer == null;
+  }
+
+  @Override
+  public synchronized void close() {
+    mBuffer = null;
+  }
+
+  /**
+   * Validates that the buffer is not closed yet
+   *
+   * @throws ClosedException
+   */
+  private synchronized void ensureValid() {
+    if (isClosed()) {
+      throw new ClosedException();
+    }
+  }
+}
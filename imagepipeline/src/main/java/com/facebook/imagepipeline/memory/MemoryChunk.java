@@ -37,6 +37,7 @@ public interface MemoryChunk {
    */
   int write(
       final int memoryOffset, final byte[] byteArray, final int byteArrayOffset, final int count);
+
   /**
    * Copy bytes from memory to byte array.
    *
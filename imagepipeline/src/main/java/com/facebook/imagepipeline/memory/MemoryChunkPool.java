@@ -42,6 +42,11 @@ public abstract class MemoryChunkPool extends BasePool<MemoryChunk> {
     return mBucketSizes[0];
   }
 
+  /** Gets the largest buffer size */
+  int getMaxBufferSize() {
+    return mBucketSizes[mBucketSizes.length - 1];
+  }
+
   @Override
   protected abstract MemoryChunk alloc(int bucketedSize);
 
@@ -8,6 +8,7 @@
 package com.facebook.imagepipeline.memory;
 
 import com.facebook.common.internal.Preconditions;
+import java.nio.ByteBuffer;
 
 public class MemoryChunkUtil {
 
@@ -33,4 +34,28 @@ public class MemoryChunkUtil {
     Preconditions.checkArgument(offset + count <= memorySize);
     Preconditions.checkArgument(otherOffset + count <= otherLength);
   }
+
+  /**
+   * Copies the remaining bytes of a byte buffer to a memory chunk, without an intermediate byte
+   * array if the chunk supports it. The position of the byte buffer is advanced by the number of
+   * bytes written.
+   *
+   * @return number of bytes written
+   */
+  static int write(final MemoryChunk chunk, final int memoryOffset, final ByteBuffer byteBuffer) {
+    if (chunk instanceof ByteBufferWritableMemoryChunk) {
+      return ((ByteBufferWritableMemoryChunk) chunk).write(memoryOffset, byteBuffer);
+    }
+    final int count = adjustByteCount(memoryOffset, byteBuffer.remaining(), chunk.getSize());
+    final int position = byteBuffer.position();
+    if (byteBuffer.hasArray()) {
+      chunk.write(memoryOffset, byteBuffer.array(), byteBuffer.arrayOffset() + position, count);
+    } else {
+      final byte[] byteArray = new byte[count];
+      byteBuffer.duplicate().get(byteArray);
+      chunk.write(memoryOffset, byteArray, 0, count);
+    }
+    byteBuffer.position(position + count);
+    return count;
+  }
 }
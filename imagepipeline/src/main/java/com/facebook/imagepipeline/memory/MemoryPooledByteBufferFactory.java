@@ -18,8 +18,8 @@ import java.io.InputStream;
 import javax.annotation.concurrent.ThreadSafe;
 
 /**
- * A factory to provide instances of {@link MemoryPooledByteBuffer} and {@link
- * MemoryPooledByteBufferOutputStream}
+ * A factory to provide instances of {@link MemoryPooledByteBuffer}, {@link
+ * MemoryPooledByteBufferOutputStream} and {@link ChunkedPooledByteBufferOutputStream}
  */
 @ThreadSafe
 public class MemoryPooledByteBufferFactory implements PooledByteBufferFactory {
@@ -105,4 +105,16 @@ public class MemoryPooledByteBufferFactory implements PooledByteBufferFactory {
   public MemoryPooledByteBufferOutputStream newOutputStream(int initialCapacity) {
     return new MemoryPooledByteBufferOutputStream(mPool, initialCapacity);
   }
+
+  /**
+   * Creates an output stream for contents of unknown size, which grows without copying the bytes
+   * written so far.
+   *
+   * <p>The buffers it returns are not contiguous once the contents span more than one chunk: their
+   * {@code getNativePtr} throws and their {@code getByteBuffer} returns null. Only use it when the
+   * contents are read through {@code read} or an input stream.
+   */
+  public ChunkedPooledByteBufferOutputStream newChunkedOutputStream() {
+    return new ChunkedPooledByteBufferOutputStream(mPool);
+  }
 }
@@ -12,6 +12,7 @@ import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.common.memory.PooledByteBufferOutputStream;
 import com.facebook.common.references.CloseableReference;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import javax.annotation.concurrent.NotThreadSafe;
 
 /**
@@ -111,6 +112,22 @@ public class MemoryPooledByteBufferOutputStream extends PooledByteBufferOutputSt
     mCount += count;
   }
 
+  /**
+   * Writes the remaining bytes of {@code byteBuffer} straight into the underlying memory chunk. The
+   * underlying stream MUST be valid
+   *
+   * @param byteBuffer the byte buffer to read from
+   * @throws InvalidStreamException if the stream is invalid
+   */
+  @Override
+  public void write(ByteBuffer byteBuffer) {
+    ensureValid();
+    final int count = byteBuffer.remaining();
+    realloc(mCount + count);
+    MemoryChunkUtil.write(mBufRef.get(), mCount, byteBuffer);
+    mCount += count;
+  }
+
   /**
    * Closes the stream. Owned resources are released back to the pool. It is not allowed to call
    * toByteBuffer after call to this method.
@@ -52,6 +52,23 @@ public class PoolParams {
 
   public boolean fixBucketsReinitialization;
 
+  /**
+   * The number of released values of each bucketed size that a thread keeps for itself, and hands
+   * back out to its next requests without taking the pool lock. 0 disables the thread caches.
+   *
+   * <p>The pool checks the released values, and tracks their releases and reuses, in batches under
+   * its lock: once a thread has released this many values, or when it needs back a value it
+   * released since the last batch.
+   *
+   * <p>Values held by a thread cache still count as used by the pool, so the size caps keep
+   * holding. The caches are emptied when the pool is trimmed, or when an allocation would otherwise
+   * exceed the hard cap.
+   */
+  public int threadCacheLength;
+
+  /** The maximum size in bytes of the values held by the cache of a single thread. */
+  public int threadCacheMaxSizeInBytes;
+
   /**
    * The maximum number of threads that may be accessing this pool.
    *
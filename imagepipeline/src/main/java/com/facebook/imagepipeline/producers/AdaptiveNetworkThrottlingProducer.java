@@ -0,0 +1,360 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import com.facebook.common.internal.ImmutableMap;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.time.MonotonicClock;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.image.EncodedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Throttling producer for network fetches that adapts the number of simultaneous fetches to the
+ * network conditions.
+ *
+ * <p>The latency of every fetch, the time until its first bytes arrive, and its throughput are
+ * measured. As long as the smoothed latency stays close to the lowest latency seen, the
+ * concurrency limit is increased additively, by one for every limit fetches completed. When the
+ * latency grows beyond {@link #CONGESTION_LATENCY_RATIO} times the lowest one, or when a fetch
+ * fails, requests are queuing up in the network and the limit is halved (AIMD).
+ *
+ * <p>Requests for images that are not prefetches start first, then the ones with the highest
+ * {@link Priority}, then the oldest ones. While the network is congested, prefetches only start
+ * when no other fetch is running.
+ */
+public class AdaptiveNetworkThrottlingProducer implements Producer<EncodedImage> {
+
+  public static final String PRODUCER_NAME = "AdaptiveNetworkThrottlingProducer";
+
+  // keys for extra map
+  public static final String EXTRA_QUEUE_TIME = "queue_time";
+  public static final String EXTRA_CONCURRENCY_LIMIT = "concurrency_limit";
+
+  public static final int DEFAULT_MIN_CONCURRENCY = 1;
+  public static final int DEFAULT_INITIAL_CONCURRENCY = 4;
+  public static final int DEFAULT_MAX_CONCURRENCY = 16;
+
+  @VisibleForTesting static final float CONGESTION_LATENCY_RATIO = 2f;
+  // latencies below this one are not told apart, so that fast networks don't look congested
+  @VisibleForTesting static final float MIN_BASELINE_LATENCY_MS = 20f;
+  private static final float DECREASE_FACTOR = 0.5f;
+  // weight of a new sample in the smoothed latency and throughput
+  private static final float SMOOTHING_FACTOR = 0.25f;
+  // how fast the lowest latency follows higher samples, for when the network gets slower
+  private static final float BASELINE_DRIFT = 0.01f;
+
+  private final Producer<EncodedImage> mInputProducer;
+  private final Executor mExecutor;
+  private final MonotonicClock mMonotonicClock;
+  private final int mMinConcurrency;
+  private final int mMaxConcurrency;
+
+  /** The requests waiting to start, in the order they were made. */
+  @GuardedBy("this")
+  private final List<Request> mPendingRequests = new ArrayList<>();
+
+  @GuardedBy("this")
+  private int mRunningRequestCount;
+
+  @GuardedBy("this")
+  private float mConcurrencyLimit;
+
+  @GuardedBy("this")
+  private long mStartedRequestCount;
+
+  /** Requests started before the last decrease don't decrease the limit again. */
+  @GuardedBy("this")
+  private long mFirstRequestAfterDecrease;
+
+  @GuardedBy("this")
+  private float mLatencyMs = -1;
+
+  @GuardedBy("this")
+  private float mBaselineLatencyMs = -1;
+
+  @GuardedBy("this")
+  private float mThroughputBytesPerSecond = -1;
+
+  public AdaptiveNetworkThrottlingProducer(
+      Executor executor, MonotonicClock monotonicClock, Producer<EncodedImage> inputProducer) {
+    this(
+        DEFAULT_MIN_CONCURRENCY,
+        DEFAULT_INITIAL_CONCURRENCY,
+        DEFAULT_MAX_CONCURRENCY,
+        executor,
+        monotonicClock,
+        inputProducer);
+  }
+
+  public AdaptiveNetworkThrottlingProducer(
+      int minConcurrency,
+      int initialConcurrency,
+      int maxConcurrency,
+      Executor executor,
+      MonotonicClock monotonicClock,
+      Producer<EncodedImage> inputProducer) {
+    Preconditions.checkArgument(minConcurrency > 0);
+    Preconditions.checkArgument(
+        minConcurrency <= initialConcurrency && initialConcurrency <= maxConcurrency);
+    mMinConcurrency = minConcurrency;
+    mMaxConcurrency = maxConcurrency;
+    mConcurrencyLimit = initialConcurrency;
+    mExecutor = Preconditions.checkNotNull(executor);
+    mMonotonicClock = Preconditions.checkNotNull(monotonicClock);
+    mInputProducer = Preconditions.checkNotNull(inputProducer);
+  }
+
+  @Override
+  public void produceResults(
+      final Consumer<EncodedImage> consumer, final ProducerContext producerContext) {
+    producerContext.getProducerListener().onProducerStart(producerContext, PRODUCER_NAME);
+    final Request request = new Request(consumer, producerContext, mMonotonicClock.now());
+    final List<Request> requestsToStart;
+    synchronized (this) {
+      mPendingRequests.add(request);
+      requestsToStart = pollRequestsToStart();
+    }
+    for (Request requestToStart : requestsToStart) {
+      startRequest(requestToStart);
+    }
+    producerContext.addCallbacks(
+        new BaseProducerContextCallbacks() {
+          @Override
+          public void onCancellationRequested() {
+            final boolean isPending;
+            synchronized (AdaptiveNetworkThrottlingProducer.this) {
+              isPending = mPendingRequests.remove(request);
+            }
+            if (isPending) {
+              producerContext
+                  .getProducerListener()
+                  .onProducerFinishWithCancellation(producerContext, PRODUCER_NAME, null);
+              consumer.onCancellation();
+            }
+          }
+        });
+  }
+
+  /** @return the number of fetches that can run at the same time */
+  public synchronized int getConcurrencyLimit() {
+    return (int) mConcurrencyLimit;
+  }
+
+  public synchronized int getRunningRequestCount() {
+    return mRunningRequestCount;
+  }
+
+  public synchronized int getPendingRequestCount() {
+    return mPendingRequests.size();
+  }
+
+  /** @return the smoothed time until the first bytes of a fetch arrive, -1 if not measured yet */
+  public synchronized float getLatencyMs() {
+    return mLatencyMs;
+  }
+
+  /** @return the smoothed download throughput of a single fetch, -1 if not measured yet */
+  public synchronized float getThroughputBytesPerSecond() {
+    return mThroughputBytesPerSecond;
+  }
+
+  /** @return whether the latency shows that requests are queuing up in the network */
+  public synchronized boolean isCongested() {
+    return mLatencyMs >= 0
+        && mLatencyMs
+            > CONGESTION_LATENCY_RATIO * Math.max(mBaselineLatencyMs, MIN_BASELINE_LATENCY_MS);
+  }
+
+  private void startRequest(Request request) {
+    final ProducerContext producerContext = request.producerContext;
+    final ProducerListener2 producerListener = producerContext.getProducerListener();
+    producerListener.onProducerFinishWithSuccess(
+        producerContext,
+        PRODUCER_NAME,
+        producerListener.requiresExtraMap(producerContext, PRODUCER_NAME)
+            ? ImmutableMap.of(
+                EXTRA_QUEUE_TIME,
+                String.valueOf(request.startTime - request.submitTime),
+                EXTRA_CONCURRENCY_LIMIT,
+                String.valueOf(getConcurrencyLimit()))
+            : null);
+    mInputProducer.produceResults(new AdaptiveThrottlingConsumer(request), producerContext);
+  }
+
+  @GuardedBy("this")
+  private boolean canStart(Request request) {
+    return mRunningRequestCount < (int) mConcurrencyLimit
+        && (!request.producerContext.isPrefetch() || !isCongested() || mRunningRequestCount == 0);
+  }
+
+  @GuardedBy("this")
+  private void onRequestStarted(Request request) {
+    mRunningRequestCount++;
+    request.sequenceNumber = mStartedRequestCount++;
+    request.startTime = mMonotonicClock.now();
+  }
+
+  /** Removes the next request to start, if it can start now. */
+  @GuardedBy("this")
+  private @Nullable Request pollNextRequest() {
+    Request nextRequest = null;
+    for (Request request : mPendingRequests) {
+      // the earliest request wins between requests of the same rank
+      if (nextRequest == null || compareRank(request, nextRequest) > 0) {
+        nextRequest = request;
+      }
+    }
+    if (nextRequest == null || !canStart(nextRequest)) {
+      return null;
+    }
+    mPendingRequests.remove(nextRequest);
+    onRequestStarted(nextRequest);
+    return nextRequest;
+  }
+
+  private static int compareRank(Request request1, Request request2) {
+    final boolean isPrefetch1 = request1.producerContext.isPrefetch();
+    final boolean isPrefetch2 = request2.producerContext.isPrefetch();
+    if (isPrefetch1 != isPrefetch2) {
+      return isPrefetch1 ? -1 : 1;
+    }
+    return request1.producerContext.getPriority().ordinal()
+        - request2.producerContext.getPriority().ordinal();
+  }
+
+  private void onRequestFinished(Request request, int size, boolean isFailure) {
+    final long now = mMonotonicClock.now();
+    final List<Request> requestsToStart;
+    synchronized (this) {
+      mRunningRequestCount--;
+      if (isFailure) {
+        decreaseConcurrencyLimit(request);
+      } else if (size > 0 && request.firstByteTime >= 0) {
+        onSample(
+            request.firstByteTime - request.startTime,
+            size * 1000f / Math.max(1, now - request.firstByteTime));
+        if (isCongested()) {
+          decreaseConcurrencyLimit(request);
+        } else {
+          mConcurrencyLimit = Math.min(mMaxConcurrency, mConcurrencyLimit + 1 / mConcurrencyLimit);
+        }
+      }
+      requestsToStart = pollRequestsToStart();
+    }
+    startRequestsAsync(requestsToStart);
+  }
+
+  /** Removes the requests that can start now, in the order they should start. */
+  @GuardedBy("this")
+  private List<Request> pollRequestsToStart() {
+    final List<Request> requestsToStart = new ArrayList<>(1);
+    Request nextRequest;
+    while ((nextRequest = pollNextRequest()) != null) {
+      requestsToStart.add(nextRequest);
+    }
+    return requestsToStart;
+  }
+
+  /** Starts the requests from the executor, outside of the callbacks of the finished request. */
+  private void startRequestsAsync(List<Request> requests) {
+    for (final Request request : requests) {
+      mExecutor.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              startRequest(request);
+            }
+          });
+    }
+  }
+
+  @GuardedBy("this")
+  private void onSample(long latencyMs, float throughputBytesPerSecond) {
+    if (mBaselineLatencyMs < 0 || latencyMs < mBaselineLatencyMs) {
+      mBaselineLatencyMs = latencyMs;
+    } else {
+      mBaselineLatencyMs += (latencyMs - mBaselineLatencyMs) * BASELINE_DRIFT;
+    }
+    mLatencyMs =
+        mLatencyMs < 0 ? latencyMs : mLatencyMs + (latencyMs - mLatencyMs) * SMOOTHING_FACTOR;
+    mThroughputBytesPerSecond =
+        mThroughputBytesPerSecond < 0
+            ? throughputBytesPerSecond
+            : mThroughputBytesPerSecond
+                + (throughputBytesPerSecond - mThroughputBytesPerSecond) * SMOOTHING_FACTOR;
+  }
+
+  @GuardedBy("this")
+  private void decreaseConcurrencyLimit(Request request) {
+    if (request.sequenceNumber < mFirstRequestAfterDecrease) {
+      return;
+    }
+    mConcurrencyLimit = Math.max(mMinConcurrency, mConcurrencyLimit * DECREASE_FACTOR);
+    mFirstRequestAfterDecrease = mStartedRequestCount;
+  }
+
+  private static class Request {
+    final Consumer<EncodedImage> consumer;
+    final ProducerContext producerContext;
+    final long submitTime;
+    long startTime;
+    long sequenceNumber;
+    volatile long firstByteTime = -1;
+
+    Request(Consumer<EncodedImage> consumer, ProducerContext producerContext, long submitTime) {
+      this.consumer = consumer;
+      this.producerContext = producerContext;
+      this.submitTime = submitTime;
+    }
+  }
+
+  private class AdaptiveThrottlingConsumer extends DelegatingConsumer<EncodedImage, EncodedImage> {
+
+    private final Request mRequest;
+
+    private AdaptiveThrottlingConsumer(Request request) {
+      super(request.consumer);
+      mRequest = request;
+    }
+
+    @Override
+    protected void onNewResultImpl(@Nullable EncodedImage newResult, @Status int status) {
+      final int size = newResult != null && isLast(status) ? newResult.getSize() : 0;
+      getConsumer().onNewResult(newResult, status);
+      if (isLast(status)) {
+        onRequestFinished(mRequest, size, false);
+      }
+    }
+
+    @Override
+    protected void onFailureImpl(Throwable t) {
+      getConsumer().onFailure(t);
+      onRequestFinished(mRequest, 0, true);
+    }
+
+    @Override
+    protected void onCancellationImpl() {
+      getConsumer().onCancellation();
+      onRequestFinished(mRequest, 0, false);
+    }
+
+    @Override
+    protected void onProgressUpdateImpl(float progress) {
+      if (mRequest.firstByteTime < 0 && progress > 0) {
+        mRequest.firstByteTime = mMonotonicClock.now();
+      }
+      super.onProgressUpdateImpl(progress);
+    }
+  }
+}
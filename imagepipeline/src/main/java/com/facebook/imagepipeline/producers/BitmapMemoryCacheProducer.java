@@ -128,8 +128,10 @@ public class BitmapMemoryCacheProducer implements Producer<CloseableReference<Cl
             }
             return;
           }
-          // stateful and partial results cannot be cached and are just forwarded
-          if (newResult.get().isStateful() || statusHasFlag(status, IS_PARTIAL_RESULT)) {
+          // stateful and partial results cannot be cached and are just forwarded, like the
+          // results whose bitmap is already cached
+          if (newResult.get().isStateful()
+              || statusHasAnyFlag(status, IS_PARTIAL_RESULT | DO_NOT_CACHE_BITMAP)) {
             getConsumer().onNewResult(newResult, status);
             return;
           }
@@ -48,6 +48,7 @@ public interface Consumer<T> {
         IS_PLACEHOLDER,
         IS_PARTIAL_RESULT,
         IS_RESIZING_DONE,
+        DO_NOT_CACHE_BITMAP,
       })
   @interface Status {}
 
@@ -79,6 +80,11 @@ public interface Consumer<T> {
   int IS_PARTIAL_RESULT = 1 << 3;
   /** Status flag that indicates whether the given image has been resized. */
   int IS_RESIZING_DONE = 1 << 4;
+  /**
+   * Status flag to show the result should not be cached in the bitmap memory cache, as its bitmap
+   * is already cached for another request.
+   */
+  int DO_NOT_CACHE_BITMAP = 1 << 5;
 
   /**
    * Called by a producer whenever new data is produced. This method should not throw an exception.
@@ -0,0 +1,532 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import android.graphics.Bitmap;
+import android.media.ExifInterface;
+import com.facebook.cache.common.CacheKey;
+import com.facebook.common.internal.ImmutableMap;
+import com.facebook.common.internal.Objects;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
+import com.facebook.imagepipeline.cache.CacheKeyFactory;
+import com.facebook.imagepipeline.common.ImageDecodeOptions;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.common.ResizeOptions;
+import com.facebook.imagepipeline.common.RotationOptions;
+import com.facebook.imagepipeline.image.CloseableImage;
+import com.facebook.imagepipeline.image.CloseableStaticBitmap;
+import com.facebook.imagepipeline.request.ImageRequest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Decodes an encoded image once for the concurrent requests of several sizes.
+ *
+ * <p>The bitmap memory cache keys of the requests of different {@link ResizeOptions} differ, so
+ * each size would otherwise go through its own decode of the same encoded image. Instead, a request
+ * that arrives while the same image is being decoded at a size at least as large as its own waits
+ * for that decode, and gets a bitmap downscaled from its result. The result then goes through the
+ * bitmap memory cache under the key of the request, like a decoded one, unless its bitmap is the
+ * one of the shared decode, which is cached already.
+ *
+ * <p>A decode is only shared with the requests of smaller sizes that arrive while it runs: a
+ * request of a larger size still decodes the image on its own, even if the decode of the smaller
+ * size hasn't started yet. The size of a decode can't be raised once it has been handed to the
+ * producers below, which take it from the request they were given.
+ *
+ * <p>Only the final results of static images are shared, so the requests that wait for another
+ * decode get no intermediate results, and the requests with progressive rendering never wait. If
+ * the shared decode fails or doesn't produce a static bitmap, the requests that waited for it
+ * decode the image themselves.
+ *
+ * <p>Like in {@link MultiplexProducer}, the decode runs in a context of its own, which takes the
+ * highest priority of the requests that wait for it, and expects intermediate results if any of
+ * them does. When the request that started the decode is cancelled, the decode goes on for the
+ * requests that wait for it, and is only cancelled once none is left.
+ */
+public class DecodeFanOutProducer implements Producer<CloseableReference<CloseableImage>> {
+
+  public static final String NAME = "DecodeFanOutProducer";
+  @VisibleForTesting static final String EXTRA_SOURCE_BITMAP_SIZE = "sourceBitmapSize";
+  @VisibleForTesting static final String EXTRA_BITMAP_SIZE = "bitmapSize";
+
+  private final Producer<CloseableReference<CloseableImage>> mInputProducer;
+  private final CacheKeyFactory mCacheKeyFactory;
+  private final PlatformBitmapFactory mBitmapFactory;
+  private final Executor mExecutor;
+
+  @GuardedBy("this")
+  private final Map<FanOutKey, List<Decode>> mDecodes = new HashMap<>();
+
+  private final AtomicLong mDecodesSavedCount = new AtomicLong();
+
+  public DecodeFanOutProducer(
+      Producer<CloseableReference<CloseableImage>> inputProducer,
+      CacheKeyFactory cacheKeyFactory,
+      PlatformBitmapFactory platformBitmapFactory,
+      Executor executor) {
+    mInputProducer = Preconditions.checkNotNull(inputProducer);
+    mCacheKeyFactory = cacheKeyFactory;
+    mBitmapFactory = platformBitmapFactory;
+    mExecutor = Preconditions.checkNotNull(executor);
+  }
+
+  @Override
+  public void produceResults(
+      Consumer<CloseableReference<CloseableImage>> consumer, ProducerContext context) {
+    final ImageRequest imageRequest = context.getImageRequest();
+    final FanOutKey key =
+        new FanOutKey(
+            mCacheKeyFactory.getEncodedCacheKey(imageRequest, context.getCallerContext()),
+            context.getLowestPermittedRequestLevel(),
+            imageRequest.getImageDecodeOptions(),
+            imageRequest.getRotationOptions());
+    final ResizeOptions resizeOptions = imageRequest.getResizeOptions();
+    final boolean canWait =
+        resizeOptions != null && !imageRequest.getProgressiveRenderingEnabled();
+    Decode decode = null;
+    Waiter waiter = null;
+    synchronized (this) {
+      List<Decode> decodes = mDecodes.get(key);
+      if (decodes == null) {
+        decodes = new ArrayList<>(1);
+        mDecodes.put(key, decodes);
+      }
+      if (canWait) {
+        // only the decodes at least as large are shared, see the class comment
+        for (Decode ongoingDecode : decodes) {
+          if (covers(ongoingDecode.mResizeOptions, resizeOptions)) {
+            decode = ongoingDecode;
+            waiter = new Waiter(consumer, context);
+            decode.mWaiters.add(waiter);
+            break;
+          }
+        }
+      }
+      if (decode == null) {
+        decode = new Decode(key, resizeOptions, consumer, context);
+        decodes.add(decode);
+      }
+    }
+    if (waiter != null) {
+      addWaiterCallbacks(decode, waiter);
+      updateDecodeContext(decode);
+      return;
+    }
+    addLeaderCallbacks(decode);
+    mInputProducer.produceResults(new FanOutConsumer(consumer, decode), decode.mContext);
+  }
+
+  /** Returns the number of decodes that were replaced by downscaling the result of another one. */
+  public long getDecodesSavedCount() {
+    return mDecodesSavedCount.get();
+  }
+
+  private void addLeaderCallbacks(final Decode decode) {
+    decode.mLeaderContext.addCallbacks(
+        new BaseProducerContextCallbacks() {
+          @Override
+          public void onCancellationRequested() {
+            final boolean hasWaiters;
+            synchronized (DecodeFanOutProducer.this) {
+              decode.mLeaderCancelled = true;
+              hasWaiters = !decode.mWaiters.isEmpty();
+            }
+            if (hasWaiters) {
+              // the waiting requests take the decode over
+              updateDecodeContext(decode);
+              decode.mLeaderConsumer.onCancellation();
+            } else {
+              BaseProducerContext.callOnCancellationRequested(decode.mContext.cancelNoCallbacks());
+            }
+          }
+
+          @Override
+          public void onIsPrefetchChanged() {
+            updateDecodeContext(decode);
+          }
+
+          @Override
+          public void onPriorityChanged() {
+            updateDecodeContext(decode);
+          }
+
+          @Override
+          public void onIsIntermediateResultExpectedChanged() {
+            updateDecodeContext(decode);
+          }
+        });
+  }
+
+  private void addWaiterCallbacks(final Decode decode, final Waiter waiter) {
+    waiter.mContext.addCallbacks(
+        new BaseProducerContextCallbacks() {
+          @Override
+          public void onCancellationRequested() {
+            final boolean removed;
+            final boolean cancelDecode;
+            synchronized (DecodeFanOutProducer.this) {
+              removed = decode.mWaiters.remove(waiter);
+              cancelDecode = removed && decode.mLeaderCancelled && decode.mWaiters.isEmpty();
+            }
+            if (!removed) {
+              return;
+            }
+            if (cancelDecode) {
+              BaseProducerContext.callOnCancellationRequested(decode.mContext.cancelNoCallbacks());
+            } else {
+              updateDecodeContext(decode);
+            }
+            waiter.mConsumer.onCancellation();
+          }
+
+          @Override
+          public void onIsPrefetchChanged() {
+            updateDecodeContext(decode);
+          }
+
+          @Override
+          public void onPriorityChanged() {
+            updateDecodeContext(decode);
+          }
+
+          @Override
+          public void onIsIntermediateResultExpectedChanged() {
+            updateDecodeContext(decode);
+          }
+        });
+  }
+
+  /** Updates the context of the decode after the requests that wait for it changed. */
+  private void updateDecodeContext(Decode decode) {
+    final List<ProducerContextCallbacks> prefetchCallbacks;
+    final List<ProducerContextCallbacks> priorityCallbacks;
+    final List<ProducerContextCallbacks> intermediateResultsCallbacks;
+    synchronized (this) {
+      boolean isPrefetch = true;
+      Priority priority = Priority.LOW;
+      boolean isIntermediateResultExpected = false;
+      if (!decode.mLeaderCancelled) {
+        isPrefetch = decode.mLeaderContext.isPrefetch();
+        priority = decode.mLeaderContext.getPriority();
+        isIntermediateResultExpected = decode.mLeaderContext.isIntermediateResultExpected();
+      }
+      for (Waiter waiter : decode.mWaiters) {
+        isPrefetch &= waiter.mContext.isPrefetch();
+        priority = Priority.getHigherPriority(priority, waiter.mContext.getPriority());
+        isIntermediateResultExpected |= waiter.mContext.isIntermediateResultExpected();
+      }
+      prefetchCallbacks = decode.mContext.setIsPrefetchNoCallbacks(isPrefetch);
+      priorityCallbacks = decode.mContext.setPriorityNoCallbacks(priority);
+      intermediateResultsCallbacks =
+          decode.mContext.setIsIntermediateResultExpectedNoCallbacks(isIntermediateResultExpected);
+    }
+    BaseProducerContext.callOnIsPrefetchChanged(prefetchCallbacks);
+    BaseProducerContext.callOnPriorityChanged(priorityCallbacks);
+    BaseProducerContext.callOnIsIntermediateResultExpectedChanged(intermediateResultsCallbacks);
+  }
+
+  private synchronized boolean isLeaderCancelled(Decode decode) {
+    return decode.mLeaderCancelled;
+  }
+
+  /** Unregisters the decode, and returns the requests that waited for it. */
+  private synchronized List<Waiter> finish(Decode decode) {
+    final List<Decode> decodes = mDecodes.get(decode.mKey);
+    if (decodes != null && decodes.remove(decode) && decodes.isEmpty()) {
+      mDecodes.remove(decode.mKey);
+    }
+    final List<Waiter> waiters = new ArrayList<>(decode.mWaiters);
+    decode.mWaiters.clear();
+    return waiters;
+  }
+
+  /**
+   * @param isResultCached whether the result went through the bitmap memory cache for the request
+   *     that started the decode
+   */
+  private void fanOut(
+      final List<Waiter> waiters,
+      final CloseableReference<CloseableImage> result,
+      final boolean isResultCached) {
+    if (!CloseableReference.isValid(result) || !(result.get() instanceof CloseableStaticBitmap)) {
+      CloseableReference.closeSafely(result);
+      decodeSeparately(waiters);
+      return;
+    }
+    mExecutor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              for (Waiter waiter : waiters) {
+                deliverDownscaled(waiter, (CloseableStaticBitmap) result.get(), isResultCached);
+              }
+            } finally {
+              CloseableReference.closeSafely(result);
+            }
+          }
+        });
+  }
+
+  private void decodeSeparately(List<Waiter> waiters) {
+    for (Waiter waiter : waiters) {
+      produceResults(waiter.mConsumer, waiter.mContext);
+    }
+  }
+
+  private void deliverDownscaled(
+      Waiter waiter, CloseableStaticBitmap source, boolean isSourceCached) {
+    final ProducerListener2 listener = waiter.mContext.getProducerListener();
+    listener.onProducerStart(waiter.mContext, NAME);
+    CloseableReference<CloseableImage> imageRef = null;
+    try {
+      try {
+        imageRef = downscale(source, waiter.mContext.getImageRequest().getResizeOptions());
+      } catch (Exception e) {
+        listener.onProducerFinishWithFailure(waiter.mContext, NAME, e, null);
+        waiter.mConsumer.onFailure(e);
+        return;
+      }
+      mDecodesSavedCount.incrementAndGet();
+      listener.onProducerFinishWithSuccess(
+          waiter.mContext, NAME, getExtraMap(listener, waiter.mContext, source, imageRef));
+      // the result goes through the bitmap memory cache under the key of the request, so that
+      // later requests of that size hit the cache. A bitmap shared with the cached source would be
+      // counted twice by the cache though
+      final boolean isShared =
+          ((CloseableStaticBitmap) imageRef.get()).getUnderlyingBitmap()
+              == source.getUnderlyingBitmap();
+      waiter.mConsumer.onNewResult(
+          imageRef,
+          isSourceCached && isShared
+              ? Consumer.IS_LAST | Consumer.DO_NOT_CACHE_BITMAP
+              : Consumer.IS_LAST);
+    } finally {
+      CloseableReference.closeSafely(imageRef);
+    }
+  }
+
+  /**
+   * Downscales the source bitmap to the smallest size that covers the resize options, or shares it
+   * if it is not larger than that.
+   */
+  private CloseableReference<CloseableImage> downscale(
+      CloseableStaticBitmap source, ResizeOptions resizeOptions) {
+    final Bitmap sourceBitmap = source.getUnderlyingBitmap();
+    // the resize options apply to the rotated image
+    final boolean isTransposed =
+        source.getRotationAngle() % 180 != 0
+            || source.getExifOrientation() == ExifInterface.ORIENTATION_TRANSPOSE
+            || source.getExifOrientation() == ExifInterface.ORIENTATION_TRANSVERSE;
+    final int width = isTransposed ? sourceBitmap.getHeight() : sourceBitmap.getWidth();
+    final int height = isTransposed ? sourceBitmap.getWidth() : sourceBitmap.getHeight();
+    final float scale =
+        Math.max((float) resizeOptions.width / width, (float) resizeOptions.height / height);
+    if (scale >= 1) {
+      return CloseableReference.<CloseableImage>of(
+          newStaticBitmap(
+              Preconditions.checkNotNull(source.cloneUnderlyingBitmapReference()), source));
+    }
+    final CloseableReference<Bitmap> bitmapRef =
+        mBitmapFactory.createScaledBitmap(
+            sourceBitmap,
+            Math.max(1, Math.round(sourceBitmap.getWidth() * scale)),
+            Math.max(1, Math.round(sourceBitmap.getHeight() * scale)),
+            true);
+    return CloseableReference.<CloseableImage>of(newStaticBitmap(bitmapRef, source));
+  }
+
+  private static CloseableStaticBitmap newStaticBitmap(
+      CloseableReference<Bitmap> bitmapRef, CloseableStaticBitmap source) {
+    try {
+      final CloseableStaticBitmap staticBitmap =
+          new CloseableStaticBitmap(
+              bitmapRef,
+              source.getQualityInfo(),
+              source.getRotationAngle(),
+              source.getExifOrientation());
+      staticBitmap.setOriginalEncodedImageInfo(source.getOriginalEncodedImageInfo());
+      return staticBitmap;
+    } finally {
+      CloseableReference.closeSafely(bitmapRef);
+    }
+  }
+
+  private static @Nullable Map<String, String> getExtraMap(
+      ProducerListener2 listener,
+      ProducerContext context,
+      CloseableStaticBitmap source,
+      CloseableReference<CloseableImage> imageRef) {
+    if (!listener.requiresExtraMap(context, NAME)) {
+      return null;
+    }
+    final CloseableImage image = imageRef.get();
+    return ImmutableMap.of(
+        EXTRA_SOURCE_BITMAP_SIZE,
+        source.getWidth() + "x" + source.getHeight(),
+        EXTRA_BITMAP_SIZE,
+        image.getWidth() + "x" + image.getHeight());
+  }
+
+  /** Whether a decode at the first size can be downscaled to the second one. */
+  private static boolean covers(@Nullable ResizeOptions decoded, ResizeOptions requested) {
+    return decoded == null
+        || (decoded.width >= requested.width && decoded.height >= requested.height);
+  }
+
+  /** Forwards the results of a decode, and shares its final result with the waiting requests. */
+  private class FanOutConsumer
+      extends DelegatingConsumer<
+          CloseableReference<CloseableImage>, CloseableReference<CloseableImage>> {
+
+    private final Decode mDecode;
+
+    FanOutConsumer(Consumer<CloseableReference<CloseableImage>> consumer, Decode decode) {
+      super(consumer);
+      mDecode = decode;
+    }
+
+    @Override
+    protected void onNewResultImpl(
+        @Nullable CloseableReference<CloseableImage> newResult, @Status int status) {
+      // the consumer of a cancelled leader has been notified already
+      final boolean isLeaderCancelled = isLeaderCancelled(mDecode);
+      if (isNotLast(status)) {
+        if (!isLeaderCancelled) {
+          getConsumer().onNewResult(newResult, status);
+        }
+        return;
+      }
+      final List<Waiter> waiters = finish(mDecode);
+      // the result is cloned before it goes up, as the consumers above may close it
+      final CloseableReference<CloseableImage> sharedResult =
+          waiters.isEmpty() ? null : CloseableReference.cloneOrNull(newResult);
+      if (!isLeaderCancelled) {
+        mDecode.mLeaderContext.setEncodedImageOrigin(mDecode.mContext.getEncodedImageOrigin());
+        getConsumer().onNewResult(newResult, status);
+      }
+      if (!waiters.isEmpty()) {
+        fanOut(waiters, sharedResult, !isLeaderCancelled);
+      }
+    }
+
+    @Override
+    protected void onFailureImpl(Throwable t) {
+      final boolean isLeaderCancelled = isLeaderCancelled(mDecode);
+      final List<Waiter> waiters = finish(mDecode);
+      if (!isLeaderCancelled) {
+        getConsumer().onFailure(t);
+      }
+      decodeSeparately(waiters);
+    }
+
+    @Override
+    protected void onCancellationImpl() {
+      final boolean isLeaderCancelled = isLeaderCancelled(mDecode);
+      final List<Waiter> waiters = finish(mDecode);
+      if (!isLeaderCancelled) {
+        getConsumer().onCancellation();
+      }
+      decodeSeparately(waiters);
+    }
+  }
+
+  /** A decode in progress, with the requests that wait for its result. */
+  private static class Decode {
+    private final FanOutKey mKey;
+    private final @Nullable ResizeOptions mResizeOptions;
+    private final Consumer<CloseableReference<CloseableImage>> mLeaderConsumer;
+    private final ProducerContext mLeaderContext;
+    private final BaseProducerContext mContext;
+    private final List<Waiter> mWaiters = new ArrayList<>();
+
+    /** Whether the request that started the decode has been cancelled */
+    @GuardedBy("DecodeFanOutProducer.this")
+    private boolean mLeaderCancelled;
+
+    private Decode(
+        FanOutKey key,
+        @Nullable ResizeOptions resizeOptions,
+        Consumer<CloseableReference<CloseableImage>> leaderConsumer,
+        ProducerContext leaderContext) {
+      mKey = key;
+      mResizeOptions = resizeOptions;
+      mLeaderConsumer = leaderConsumer;
+      mLeaderContext = leaderContext;
+      mContext =
+          new BaseProducerContext(
+              leaderContext.getImageRequest(),
+              leaderContext.getId(),
+              leaderContext.getUiComponentId(),
+              leaderContext.getProducerListener(),
+              leaderContext.getCallerContext(),
+              leaderContext.getLowestPermittedRequestLevel(),
+              leaderContext.isPrefetch(),
+              leaderContext.isIntermediateResultExpected(),
+              leaderContext.getPriority(),
+              leaderContext.getImagePipelineConfig());
+    }
+  }
+
+  private static class Waiter {
+    private final Consumer<CloseableReference<CloseableImage>> mConsumer;
+    private final ProducerContext mContext;
+
+    private Waiter(Consumer<CloseableReference<CloseableImage>> consumer, ProducerContext context) {
+      mConsumer = consumer;
+      mContext = context;
+    }
+  }
+
+  /** Identifies the decodes that differ only by their size. */
+  private static class FanOutKey {
+    private final CacheKey mEncodedCacheKey;
+    private final ImageRequest.RequestLevel mRequestLevel;
+    private final ImageDecodeOptions mImageDecodeOptions;
+    private final RotationOptions mRotationOptions;
+
+    private FanOutKey(
+        CacheKey encodedCacheKey,
+        ImageRequest.RequestLevel requestLevel,
+        ImageDecodeOptions imageDecodeOptions,
+        RotationOptions rotationOptions) {
+      mEncodedCacheKey = encodedCacheKey;
+      mRequestLevel = requestLevel;
+      mImageDecodeOptions = imageDecodeOptions;
+      mRotationOptions = rotationOptions;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof FanOutKey)) {
+        return false;
+      }
+      final FanOutKey that = (FanOutKey) o;
+      return mEncodedCacheKey.equals(that.mEncodedCacheKey)
+          && mRequestLevel == that.mRequestLevel
+          && Objects.equal(mImageDecodeOptions, that.mImageDecodeOptions)
+          && Objects.equal(mRotationOptions, that.mRotationOptions);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(
+          mEncodedCacheKey, mRequestLevel, mImageDecodeOptions, mRotationOptions);
+    }
+  }
+}
@@ -11,6 +11,7 @@ import static com.facebook.imagepipeline.producers.JobScheduler.JobRunnable;
 
 import android.graphics.Bitmap;
 import android.os.Build;
+import android.os.SystemClock;
 import com.facebook.common.internal.ImmutableMap;
 import com.facebook.common.internal.Preconditions;
 import com.facebook.common.logging.FLog;
@@ -21,8 +22,11 @@ import com.facebook.common.util.UriUtil;
 import com.facebook.imageformat.DefaultImageFormats;
 import com.facebook.imageformat.ImageFormat;
 import com.facebook.imagepipeline.common.ImageDecodeOptions;
+import com.facebook.imagepipeline.common.Priority;
 import com.facebook.imagepipeline.common.ResizeOptions;
 import com.facebook.imagepipeline.core.CloseableReferenceFactory;
+import com.facebook.imagepipeline.core.PriorityDecodeExecutor;
+import com.facebook.imagepipeline.decoder.AdaptiveProgressiveJpegConfig;
 import com.facebook.imagepipeline.decoder.DecodeException;
 import com.facebook.imagepipeline.decoder.ImageDecoder;
 import com.facebook.imagepipeline.decoder.ProgressiveJpegConfig;
@@ -65,6 +69,12 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
   public static final String ENCODED_IMAGE_SIZE = ProducerConstants.ENCODED_IMAGE_SIZE;
   public static final String REQUESTED_IMAGE_SIZE = ProducerConstants.REQUESTED_IMAGE_SIZE;
   public static final String SAMPLE_SIZE = ProducerConstants.SAMPLE_SIZE;
+  public static final String EXTRA_JPEG_PARSE_TIME_US = ProducerConstants.EXTRA_JPEG_PARSE_TIME_US;
+  public static final String EXTRA_JPEG_BYTES_SCANNED = ProducerConstants.EXTRA_JPEG_BYTES_SCANNED;
+  public static final String EXTRA_INTERMEDIATE_SCANS_DECODED =
+      ProducerConstants.EXTRA_INTERMEDIATE_SCANS_DECODED;
+  public static final String EXTRA_INTERMEDIATE_SCANS_SKIPPED =
+      ProducerConstants.EXTRA_INTERMEDIATE_SCANS_SKIPPED;
 
   private final ByteArrayPool mByteArrayPool;
   private final Executor mExecutor;
@@ -139,7 +149,7 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
     private final String TAG = "ProgressiveDecoder";
     private static final int DECODE_EXCEPTION_MESSAGE_NUM_HEADER_BYTES = 10;
 
-    private final ProducerContext mProducerContext;
+    protected final ProducerContext mProducerContext;
     private final ProducerListener2 mProducerListener;
     private final ImageDecodeOptions mImageDecodeOptions;
 
@@ -148,6 +158,8 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
 
     private final JobScheduler mJobScheduler;
 
+    private volatile boolean mIsCancellationRequested;
+
     public ProgressiveDecoder(
         final Consumer<CloseableReference<CloseableImage>> consumer,
         final ProducerContext producerContext,
@@ -187,7 +199,27 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
               }
             }
           };
-      mJobScheduler = new JobScheduler(mExecutor, job, mImageDecodeOptions.minDecodeIntervalMs);
+      mJobScheduler =
+          new JobScheduler(
+              mExecutor,
+              job,
+              mImageDecodeOptions.minDecodeIntervalMs,
+              new PriorityDecodeExecutor.Request() {
+                @Override
+                public Priority getPriority() {
+                  return mProducerContext.getPriority();
+                }
+
+                @Override
+                public boolean isPrefetch() {
+                  return mProducerContext.isPrefetch();
+                }
+
+                @Override
+                public boolean isCancelled() {
+                  return mIsCancellationRequested;
+                }
+              });
       mProducerContext.addCallbacks(
           new BaseProducerContextCallbacks() {
             @Override
@@ -199,10 +231,25 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
 
             @Override
             public void onCancellationRequested() {
+              // without decode cancellation the decode still has to deliver its last result
               if (decodeCancellationEnabled) {
+                mIsCancellationRequested = true;
                 handleCancellation();
+                // drop the job first, so that the executor does not schedule it again
+                mJobScheduler.clearJob();
+                mJobScheduler.onRequestChanged();
               }
             }
+
+            @Override
+            public void onPriorityChanged() {
+              mJobScheduler.onRequestChanged();
+            }
+
+            @Override
+            public void onIsPrefetchChanged() {
+              mJobScheduler.onRequestChanged();
+            }
           });
     }
 
@@ -310,6 +357,7 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
                 : getQualityInfo();
 
         mProducerListener.onProducerStart(mProducerContext, PRODUCER_NAME);
+        final long decodeStartTime = SystemClock.uptimeMillis();
         CloseableImage image = null;
         try {
           try {
@@ -345,6 +393,11 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
           handleError(e);
           return;
         }
+        onDecodeFinished(
+            mJobScheduler.getExecutorQueuedTime(),
+            SystemClock.uptimeMillis() - decodeStartTime,
+            image == null ? 0 : (long) image.getWidth() * image.getHeight(),
+            !isLastAndComplete && !isPlaceholder);
         Map<String, String> extraMap =
             getExtraMap(
                 image,
@@ -406,6 +459,7 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1) {
           tmpMap.put(EXTRA_BITMAP_BYTES, bitmap.getByteCount() + "");
         }
+        putExtras(tmpMap);
         return ImmutableMap.copyOf(tmpMap);
       } else {
         final Map<String, String> tmpMap = new HashMap<>(7);
@@ -416,10 +470,23 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
         tmpMap.put(EXTRA_IMAGE_FORMAT_NAME, imageFormatName);
         tmpMap.put(REQUESTED_IMAGE_SIZE, requestImageSize);
         tmpMap.put(SAMPLE_SIZE, sampleSize);
+        putExtras(tmpMap);
         return ImmutableMap.copyOf(tmpMap);
       }
     }
 
+    /** Adds the extras specific to the decoder to the extra map of the decode. */
+    protected void putExtras(Map<String, String> extraMap) {}
+
+    /** Called after each successful decode, before its extras are reported. */
+    protected void onDecodeFinished(
+        long queueTimeMs, long decodeTimeMs, long decodedPixelCount, boolean isIntermediate) {
+      if (mProgressiveJpegConfig instanceof AdaptiveProgressiveJpegConfig) {
+        ((AdaptiveProgressiveJpegConfig) mProgressiveJpegConfig)
+            .onDecodeFinished(queueTimeMs, decodeTimeMs, decodedPixelCount);
+      }
+    }
+
     /** @return true if producer is finished */
     private synchronized boolean isFinished() {
       return mIsFinished;
@@ -504,6 +571,9 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
     private final ProgressiveJpegParser mProgressiveJpegParser;
     private final ProgressiveJpegConfig mProgressiveJpegConfig;
     private int mLastScheduledScanNumber;
+    private int mLastFoundScanNumber;
+    private int mIntermediateScansDecoded;
+    private int mIntermediateScansSkipped;
 
     public NetworkImagesProgressiveDecoder(
         final Consumer<CloseableReference<CloseableImage>> consumer,
@@ -529,16 +599,20 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
           return false;
         }
         int scanNum = mProgressiveJpegParser.getBestScanNumber();
+        final int newScanCount = Math.max(0, scanNum - mLastFoundScanNumber);
+        mLastFoundScanNumber = Math.max(mLastFoundScanNumber, scanNum);
         if (scanNum <= mLastScheduledScanNumber) {
           // We have already decoded this scan, no need to do so again
           return false;
         }
-        if (scanNum < mProgressiveJpegConfig.getNextScanNumberToDecode(mLastScheduledScanNumber)
-            && !mProgressiveJpegParser.isEndMarkerRead()) {
+        if (scanNum < getNextScanNumberToDecode() && !mProgressiveJpegParser.isEndMarkerRead()) {
           // We have not reached the minimum scan set by the configuration and there
           // are still more scans to be read (the end marker is not reached)
+          mIntermediateScansSkipped += newScanCount;
           return false;
         }
+        // the scans found along with the scheduled one are never decoded
+        mIntermediateScansSkipped += Math.max(0, newScanCount - 1);
         mLastScheduledScanNumber = scanNum;
       }
       return ret;
@@ -549,6 +623,41 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
       return mProgressiveJpegParser.getBestScanEndOffset();
     }
 
+    private int getNextScanNumberToDecode() {
+      if (mProgressiveJpegConfig instanceof AdaptiveProgressiveJpegConfig) {
+        return ((AdaptiveProgressiveJpegConfig) mProgressiveJpegConfig)
+            .getNextScanNumberToDecode(
+                mLastScheduledScanNumber,
+                mProducerContext.getPriority(),
+                mProducerContext.isPrefetch());
+      }
+      return mProgressiveJpegConfig.getNextScanNumberToDecode(mLastScheduledScanNumber);
+    }
+
+    @Override
+    protected synchronized void onDecodeFinished(
+        long queueTimeMs, long decodeTimeMs, long decodedPixelCount, boolean isIntermediate) {
+      super.onDecodeFinished(queueTimeMs, decodeTimeMs, decodedPixelCount, isIntermediate);
+      if (isIntermediate) {
+        mIntermediateScansDecoded++;
+      }
+    }
+
+    /** Reports the cost of parsing the scans of the image, and how many of them were decoded. */
+    @Override
+    protected synchronized void putExtras(Map<String, String> extraMap) {
+      if (mProgressiveJpegParser.getParseCallCount() == 0) {
+        return;
+      }
+      extraMap.put(
+          EXTRA_JPEG_PARSE_TIME_US,
+          String.valueOf(mProgressiveJpegParser.getParseTimeNanos() / 1000));
+      extraMap.put(
+          EXTRA_JPEG_BYTES_SCANNED, String.valueOf(mProgressiveJpegParser.getBytesScanned()));
+      extraMap.put(EXTRA_INTERMEDIATE_SCANS_DECODED, String.valueOf(mIntermediateScansDecoded));
+      extraMap.put(EXTRA_INTERMEDIATE_SCANS_SKIPPED, String.valueOf(mIntermediateScansSkipped));
+    }
+
     @Override
     protected QualityInfo getQualityInfo() {
       return mProgressiveJpegConfig.getQualityInfo(mProgressiveJpegParser.getBestScanNumber());
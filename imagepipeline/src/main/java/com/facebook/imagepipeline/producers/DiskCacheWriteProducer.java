@@ -123,9 +123,9 @@ public class DiskCacheWriteProducer implements Producer<EncodedImage> {
           mCacheKeyFactory.getEncodedCacheKey(imageRequest, mProducerContext.getCallerContext());
 
       if (imageRequest.getCacheChoice() == ImageRequest.CacheChoice.SMALL) {
-        mSmallImageBufferedDiskCache.put(cacheKey, newResult);
+        mSmallImageBufferedDiskCache.put(cacheKey, newResult, mProducerContext.getPriority());
       } else {
-        mDefaultBufferedDiskCache.put(cacheKey, newResult);
+        mDefaultBufferedDiskCache.put(cacheKey, newResult, mProducerContext.getPriority());
       }
       mProducerContext
           .getProducerListener()
@@ -12,6 +12,7 @@ import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.common.time.MonotonicClock;
 import com.facebook.common.time.RealtimeSinceBootClock;
 import com.facebook.common.util.UriUtil;
+import com.facebook.imagepipeline.common.BytesRange;
 import com.facebook.imagepipeline.image.EncodedImage;
 import java.io.IOException;
 import java.io.InputStream;
@@ -23,6 +24,7 @@ import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import javax.annotation.Nullable;
 
 /**
  * Network fetcher that uses the simplest Android stack.
@@ -51,7 +53,7 @@ public class HttpUrlConnectionNetworkFetcher
   private static final String IMAGE_SIZE = "image_size";
 
   private static final int NUM_NETWORK_THREADS = 3;
-  private static final int MAX_REDIRECTS = 5;
+  static final int MAX_REDIRECTS = 5;
 
   public static final int HTTP_TEMPORARY_REDIRECT = 307;
   public static final int HTTP_PERMANENT_REDIRECT = 308;
@@ -113,10 +115,15 @@ public class HttpUrlConnectionNetworkFetcher
     HttpURLConnection connection = null;
     InputStream is = null;
     try {
-      connection = downloadFrom(fetchState.getUri(), MAX_REDIRECTS);
+      final BytesRange bytesRange = fetchState.getContext().getImageRequest().getBytesRange();
+      connection =
+          downloadFrom(fetchState.getUri(), bytesRange, mHttpConnectionTimeout, MAX_REDIRECTS);
       fetchState.responseTime = mMonotonicClock.now();
 
       if (connection != null) {
+        if (bytesRange != null && connection.getResponseCode() == HttpURLConnection.HTTP_PARTIAL) {
+          setResponseBytesRange(fetchState, connection.getHeaderField("Content-Range"));
+        }
         is = connection.getInputStream();
         callback.onResponse(is, -1);
       }
@@ -136,9 +143,29 @@ public class HttpUrlConnectionNetworkFetcher
     }
   }
 
-  private HttpURLConnection downloadFrom(Uri uri, int maxRedirects) throws IOException {
+  static void setResponseBytesRange(FetchState fetchState, @Nullable String contentRange)
+      throws IOException {
+    try {
+      final BytesRange responseRange = BytesRange.fromContentRangeHeader(contentRange);
+      if (responseRange != null
+          && !(responseRange.from == 0 && responseRange.to == BytesRange.TO_END_OF_CONTENT)) {
+        // Only treat as a partial image if the range is not all of the content
+        fetchState.setResponseBytesRange(responseRange);
+        fetchState.setOnNewResultStatusFlags(Consumer.IS_PARTIAL_RESULT);
+      }
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Invalid Content-Range header " + contentRange, e);
+    }
+  }
+
+  static HttpURLConnection downloadFrom(
+      Uri uri, @Nullable BytesRange bytesRange, int connectionTimeout, int maxRedirects)
+      throws IOException {
     HttpURLConnection connection = openConnectionTo(uri);
-    connection.setConnectTimeout(mHttpConnectionTimeout);
+    connection.setConnectTimeout(connectionTimeout);
+    if (bytesRange != null) {
+      connection.setRequestProperty("Range", bytesRange.toHttpRangeHeaderValue());
+    }
     int responseCode = connection.getResponseCode();
 
     if (isHttpSuccess(responseCode)) {
@@ -152,7 +179,7 @@ public class HttpUrlConnectionNetworkFetcher
       String originalScheme = uri.getScheme();
 
       if (maxRedirects > 0 && nextUri != null && !nextUri.getScheme().equals(originalScheme)) {
-        return downloadFrom(nextUri, maxRedirects - 1);
+        return downloadFrom(nextUri, bytesRange, connectionTimeout, maxRedirects - 1);
       } else {
         String message =
             maxRedirects == 0
@@ -9,12 +9,14 @@ package com.facebook.imagepipeline.producers;
 
 import android.os.SystemClock;
 import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.imagepipeline.core.PriorityDecodeExecutor;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.instrumentation.FrescoInstrumenter;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 
 /**
@@ -47,6 +49,7 @@ public class JobScheduler {
   private final Runnable mDoJobRunnable;
   private final Runnable mSubmitJobRunnable;
   private final int mMinimumJobIntervalMs;
+  private final @Nullable PriorityDecodeExecutor.Request mRequest;
 
   @VisibleForTesting
   enum JobState {
@@ -79,10 +82,27 @@ public class JobScheduler {
   @VisibleForTesting
   long mJobStartTime;
 
+  @GuardedBy("this")
+  @VisibleForTesting
+  long mJobExecuteTime;
+
   public JobScheduler(Executor executor, JobRunnable jobRunnable, int minimumJobIntervalMs) {
+    this(executor, jobRunnable, minimumJobIntervalMs, null);
+  }
+
+  /**
+   * @param request the request the jobs are run for, which ranks them if the executor is a {@link
+   *     PriorityDecodeExecutor}
+   */
+  public JobScheduler(
+      Executor executor,
+      JobRunnable jobRunnable,
+      int minimumJobIntervalMs,
+      @Nullable PriorityDecodeExecutor.Request request) {
     mExecutor = executor;
     mJobRunnable = jobRunnable;
     mMinimumJobIntervalMs = minimumJobIntervalMs;
+    mRequest = request;
     mDoJobRunnable =
         new Runnable() {
           @Override
@@ -102,6 +122,7 @@ public class JobScheduler {
     mJobState = JobState.IDLE;
     mJobSubmitTime = 0;
     mJobStartTime = 0;
+    mJobExecuteTime = 0;
   }
 
   /**
@@ -200,9 +221,38 @@ public class JobScheduler {
     }
   }
 
+  /**
+   * Lets the executor re-rank the queued job after the priority of the request changed, or drop it
+   * after the request was cancelled.
+   *
+   * <p>A job dropped by the executor never runs, so the scheduler goes back to idle and schedules
+   * the job again if one was set in the meantime.
+   */
+  public void onRequestChanged() {
+    if (mRequest == null
+        || !(mExecutor instanceof PriorityDecodeExecutor)
+        || !((PriorityDecodeExecutor) mExecutor).onRequestChanged(mRequest)) {
+      return;
+    }
+    synchronized (this) {
+      if (mJobState == JobState.QUEUED) {
+        mJobState = JobState.IDLE;
+      }
+    }
+    scheduleJob();
+  }
+
   private void submitJob() {
-    mExecutor.execute(
-        FrescoInstrumenter.decorateRunnable(mDoJobRunnable, "JobScheduler_submitJob"));
+    synchronized (this) {
+      mJobExecuteTime = SystemClock.uptimeMillis();
+    }
+    final Runnable doJobRunnable =
+        FrescoInstrumenter.decorateRunnable(mDoJobRunnable, "JobScheduler_submitJob");
+    if (mRequest != null && mExecutor instanceof PriorityDecodeExecutor) {
+      ((PriorityDecodeExecutor) mExecutor).execute(doJobRunnable, mRequest);
+    } else {
+      mExecutor.execute(doJobRunnable);
+    }
   }
 
   private void doJob() {
@@ -264,4 +314,15 @@ public class JobScheduler {
   public synchronized long getQueuedTime() {
     return mJobStartTime - mJobSubmitTime;
   }
+
+  /**
+   * Gets the time in milliseconds the currently running job waited for the executor, which excludes
+   * the delay that kept it from starting sooner than <code>minimumJobIntervalMs</code> after the
+   * previous one.
+   *
+   * <p>The result is only valid if called from {@link JobRunnable#run}.
+   */
+  public synchronized long getExecutorQueuedTime() {
+    return mJobStartTime - mJobExecuteTime;
+  }
 }
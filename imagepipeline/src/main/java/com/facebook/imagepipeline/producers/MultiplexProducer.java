@@ -15,10 +15,10 @@ import com.facebook.imagepipeline.common.Priority;
 import com.facebook.imagepipeline.systrace.FrescoSystrace;
 import java.io.Closeable;
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
@@ -39,17 +39,16 @@ import javax.annotation.concurrent.ThreadSafe;
 public abstract class MultiplexProducer<K, T extends Closeable> implements Producer<T> {
 
   /**
-   * Map of multiplexers guarded by "this" lock. The lock should be used only to synchronize
-   * accesses to this map. In particular, no callbacks or third party code should be run under
-   * "this" lock.
+   * Concurrent map of multiplexers. No producer-wide lock is taken: a multiplexer is created or
+   * joined atomically with {@link ConcurrentMap#putIfAbsent}, and it is only removed while its own
+   * lock is held, which makes the membership check done by {@link Multiplexer#addNewConsumer}
+   * atomic with respect to the removal.
    *
    * <p>The map might contain entries in progress, entries in progress for which cancellation has
    * been requested and ignored, or cancelled entries for which onCancellation has not been called
    * yet.
    */
-  @GuardedBy("this")
-  @VisibleForTesting
-  final Map<K, Multiplexer> mMultiplexers;
+  @VisibleForTesting final ConcurrentMap<K, Multiplexer> mMultiplexers;
 
   private final Producer<T> mInputProducer;
 
@@ -64,7 +63,7 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
   protected MultiplexProducer(
       Producer<T> inputProducer, String producerName, boolean keepCancelledFetchAsLowPriority) {
     mInputProducer = inputProducer;
-    mMultiplexers = new HashMap<>();
+    mMultiplexers = new ConcurrentHashMap<>();
     mKeepCancelledFetchAsLowPriority = keepCancelledFetchAsLowPriority;
     mProducerName = producerName;
   }
@@ -81,22 +80,22 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
       K key = getKey(context);
       Multiplexer multiplexer;
       boolean createdNewMultiplexer;
-      // We do want to limit scope of this lock to guard only accesses to mMultiplexers map.
-      // However what we would like to do here is to atomically lookup mMultiplexers, add new
-      // consumer to consumers set associated with the map's entry and call consumer's callback with
-      // last intermediate result. We should not do all of those things under this lock.
+      // Lookup and creation are atomic on their own, but adding the new consumer to the
+      // multiplexer and calling its callback with the last intermediate result are not done
+      // atomically with the lookup, and can't be done under a map-wide lock.
       do {
         createdNewMultiplexer = false;
-        synchronized (this) {
-          multiplexer = getExistingMultiplexer(key);
+        multiplexer = getExistingMultiplexer(key);
+        if (multiplexer == null) {
+          Multiplexer newMultiplexer = new Multiplexer(key);
+          multiplexer = mMultiplexers.putIfAbsent(key, newMultiplexer);
           if (multiplexer == null) {
-            multiplexer = createAndPutNewMultiplexer(key);
+            multiplexer = newMultiplexer;
             createdNewMultiplexer = true;
           }
         }
-        // addNewConsumer may call consumer's onNewResult method immediately. For this reason
-        // we release "this" lock. If multiplexer is removed from mMultiplexers in the meantime,
-        // which is not very probable, then addNewConsumer will fail and we will be able to retry.
+        // If multiplexer is removed from mMultiplexers in the meantime, which is not very
+        // probable, then addNewConsumer will fail and we will be able to retry.
       } while (!multiplexer.addNewConsumer(consumer, context));
 
       if (createdNewMultiplexer) {
@@ -109,20 +108,13 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
     }
   }
 
-  protected synchronized Multiplexer getExistingMultiplexer(K key) {
+  protected @Nullable Multiplexer getExistingMultiplexer(K key) {
     return mMultiplexers.get(key);
   }
 
-  private synchronized Multiplexer createAndPutNewMultiplexer(K key) {
-    Multiplexer multiplexer = new Multiplexer(key);
-    mMultiplexers.put(key, multiplexer);
-    return multiplexer;
-  }
-
-  protected synchronized void removeMultiplexer(K key, Multiplexer multiplexer) {
-    if (mMultiplexers.get(key) == multiplexer) {
-      mMultiplexers.remove(key);
-    }
+  /** Removes the multiplexer, if still mapped to the key. Must be called under its lock. */
+  protected void removeMultiplexer(K key, Multiplexer multiplexer) {
+    mMultiplexers.remove(key, multiplexer);
   }
 
   protected abstract K getKey(ProducerContext producerContext);
@@ -17,11 +17,14 @@ import com.facebook.common.references.CloseableReference;
 import com.facebook.imagepipeline.common.BytesRange;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.image.EncodedImageOrigin;
+import com.facebook.imagepipeline.memory.MemoryPooledByteBufferFactory;
 import com.facebook.imagepipeline.systrace.FrescoSystrace;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Map;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 /**
  * A producer to actually fetch images from the network.
@@ -62,41 +65,13 @@ public class NetworkFetchProducer implements Producer<EncodedImage> {
   public void produceResults(Consumer<EncodedImage> consumer, ProducerContext context) {
     context.getProducerListener().onProducerStart(context, PRODUCER_NAME);
     final FetchState fetchState = mNetworkFetcher.createFetchState(consumer, context);
-    mNetworkFetcher.fetch(
-        fetchState,
-        new NetworkFetcher.Callback() {
-          @Override
-          public void onResponse(InputStream response, int responseLength) throws IOException {
-            if (FrescoSystrace.isTracing()) {
-              FrescoSystrace.beginSection("NetworkFetcher->onResponse");
-            }
-            NetworkFetchProducer.this.onResponse(fetchState, response, responseLength);
-            if (FrescoSystrace.isTracing()) {
-              FrescoSystrace.endSection();
-            }
-          }
-
-          @Override
-          public void onFailure(Throwable throwable) {
-            NetworkFetchProducer.this.onFailure(fetchState, throwable);
-          }
-
-          @Override
-          public void onCancellation() {
-            NetworkFetchProducer.this.onCancellation(fetchState);
-          }
-        });
+    mNetworkFetcher.fetch(fetchState, new FetchCallback(fetchState));
   }
 
   protected void onResponse(
       FetchState fetchState, InputStream responseData, int responseContentLength)
       throws IOException {
-    final PooledByteBufferOutputStream pooledOutputStream;
-    if (responseContentLength > 0) {
-      pooledOutputStream = mPooledByteBufferFactory.newOutputStream(responseContentLength);
-    } else {
-      pooledOutputStream = mPooledByteBufferFactory.newOutputStream();
-    }
+    final PooledByteBufferOutputStream pooledOutputStream = newOutputStream(responseContentLength);
     final byte[] ioArray = mByteArrayPool.get(READ_SIZE);
     try {
       int length;
@@ -116,6 +91,27 @@ public class NetworkFetchProducer implements Producer<EncodedImage> {
     }
   }
 
+  protected void onResponseCompleted(
+      FetchState fetchState, PooledByteBufferOutputStream pooledOutputStream) {
+    mNetworkFetcher.onFetchCompletion(fetchState, pooledOutputStream.size());
+    handleFinalResult(pooledOutputStream, fetchState);
+  }
+
+  /**
+   * Creates the stream to write the response to. When the length of the response is known the
+   * stream is allocated upfront. Otherwise it grows as the data arrives, in chunks if the factory
+   * supports it, so that the bytes received so far are not copied whenever it grows.
+   */
+  private PooledByteBufferOutputStream newOutputStream(int responseContentLength) {
+    if (responseContentLength > 0) {
+      return mPooledByteBufferFactory.newOutputStream(responseContentLength);
+    } else if (mPooledByteBufferFactory instanceof MemoryPooledByteBufferFactory) {
+      return ((MemoryPooledByteBufferFactory) mPooledByteBufferFactory).newChunkedOutputStream();
+    } else {
+      return mPooledByteBufferFactory.newOutputStream();
+    }
+  }
+
   protected static float calculateProgress(int downloaded, int total) {
     if (total > 0) {
       return (float) downloaded / total;
@@ -137,22 +133,37 @@ public class NetworkFetchProducer implements Producer<EncodedImage> {
 
   protected void maybeHandleIntermediateResult(
       PooledByteBufferOutputStream pooledOutputStream, FetchState fetchState) {
+    if (shouldHandleIntermediateResult(fetchState)) {
+      handleIntermediateResult(
+          CloseableReference.of(pooledOutputStream.toByteBuffer()), fetchState);
+    }
+  }
+
+  /** Checks whether an intermediate result is due, and if so records that it is handled now. */
+  private boolean shouldHandleIntermediateResult(FetchState fetchState) {
     final long nowMs = SystemClock.uptimeMillis();
     if (shouldPropagateIntermediateResults(fetchState)
         && nowMs - fetchState.getLastIntermediateResultTimeMs()
             >= TIME_BETWEEN_PARTIAL_RESULTS_MS) {
       fetchState.setLastIntermediateResultTimeMs(nowMs);
-      fetchState
-          .getListener()
-          .onProducerEvent(
-              fetchState.getContext(), PRODUCER_NAME, INTERMEDIATE_RESULT_PRODUCER_EVENT);
-      notifyConsumer(
-          pooledOutputStream,
-          fetchState.getOnNewResultStatusFlags(),
-          fetchState.getResponseBytesRange(),
-          fetchState.getConsumer(),
-          fetchState.getContext());
+      return true;
     }
+    return false;
+  }
+
+  /** Passes an intermediate result to the consumer, and closes it. */
+  private static void handleIntermediateResult(
+      CloseableReference<PooledByteBuffer> result, FetchState fetchState) {
+    fetchState
+        .getListener()
+        .onProducerEvent(
+            fetchState.getContext(), PRODUCER_NAME, INTERMEDIATE_RESULT_PRODUCER_EVENT);
+    notifyConsumer(
+        result,
+        fetchState.getOnNewResultStatusFlags(),
+        fetchState.getResponseBytesRange(),
+        fetchState.getConsumer(),
+        fetchState.getContext());
   }
 
   protected void handleFinalResult(
@@ -175,8 +186,21 @@ public class NetworkFetchProducer implements Producer<EncodedImage> {
       @Nullable BytesRange responseBytesRange,
       Consumer<EncodedImage> consumer,
       ProducerContext context) {
-    CloseableReference<PooledByteBuffer> result =
-        CloseableReference.of(pooledOutputStream.toByteBuffer());
+    notifyConsumer(
+        CloseableReference.of(pooledOutputStream.toByteBuffer()),
+        status,
+        responseBytesRange,
+        consumer,
+        context);
+  }
+
+  /** Passes a result to the consumer, and closes it. */
+  private static void notifyConsumer(
+      CloseableReference<PooledByteBuffer> result,
+      @Consumer.Status int status,
+      @Nullable BytesRange responseBytesRange,
+      Consumer<EncodedImage> consumer,
+      ProducerContext context) {
     EncodedImage encodedImage = null;
     try {
       encodedImage = new EncodedImage(result);
@@ -221,4 +245,107 @@ public class NetworkFetchProducer implements Producer<EncodedImage> {
     }
     return mNetworkFetcher.getExtraMap(fetchState, byteSize);
   }
+
+  /**
+   * Callback passed to the fetcher. Responses delivered in byte buffers are accumulated in an
+   * output stream that lives from {@link #onResponseStarted} until the response ends.
+   */
+  private class FetchCallback implements NetworkFetcher.ByteBufferCallback {
+
+    private final FetchState mFetchState;
+
+    @GuardedBy("this")
+    private @Nullable PooledByteBufferOutputStream mOutputStream;
+
+    @GuardedBy("this")
+    private int mResponseContentLength;
+
+    FetchCallback(FetchState fetchState) {
+      mFetchState = fetchState;
+    }
+
+    @Override
+    public void onResponse(InputStream response, int responseLength) throws IOException {
+      if (FrescoSystrace.isTracing()) {
+        FrescoSystrace.beginSection("NetworkFetcher->onResponse");
+      }
+      NetworkFetchProducer.this.onResponse(mFetchState, response, responseLength);
+      if (FrescoSystrace.isTracing()) {
+        FrescoSystrace.endSection();
+      }
+    }
+
+    @Override
+    public synchronized void onResponseStarted(int responseLength) {
+      closeOutputStream();
+      mOutputStream = newOutputStream(responseLength);
+      mResponseContentLength = responseLength;
+    }
+
+    /**
+     * Writes the data to the output stream under the lock of the callback, so that it is not
+     * closed meanwhile, but calls the consumer after releasing it.
+     */
+    @Override
+    public void onResponseData(ByteBuffer data) throws IOException {
+      CloseableReference<PooledByteBuffer> intermediateResult = null;
+      final int size;
+      final int responseContentLength;
+      synchronized (this) {
+        if (mOutputStream == null || !data.hasRemaining()) {
+          return;
+        }
+        mOutputStream.write(data);
+        size = mOutputStream.size();
+        responseContentLength = mResponseContentLength;
+        if (shouldHandleIntermediateResult(mFetchState)) {
+          intermediateResult = CloseableReference.of(mOutputStream.toByteBuffer());
+        }
+      }
+      if (intermediateResult != null) {
+        handleIntermediateResult(intermediateResult, mFetchState);
+      }
+      mFetchState.getConsumer().onProgressUpdate(calculateProgress(size, responseContentLength));
+    }
+
+    @Override
+    public void onResponseCompleted() {
+      final PooledByteBufferOutputStream outputStream;
+      synchronized (this) {
+        outputStream = mOutputStream;
+        mOutputStream = null;
+      }
+      if (outputStream != null) {
+        try {
+          NetworkFetchProducer.this.onResponseCompleted(mFetchState, outputStream);
+        } finally {
+          outputStream.close();
+        }
+      }
+    }
+
+    @Override
+    public void onFailure(Throwable throwable) {
+      synchronized (this) {
+        closeOutputStream();
+      }
+      NetworkFetchProducer.this.onFailure(mFetchState, throwable);
+    }
+
+    @Override
+    public void onCancellation() {
+      synchronized (this) {
+        closeOutputStream();
+      }
+      NetworkFetchProducer.this.onCancellation(mFetchState);
+    }
+
+    @GuardedBy("this")
+    private void closeOutputStream() {
+      if (mOutputStream != null) {
+        mOutputStream.close();
+        mOutputStream = null;
+      }
+    }
+  }
 }
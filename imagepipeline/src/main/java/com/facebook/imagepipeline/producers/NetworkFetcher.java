@@ -10,6 +10,7 @@ package com.facebook.imagepipeline.producers;
 import com.facebook.imagepipeline.image.EncodedImage;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Map;
 import javax.annotation.Nullable;
 
@@ -49,6 +50,36 @@ public interface NetworkFetcher<FETCH_STATE extends FetchState> {
     void onCancellation();
   }
 
+  /**
+   * Callback for network stacks that deliver the response in byte buffers rather than as an
+   * InputStream. The callback passed to {@link #fetch} by {@link NetworkFetchProducer} implements
+   * this interface, and the delivered bytes are copied straight to pooled memory, without going
+   * through an intermediate byte array.
+   *
+   * <p>{@link #onResponseStarted} has to be called before any data, and the response has to be
+   * ended by calling either {@link #onResponseCompleted}, {@link #onFailure} or {@link
+   * #onCancellation}.
+   */
+  interface ByteBufferCallback extends Callback {
+
+    /**
+     * Called when the response starts.
+     *
+     * @param responseLength the length of the data if known, -1 otherwise
+     */
+    void onResponseStarted(int responseLength);
+
+    /**
+     * Called for each part of the response data. The buffer can be reused once this returns.
+     *
+     * @param data the next bytes of the response, between the position and the limit of the buffer
+     */
+    void onResponseData(ByteBuffer data) throws IOException;
+
+    /** Called when all the response data was delivered. */
+    void onResponseCompleted() throws IOException;
+  }
+
   /**
    * Creates a new instance of the {@link FetchState}-derived object used to store state.
    *
@@ -45,6 +45,11 @@ import javax.annotation.Nullable;
  *
  * <p>When the final result comes from the input producer, the two parts are stitched back together
  * and returned as a whole.
+ *
+ * <p>With resumable downloads enabled, the bytes received from the input producer are appended to
+ * the partial entry of the disk cache while the image is downloaded, so that a download that is
+ * cancelled or fails can be resumed by the next request. The remainder is then appended to the
+ * existing entry, and the whole image is read back from it, instead of being merged in memory.
  */
 public class PartialDiskCacheProducer implements Producer<EncodedImage> {
   public static final String PRODUCER_NAME = "PartialDiskCacheProducer";
@@ -56,6 +61,7 @@ public class PartialDiskCacheProducer implements Producer<EncodedImage> {
   private final PooledByteBufferFactory mPooledByteBufferFactory;
   private final ByteArrayPool mByteArrayPool;
   private final Producer<EncodedImage> mInputProducer;
+  private final boolean mResumableDownloadsEnabled;
 
   public PartialDiskCacheProducer(
       BufferedDiskCache defaultBufferedDiskCache,
@@ -63,11 +69,28 @@ public class PartialDiskCacheProducer implements Producer<EncodedImage> {
       PooledByteBufferFactory pooledByteBufferFactory,
       ByteArrayPool byteArrayPool,
       Producer<EncodedImage> inputProducer) {
+    this(
+        defaultBufferedDiskCache,
+        cacheKeyFactory,
+        pooledByteBufferFactory,
+        byteArrayPool,
+        inputProducer,
+        false);
+  }
+
+  public PartialDiskCacheProducer(
+      BufferedDiskCache defaultBufferedDiskCache,
+      CacheKeyFactory cacheKeyFactory,
+      PooledByteBufferFactory pooledByteBufferFactory,
+      ByteArrayPool byteArrayPool,
+      Producer<EncodedImage> inputProducer,
+      boolean resumableDownloadsEnabled) {
     mDefaultBufferedDiskCache = defaultBufferedDiskCache;
     mCacheKeyFactory = cacheKeyFactory;
     mPooledByteBufferFactory = pooledByteBufferFactory;
     mByteArrayPool = byteArrayPool;
     mInputProducer = inputProducer;
+    mResumableDownloadsEnabled = resumableDownloadsEnabled;
   }
 
   public void produceResults(
@@ -136,15 +159,35 @@ public class PartialDiskCacheProducer implements Producer<EncodedImage> {
                       .setBytesRange(BytesRange.from(cachedLength - 1))
                       .build();
               final SettableProducerContext contextForRemainingRequest =
-                  new SettableProducerContext(remainingRequest, producerContext);
-
-              startInputProducer(
-                  consumer, contextForRemainingRequest, partialImageCacheKey, cachedReference);
+                  newInputProducerContext(remainingRequest, producerContext);
+
+              if (mResumableDownloadsEnabled) {
+                // the cached part is read back from the disk cache with the remainder
+                cachedReference.close();
+                startResumableInputProducer(
+                    consumer,
+                    producerContext,
+                    contextForRemainingRequest,
+                    partialImageCacheKey,
+                    cachedLength);
+              } else {
+                startInputProducer(
+                    consumer, contextForRemainingRequest, partialImageCacheKey, cachedReference);
+              }
             }
           } else {
             listener.onProducerFinishWithSuccess(
                 producerContext, PRODUCER_NAME, getExtraMap(listener, producerContext, false, 0));
-            startInputProducer(consumer, producerContext, partialImageCacheKey, cachedReference);
+            if (mResumableDownloadsEnabled) {
+              startResumableInputProducer(
+                  consumer,
+                  producerContext,
+                  newInputProducerContext(producerContext.getImageRequest(), producerContext),
+                  partialImageCacheKey,
+                  0);
+            } else {
+              startInputProducer(consumer, producerContext, partialImageCacheKey, cachedReference);
+            }
           }
         }
         return null;
@@ -169,6 +212,55 @@ public class PartialDiskCacheProducer implements Producer<EncodedImage> {
     mInputProducer.produceResults(consumer, producerContext);
   }
 
+  private void startResumableInputProducer(
+      Consumer<EncodedImage> consumerOfPartialDiskCacheProducer,
+      ProducerContext producerContext,
+      SettableProducerContext inputProducerContext,
+      CacheKey partialImageCacheKey,
+      int cachedLength) {
+    // the intermediate results of the download are what gets persisted, so they are always
+    // requested, and passed on only if the original request expects them
+    inputProducerContext.setIsIntermediateResultExpected(true);
+    Consumer<EncodedImage> consumer =
+        new ResumableDownloadConsumer(
+            consumerOfPartialDiskCacheProducer,
+            mDefaultBufferedDiskCache,
+            partialImageCacheKey,
+            cachedLength,
+            producerContext,
+            inputProducerContext);
+
+    mInputProducer.produceResults(consumer, inputProducerContext);
+  }
+
+  /**
+   * Creates the context of the request sent to the input producer, which follows the cancellation,
+   * priority and prefetch state of the original request.
+   */
+  private static SettableProducerContext newInputProducerContext(
+      ImageRequest imageRequest, final ProducerContext producerContext) {
+    final SettableProducerContext inputProducerContext =
+        new SettableProducerContext(imageRequest, producerContext);
+    producerContext.addCallbacks(
+        new BaseProducerContextCallbacks() {
+          @Override
+          public void onCancellationRequested() {
+            inputProducerContext.cancel();
+          }
+
+          @Override
+          public void onIsPrefetchChanged() {
+            inputProducerContext.setIsPrefetch(producerContext.isPrefetch());
+          }
+
+          @Override
+          public void onPriorityChanged() {
+            inputProducerContext.setPriority(producerContext.getPriority());
+          }
+        });
+    return inputProducerContext;
+  }
+
   private static boolean isTaskCancelled(Task<?> task) {
     return task.isCancelled()
         || (task.isFaulted() && task.getError() instanceof CancellationException);
@@ -335,4 +427,152 @@ public class PartialDiskCacheProducer implements Producer<EncodedImage> {
       }
     }
   }
+
+  /**
+   * Consumer that persists the download of the next producer in the sequence as it goes.
+   *
+   * <p>The intermediate results are appended to the partial entry of the disk cache. An append
+   * rewrites the entry, so it waits for at least {@link #MIN_APPEND_SIZE} new bytes, and for as
+   * many as the entry already has. When the final result is the remainder of a cached partial
+   * image, it is appended to the entry as well, and the whole image is read back from the disk
+   * cache.
+   *
+   * <p>The intermediate results that start at the beginning of the image are passed on to the next
+   * consumer if the original request expects them, so that they can be rendered progressively. The
+   * ones of a remainder miss the cached part of the image, and are not passed on, as without
+   * resumable downloads.
+   */
+  private static class ResumableDownloadConsumer
+      extends DelegatingConsumer<EncodedImage, EncodedImage> {
+
+    private static final int MIN_APPEND_SIZE = 32 * ByteConstants.KB;
+
+    private final BufferedDiskCache mDefaultBufferedDiskCache;
+    private final CacheKey mPartialImageCacheKey;
+    private final ProducerContext mProducerContext;
+    private final ProducerContext mInputProducerContext;
+
+    /** Number of bytes of the partial entry, once the appends already made are written. */
+    private long mEntryLength;
+
+    private ResumableDownloadConsumer(
+        final Consumer<EncodedImage> consumer,
+        final BufferedDiskCache defaultBufferedDiskCache,
+        final CacheKey partialImageCacheKey,
+        final int cachedLength,
+        final ProducerContext producerContext,
+        final ProducerContext inputProducerContext) {
+      super(consumer);
+      mDefaultBufferedDiskCache = defaultBufferedDiskCache;
+      mPartialImageCacheKey = partialImageCacheKey;
+      mProducerContext = producerContext;
+      mInputProducerContext = inputProducerContext;
+      mEntryLength = cachedLength;
+    }
+
+    @Override
+    public void onNewResultImpl(EncodedImage newResult, @Status int status) {
+      if (newResult == null) {
+        if (isLast(status)) {
+          getConsumer().onNewResult(null, status);
+        }
+        return;
+      }
+      final BytesRange responseRange = newResult.getBytesRange();
+      final int responseOffset = responseRange != null ? responseRange.from : 0;
+      final boolean isAppendable =
+          responseOffset <= mEntryLength
+              && (mEntryLength > 0 || newResult.getImageFormat() != ImageFormat.UNKNOWN);
+
+      if (isNotLast(status)) {
+        final long newBytes = responseOffset + newResult.getSize() - mEntryLength;
+        // the entry at least doubles with every append, so that rewriting it stays linear
+        if (isAppendable && newBytes >= Math.max(MIN_APPEND_SIZE, mEntryLength)) {
+          appendToEntry(newResult, responseOffset);
+        }
+        if (responseOffset == 0 && mProducerContext.isIntermediateResultExpected()) {
+          getConsumer().onNewResult(newResult, status);
+        }
+        return;
+      }
+
+      if (responseRange == null && !statusHasFlag(status, IS_PARTIAL_RESULT)) {
+        // the whole image was downloaded, the partial entry is not needed anymore
+        getConsumer().onNewResult(newResult, status);
+        mDefaultBufferedDiskCache.remove(mPartialImageCacheKey);
+      } else if (responseRange != null && isAppendable) {
+        final boolean isComplete = responseRange.to == BytesRange.TO_END_OF_CONTENT;
+        sendEntryToConsumer(appendToEntry(newResult, responseOffset), isComplete);
+      } else {
+        getConsumer().onNewResult(newResult, status);
+      }
+    }
+
+    private Task<Long> appendToEntry(EncodedImage encodedImage, int responseOffset) {
+      final int offset = (int) (mEntryLength - responseOffset);
+      if (offset >= encodedImage.getSize()) {
+        return Task.forResult(mEntryLength);
+      }
+      final Task<Long> appendTask =
+          mDefaultBufferedDiskCache.append(
+              mPartialImageCacheKey, encodedImage, offset, mEntryLength);
+      mEntryLength = responseOffset + encodedImage.getSize();
+      return appendTask;
+    }
+
+    /** Reads the partial entry back once the last append is written, and passes it on. */
+    private void sendEntryToConsumer(Task<Long> lastAppendTask, final boolean isComplete) {
+      final AtomicBoolean isCancelled = new AtomicBoolean(false);
+      lastAppendTask
+          .continueWithTask(
+              new Continuation<Long, Task<EncodedImage>>() {
+                @Override
+                public Task<EncodedImage> then(Task<Long> task) {
+                  if (task.isFaulted()) {
+                    return Task.forError(task.getError());
+                  }
+                  return mDefaultBufferedDiskCache.get(mPartialImageCacheKey, isCancelled);
+                }
+              })
+          .continueWith(
+              new Continuation<EncodedImage, Void>() {
+                @Override
+                public Void then(Task<EncodedImage> task) {
+                  if (isTaskCancelled(task)) {
+                    getConsumer().onCancellation();
+                  } else if (task.isFaulted() || task.getResult() == null) {
+                    final Exception e =
+                        task.isFaulted()
+                            ? task.getError()
+                            : new IOException("Partial disk-cache entry not found");
+                    FLog.e(PRODUCER_NAME, "Error while appending image data", e);
+                    // the entry can't be resumed from, the next request downloads the whole image
+                    mDefaultBufferedDiskCache.remove(mPartialImageCacheKey);
+                    getConsumer().onFailure(e);
+                  } else {
+                    final EncodedImage encodedImage = task.getResult();
+                    try {
+                      encodedImage.parseMetaData();
+                      getConsumer()
+                          .onNewResult(
+                              encodedImage, isComplete ? IS_LAST : IS_LAST | IS_PARTIAL_RESULT);
+                    } finally {
+                      encodedImage.close();
+                    }
+                    if (isComplete) {
+                      mDefaultBufferedDiskCache.remove(mPartialImageCacheKey);
+                    }
+                  }
+                  return null;
+                }
+              });
+      mInputProducerContext.addCallbacks(
+          new BaseProducerContextCallbacks() {
+            @Override
+            public void onCancellationRequested() {
+              isCancelled.set(true);
+            }
+          });
+    }
+  }
 }
@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import android.net.Uri;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.time.MonotonicClock;
+import com.facebook.common.time.RealtimeSinceBootClock;
+import com.facebook.imagepipeline.common.BytesRange;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.image.EncodedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+
+/**
+ * Network fetcher that downloads images over a bounded pool of keep-alive HTTP connections.
+ *
+ * <p>Fetches wait in a queue until a connection is available, and the queued fetch with the
+ * highest {@link Priority} is started first, so that visible images are not delayed by the ones
+ * requested before them. The connections to a single host are limited as well, and they are kept
+ * alive between fetches, so that many images are downloaded over a few connections.
+ *
+ * <p>Every fetch is downloaded on its own: requests for the same image are already coalesced by
+ * the multiplex producers in front of the network producer.
+ */
+public class PooledHttpNetworkFetcher
+    extends BaseNetworkFetcher<PooledHttpNetworkFetcher.PooledHttpNetworkFetchState> {
+
+  public static class PooledHttpNetworkFetchState extends FetchState {
+
+    private long submitTime;
+    private long startTime;
+    private long responseTime;
+    private long fetchCompleteTime;
+
+    public PooledHttpNetworkFetchState(
+        Consumer<EncodedImage> consumer, ProducerContext producerContext) {
+      super(consumer, producerContext);
+    }
+  }
+
+  private static final String QUEUE_TIME = "queue_time";
+  private static final String TIME_TO_FIRST_BYTE = "time_to_first_byte";
+  private static final String FETCH_TIME = "fetch_time";
+  private static final String TOTAL_TIME = "total_time";
+  private static final String IMAGE_SIZE = "image_size";
+
+  public static final int DEFAULT_MAX_CONNECTIONS = 6;
+  public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 4;
+
+  private final int mMaxConnections;
+  private final int mMaxConnectionsPerHost;
+  private final int mHttpConnectionTimeout;
+  private final Executor mExecutor;
+  private final MonotonicClock mMonotonicClock;
+
+  /** The fetches waiting for a connection, in the order they were submitted. */
+  @GuardedBy("this")
+  private final List<Fetch> mPendingFetches = new ArrayList<>();
+
+  @GuardedBy("this")
+  private final Map<String, Integer> mConnectionCountsByHost = new HashMap<>();
+
+  @GuardedBy("this")
+  private int mConnectionCount;
+
+  public PooledHttpNetworkFetcher() {
+    this(
+        DEFAULT_MAX_CONNECTIONS,
+        DEFAULT_MAX_CONNECTIONS_PER_HOST,
+        HttpUrlConnectionNetworkFetcher.HTTP_DEFAULT_TIMEOUT);
+  }
+
+  /**
+   * @param maxConnections the maximum number of images downloaded at the same time
+   * @param maxConnectionsPerHost the maximum number of images downloaded from a single host at the
+   *     same time
+   * @param httpConnectionTimeout the connection timeout in ms
+   */
+  public PooledHttpNetworkFetcher(
+      int maxConnections, int maxConnectionsPerHost, int httpConnectionTimeout) {
+    this(
+        maxConnections,
+        maxConnectionsPerHost,
+        httpConnectionTimeout,
+        Executors.newFixedThreadPool(maxConnections),
+        RealtimeSinceBootClock.get());
+  }
+
+  @VisibleForTesting
+  PooledHttpNetworkFetcher(
+      int maxConnections,
+      int maxConnectionsPerHost,
+      int httpConnectionTimeout,
+      Executor executor,
+      MonotonicClock monotonicClock) {
+    Preconditions.checkArgument(maxConnections > 0);
+    Preconditions.checkArgument(maxConnectionsPerHost > 0);
+    mMaxConnections = maxConnections;
+    mMaxConnectionsPerHost = maxConnectionsPerHost;
+    mHttpConnectionTimeout = httpConnectionTimeout;
+    mExecutor = executor;
+    mMonotonicClock = monotonicClock;
+  }
+
+  @Override
+  public PooledHttpNetworkFetchState createFetchState(
+      Consumer<EncodedImage> consumer, ProducerContext context) {
+    return new PooledHttpNetworkFetchState(consumer, context);
+  }
+
+  @Override
+  public void fetch(final PooledHttpNetworkFetchState fetchState, final Callback callback) {
+    fetchState.submitTime = mMonotonicClock.now();
+    final Fetch fetch = new Fetch(fetchState, callback);
+    synchronized (this) {
+      mPendingFetches.add(fetch);
+    }
+    fetchState
+        .getContext()
+        .addCallbacks(
+            new BaseProducerContextCallbacks() {
+              @Override
+              public void onCancellationRequested() {
+                cancel(fetch);
+              }
+            });
+    startPendingFetches();
+  }
+
+  @Override
+  public void onFetchCompletion(PooledHttpNetworkFetchState fetchState, int byteSize) {
+    fetchState.fetchCompleteTime = mMonotonicClock.now();
+  }
+
+  @Override
+  public Map<String, String> getExtraMap(PooledHttpNetworkFetchState fetchState, int byteSize) {
+    Map<String, String> extraMap = new HashMap<>(5);
+    extraMap.put(QUEUE_TIME, Long.toString(fetchState.startTime - fetchState.submitTime));
+    extraMap.put(
+        TIME_TO_FIRST_BYTE, Long.toString(fetchState.responseTime - fetchState.startTime));
+    extraMap.put(FETCH_TIME, Long.toString(fetchState.fetchCompleteTime - fetchState.responseTime));
+    extraMap.put(TOTAL_TIME, Long.toString(fetchState.fetchCompleteTime - fetchState.submitTime));
+    extraMap.put(IMAGE_SIZE, Integer.toString(byteSize));
+    return extraMap;
+  }
+
+  /** @return the number of fetches waiting for a connection */
+  public synchronized int getPendingFetchCount() {
+    return mPendingFetches.size();
+  }
+
+  /** @return the number of connections that are downloading an image */
+  public synchronized int getConnectionCount() {
+    return mConnectionCount;
+  }
+
+  private void startPendingFetches() {
+    final List<Fetch> fetchesToStart = new ArrayList<>();
+    synchronized (this) {
+      Fetch fetch;
+      while (mConnectionCount < mMaxConnections && (fetch = pollNextFetch()) != null) {
+        mConnectionCount++;
+        mConnectionCountsByHost.put(fetch.host, getConnectionCount(fetch.host) + 1);
+        fetch.isStarted = true;
+        fetchesToStart.add(fetch);
+      }
+    }
+    for (final Fetch fetch : fetchesToStart) {
+      mExecutor.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              runFetch(fetch);
+            }
+          });
+    }
+  }
+
+  /** Removes the pending fetch with the highest priority whose host has a connection available. */
+  @GuardedBy("this")
+  private @Nullable Fetch pollNextFetch() {
+    Fetch nextFetch = null;
+    Priority nextPriority = null;
+    for (Fetch fetch : mPendingFetches) {
+      if (getConnectionCount(fetch.host) >= mMaxConnectionsPerHost) {
+        continue;
+      }
+      final Priority priority = fetch.fetchState.getContext().getPriority();
+      // the earliest fetch wins between fetches of the same priority
+      if (nextFetch == null || priority.ordinal() > nextPriority.ordinal()) {
+        nextFetch = fetch;
+        nextPriority = priority;
+      }
+    }
+    if (nextFetch != null) {
+      mPendingFetches.remove(nextFetch);
+    }
+    return nextFetch;
+  }
+
+  @GuardedBy("this")
+  private int getConnectionCount(String host) {
+    final Integer count = mConnectionCountsByHost.get(host);
+    return count == null ? 0 : count;
+  }
+
+  private synchronized void releaseConnection(Fetch fetch) {
+    mConnectionCount--;
+    final int hostConnectionCount = getConnectionCount(fetch.host) - 1;
+    if (hostConnectionCount == 0) {
+      mConnectionCountsByHost.remove(fetch.host);
+    } else {
+      mConnectionCountsByHost.put(fetch.host, hostConnectionCount);
+    }
+  }
+
+  /**
+   * Cancels a fetch. A queued fetch is removed from the queue, and the connection of a started one
+   * is closed, so that it is not kept alive for the rest of a response nobody reads.
+   */
+  private void cancel(Fetch fetch) {
+    HttpURLConnection connectionToAbort = null;
+    synchronized (this) {
+      if (fetch.isFinished || fetch.isCancelled) {
+        return;
+      }
+      fetch.isCancelled = true;
+      if (fetch.isStarted) {
+        connectionToAbort = fetch.connection;
+      } else {
+        mPendingFetches.remove(fetch);
+      }
+    }
+    fetch.callback.onCancellation();
+    if (connectionToAbort != null) {
+      connectionToAbort.disconnect();
+    }
+  }
+
+  private void runFetch(Fetch fetch) {
+    final PooledHttpNetworkFetchState fetchState = fetch.fetchState;
+    fetchState.startTime = mMonotonicClock.now();
+    final BytesRange bytesRange = fetchState.getContext().getImageRequest().getBytesRange();
+
+    HttpURLConnection connection = null;
+    InputStream is = null;
+    try {
+      connection =
+          HttpUrlConnectionNetworkFetcher.downloadFrom(
+              fetchState.getUri(),
+              bytesRange,
+              mHttpConnectionTimeout,
+              HttpUrlConnectionNetworkFetcher.MAX_REDIRECTS);
+      synchronized (this) {
+        fetch.connection = connection;
+        if (fetch.isCancelled) {
+          connection.disconnect();
+          return;
+        }
+      }
+      fetchState.responseTime = mMonotonicClock.now();
+      if (bytesRange != null && connection.getResponseCode() == HttpURLConnection.HTTP_PARTIAL) {
+        final String contentRange = connection.getHeaderField("Content-Range");
+        if (contentRange != null) {
+          HttpUrlConnectionNetworkFetcher.setResponseBytesRange(fetchState, contentRange);
+        }
+      }
+
+      is = connection.getInputStream();
+      fetch.callback.onResponse(is, connection.getContentLength());
+      // closing the fully read stream keeps the connection alive for the next fetches
+      is.close();
+      is = null;
+    } catch (IOException e) {
+      if (connection != null) {
+        connection.disconnect();
+      }
+      final boolean isCancelled;
+      synchronized (this) {
+        isCancelled = fetch.isCancelled;
+      }
+      // a cancelled fetch was notified when it was cancelled
+      if (!isCancelled) {
+        fetch.callback.onFailure(e);
+      }
+    } finally {
+      synchronized (this) {
+        fetch.isFinished = true;
+      }
+      if (is != null) {
+        try {
+          is.close();
+        } catch (IOException e) {
+          // do nothing and ignore the IOException here
+        }
+      }
+      releaseConnection(fetch);
+      startPendingFetches();
+    }
+  }
+
+  /** A fetch waiting for a connection or being downloaded. Guarded by the fetcher. */
+  private static class Fetch {
+    final PooledHttpNetworkFetchState fetchState;
+    final Callback callback;
+    final String host;
+
+    @Nullable HttpURLConnection connection;
+    boolean isStarted;
+    boolean isFinished;
+    boolean isCancelled;
+
+    Fetch(PooledHttpNetworkFetchState fetchState, Callback callback) {
+      this.fetchState = fetchState;
+      this.callback = callback;
+      final Uri uri = fetchState.getUri();
+      this.host = uri.getHost() == null ? "" : uri.getHost();
+    }
+  }
+}
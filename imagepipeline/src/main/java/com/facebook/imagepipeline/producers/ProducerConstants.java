@@ -27,4 +27,8 @@ class ProducerConstants {
   static final String ENCODED_IMAGE_SIZE = "encodedImageSize";
   static final String REQUESTED_IMAGE_SIZE = "requestedImageSize";
   static final String SAMPLE_SIZE = "sampleSize";
+  static final String EXTRA_JPEG_PARSE_TIME_US = "jpegParseTimeUs";
+  static final String EXTRA_JPEG_BYTES_SCANNED = "jpegBytesScanned";
+  static final String EXTRA_INTERMEDIATE_SCANS_DECODED = "intermediateScansDecoded";
+  static final String EXTRA_INTERMEDIATE_SCANS_SKIPPED = "intermediateScansSkipped";
 }
@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import com.facebook.cache.common.CacheKey;
+import com.facebook.common.internal.ImmutableMap;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.bitmaps.SimpleBitmapReleaser;
+import com.facebook.imagepipeline.cache.CacheKeyFactory;
+import com.facebook.imagepipeline.common.TileOptions;
+import com.facebook.imagepipeline.image.CloseableImage;
+import com.facebook.imagepipeline.image.CloseableStaticBitmap;
+import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.image.ImmutableQualityInfo;
+import com.facebook.imagepipeline.request.ImageRequest;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Decodes a single tile of an encoded image, as requested by the {@link TileOptions} of the image
+ * request, with a {@link BitmapRegionDecoder}.
+ *
+ * <p>Only the region of the tile is decoded, at the sample size of its level, so that images that
+ * are too large to be decoded whole can be displayed by decoding the visible tiles only. The
+ * intermediate results are ignored, and the final encoded image is decoded on the given executor.
+ *
+ * <p>Creating a region decoder parses the header of the image and copies its data, so the decoders
+ * of the last images are kept and shared by the tiles decoded after them.
+ */
+public class TiledDecodeProducer implements Producer<CloseableReference<CloseableImage>> {
+
+  public static final String PRODUCER_NAME = "TiledDecodeProducer";
+
+  // keys for extra map
+  public static final String EXTRA_TILE = "tile";
+  public static final String EXTRA_BITMAP_SIZE = ProducerConstants.EXTRA_BITMAP_SIZE;
+  public static final String EXTRA_SAMPLE_SIZE = ProducerConstants.SAMPLE_SIZE;
+  public static final String EXTRA_REGION_DECODER_REUSED = "regionDecoderReused";
+
+  /** Number of region decoders kept by default. */
+  public static final int DEFAULT_MAX_CACHED_REGION_DECODERS = 2;
+
+  private final Producer<EncodedImage> mInputProducer;
+  private final Executor mExecutor;
+  private final CacheKeyFactory mCacheKeyFactory;
+  private final int mMaxCachedRegionDecoders;
+
+  @GuardedBy("this")
+  private final LinkedHashMap<CacheKey, RegionDecoderReference> mRegionDecoders =
+      new LinkedHashMap<>(16, 0.75f, true);
+
+  public TiledDecodeProducer(
+      Producer<EncodedImage> inputProducer,
+      Executor executor,
+      CacheKeyFactory cacheKeyFactory,
+      int maxCachedRegionDecoders) {
+    Preconditions.checkArgument(maxCachedRegionDecoders >= 0);
+    mInputProducer = Preconditions.checkNotNull(inputProducer);
+    mExecutor = Preconditions.checkNotNull(executor);
+    mCacheKeyFactory = Preconditions.checkNotNull(cacheKeyFactory);
+    mMaxCachedRegionDecoders = maxCachedRegionDecoders;
+  }
+
+  @Override
+  public void produceResults(
+      Consumer<CloseableReference<CloseableImage>> consumer, ProducerContext producerContext) {
+    mInputProducer.produceResults(
+        new TiledDecodeConsumer(consumer, producerContext), producerContext);
+  }
+
+  private class TiledDecodeConsumer
+      extends DelegatingConsumer<EncodedImage, CloseableReference<CloseableImage>> {
+
+    private final ProducerContext mProducerContext;
+
+    TiledDecodeConsumer(
+        Consumer<CloseableReference<CloseableImage>> consumer, ProducerContext producerContext) {
+      super(consumer);
+      mProducerContext = producerContext;
+    }
+
+    @Override
+    protected void onNewResultImpl(@Nullable EncodedImage newResult, @Status int status) {
+      if (isNotLast(status)) {
+        return;
+      }
+      if (!EncodedImage.isValid(newResult)) {
+        getConsumer().onFailure(new IllegalStateException("Encoded image is not valid."));
+        return;
+      }
+      decodeTile(newResult, getConsumer(), mProducerContext);
+    }
+  }
+
+  private void decodeTile(
+      EncodedImage encodedImage,
+      Consumer<CloseableReference<CloseableImage>> consumer,
+      final ProducerContext producerContext) {
+    final ImageRequest imageRequest = producerContext.getImageRequest();
+    final TileOptions tileOptions = Preconditions.checkNotNull(imageRequest.getTileOptions());
+    final CacheKey encodedCacheKey =
+        mCacheKeyFactory.getEncodedCacheKey(imageRequest, producerContext.getCallerContext());
+    final EncodedImage encodedImageCopy = EncodedImage.cloneOrNull(encodedImage);
+    final StatefulProducerRunnable<CloseableReference<CloseableImage>> runnable =
+        new StatefulProducerRunnable<CloseableReference<CloseableImage>>(
+            consumer, producerContext.getProducerListener(), producerContext, PRODUCER_NAME) {
+
+          private boolean mRegionDecoderReused;
+
+          @Override
+          protected CloseableReference<CloseableImage> getResult() throws Exception {
+            RegionDecoderReference regionDecoder = getCachedRegionDecoder(encodedCacheKey);
+            mRegionDecoderReused = regionDecoder != null;
+            if (regionDecoder == null) {
+              regionDecoder =
+                  cacheRegionDecoder(encodedCacheKey, createRegionDecoder(encodedImageCopy));
+            }
+            try {
+              return decodeTile(regionDecoder.decoder, tileOptions, imageRequest);
+            } finally {
+              releaseRegionDecoder(regionDecoder);
+            }
+          }
+
+          @Override
+          protected void disposeResult(CloseableReference<CloseableImage> result) {
+            CloseableReference.closeSafely(result);
+          }
+
+          @Override
+          protected Map<String, String> getExtraMapOnSuccess(
+              CloseableReference<CloseableImage> result) {
+            final CloseableImage image = result.get();
+            return ImmutableMap.of(
+                EXTRA_TILE,
+                tileOptions.toString(),
+                EXTRA_SAMPLE_SIZE,
+                String.valueOf(tileOptions.getSampleSize()),
+                EXTRA_BITMAP_SIZE,
+                image.getWidth() + "x" + image.getHeight(),
+                EXTRA_REGION_DECODER_REUSED,
+                String.valueOf(mRegionDecoderReused));
+          }
+
+          @Override
+          protected void onSuccess(CloseableReference<CloseableImage> result) {
+            EncodedImage.closeSafely(encodedImageCopy);
+            super.onSuccess(result);
+          }
+
+          @Override
+          protected void onFailure(Exception e) {
+            EncodedImage.closeSafely(encodedImageCopy);
+            super.onFailure(e);
+          }
+
+          @Override
+          protected void onCancellation() {
+            EncodedImage.closeSafely(encodedImageCopy);
+            super.onCancellation();
+          }
+        };
+    producerContext.addCallbacks(
+        new BaseProducerContextCallbacks() {
+          @Override
+          public void onCancellationRequested() {
+            runnable.cancel();
+          }
+        });
+    mExecutor.execute(runnable);
+  }
+
+  private static CloseableReference<CloseableImage> decodeTile(
+      BitmapRegionDecoder regionDecoder, TileOptions tileOptions, ImageRequest imageRequest) {
+    final Rect region =
+        tileOptions.getSourceRect(regionDecoder.getWidth(), regionDecoder.getHeight());
+    if (region == null) {
+      throw new IllegalArgumentException(
+          "Tile " + tileOptions + " is outside of the image " + imageRequest.getSourceUri());
+    }
+    final BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inSampleSize = tileOptions.getSampleSize();
+    options.inPreferredConfig = imageRequest.getImageDecodeOptions().bitmapConfig;
+    final Bitmap bitmap = regionDecoder.decodeRegion(region, options);
+    if (bitmap == null) {
+      throw new IllegalStateException("Could not decode tile " + tileOptions);
+    }
+    // the tile keeps the orientation of the encoded image, like its coordinates: rotating every
+    // tile around its own center would break the grid
+    return CloseableReference.<CloseableImage>of(
+        new CloseableStaticBitmap(
+            bitmap, SimpleBitmapReleaser.getInstance(), ImmutableQualityInfo.FULL_QUALITY, 0));
+  }
+
+  private static BitmapRegionDecoder createRegionDecoder(EncodedImage encodedImage)
+      throws IOException {
+    final InputStream inputStream = Preconditions.checkNotNull(encodedImage.getInputStream());
+    try {
+      return BitmapRegionDecoder.newInstance(inputStream, false);
+    } finally {
+      inputStream.close();
+    }
+  }
+
+  private synchronized @Nullable RegionDecoderReference getCachedRegionDecoder(CacheKey key) {
+    final RegionDecoderReference reference = mRegionDecoders.get(key);
+    if (reference != null) {
+      reference.clientCount++;
+    }
+    return reference;
+  }
+
+  /** Keeps the new decoder for the next tiles, evicting the least recently used ones. */
+  private RegionDecoderReference cacheRegionDecoder(CacheKey key, BitmapRegionDecoder decoder) {
+    final RegionDecoderReference reference = new RegionDecoderReference(decoder);
+    reference.clientCount = 1;
+    synchronized (this) {
+      if (mMaxCachedRegionDecoders == 0) {
+        reference.isEvicted = true;
+        return reference;
+      }
+      final RegionDecoderReference previous = mRegionDecoders.put(key, reference);
+      if (previous != null) {
+        evict(previous);
+      }
+      final Iterator<RegionDecoderReference> iterator = mRegionDecoders.values().iterator();
+      while (mRegionDecoders.size() > mMaxCachedRegionDecoders) {
+        evict(iterator.next());
+        iterator.remove();
+      }
+    }
+    return reference;
+  }
+
+  private synchronized void releaseRegionDecoder(RegionDecoderReference reference) {
+    reference.clientCount--;
+    if (reference.clientCount == 0 && reference.isEvicted) {
+      reference.decoder.recycle();
+    }
+  }
+
+  @GuardedBy("this")
+  private void evict(RegionDecoderReference reference) {
+    reference.isEvicted = true;
+    // decoders still in use are recycled by their last client
+    if (reference.clientCount == 0) {
+      reference.decoder.recycle();
+    }
+  }
+
+  private static class RegionDecoderReference {
+    final BitmapRegionDecoder decoder;
+    int clientCount;
+    boolean isEvicted;
+
+    RegionDecoderReference(BitmapRegionDecoder decoder) {
+      this.decoder = decoder;
+    }
+  }
+}
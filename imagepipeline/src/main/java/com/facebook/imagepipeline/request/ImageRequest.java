@@ -28,6 +28,7 @@ import com.facebook.imagepipeline.common.Priority;
 import com.facebook.imagepipeline.common.ResizeOptions;
 import com.facebook.imagepipeline.common.RotationOptions;
 import com.facebook.imagepipeline.common.SourceUriType;
+import com.facebook.imagepipeline.common.TileOptions;
 import com.facebook.imagepipeline.listener.RequestListener;
 import com.facebook.imageutils.BitmapUtil;
 import java.io.File;
@@ -68,6 +69,9 @@ public class ImageRequest {
   /** Range of bytes to request from the network */
   private final @Nullable BytesRange mBytesRange;
 
+  /** tile of the image to decode, or null to decode the whole image */
+  private final @Nullable TileOptions mTileOptions;
+
   /** Priority levels of this request. */
   private final Priority mRequestPriority;
 
@@ -139,6 +143,7 @@ public class ImageRequest {
             ? RotationOptions.autoRotate()
             : builder.getRotationOptions();
     mBytesRange = builder.getBytesRange();
+    mTileOptions = builder.getTileOptions();
 
     mRequestPriority = builder.getRequestPriority();
     mLowestPermittedRequestLevel = builder.getLowestPermittedRequestLevel();
@@ -194,6 +199,11 @@ public class ImageRequest {
     return mBytesRange;
   }
 
+  /** @return the tile of the image to decode, or null if the whole image is decoded */
+  public @Nullable TileOptions getTileOptions() {
+    return mTileOptions;
+  }
+
   public ImageDecodeOptions getImageDecodeOptions() {
     return mImageDecodeOptions;
   }
@@ -270,6 +280,7 @@ public class ImageRequest {
         || !Objects.equal(mBytesRange, request.mBytesRange)
         || !Objects.equal(mImageDecodeOptions, request.mImageDecodeOptions)
         || !Objects.equal(mResizeOptions, request.mResizeOptions)
+        || !Objects.equal(mTileOptions, request.mTileOptions)
         || !Objects.equal(mRequestPriority, request.mRequestPriority)
         || !Objects.equal(mLowestPermittedRequestLevel, request.mLowestPermittedRequestLevel)
         || !Objects.equal(mDecodePrefetches, request.mDecodePrefetches)
@@ -301,6 +312,7 @@ public class ImageRequest {
         mDecodePrefetches,
         mResizeOptions,
         mRotationOptions,
+        mTileOptions,
         postprocessorCacheKey,
         mResizingAllowedOverride,
         mUseMediaStoreVideoThumbnail,
@@ -318,6 +330,7 @@ public class ImageRequest {
         .add("resizeOptions", mResizeOptions)
         .add("rotationOptions", mRotationOptions)
         .add("bytesRange", mBytesRange)
+        .add("tileOptions", mTileOptions)
         .add("resizingAllowedOverride", mResizingAllowedOverride)
         .add("progressiveRenderingEnabled", mProgressiveRenderingEnabled)
         .add("localThumbnailPreviewsEnabled", mLocalThumbnailPreviewsEnabled)
@@ -12,12 +12,14 @@ import static com.facebook.imagepipeline.request.ImageRequest.RequestLevel;
 
 import android.net.Uri;
 import com.facebook.common.internal.Preconditions;
+import com.facebook.common.media.MediaUtils;
 import com.facebook.common.util.UriUtil;
 import com.facebook.imagepipeline.common.BytesRange;
 import com.facebook.imagepipeline.common.ImageDecodeOptions;
 import com.facebook.imagepipeline.common.Priority;
 import com.facebook.imagepipeline.common.ResizeOptions;
 import com.facebook.imagepipeline.common.RotationOptions;
+import com.facebook.imagepipeline.common.TileOptions;
 import com.facebook.imagepipeline.core.ImagePipelineConfig;
 import com.facebook.imagepipeline.core.ImagePipelineExperiments;
 import com.facebook.imagepipeline.listener.RequestListener;
@@ -42,6 +44,7 @@ public class ImageRequestBuilder {
   private @Nullable Boolean mDecodePrefetches = null;
   private @Nullable RequestListener mRequestListener;
   private @Nullable BytesRange mBytesRange = null;
+  private @Nullable TileOptions mTileOptions = null;
   private @Nullable Boolean mResizingAllowedOverride = null;
   private boolean mUseMediaStoreVideoThumbnail = false;
   private boolean mUseMediaStorePhotoThumbnail = false;
@@ -96,6 +99,7 @@ public class ImageRequestBuilder {
         .setResizeOptions(imageRequest.getResizeOptions())
         .setRequestListener(imageRequest.getRequestListener())
         .setRotationOptions(imageRequest.getRotationOptions())
+        .setTileOptions(imageRequest.getTileOptions())
         .setShouldDecodePrefetches(imageRequest.shouldDecodePrefetches());
   }
 
@@ -210,6 +214,28 @@ public class ImageRequestBuilder {
     return mBytesRange;
   }
 
+  /**
+   * Sets the tile of the image to decode, for images too large to be decoded whole, like zoomable
+   * panoramas or document scans. Only the tile is decoded, at the sample size of its level, and it
+   * is cached in the bitmap memory cache on its own. The encoded image is fetched and cached as
+   * usual, and shared by all its tiles.
+   *
+   * <p>Tiles can be requested for network and local file images, and are not resized, rotated or
+   * postprocessed. See {@link TileOptions#getVisibleTiles} for the tiles of a viewport.
+   *
+   * @param tileOptions the tile to decode, or null to decode the whole image
+   * @return the modified builder instance
+   */
+  public ImageRequestBuilder setTileOptions(@Nullable TileOptions tileOptions) {
+    mTileOptions = tileOptions;
+    return this;
+  }
+
+  /** Gets the tile options if set, null otherwise. */
+  public @Nullable TileOptions getTileOptions() {
+    return mTileOptions;
+  }
+
   public ImageRequestBuilder setImageDecodeOptions(ImageDecodeOptions imageDecodeOptions) {
     mImageDecodeOptions = imageDecodeOptions;
     return this;
@@ -445,5 +471,18 @@ public class ImageRequestBuilder {
     if (UriUtil.isLocalAssetUri(mSourceUri) && !mSourceUri.isAbsolute()) {
       throw new BuilderException("Asset URI path must be absolute.");
     }
+
+    if (mTileOptions != null) {
+      if (!UriUtil.isNetworkUri(mSourceUri) && !UriUtil.isLocalFileUri(mSourceUri)) {
+        throw new BuilderException("Tiles can only be decoded from network or local file URIs.");
+      }
+      if (UriUtil.isLocalFileUri(mSourceUri)
+          && MediaUtils.isVideo(MediaUtils.extractMime(mSourceUri.getPath()))) {
+        throw new BuilderException("Tiles can't be decoded from videos.");
+      }
+      if (mPostprocessor != null) {
+        throw new BuilderException("Tiles can't be postprocessed.");
+      }
+    }
   }
 }
@@ -12,42 +12,54 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.same;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
 
 import bolts.Task;
 import com.facebook.binaryresource.BinaryResource;
+import com.facebook.binaryresource.FileBinaryResource;
 import com.facebook.cache.common.CacheKey;
 import com.facebook.cache.common.MultiCacheKey;
 import com.facebook.cache.common.SimpleCacheKey;
 import com.facebook.cache.common.WriterCallback;
+import com.facebook.cache.disk.BatchInsertFileCache;
 import com.facebook.cache.disk.FileCache;
 import com.facebook.common.memory.PooledByteBuffer;
 import com.facebook.common.memory.PooledByteBufferFactory;
 import com.facebook.common.memory.PooledByteStreams;
 import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.common.Priority;
 import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.memory.MappedPooledByteBuffer;
 import com.facebook.imagepipeline.testing.FakeClock;
 import com.facebook.imagepipeline.testing.TestExecutorService;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareOnlyThisForTest;
 import org.powermock.modules.junit4.rule.PowerMockRule;
@@ -59,7 +71,7 @@ import org.robolectric.annotation.Config;
 @PrepareOnlyThisForTest(StagingArea.class)
 @Config(manifest = Config.NONE)
 public class BufferedDiskCacheTest {
-  @Mock public FileCache mFileCache;
+  @Mock public BatchInsertFileCache mFileCache;
   @Mock public PooledByteBufferFactory mByteBufferFactory;
   @Mock public PooledByteStreams mPooledByteStreams;
   @Mock public StagingArea mStagingArea;
@@ -69,6 +81,7 @@ public class BufferedDiskCacheTest {
   @Mock public BinaryResource mBinaryResource;
 
   @Rule public PowerMockRule rule = new PowerMockRule();
+  @Rule public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
 
   private MultiCacheKey mCacheKey;
   private AtomicBoolean mIsCancelled;
@@ -148,6 +161,41 @@ public class BufferedDiskCacheTest {
     assertSame(mPooledByteBuffer, result.getByteBufferRef().get());
   }
 
+  @Test
+  public void testMemoryMapsLargeFiles() throws Exception {
+    BufferedDiskCache bufferedDiskCache =
+        new BufferedDiskCache(
+            mFileCache,
+            mByteBufferFactory,
+            mPooledByteStreams,
+            mReadPriorityExecutor,
+            mWritePriorityExecutor,
+            mImageCacheStatsTracker,
+            4);
+    File smallFile = mTemporaryFolder.newFile();
+    writeFile(smallFile, new byte[] {1, 2, 3});
+    File largeFile = mTemporaryFolder.newFile();
+    writeFile(largeFile, new byte[] {1, 2, 3, 4, 5});
+    when(mFileCache.getResource(eq(mCacheKey)))
+        .thenReturn(FileBinaryResource.createOrNull(largeFile));
+
+    Task<EncodedImage> readTask = bufferedDiskCache.get(mCacheKey, mIsCancelled);
+    mReadPriorityExecutor.runUntilIdle();
+    PooledByteBuffer buffer = readTask.getResult().getByteBufferRef().get();
+    assertTrue(buffer instanceof MappedPooledByteBuffer);
+    assertEquals(5, buffer.size());
+    assertEquals(4, buffer.read(3));
+
+    // smaller files are still copied into a pooled buffer
+    when(mFileCache.getResource(eq(mCacheKey)))
+        .thenReturn(FileBinaryResource.createOrNull(smallFile));
+    when(mByteBufferFactory.newByteBuffer(any(InputStream.class), eq(3)))
+        .thenReturn(mPooledByteBuffer);
+    readTask = bufferedDiskCache.get(mCacheKey, mIsCancelled);
+    mReadPriorityExecutor.runUntilIdle();
+    assertSame(mPooledByteBuffer, readTask.getResult().getByteBufferRef().get());
+  }
+
   @Test
   public void testCacheGetCancellation() throws Exception {
     when(mFileCache.getResource(mCacheKey)).thenReturn(mBinaryResource);
@@ -277,8 +325,168 @@ public class BufferedDiskCacheTest {
     verify(mStagingArea).clearAll();
   }
 
+  @Test
+  public void testWriteBehindWritesInBatches() throws Exception {
+    BufferedDiskCache bufferedDiskCache = newWriteBehindBufferedDiskCache(2, 10);
+    CacheKey key1 = new SimpleCacheKey("http://one.uri");
+    CacheKey key2 = new SimpleCacheKey("http://two.uri");
+    CacheKey key3 = new SimpleCacheKey("http://three.uri");
+    bufferedDiskCache.put(key1, newEncodedImage());
+    bufferedDiskCache.put(key2, newEncodedImage());
+    bufferedDiskCache.put(key3, newEncodedImage());
+    mWritePriorityExecutor.runUntilIdle();
+
+    List<List<CacheKey>> batches = captureInsertedBatches(2);
+    assertEquals(Arrays.asList(key1, key2), batches.get(0));
+    assertEquals(Arrays.asList(key3), batches.get(1));
+    verify(mFileCache, never()).insert(any(CacheKey.class), any(WriterCallback.class));
+    verify(mImageCacheStatsTracker).onDiskCachePut(key1);
+    verify(mImageCacheStatsTracker).onDiskCachePut(key2);
+    verify(mImageCacheStatsTracker).onDiskCachePut(key3);
+  }
+
+  @Test
+  public void testWriteBehindInsertsOneByOneWithoutBatchInsert() throws Exception {
+    FileCache fileCache = mock(FileCache.class);
+    when(fileCache.insert(any(CacheKey.class), any(WriterCallback.class)))
+        .thenReturn(mBinaryResource);
+    BufferedDiskCache bufferedDiskCache =
+        new BufferedDiskCache(
+            fileCache,
+            mByteBufferFactory,
+            mPooledByteStreams,
+            mReadPriorityExecutor,
+            mWritePriorityExecutor,
+            mImageCacheStatsTracker,
+            -1,
+            2,
+            10);
+    CacheKey key1 = new SimpleCacheKey("http://one.uri");
+    CacheKey key2 = new SimpleCacheKey("http://two.uri");
+    bufferedDiskCache.put(key1, newEncodedImage());
+    bufferedDiskCache.put(key2, newEncodedImage());
+    mWritePriorityExecutor.runUntilIdle();
+
+    verify(fileCache).insert(eq(key1), any(WriterCallback.class));
+    verify(fileCache).insert(eq(key2), any(WriterCallback.class));
+    verify(mImageCacheStatsTracker).onDiskCachePut(key1);
+    verify(mImageCacheStatsTracker).onDiskCachePut(key2);
+  }
+
+  @Test
+  public void testWriteBehindCoalescesWritesOfTheSameKey() throws Exception {
+    BufferedDiskCache bufferedDiskCache = newWriteBehindBufferedDiskCache(2, 10);
+    CloseableReference<PooledByteBuffer> replacedReference =
+        CloseableReference.of(mock(PooledByteBuffer.class));
+    bufferedDiskCache.put(mCacheKey, new EncodedImage(replacedReference));
+    bufferedDiskCache.put(mCacheKey, mEncodedImage);
+    // the clone of the replaced image is released right away
+    assertEquals(2, replacedReference.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
+    mWritePriorityExecutor.runUntilIdle();
+
+    List<List<CacheKey>> batches = captureInsertedBatches(1);
+    assertEquals(Arrays.<CacheKey>asList(mCacheKey), batches.get(0));
+    assertEquals(2, mCloseableReference.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
+  }
+
+  @Test
+  public void testWriteBehindKeepsImagesInStagingAreaUntilWritten() throws Exception {
+    BufferedDiskCache bufferedDiskCache = newWriteBehindBufferedDiskCache(2, 10);
+    bufferedDiskCache.put(mCacheKey, mEncodedImage);
+    verify(mStagingArea).put(mCacheKey, mEncodedImage);
+    verify(mStagingArea, never()).remove(any(CacheKey.class), any(EncodedImage.class));
+
+    mWritePriorityExecutor.runUntilIdle();
+    verify(mStagingArea).remove(eq(mCacheKey), any(EncodedImage.class));
+  }
+
+  @Test
+  public void testWriteBehindDropsLowestPriorityWrites() throws Exception {
+    BufferedDiskCache bufferedDiskCache = newWriteBehindBufferedDiskCache(1, 2);
+    CacheKey lowKey = new SimpleCacheKey("http://low.uri");
+    CacheKey highKey = new SimpleCacheKey("http://high.uri");
+    CacheKey mediumKey = new SimpleCacheKey("http://medium.uri");
+    CacheKey otherLowKey = new SimpleCacheKey("http://other.low.uri");
+    bufferedDiskCache.put(lowKey, newEncodedImage(), Priority.LOW);
+    bufferedDiskCache.put(highKey, newEncodedImage(), Priority.HIGH);
+    // the queue is full: the pending low priority write makes room for this one
+    bufferedDiskCache.put(mediumKey, newEncodedImage(), Priority.MEDIUM);
+    verify(mStagingArea).remove(eq(lowKey), any(EncodedImage.class));
+    // ... but this one has a lower priority than all the pending writes
+    bufferedDiskCache.put(otherLowKey, newEncodedImage(), Priority.LOW);
+    verify(mStagingArea).remove(eq(otherLowKey), any(EncodedImage.class));
+    mWritePriorityExecutor.runUntilIdle();
+
+    List<List<CacheKey>> batches = captureInsertedBatches(2);
+    assertEquals(Arrays.asList(highKey), batches.get(0));
+    assertEquals(Arrays.asList(mediumKey), batches.get(1));
+  }
+
+  @Test
+  public void testWriteBehindRemoveDropsPendingWrite() throws Exception {
+    BufferedDiskCache bufferedDiskCache = newWriteBehindBufferedDiskCache(2, 10);
+    bufferedDiskCache.put(mCacheKey, mEncodedImage);
+    bufferedDiskCache.remove(mCacheKey);
+    mWritePriorityExecutor.runUntilIdle();
+
+    verify(mFileCache, never()).insertAll(any(List.class), any(List.class));
+    verify(mFileCache).remove(mCacheKey);
+    assertEquals(2, mCloseableReference.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
+  }
+
+  private BufferedDiskCache newWriteBehindBufferedDiskCache(int batchSize, int maxPendingWrites)
+      throws Exception {
+    when(mFileCache.insertAll(any(List.class), any(List.class)))
+        .thenAnswer(
+            new Answer<List<BinaryResource>>() {
+              @Override
+              public List<BinaryResource> answer(InvocationOnMock invocation) {
+                List<?> keys = (List<?>) invocation.getArguments()[0];
+                List<BinaryResource> resources = new ArrayList<>(keys.size());
+                for (int i = 0; i < keys.size(); i++) {
+                  resources.add(mBinaryResource);
+                }
+                return resources;
+              }
+            });
+    return new BufferedDiskCache(
+        mFileCache,
+        mByteBufferFactory,
+        mPooledByteStreams,
+        mReadPriorityExecutor,
+        mWritePriorityExecutor,
+        mImageCacheStatsTracker,
+        -1,
+        batchSize,
+        maxPendingWrites);
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<List<CacheKey>> captureInsertedBatches(int count) throws Exception {
+    ArgumentCaptor<List> keysCaptor = ArgumentCaptor.forClass(List.class);
+    verify(mFileCache, times(count)).insertAll(keysCaptor.capture(), any(List.class));
+    List<List<CacheKey>> batches = new ArrayList<>();
+    for (List keys : keysCaptor.getAllValues()) {
+      batches.add((List<CacheKey>) keys);
+    }
+    return batches;
+  }
+
+  private static EncodedImage newEncodedImage() {
+    return new EncodedImage(CloseableReference.of(mock(PooledByteBuffer.class)));
+  }
+
   private static boolean isTaskCancelled(Task<?> task) {
     return task.isCancelled()
         || (task.isFaulted() && task.getError() instanceof CancellationException);
   }
+
+  private static void writeFile(File file, byte[] bytes) throws Exception {
+    FileOutputStream os = new FileOutputStream(file);
+    try {
+      os.write(bytes);
+    } finally {
+      os.close();
+    }
+  }
 }
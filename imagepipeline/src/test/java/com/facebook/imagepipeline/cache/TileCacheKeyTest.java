@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import com.facebook.cache.common.CacheKey;
+import com.facebook.imagepipeline.common.ImageDecodeOptions;
+import com.facebook.imagepipeline.common.ResizeOptions;
+import com.facebook.imagepipeline.common.TileOptions;
+import com.facebook.imagepipeline.request.ImageRequest;
+import com.facebook.imagepipeline.request.ImageRequestBuilder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Tests {@link TileCacheKey} and the tile keys of {@link DefaultCacheKeyFactory}. */
+@RunWith(RobolectricTestRunner.class)
+public class TileCacheKeyTest {
+
+  private static final String SOURCE = "http://fb.com/panorama.jpg";
+
+  @Test
+  public void testEqualsAndHashCode() {
+    TileCacheKey key =
+        new TileCacheKey(SOURCE, TileOptions.forTile(1, 2, 3), ImageDecodeOptions.defaults());
+    TileCacheKey sameKey =
+        new TileCacheKey(SOURCE, TileOptions.forTile(1, 2, 3), ImageDecodeOptions.defaults());
+    assertEquals(key, sameKey);
+    assertEquals(key.hashCode(), sameKey.hashCode());
+
+    assertNotEquals(
+        key,
+        new TileCacheKey(
+            "http://fb.com/other.jpg", TileOptions.forTile(1, 2, 3), ImageDecodeOptions.defaults()));
+    assertNotEquals(
+        key, new TileCacheKey(SOURCE, TileOptions.forTile(1, 3, 2), ImageDecodeOptions.defaults()));
+    assertNotEquals(
+        key, new TileCacheKey(SOURCE, TileOptions.forTile(0, 2, 3), ImageDecodeOptions.defaults()));
+    assertNotEquals(
+        key,
+        new TileCacheKey(SOURCE, new TileOptions(1, 2, 3, 256), ImageDecodeOptions.defaults()));
+    assertNotEquals(
+        key,
+        new TileCacheKey(
+            SOURCE,
+            TileOptions.forTile(1, 2, 3),
+            ImageDecodeOptions.newBuilder().setBitmapConfig(Bitmap.Config.RGB_565).build()));
+  }
+
+  @Test
+  public void testContainsUri() {
+    TileCacheKey key =
+        new TileCacheKey(SOURCE, TileOptions.forTile(0, 0, 0), ImageDecodeOptions.defaults());
+    assertEquals(SOURCE, key.getUriString());
+    assertTrue(key.containsUri(Uri.parse(SOURCE)));
+    assertFalse(key.containsUri(Uri.parse("http://fb.com/other.jpg")));
+  }
+
+  @Test
+  public void testDefaultCacheKeyFactoryReturnsTileKeysForTiles() {
+    ImageRequest request =
+        ImageRequestBuilder.newBuilderWithSource(Uri.parse(SOURCE))
+            .setTileOptions(TileOptions.forTile(1, 2, 3))
+            .build();
+    CacheKey key = DefaultCacheKeyFactory.getInstance().getBitmapCacheKey(request, null);
+    assertEquals(
+        new TileCacheKey(SOURCE, TileOptions.forTile(1, 2, 3), ImageDecodeOptions.defaults()),
+        key);
+
+    ImageRequest otherTileRequest =
+        ImageRequestBuilder.fromRequest(request)
+            .setTileOptions(TileOptions.forTile(1, 2, 4))
+            .build();
+    assertNotEquals(
+        key, DefaultCacheKeyFactory.getInstance().getBitmapCacheKey(otherTileRequest, null));
+  }
+
+  @Test
+  public void testDefaultCacheKeyFactoryReturnsBitmapKeysForWholeImages() {
+    ImageRequest request =
+        ImageRequestBuilder.newBuilderWithSource(Uri.parse(SOURCE))
+            .setResizeOptions(ResizeOptions.forDimensions(100, 100))
+            .build();
+    assertTrue(
+        DefaultCacheKeyFactory.getInstance().getBitmapCacheKey(request, null)
+            instanceof BitmapMemoryCacheKey);
+  }
+}
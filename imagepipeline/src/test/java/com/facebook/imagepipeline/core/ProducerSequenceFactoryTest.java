@@ -28,6 +28,7 @@ import com.facebook.common.memory.PooledByteBuffer;
 import com.facebook.common.references.CloseableReference;
 import com.facebook.common.util.UriUtil;
 import com.facebook.imageformat.ImageFormat;
+import com.facebook.imagepipeline.common.TileOptions;
 import com.facebook.imagepipeline.image.CloseableImage;
 import com.facebook.imagepipeline.producers.Producer;
 import com.facebook.imagepipeline.request.ImageRequest;
@@ -86,7 +87,10 @@ public class ProducerSequenceFactoryTest {
             false,
             false,
             true,
-            imageTranscoderFactory);
+            imageTranscoderFactory,
+            false,
+            false,
+            false);
 
     when(mImageRequest.getLowestPermittedRequestLevel())
         .thenReturn(ImageRequest.RequestLevel.FULL_FETCH);
@@ -246,6 +250,33 @@ public class ProducerSequenceFactoryTest {
     assertNotSame(localAssetSequence, localResourceSequence);
   }
 
+  @Test
+  public void testNetworkTileFetch() {
+    PowerMockito.when(mImageRequest.getSourceUriType()).thenReturn(SOURCE_TYPE_NETWORK);
+    when(mImageRequest.getTileOptions()).thenReturn(TileOptions.forTile(0, 0, 0));
+    Producer<CloseableReference<CloseableImage>> producer =
+        mProducerSequenceFactory.getDecodedImageProducerSequence(mImageRequest);
+    assertSame(producer, mProducerSequenceFactory.mNetworkTileFetchSequence);
+    assertNull(mProducerSequenceFactory.mNetworkFetchSequence);
+  }
+
+  @Test
+  public void testLocalImageFileTileFetch() {
+    PowerMockito.when(mImageRequest.getSourceUriType()).thenReturn(SOURCE_TYPE_LOCAL_IMAGE_FILE);
+    when(mImageRequest.getTileOptions()).thenReturn(TileOptions.forTile(0, 0, 0));
+    Producer<CloseableReference<CloseableImage>> producer =
+        mProducerSequenceFactory.getDecodedImageProducerSequence(mImageRequest);
+    assertSame(producer, mProducerSequenceFactory.mLocalImageFileTileFetchSequence);
+    assertNull(mProducerSequenceFactory.mLocalImageFileFetchSequence);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testLocalVideoFileTileFetch() {
+    PowerMockito.when(mImageRequest.getSourceUriType()).thenReturn(SOURCE_TYPE_LOCAL_VIDEO_FILE);
+    when(mImageRequest.getTileOptions()).thenReturn(TileOptions.forTile(0, 0, 0));
+    mProducerSequenceFactory.getDecodedImageProducerSequence(mImageRequest);
+  }
+
   @Test
   public void testPostprocess() {
     PowerMockito.when(mImageRequest.getSourceUriType()).thenReturn(SOURCE_TYPE_NETWORK);
@@ -322,6 +353,9 @@ public class ProducerSequenceFactoryTest {
             /* useBitmapPrepareToDraw */ true,
             false,
             true,
-            imageTranscoderFactory);
+            imageTranscoderFactory,
+            false,
+            false,
+            false);
   }
 }
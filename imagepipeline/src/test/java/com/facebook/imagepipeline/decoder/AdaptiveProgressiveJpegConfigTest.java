@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.decoder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.common.internal.Supplier;
+import com.facebook.imagepipeline.common.Priority;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AdaptiveProgressiveJpegConfigTest {
+
+  private int mQueueDepth;
+  private AdaptiveProgressiveJpegConfig mConfig;
+
+  @Before
+  public void setUp() {
+    mQueueDepth = 0;
+    mConfig =
+        new AdaptiveProgressiveJpegConfig(
+            new SimpleProgressiveJpegConfig(),
+            new Supplier<Integer>() {
+              @Override
+              public Integer get() {
+                return mQueueDepth;
+              }
+            });
+  }
+
+  @Test
+  public void testDecodesEveryScanOfVisibleImagesWhenIdle() {
+    assertEquals(AdaptiveProgressiveJpegConfig.LoadLevel.NORMAL, mConfig.getLoadLevel());
+    assertEquals(1, mConfig.getNextScanNumberToDecode(0, Priority.HIGH, false));
+    assertEquals(4, mConfig.getNextScanNumberToDecode(3, Priority.HIGH, false));
+    assertEquals(4, mConfig.getNextScanNumberToDecode(3, Priority.MEDIUM, false));
+    assertEquals(4, mConfig.getNextScanNumberToDecode(3));
+  }
+
+  @Test
+  public void testSkipsIntermediateScansOfInvisibleImages() {
+    assertEquals(Integer.MAX_VALUE, mConfig.getNextScanNumberToDecode(0, Priority.HIGH, true));
+    assertEquals(Integer.MAX_VALUE, mConfig.getNextScanNumberToDecode(0, Priority.LOW, false));
+  }
+
+  @Test
+  public void testCoalescesScansWhenQueueIsDeep() {
+    mQueueDepth = AdaptiveProgressiveJpegConfig.BUSY_QUEUE_DEPTH + 1;
+
+    assertEquals(AdaptiveProgressiveJpegConfig.LoadLevel.BUSY, mConfig.getLoadLevel());
+    // the first preview is still decoded as soon as possible
+    assertEquals(1, mConfig.getNextScanNumberToDecode(0, Priority.HIGH, false));
+    assertEquals(5, mConfig.getNextScanNumberToDecode(3, Priority.HIGH, false));
+  }
+
+  @Test
+  public void testOnlyDecodesPreviewWhenOverloaded() {
+    mQueueDepth = AdaptiveProgressiveJpegConfig.OVERLOADED_QUEUE_DEPTH + 1;
+
+    assertEquals(AdaptiveProgressiveJpegConfig.LoadLevel.OVERLOADED, mConfig.getLoadLevel());
+    assertEquals(1, mConfig.getNextScanNumberToDecode(0, Priority.HIGH, false));
+    assertEquals(Integer.MAX_VALUE, mConfig.getNextScanNumberToDecode(1, Priority.HIGH, false));
+  }
+
+  @Test
+  public void testAdaptsToDecodeLatency() {
+    for (int i = 0; i < 20; i++) {
+      mConfig.onDecodeFinished(60, 40, 0);
+    }
+    assertTrue(mConfig.getAverageDecodeLatencyMs() > AdaptiveProgressiveJpegConfig.BUSY_LATENCY_MS);
+    assertEquals(AdaptiveProgressiveJpegConfig.LoadLevel.BUSY, mConfig.getLoadLevel());
+
+    for (int i = 0; i < 20; i++) {
+      mConfig.onDecodeFinished(200, 100, 0);
+    }
+    assertEquals(AdaptiveProgressiveJpegConfig.LoadLevel.OVERLOADED, mConfig.getLoadLevel());
+
+    for (int i = 0; i < 40; i++) {
+      mConfig.onDecodeFinished(0, 5, 0);
+    }
+    assertEquals(AdaptiveProgressiveJpegConfig.LoadLevel.NORMAL, mConfig.getLoadLevel());
+  }
+
+  @Test
+  public void testDecodeTimeOfLargeImagesIsNormalized() {
+    // a 12 megapixel image that takes 600ms counts as a megapixel one that takes 50ms
+    mConfig.onDecodeFinished(0, 600, 12 * AdaptiveProgressiveJpegConfig.REFERENCE_PIXEL_COUNT);
+    assertEquals(10, mConfig.getAverageDecodeLatencyMs());
+    assertEquals(AdaptiveProgressiveJpegConfig.LoadLevel.NORMAL, mConfig.getLoadLevel());
+
+    // the time an image waited for a thread is not scaled
+    mConfig.onDecodeFinished(400, 600, 12 * AdaptiveProgressiveJpegConfig.REFERENCE_PIXEL_COUNT);
+    assertEquals(98, mConfig.getAverageDecodeLatencyMs());
+
+    // smaller images are not scaled up
+    mConfig.onDecodeFinished(0, 20, 100 * 100);
+    assertEquals(82, mConfig.getAverageDecodeLatencyMs());
+  }
+
+  @Test
+  public void testKeepsScansOfGivenConfig() {
+    final List<Integer> scansToDecode = Arrays.asList(2, 6, 8);
+    AdaptiveProgressiveJpegConfig config =
+        new AdaptiveProgressiveJpegConfig(
+            new SimpleProgressiveJpegConfig(
+                new SimpleProgressiveJpegConfig.DynamicValueConfig() {
+                  @Override
+                  public List<Integer> getScansToDecode() {
+                    return scansToDecode;
+                  }
+
+                  @Override
+                  public int getGoodEnoughScanNumber() {
+                    return 6;
+                  }
+                }),
+            null);
+
+    assertEquals(2, config.getNextScanNumberToDecode(0, Priority.HIGH, false));
+    assertEquals(6, config.getNextScanNumberToDecode(2, Priority.HIGH, false));
+    assertEquals(Integer.MAX_VALUE, config.getNextScanNumberToDecode(8, Priority.HIGH, false));
+    assertTrue(config.getQualityInfo(6).isOfGoodEnoughQuality());
+  }
+}
@@ -30,6 +30,7 @@ public class ProgressiveJpegParserTest {
 
   @Mock public ResourceReleaser mResourceReleaser;
 
+  private ByteArrayPool mByteArrayPool;
   private ProgressiveJpegParser mProgressiveJpegParser;
   private byte[] mWebpBytes;
   private byte[] mPartialWebpBytes;
@@ -38,9 +39,9 @@ public class ProgressiveJpegParserTest {
   @Before
   public void setUp() throws IOException {
     MockitoAnnotations.initMocks(this);
-    ByteArrayPool byteArrayPool = mock(ByteArrayPool.class);
-    when(byteArrayPool.get(anyInt())).thenReturn(new byte[10]);
-    mProgressiveJpegParser = new ProgressiveJpegParser(byteArrayPool);
+    mByteArrayPool = mock(ByteArrayPool.class);
+    when(mByteArrayPool.get(anyInt())).thenReturn(new byte[10]);
+    mProgressiveJpegParser = new ProgressiveJpegParser(mByteArrayPool);
 
     mJpegBytes =
         ByteStreams.toByteArray(
@@ -114,6 +115,70 @@ public class ProgressiveJpegParserTest {
     testFirstNBytes(mJpegBytes, mJpegBytes.length, true, 10, 32844);
   }
 
+  @Test
+  public void testOnRealJpegReceivedInSmallChunks() {
+    for (int chunkSize : new int[] {13, 1000}) {
+      ProgressiveJpegParser parser = new ProgressiveJpegParser(mByteArrayPool);
+      int scanCount = 0;
+      for (int n = chunkSize; n < mJpegBytes.length + chunkSize; n += chunkSize) {
+        EncodedImage encodedImage =
+            buildEncodedImage(
+                new TrivialPooledByteBuffer(
+                    Arrays.copyOf(mJpegBytes, Math.min(n, mJpegBytes.length))));
+        try {
+          if (parser.parseMoreData(encodedImage)) {
+            scanCount++;
+          }
+        } finally {
+          EncodedImage.closeSafely(encodedImage);
+        }
+      }
+      assertEquals(10, scanCount);
+      assertEquals(10, parser.getBestScanNumber());
+      assertEquals(32844, parser.getBestScanEndOffset());
+      assertTrue(parser.isEndMarkerRead());
+    }
+  }
+
+  @Test
+  public void testOnRealJpegPushedInSmallChunks() {
+    for (int chunkSize : new int[] {1, 7, 1000}) {
+      ProgressiveJpegParser parser = new ProgressiveJpegParser(mByteArrayPool);
+      int scanCount = 0;
+      for (int offset = 0; offset < mJpegBytes.length; offset += chunkSize) {
+        if (parser.parseMoreData(
+            mJpegBytes, offset, Math.min(chunkSize, mJpegBytes.length - offset))) {
+          scanCount++;
+        }
+      }
+      assertEquals(10, scanCount);
+      assertEquals(10, parser.getBestScanNumber());
+      assertEquals(32844, parser.getBestScanEndOffset());
+    }
+  }
+
+  @Test
+  public void testReportsParseCost() {
+    testFirstNBytes(mJpegBytes, 7000, true, 1, 4332);
+    testFirstNBytes(mJpegBytes, mJpegBytes.length, true, 10, 32844);
+
+    assertEquals(2, mProgressiveJpegParser.getParseCallCount());
+    assertTrue(mProgressiveJpegParser.getParseTimeNanos() > 0);
+    // the headers and tables are skipped without being read
+    assertTrue(mProgressiveJpegParser.getBytesScanned() > 0);
+    assertTrue(mProgressiveJpegParser.getBytesScanned() < mJpegBytes.length);
+  }
+
+  @Test
+  public void testDoesNotParseDataTwice() {
+    testFirstNBytes(mJpegBytes, 7000, true, 1, 4332);
+    int bytesScanned = mProgressiveJpegParser.getBytesScanned();
+
+    testFirstNBytes(mJpegBytes, 7000, false, 1, 4332);
+    assertEquals(bytesScanned, mProgressiveJpegParser.getBytesScanned());
+    assertEquals(1, mProgressiveJpegParser.getParseCallCount());
+  }
+
   /**
    * Feeds mProgressiveJpegParser with n initial bytes from byteArray and checks that
    *
@@ -8,6 +8,9 @@
 package com.facebook.imagepipeline.memory;
 
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 import android.util.SparseIntArray;
 import com.facebook.common.internal.ImmutableMap;
@@ -442,6 +445,265 @@ public class BasePoolTest {
     Assert.assertFalse(pool.canAllocate(4));
   }
 
+  // released values are kept by the thread, and still count as used
+  @Test
+  public void testThreadCache_ReuseOnSameThread() throws Exception {
+    mPool = new TestPool(100, 100, makeBucketSizeArray(2, 2, 4, 2), 2, 100);
+    mStats.setPool(mPool);
+
+    byte[] b1 = mPool.get(2);
+    mPool.release(b1);
+    Assert.assertTrue(mPool.mInUseValues.contains(b1));
+    mStats.refresh();
+    Assert.assertEquals(
+        ImmutableMap.of(2, new IntPair(1, 0), 4, new IntPair(0, 0)), mStats.mBucketStats);
+    Assert.assertEquals(2, mStats.mUsedBytes);
+    Assert.assertEquals(0, mStats.mFreeBytes);
+
+    Assert.assertSame(b1, mPool.get(2));
+    // a different size misses the cache
+    byte[] b2 = mPool.get(4);
+    Assert.assertNotSame(b1, b2);
+    mStats.refresh();
+    Assert.assertEquals(6, mStats.mUsedBytes);
+    Assert.assertEquals(2, mStats.mUsedCount);
+  }
+
+  // a thread only gets the values it released itself
+  @Test
+  public void testThreadCache_NotSharedBetweenThreads() throws Exception {
+    mPool = new TestPool(100, 100, makeBucketSizeArray(2, 2), 2, 100);
+    final byte[] b1 = mPool.get(2);
+    mPool.release(b1);
+
+    final byte[][] otherThreadValue = new byte[1][];
+    Thread thread =
+        new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                otherThreadValue[0] = mPool.get(2);
+              }
+            });
+    thread.start();
+    thread.join();
+
+    Assert.assertNotSame(b1, otherThreadValue[0]);
+    Assert.assertSame(b1, mPool.get(2));
+  }
+
+  // the values cached by a thread go back to the pool once the thread has terminated
+  @Test
+  public void testThreadCache_ReleasedWhenThreadTerminates() throws Exception {
+    mPool = new TestPool(100, 100, makeBucketSizeArray(2, 2), 2, 100);
+    mStats.setPool(mPool);
+
+    final byte[][] otherThreadValue = new byte[1][];
+    Thread thread =
+        new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                otherThreadValue[0] = mPool.get(2);
+                mPool.release(otherThreadValue[0]);
+              }
+            });
+    thread.start();
+    thread.join();
+    Assert.assertTrue(mPool.mInUseValues.contains(otherThreadValue[0]));
+
+    // the first access of this thread creates its cache, which drops the one of the dead thread
+    Assert.assertSame(otherThreadValue[0], mPool.get(2));
+    mStats.refresh();
+    Assert.assertEquals(ImmutableMap.of(2, new IntPair(1, 0)), mStats.mBucketStats);
+    Assert.assertEquals(2, mStats.mUsedBytes);
+    Assert.assertEquals(0, mStats.mFreeBytes);
+  }
+
+  // the caches are full after threadCacheLength values of a size, or threadCacheMaxSizeInBytes
+  @Test
+  public void testThreadCache_Limits() throws Exception {
+    mPool = new TestPool(100, 100, makeBucketSizeArray(2, 10, 4, 10), 2, 6);
+    mStats.setPool(mPool);
+
+    byte[] b1 = mPool.get(2);
+    byte[] b2 = mPool.get(2);
+    byte[] b3 = mPool.get(2);
+    byte[] b4 = mPool.get(4);
+    mPool.release(b1);
+    mPool.release(b2);
+    mPool.release(b3);
+    mPool.release(b4);
+
+    mStats.refresh();
+    Assert.assertEquals(
+        ImmutableMap.of(2, new IntPair(2, 1), 4, new IntPair(0, 1)), mStats.mBucketStats);
+    Assert.assertEquals(4, mStats.mUsedBytes);
+    Assert.assertEquals(6, mStats.mFreeBytes);
+  }
+
+  // values aren't cached while the pool is over its soft cap
+  @Test
+  public void testThreadCache_SoftCapExceeded() throws Exception {
+    mPool = new TestPool(4, 10, null, 2, 100);
+    mStats.setPool(mPool);
+
+    byte[] b1 = mPool.get(2);
+    byte[] b2 = mPool.get(4);
+    mPool.release(b1);
+
+    Assert.assertFalse(mPool.mInUseValues.contains(b1));
+    mStats.refresh();
+    Assert.assertEquals(4, mStats.mUsedBytes);
+    Assert.assertEquals(0, mStats.mFreeBytes);
+
+    mPool.release(b2);
+    Assert.assertTrue(mPool.mInUseValues.contains(b2));
+  }
+
+  // trimming the pool also frees the values held by the thread caches
+  @Test
+  public void testThreadCache_Trim() throws Exception {
+    mPool = new TestPool(100, 100, makeBucketSizeArray(2, 2, 4, 2), 2, 100);
+    mStats.setPool(mPool);
+
+    byte[] b1 = mPool.get(2);
+    byte[] b2 = mPool.get(4);
+    mPool.release(b1);
+    mPool.release(b2);
+    mPool.trimToNothing();
+
+    Assert.assertTrue(mPool.mInUseValues.isEmpty());
+    mStats.refresh();
+    Assert.assertEquals(
+        ImmutableMap.of(2, new IntPair(0, 0), 4, new IntPair(0, 0)), mStats.mBucketStats);
+    Assert.assertEquals(0, mStats.mUsedBytes);
+    Assert.assertEquals(0, mStats.mFreeBytes);
+    Assert.assertNotSame(b1, mPool.get(2));
+  }
+
+  // the thread caches are emptied instead of failing an allocation over the hard cap
+  @Test
+  public void testThreadCache_HardCap() throws Exception {
+    mPool = new TestPool(6, 6, null, 2, 100);
+    mStats.setPool(mPool);
+
+    byte[] b1 = mPool.get(2);
+    byte[] b2 = mPool.get(4);
+    mPool.release(b2);
+    Assert.assertTrue(mPool.mInUseValues.contains(b2));
+
+    byte[] b3 = mPool.get(2);
+    Assert.assertNotNull(b3);
+    Assert.assertFalse(mPool.mInUseValues.contains(b2));
+    mStats.refresh();
+    Assert.assertEquals(4, mStats.mUsedBytes);
+    Assert.assertEquals(0, mStats.mFreeBytes);
+  }
+
+  // releasing a cached value again must not cache it twice
+  @Test
+  public void testThreadCache_ReleasedTwice() throws Exception {
+    mPool = new TestPool(100, 100, makeBucketSizeArray(2, 2), 2, 100);
+
+    byte[] b1 = mPool.get(2);
+    mPool.release(b1);
+    mPool.release(b1);
+
+    Assert.assertSame(b1, mPool.get(2));
+    Assert.assertNotSame(b1, mPool.get(2));
+  }
+
+  // a value cached by a thread and released again by another one is not handed out twice
+  @Test
+  public void testThreadCache_ReleasedTwiceFromAnotherThread() throws Exception {
+    mPool = new TestPool(100, 100, makeBucketSizeArray(2, 2), 2, 100);
+    final byte[] b1 = mPool.get(2);
+    mPool.release(b1);
+
+    final byte[][] otherThreadValue = new byte[1][];
+    Thread thread =
+        new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                mPool.release(b1);
+                otherThreadValue[0] = mPool.get(2);
+              }
+            });
+    thread.start();
+    thread.join();
+
+    Assert.assertNotSame(b1, otherThreadValue[0]);
+    Assert.assertSame(b1, mPool.get(2));
+  }
+
+  // values that weren't allocated by the pool are freed instead of being cached
+  @Test
+  public void testThreadCache_UnknownValue() throws Exception {
+    mPool = new TestPool(100, 100, makeBucketSizeArray(2, 2), 2, 100);
+    byte[] unknown = new byte[2];
+    mPool.release(unknown);
+
+    Assert.assertNotSame(unknown, mPool.get(2));
+  }
+
+  // reuses and releases through the thread cache are reported like the ones of the buckets
+  @Test
+  public void testThreadCache_Stats() throws Exception {
+    PoolStatsTracker poolStatsTracker = mock(PoolStatsTracker.class);
+    mPool = new TestPool(100, 100, makeBucketSizeArray(2, 2), 2, 100, poolStatsTracker);
+
+    byte[] b1 = mPool.get(2);
+    mPool.release(b1);
+    // the release is tracked by the flush that checks the value before it is handed out again
+    Assert.assertSame(b1, mPool.get(2));
+    verify(poolStatsTracker).onValueRelease(2);
+    verify(poolStatsTracker, never()).onValueReuse(2);
+
+    // the reuse and the second release by the flush of the trim, and giving the cached value back
+    // to the pool doesn't count as another release
+    mPool.release(b1);
+    mPool.trimToNothing();
+    verify(poolStatsTracker).onValueReuse(2);
+    verify(poolStatsTracker, times(2)).onValueRelease(2);
+  }
+
+  // concurrent gets and releases keep the accounting of the pool consistent
+  @Test
+  public void testThreadCache_Concurrent() throws Exception {
+    mPool = new TestPool(1000, 1000, makeBucketSizeArray(2, 100, 4, 100, 6, 100), 4, 20);
+    mStats.setPool(mPool);
+
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] =
+          new Thread(
+              new Runnable() {
+                @Override
+                public void run() {
+                  for (int i = 0; i < 10000; i++) {
+                    byte[] b1 = mPool.get(2 + 2 * (i % 3));
+                    byte[] b2 = mPool.get(2);
+                    mPool.release(b1);
+                    mPool.release(b2);
+                  }
+                }
+              });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    mPool.trimToNothing();
+
+    Assert.assertTrue(mPool.mInUseValues.isEmpty());
+    mStats.refresh();
+    Assert.assertEquals(0, mStats.mUsedBytes);
+    Assert.assertEquals(0, mStats.mUsedCount);
+    Assert.assertEquals(0, mStats.mFreeBytes);
+  }
+
   /**
    * A simple test pool that allocates byte arrays, and always allocates buffers of double the size
    * requested
@@ -454,14 +716,56 @@ public class BasePoolTest {
     }
 
     public TestPool(int maxPoolSizeSoftCap, int maxPoolSizeHardCap, SparseIntArray bucketSizes) {
+      this(maxPoolSizeSoftCap, maxPoolSizeHardCap, bucketSizes, 0, 0);
+    }
+
+    public TestPool(
+        int maxPoolSizeSoftCap,
+        int maxPoolSizeHardCap,
+        SparseIntArray bucketSizes,
+        int threadCacheLength,
+        int threadCacheMaxSizeInBytes) {
+      this(
+          maxPoolSizeSoftCap,
+          maxPoolSizeHardCap,
+          bucketSizes,
+          threadCacheLength,
+          threadCacheMaxSizeInBytes,
+          mock(PoolStatsTracker.class));
+    }
+
+    public TestPool(
+        int maxPoolSizeSoftCap,
+        int maxPoolSizeHardCap,
+        SparseIntArray bucketSizes,
+        int threadCacheLength,
+        int threadCacheMaxSizeInBytes,
+        PoolStatsTracker poolStatsTracker) {
       super(
           mock(MemoryTrimmableRegistry.class),
-          new PoolParams(maxPoolSizeSoftCap, maxPoolSizeHardCap, bucketSizes),
-          mock(PoolStatsTracker.class));
+          makePoolParams(
+              maxPoolSizeSoftCap,
+              maxPoolSizeHardCap,
+              bucketSizes,
+              threadCacheLength,
+              threadCacheMaxSizeInBytes),
+          poolStatsTracker);
       mIsReusable = true;
       initialize();
     }
 
+    private static PoolParams makePoolParams(
+        int maxPoolSizeSoftCap,
+        int maxPoolSizeHardCap,
+        SparseIntArray bucketSizes,
+        int threadCacheLength,
+        int threadCacheMaxSizeInBytes) {
+      PoolParams poolParams = new PoolParams(maxPoolSizeSoftCap, maxPoolSizeHardCap, bucketSizes);
+      poolParams.threadCacheLength = threadCacheLength;
+      poolParams.threadCacheMaxSizeInBytes = threadCacheMaxSizeInBytes;
+      return poolParams;
+    }
+
     @Override
     protected byte[] alloc(int bucketedSize) {
       return new byte[bucketedSize];
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.common.memory.PooledByteBuffer;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Basic tests for {@link MappedPooledByteBuffer} */
+@RunWith(RobolectricTestRunner.class)
+public class MappedPooledByteBufferTest {
+  private static final byte[] BYTES = new byte[] {1, 4, 5, 0, 100, 34, 0, 1, -1, -1};
+
+  @Rule public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+  private File mFile;
+  private MappedPooledByteBuffer mPooledByteBuffer;
+
+  @Before
+  public void setUp() throws IOException {
+    mFile = mTemporaryFolder.newFile();
+    FileOutputStream os = new FileOutputStream(mFile);
+    try {
+      os.write(BYTES);
+    } finally {
+      os.close();
+    }
+    mPooledByteBuffer = MappedPooledByteBuffer.map(mFile);
+  }
+
+  @Test
+  public void testBasic() {
+    assertFalse(mPooledByteBuffer.isClosed());
+    assertEquals(BYTES.length, mPooledByteBuffer.size());
+    assertTrue(mPooledByteBuffer.getByteBuffer().isReadOnly());
+  }
+
+  @Test
+  public void testRead() {
+    for (int i = 0; i < BYTES.length; i++) {
+      assertEquals(BYTES[i], mPooledByteBuffer.read(i));
+    }
+  }
+
+  @Test
+  public void testReadBytes() {
+    byte[] bytes = new byte[6];
+    assertEquals(4, mPooledByteBuffer.read(2, bytes, 1, 4));
+    assertArrayEquals(new byte[] {0, 5, 0, 100, 34, 0}, bytes);
+
+    // reads are truncated at the end of the buffer
+    assertEquals(3, mPooledByteBuffer.read(7, bytes, 0, 6));
+    assertArrayEquals(new byte[] {1, -1, -1, 100, 34, 0}, bytes);
+  }
+
+  @Test
+  public void testReadBytesDoesNotMoveTheByteBuffer() {
+    mPooledByteBuffer.read(2, new byte[4], 0, 4);
+
+    assertEquals(0, mPooledByteBuffer.getByteBuffer().position());
+    assertEquals(BYTES.length, mPooledByteBuffer.getByteBuffer().remaining());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testReadOutOfBounds() {
+    mPooledByteBuffer.read(BYTES.length);
+  }
+
+  @Test
+  public void testMappingSurvivesFileDeletion() {
+    assertTrue(mFile.delete());
+    assertEquals(BYTES[4], mPooledByteBuffer.read(4));
+  }
+
+  @Test
+  public void testEmptyFile() throws IOException {
+    MappedPooledByteBuffer pooledByteBuffer =
+        MappedPooledByteBuffer.map(mTemporaryFolder.newFile());
+    assertEquals(0, pooledByteBuffer.size());
+    assertEquals(0, pooledByteBuffer.read(0, new byte[1], 0, 1));
+  }
+
+  @Test
+  public void testClose() {
+    mPooledByteBuffer.close();
+    assertTrue(mPooledByteBuffer.isClosed());
+    // closing twice is fine
+    mPooledByteBuffer.close();
+  }
+
+  @Test(expected = PooledByteBuffer.ClosedException.class)
+  public void testSizeAfterClose() {
+    mPooledByteBuffer.close();
+    mPooledByteBuffer.size();
+  }
+
+  @Test(expected = PooledByteBuffer.ClosedException.class)
+  public void testReadAfterClose() {
+    mPooledByteBuffer.close();
+    mPooledByteBuffer.read(0);
+  }
+}
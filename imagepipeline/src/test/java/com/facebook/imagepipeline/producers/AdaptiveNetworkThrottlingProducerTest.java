@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.common.memory.PooledByteBuffer;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.listener.ForwardingRequestListener2;
+import com.facebook.imagepipeline.request.ImageRequest;
+import com.facebook.imagepipeline.testing.FakeClock;
+import com.facebook.imagepipeline.testing.TrivialPooledByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class AdaptiveNetworkThrottlingProducerTest {
+
+  private static final Executor DIRECT_EXECUTOR =
+      new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+          runnable.run();
+        }
+      };
+
+  private FakeClock mFakeClock;
+  private List<Fetch> mFetches;
+  private Producer<EncodedImage> mInputProducer;
+  private List<String> mFinishedRequests;
+
+  @Before
+  public void setUp() {
+    mFakeClock = new FakeClock();
+    mFetches = new ArrayList<>();
+    mFinishedRequests = new ArrayList<>();
+    mInputProducer =
+        new Producer<EncodedImage>() {
+          @Override
+          public void produceResults(Consumer<EncodedImage> consumer, ProducerContext context) {
+            mFetches.add(new Fetch(consumer, context));
+          }
+        };
+  }
+
+  @Test
+  public void testLimitsSimultaneousFetches() {
+    AdaptiveNetworkThrottlingProducer producer = newProducer(1, 2, 4);
+    request(producer, "a", Priority.HIGH, false);
+    request(producer, "b", Priority.HIGH, false);
+    request(producer, "c", Priority.HIGH, false);
+
+    assertEquals(2, mFetches.size());
+    assertEquals(2, producer.getRunningRequestCount());
+    assertEquals(1, producer.getPendingRequestCount());
+
+    finish(mFetches.get(0), 10, 10);
+
+    assertEquals(3, mFetches.size());
+    assertEquals("c", mFetches.get(2).context.getId());
+    assertEquals(0, producer.getPendingRequestCount());
+  }
+
+  @Test
+  public void testStartsVisibleRequestsFirst() {
+    AdaptiveNetworkThrottlingProducer producer = newProducer(1, 1, 1);
+    request(producer, "first", Priority.LOW, false);
+    request(producer, "prefetch", Priority.HIGH, true);
+    request(producer, "low", Priority.LOW, false);
+    request(producer, "high", Priority.HIGH, false);
+    request(producer, "medium", Priority.MEDIUM, false);
+
+    for (int i = 0; i < 5; i++) {
+      finish(mFetches.get(i), 10, 10);
+    }
+
+    assertEquals("first", mFetches.get(0).context.getId());
+    assertEquals("high", mFetches.get(1).context.getId());
+    assertEquals("medium", mFetches.get(2).context.getId());
+    assertEquals("low", mFetches.get(3).context.getId());
+    assertEquals("prefetch", mFetches.get(4).context.getId());
+  }
+
+  @Test
+  public void testIncreasesLimitWhileLatencyIsStable() {
+    AdaptiveNetworkThrottlingProducer producer = newProducer(1, 2, 4);
+
+    // each fetch grows the limit by 1 / limit: 2, 2.5, 2.9, 3.24
+    for (int i = 0; i < 3; i++) {
+      request(producer, "image" + i, Priority.HIGH, false);
+      finish(mFetches.get(i), 10, 10);
+    }
+
+    assertEquals(3, producer.getConcurrencyLimit());
+    assertFalse(producer.isCongested());
+    assertEquals(10f, producer.getLatencyMs(), 0.01f);
+    assertEquals(100000f, producer.getThroughputBytesPerSecond(), 0.01f);
+  }
+
+  @Test
+  public void testHalvesLimitWhenLatencyGrows() {
+    AdaptiveNetworkThrottlingProducer producer = newProducer(1, 4, 8);
+    request(producer, "fast", Priority.HIGH, false);
+    finish(mFetches.get(0), 10, 10);
+    assertEquals(4, producer.getConcurrencyLimit());
+
+    for (int i = 1; i <= 4; i++) {
+      request(producer, "slow" + i, Priority.HIGH, false);
+    }
+    finish(mFetches.get(1), 400, 10);
+
+    assertTrue(producer.isCongested());
+    assertEquals(2, producer.getConcurrencyLimit());
+
+    // fetches started before the decrease don't decrease the limit again
+    finish(mFetches.get(2), 400, 10);
+    assertEquals(2, producer.getConcurrencyLimit());
+  }
+
+  @Test
+  public void testHalvesLimitOnFailure() {
+    AdaptiveNetworkThrottlingProducer producer = newProducer(1, 4, 8);
+    request(producer, "a", Priority.HIGH, false);
+
+    mFetches.get(0).consumer.onFailure(new RuntimeException());
+
+    assertEquals(2, producer.getConcurrencyLimit());
+    assertEquals(0, producer.getRunningRequestCount());
+  }
+
+  @Test
+  public void testDefersPrefetchesWhileCongested() {
+    AdaptiveNetworkThrottlingProducer producer = newProducer(2, 4, 8);
+    request(producer, "fast", Priority.HIGH, false);
+    finish(mFetches.get(0), 10, 10);
+    request(producer, "slow1", Priority.HIGH, false);
+    request(producer, "slow2", Priority.HIGH, false);
+    finish(mFetches.get(1), 400, 10);
+    assertTrue(producer.isCongested());
+
+    request(producer, "prefetch", Priority.HIGH, true);
+    assertEquals(3, mFetches.size());
+    assertEquals(1, producer.getPendingRequestCount());
+
+    finish(mFetches.get(2), 400, 10);
+    assertEquals(4, mFetches.size());
+    assertEquals("prefetch", mFetches.get(3).context.getId());
+  }
+
+  @Test
+  public void testCancelsPendingRequest() {
+    AdaptiveNetworkThrottlingProducer producer = newProducer(1, 1, 1);
+    request(producer, "a", Priority.HIGH, false);
+    SettableProducerContext context = request(producer, "b", Priority.HIGH, false);
+
+    context.cancel();
+
+    assertEquals(0, producer.getPendingRequestCount());
+    assertEquals(1, mFinishedRequests.size());
+    assertEquals("b:cancelled", mFinishedRequests.get(0));
+    finish(mFetches.get(0), 10, 10);
+    assertEquals(1, mFetches.size());
+  }
+
+  private AdaptiveNetworkThrottlingProducer newProducer(
+      int minConcurrency, int initialConcurrency, int maxConcurrency) {
+    return new AdaptiveNetworkThrottlingProducer(
+        minConcurrency,
+        initialConcurrency,
+        maxConcurrency,
+        DIRECT_EXECUTOR,
+        mFakeClock,
+        mInputProducer);
+  }
+
+  private SettableProducerContext request(
+      AdaptiveNetworkThrottlingProducer producer,
+      final String id,
+      Priority priority,
+      boolean isPrefetch) {
+    SettableProducerContext context =
+        new SettableProducerContext(
+            ImageRequest.fromUri("http://fb.com/" + id + ".jpg"),
+            id,
+            new ForwardingRequestListener2(),
+            null,
+            ImageRequest.RequestLevel.FULL_FETCH,
+            isPrefetch,
+            true,
+            priority,
+            null);
+    producer.produceResults(
+        new BaseConsumer<EncodedImage>() {
+          @Override
+          protected void onNewResultImpl(EncodedImage newResult, @Status int status) {
+            mFinishedRequests.add(id + ":finished");
+          }
+
+          @Override
+          protected void onFailureImpl(Throwable t) {
+            mFinishedRequests.add(id + ":failed");
+          }
+
+          @Override
+          protected void onCancellationImpl() {
+            mFinishedRequests.add(id + ":cancelled");
+          }
+        },
+        context);
+    return context;
+  }
+
+  /** Completes a fetch of 1000 bytes with the given time to first byte and download time. */
+  private void finish(Fetch fetch, long latencyMs, long downloadTimeMs) {
+    mFakeClock.incrementBy(latencyMs);
+    fetch.consumer.onProgressUpdate(0.1f);
+    mFakeClock.incrementBy(downloadTimeMs);
+    CloseableReference<PooledByteBuffer> bytes =
+        CloseableReference.<PooledByteBuffer>of(new TrivialPooledByteBuffer(new byte[1000]));
+    EncodedImage encodedImage = new EncodedImage(bytes);
+    try {
+      fetch.consumer.onNewResult(encodedImage, Consumer.IS_LAST);
+    } finally {
+      encodedImage.close();
+      bytes.close();
+    }
+  }
+
+  private static class Fetch {
+    final Consumer<EncodedImage> consumer;
+    final ProducerContext context;
+
+    Fetch(Consumer<EncodedImage> consumer, ProducerContext context) {
+      this.consumer = consumer;
+      this.context = context;
+    }
+  }
+}
@@ -155,6 +155,20 @@ public class BitmapMemoryCacheProducerTest {
         .cache(any(BitmapMemoryCacheKey.class), any(CloseableReference.class));
   }
 
+  @Test
+  public void testDoNotCacheResultsWithBitmapCachedForAnotherRequest() {
+    setupBitmapMemoryCacheGetNotFound();
+    setupInputProducerStreamingSuccessWithStatusFlags(Consumer.DO_NOT_CACHE_BITMAP);
+    when(mMemoryCache.get(mBitmapMemoryCacheKey)).thenReturn(null);
+
+    mBitmapMemoryCacheProducer.produceResults(mConsumer, mProducerContext);
+
+    verify(mConsumer)
+        .onNewResult(mFinalImageReference, Consumer.IS_LAST | Consumer.DO_NOT_CACHE_BITMAP);
+    verify(mMemoryCache, never())
+        .cache(any(BitmapMemoryCacheKey.class), any(CloseableReference.class));
+  }
+
   @Test
   public void testBitmapMemoryCacheGetIntermediateImage() {
     setupBitmapMemoryCacheGetIntermediateImage();
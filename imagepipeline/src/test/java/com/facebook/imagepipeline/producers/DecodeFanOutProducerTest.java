@@ -0,0 +1,391 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import android.graphics.Bitmap;
+import com.facebook.cache.common.SimpleCacheKey;
+import com.facebook.common.internal.ImmutableMap;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
+import com.facebook.imagepipeline.cache.CacheKeyFactory;
+import com.facebook.imagepipeline.common.ImageDecodeOptions;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.common.ResizeOptions;
+import com.facebook.imagepipeline.common.RotationOptions;
+import com.facebook.imagepipeline.image.CloseableImage;
+import com.facebook.imagepipeline.image.CloseableStaticBitmap;
+import com.facebook.imagepipeline.image.ImmutableQualityInfo;
+import com.facebook.imagepipeline.request.ImageRequest;
+import com.facebook.imagepipeline.testing.FakeClock;
+import com.facebook.imagepipeline.testing.TestExecutorService;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+import org.junit.*;
+import org.junit.runner.*;
+import org.mockito.*;
+import org.mockito.invocation.*;
+import org.mockito.stubbing.*;
+import org.robolectric.*;
+import org.robolectric.annotation.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class DecodeFanOutProducerTest {
+
+  @Mock public Producer<CloseableReference<CloseableImage>> mInputProducer;
+  @Mock public CacheKeyFactory mCacheKeyFactory;
+  @Mock public PlatformBitmapFactory mPlatformBitmapFactory;
+  @Mock public ProducerListener2 mProducerListener;
+  @Mock public ResourceReleaser<Bitmap> mBitmapResourceReleaser;
+  @Mock public Consumer<CloseableReference<CloseableImage>> mLargeConsumer;
+  @Mock public Consumer<CloseableReference<CloseableImage>> mSmallConsumer;
+
+  private TestExecutorService mTestExecutorService;
+  private DecodeFanOutProducer mDecodeFanOutProducer;
+  private SettableProducerContext mLargeContext;
+  private SettableProducerContext mSmallContext;
+  private Bitmap mSourceBitmap;
+  private CloseableReference<CloseableImage> mSourceImageRef;
+  private Bitmap mScaledBitmap;
+  private List<CloseableReference<CloseableImage>> mSmallResults;
+  private List<Consumer<CloseableReference<CloseableImage>>> mDecodeConsumers;
+  private List<ProducerContext> mDecodeContexts;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    mTestExecutorService = new TestExecutorService(new FakeClock());
+    mDecodeFanOutProducer =
+        new DecodeFanOutProducer(
+            mInputProducer, mCacheKeyFactory, mPlatformBitmapFactory, mTestExecutorService);
+    when(mCacheKeyFactory.getEncodedCacheKey(any(ImageRequest.class), any()))
+        .thenReturn(new SimpleCacheKey("http://fb.com/image.jpg"));
+    when(mProducerListener.requiresExtraMap(any(ProducerContext.class), anyString()))
+        .thenReturn(true);
+
+    mLargeContext = newContext("large", ResizeOptions.forDimensions(400, 300));
+    mSmallContext = newContext("small", ResizeOptions.forDimensions(100, 100));
+
+    mSourceBitmap = mock(Bitmap.class);
+    when(mSourceBitmap.getWidth()).thenReturn(400);
+    when(mSourceBitmap.getHeight()).thenReturn(300);
+    mSourceImageRef =
+        CloseableReference.<CloseableImage>of(
+            new CloseableStaticBitmap(
+                mSourceBitmap, mBitmapResourceReleaser, ImmutableQualityInfo.FULL_QUALITY, 0));
+    mScaledBitmap = mock(Bitmap.class);
+    when(mScaledBitmap.getWidth()).thenReturn(133);
+    when(mScaledBitmap.getHeight()).thenReturn(100);
+    when(mPlatformBitmapFactory.createScaledBitmap(mSourceBitmap, 133, 100, true))
+        .thenReturn(CloseableReference.of(mScaledBitmap, mBitmapResourceReleaser));
+
+    mDecodeConsumers = new ArrayList<>();
+    mDecodeContexts = new ArrayList<>();
+    doAnswer(
+            new Answer<Object>() {
+              @Override
+              public Object answer(InvocationOnMock invocation) throws Throwable {
+                mDecodeConsumers.add(
+                    (Consumer<CloseableReference<CloseableImage>>) invocation.getArguments()[0]);
+                mDecodeContexts.add((ProducerContext) invocation.getArguments()[1]);
+                return null;
+              }
+            })
+        .when(mInputProducer)
+        .produceResults(any(Consumer.class), any(ProducerContext.class));
+
+    mSmallResults = new ArrayList<>();
+    doAnswer(
+            new Answer<Object>() {
+              @Override
+              public Object answer(InvocationOnMock invocation) throws Throwable {
+                mSmallResults.add(
+                    ((CloseableReference<CloseableImage>) invocation.getArguments()[0]).clone());
+                return null;
+              }
+            })
+        .when(mSmallConsumer)
+        .onNewResult(any(CloseableReference.class), anyInt());
+  }
+
+  @Test
+  public void testSmallerRequestIsDownscaledFromLargerDecode() {
+    Consumer<CloseableReference<CloseableImage>> decodeConsumer =
+        produceResults(mLargeConsumer, mLargeContext);
+    mDecodeFanOutProducer.produceResults(mSmallConsumer, mSmallContext);
+    verify(mInputProducer).produceResults(any(Consumer.class), any(ProducerContext.class));
+
+    decodeConsumer.onNewResult(mSourceImageRef, Consumer.NO_FLAGS);
+    verify(mLargeConsumer).onNewResult(mSourceImageRef, Consumer.NO_FLAGS);
+    decodeConsumer.onNewResult(mSourceImageRef, Consumer.IS_LAST);
+    verify(mLargeConsumer).onNewResult(mSourceImageRef, Consumer.IS_LAST);
+    mSourceImageRef.close();
+    verifyZeroInteractions(mSmallConsumer);
+
+    mTestExecutorService.runUntilIdle();
+    verify(mProducerListener).onProducerStart(mSmallContext, DecodeFanOutProducer.NAME);
+    verify(mProducerListener)
+        .onProducerFinishWithSuccess(
+            mSmallContext,
+            DecodeFanOutProducer.NAME,
+            ImmutableMap.of(
+                DecodeFanOutProducer.EXTRA_SOURCE_BITMAP_SIZE,
+                "400x300",
+                DecodeFanOutProducer.EXTRA_BITMAP_SIZE,
+                "133x100"));
+    verify(mSmallConsumer).onNewResult(any(CloseableReference.class), eq(Consumer.IS_LAST));
+    assertEquals(1, mSmallResults.size());
+    assertSame(
+        mScaledBitmap,
+        ((CloseableStaticBitmap) mSmallResults.get(0).get()).getUnderlyingBitmap());
+    assertEquals(1, mDecodeFanOutProducer.getDecodesSavedCount());
+
+    // the source bitmap is released once the large request is done with it
+    verify(mBitmapResourceReleaser).release(mSourceBitmap);
+    mSmallResults.get(0).close();
+    verify(mBitmapResourceReleaser).release(mScaledBitmap);
+  }
+
+  @Test
+  public void testBitmapIsSharedWhenNotLargerThanRequested() {
+    SettableProducerContext fullSizeContext = newContext("full", null);
+    SettableProducerContext sameSizeContext =
+        newContext("same", ResizeOptions.forDimensions(400, 200));
+    Consumer<CloseableReference<CloseableImage>> decodeConsumer =
+        produceResults(mLargeConsumer, fullSizeContext);
+    mDecodeFanOutProducer.produceResults(mSmallConsumer, sameSizeContext);
+
+    decodeConsumer.onNewResult(mSourceImageRef, Consumer.IS_LAST);
+    mSourceImageRef.close();
+    mTestExecutorService.runUntilIdle();
+
+    verifyZeroInteractions(mPlatformBitmapFactory);
+    // the bitmap is in the cache under the key of the request that started the decode already
+    verify(mSmallConsumer)
+        .onNewResult(
+            any(CloseableReference.class), eq(Consumer.IS_LAST | Consumer.DO_NOT_CACHE_BITMAP));
+    assertEquals(1, mSmallResults.size());
+    assertSame(
+        mSourceBitmap, ((CloseableStaticBitmap) mSmallResults.get(0).get()).getUnderlyingBitmap());
+    verify(mBitmapResourceReleaser, never()).release(mSourceBitmap);
+    mSmallResults.get(0).close();
+    verify(mBitmapResourceReleaser).release(mSourceBitmap);
+  }
+
+  @Test
+  public void testLargerRequestIsDecodedSeparately() {
+    Consumer<CloseableReference<CloseableImage>> smallDecodeConsumer =
+        produceResults(mSmallConsumer, mSmallContext);
+    Consumer<CloseableReference<CloseableImage>> largeDecodeConsumer =
+        produceResults(mLargeConsumer, mLargeContext);
+    assertNotSame(smallDecodeConsumer, largeDecodeConsumer);
+
+    largeDecodeConsumer.onNewResult(mSourceImageRef, Consumer.IS_LAST);
+    mSourceImageRef.close();
+    mTestExecutorService.runUntilIdle();
+    verifyZeroInteractions(mSmallConsumer);
+    assertEquals(0, mDecodeFanOutProducer.getDecodesSavedCount());
+  }
+
+  @Test
+  public void testProgressiveRequestIsDecodedSeparately() {
+    when(mSmallContext.getImageRequest().getProgressiveRenderingEnabled()).thenReturn(true);
+    produceResults(mLargeConsumer, mLargeContext);
+    produceResults(mSmallConsumer, mSmallContext);
+  }
+
+  @Test
+  public void testDifferentImageIsDecodedSeparately() {
+    when(mCacheKeyFactory.getEncodedCacheKey(mSmallContext.getImageRequest(), null))
+        .thenReturn(new SimpleCacheKey("http://fb.com/other.jpg"));
+    produceResults(mLargeConsumer, mLargeContext);
+    produceResults(mSmallConsumer, mSmallContext);
+  }
+
+  @Test
+  public void testWaitingRequestIsDecodedSeparatelyOnFailure() {
+    Consumer<CloseableReference<CloseableImage>> decodeConsumer =
+        produceResults(mLargeConsumer, mLargeContext);
+    mDecodeFanOutProducer.produceResults(mSmallConsumer, mSmallContext);
+
+    Exception exception = new Exception();
+    decodeConsumer.onFailure(exception);
+    verify(mLargeConsumer).onFailure(exception);
+    verifyDecodeStarted(mSmallContext);
+    verifyZeroInteractions(mSmallConsumer);
+  }
+
+  @Test
+  public void testWaitingRequestIsDecodedSeparatelyOnCancellation() {
+    Consumer<CloseableReference<CloseableImage>> decodeConsumer =
+        produceResults(mLargeConsumer, mLargeContext);
+    mDecodeFanOutProducer.produceResults(mSmallConsumer, mSmallContext);
+
+    decodeConsumer.onCancellation();
+    verify(mLargeConsumer).onCancellation();
+    verifyDecodeStarted(mSmallContext);
+  }
+
+  @Test
+  public void testWaitingRequestIsDecodedSeparatelyIfResultIsNotStatic() {
+    Consumer<CloseableReference<CloseableImage>> decodeConsumer =
+        produceResults(mLargeConsumer, mLargeContext);
+    mDecodeFanOutProducer.produceResults(mSmallConsumer, mSmallContext);
+
+    CloseableReference<CloseableImage> animatedImageRef =
+        CloseableReference.of(mock(CloseableImage.class));
+    decodeConsumer.onNewResult(animatedImageRef, Consumer.IS_LAST);
+    verifyDecodeStarted(mSmallContext);
+    animatedImageRef.close();
+  }
+
+  @Test
+  public void testWaitingRequestCancellation() {
+    Consumer<CloseableReference<CloseableImage>> decodeConsumer =
+        produceResults(mLargeConsumer, mLargeContext);
+    mDecodeFanOutProducer.produceResults(mSmallConsumer, mSmallContext);
+
+    mSmallContext.cancel();
+    verify(mSmallConsumer).onCancellation();
+
+    decodeConsumer.onNewResult(mSourceImageRef, Consumer.IS_LAST);
+    mSourceImageRef.close();
+    mTestExecutorService.runUntilIdle();
+    verify(mSmallConsumer, never()).onNewResult(any(CloseableReference.class), anyInt());
+    verifyZeroInteractions(mPlatformBitmapFactory);
+  }
+
+  @Test
+  public void testDecodeTakesHighestPriorityOfWaitingRequests() {
+    produceResults(mLargeConsumer, mLargeContext);
+    ProducerContext decodeContext = getDecodeContext(mLargeContext);
+    mSmallContext.setPriority(Priority.HIGH);
+    mDecodeFanOutProducer.produceResults(mSmallConsumer, mSmallContext);
+    assertEquals(Priority.HIGH, decodeContext.getPriority());
+
+    mLargeContext.setPriority(Priority.LOW);
+    mSmallContext.setPriority(Priority.MEDIUM);
+    assertEquals(Priority.MEDIUM, decodeContext.getPriority());
+
+    mSmallContext.cancel();
+    assertEquals(Priority.LOW, decodeContext.getPriority());
+  }
+
+  @Test
+  public void testDecodeExpectsIntermediateResultsIfAnyRequestDoes() {
+    produceResults(mLargeConsumer, mLargeContext);
+    ProducerContext decodeContext = getDecodeContext(mLargeContext);
+    mDecodeFanOutProducer.produceResults(mSmallConsumer, mSmallContext);
+    assertFalse(decodeContext.isIntermediateResultExpected());
+
+    mSmallContext.setIsIntermediateResultExpected(true);
+    assertTrue(decodeContext.isIntermediateResultExpected());
+    mSmallContext.setIsIntermediateResultExpected(false);
+    assertFalse(decodeContext.isIntermediateResultExpected());
+  }
+
+  @Test
+  public void testDecodeIsCancelledWithTheRequestThatStartedIt() {
+    produceResults(mLargeConsumer, mLargeContext);
+    BaseProducerContext decodeContext = (BaseProducerContext) getDecodeContext(mLargeContext);
+    mDecodeFanOutProducer.produceResults(mSmallConsumer, mSmallContext);
+
+    mSmallContext.cancel();
+    assertFalse(decodeContext.isCancelled());
+    mLargeContext.cancel();
+    assertTrue(decodeContext.isCancelled());
+  }
+
+  @Test
+  public void testDecodeGoesOnForWaitingRequestsWhenTheRequestThatStartedItIsCancelled() {
+    Consumer<CloseableReference<CloseableImage>> decodeConsumer =
+        produceResults(mLargeConsumer, mLargeContext);
+    BaseProducerContext decodeContext = (BaseProducerContext) getDecodeContext(mLargeContext);
+    mSmallContext.setPriority(Priority.LOW);
+    mDecodeFanOutProducer.produceResults(mSmallConsumer, mSmallContext);
+
+    mLargeContext.cancel();
+    verify(mLargeConsumer).onCancellation();
+    assertFalse(decodeContext.isCancelled());
+    assertEquals(Priority.LOW, decodeContext.getPriority());
+
+    decodeConsumer.onNewResult(mSourceImageRef, Consumer.IS_LAST);
+    mSourceImageRef.close();
+    mTestExecutorService.runUntilIdle();
+    verify(mLargeConsumer, never()).onNewResult(any(CloseableReference.class), anyInt());
+    verify(mSmallConsumer).onNewResult(any(CloseableReference.class), eq(Consumer.IS_LAST));
+    assertEquals(1, mSmallResults.size());
+    assertEquals(1, mDecodeFanOutProducer.getDecodesSavedCount());
+    // the waiting request doesn't start a decode of its own
+    assertEquals(1, mDecodeContexts.size());
+    mSmallResults.get(0).close();
+  }
+
+  @Test
+  public void testDecodeIsCancelledWithTheLastWaitingRequestAfterItsLeader() {
+    produceResults(mLargeConsumer, mLargeContext);
+    BaseProducerContext decodeContext = (BaseProducerContext) getDecodeContext(mLargeContext);
+    mDecodeFanOutProducer.produceResults(mSmallConsumer, mSmallContext);
+
+    mLargeContext.cancel();
+    assertFalse(decodeContext.isCancelled());
+    mSmallContext.cancel();
+    verify(mSmallConsumer).onCancellation();
+    assertTrue(decodeContext.isCancelled());
+    assertEquals(1, mDecodeContexts.size());
+  }
+
+  private SettableProducerContext newContext(String id, @Nullable ResizeOptions resizeOptions) {
+    ImageRequest imageRequest = mock(ImageRequest.class);
+    when(imageRequest.getResizeOptions()).thenReturn(resizeOptions);
+    when(imageRequest.getImageDecodeOptions()).thenReturn(ImageDecodeOptions.defaults());
+    when(imageRequest.getRotationOptions()).thenReturn(RotationOptions.autoRotate());
+    return new SettableProducerContext(
+        imageRequest,
+        id,
+        mProducerListener,
+        null,
+        ImageRequest.RequestLevel.FULL_FETCH,
+        false,
+        false,
+        Priority.MEDIUM,
+        null);
+  }
+
+  private Consumer<CloseableReference<CloseableImage>> produceResults(
+      Consumer<CloseableReference<CloseableImage>> consumer, ProducerContext context) {
+    mDecodeFanOutProducer.produceResults(consumer, context);
+    return verifyDecodeStarted(context);
+  }
+
+  /** Verifies that a decode was started for the request, and returns its consumer. */
+  private Consumer<CloseableReference<CloseableImage>> verifyDecodeStarted(
+      ProducerContext context) {
+    return mDecodeConsumers.get(getDecodeIndex(context));
+  }
+
+  private ProducerContext getDecodeContext(ProducerContext context) {
+    return mDecodeContexts.get(getDecodeIndex(context));
+  }
+
+  /** The decodes run in contexts of their own, with the id of the request that started them. */
+  private int getDecodeIndex(ProducerContext context) {
+    for (int i = mDecodeContexts.size() - 1; i >= 0; i--) {
+      if (mDecodeContexts.get(i).getId().equals(context.getId())) {
+        return i;
+      }
+    }
+    fail("no decode for " + context.getId());
+    return -1;
+  }
+}
@@ -311,6 +311,31 @@ public class DecodeProducerTest {
     verify(mConsumer).onCancellation();
   }
 
+  @Test
+  public void testCancellationRequestedClearsJobBeforeRequestChanged() {
+    mDecodeProducer =
+        new DecodeProducer(
+            mByteArrayPool,
+            mExecutor,
+            mImageDecoder,
+            mProgressiveJpegConfig,
+            false, /* Set downsampleEnabled to false */
+            false, /* Set resizeAndRotateForNetwork to false */
+            true, /* Cancel the decode when the request is cancelled */
+            mInputProducer,
+            MAX_BITMAP_SIZE,
+            new CloseableReferenceFactory(new NoOpCloseableReferenceLeakTracker()));
+    setupNetworkUri();
+    produceResults();
+
+    mProducerContext.cancel();
+
+    InOrder inOrder = inOrder(mJobScheduler);
+    inOrder.verify(mJobScheduler, atLeastOnce()).clearJob();
+    inOrder.verify(mJobScheduler).onRequestChanged();
+    verify(mConsumer).onCancellation();
+  }
+
   @Test
   public void testDecode_Final() throws Exception {
     setupNetworkUri();
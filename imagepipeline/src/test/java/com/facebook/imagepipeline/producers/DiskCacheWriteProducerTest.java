@@ -136,9 +136,11 @@ public class DiskCacheWriteProducerTest {
   public void testDefaultDiskCacheInputProducerSuccess() {
     setupInputProducerSuccess();
     mDiskCacheWriteProducer.produceResults(mConsumer, mProducerContext);
-    verify(mDefaultBufferedDiskCache, never()).put(mCacheKey, mIntermediateEncodedImage);
+    verify(mDefaultBufferedDiskCache, never())
+        .put(mCacheKey, mIntermediateEncodedImage, Priority.MEDIUM);
     ArgumentCaptor<EncodedImage> argumentCaptor = ArgumentCaptor.forClass(EncodedImage.class);
-    verify(mDefaultBufferedDiskCache).put(eq(mCacheKey), argumentCaptor.capture());
+    verify(mDefaultBufferedDiskCache)
+        .put(eq(mCacheKey), argumentCaptor.capture(), eq(Priority.MEDIUM));
     EncodedImage encodedImage = argumentCaptor.getValue();
     assertSame(
         encodedImage.getByteBufferRef().getUnderlyingReferenceTestOnly(),
@@ -155,8 +157,9 @@ public class DiskCacheWriteProducerTest {
     when(mImageRequest.getCacheChoice()).thenReturn(ImageRequest.CacheChoice.SMALL);
     setupInputProducerSuccess();
     mDiskCacheWriteProducer.produceResults(mConsumer, mProducerContext);
-    verify(mSmallImageBufferedDiskCache, never()).put(mCacheKey, mIntermediateEncodedImage);
-    verify(mSmallImageBufferedDiskCache).put(mCacheKey, mFinalEncodedImage);
+    verify(mSmallImageBufferedDiskCache, never())
+        .put(mCacheKey, mIntermediateEncodedImage, Priority.MEDIUM);
+    verify(mSmallImageBufferedDiskCache).put(mCacheKey, mFinalEncodedImage, Priority.MEDIUM);
     verify(mConsumer).onNewResult(mIntermediateEncodedImage, Consumer.NO_FLAGS);
     verify(mConsumer).onNewResult(mFinalEncodedImage, Consumer.IS_LAST);
     verify(mProducerListener, times(2)).onProducerStart(mProducerContext, PRODUCER_NAME);
@@ -169,8 +172,10 @@ public class DiskCacheWriteProducerTest {
     when(mImageRequest.getCacheChoice()).thenReturn(ImageRequest.CacheChoice.SMALL);
     setupInputProducerSuccessFormatUnknown();
     mDiskCacheWriteProducer.produceResults(mConsumer, mProducerContext);
-    verify(mSmallImageBufferedDiskCache, never()).put(mCacheKey, mIntermediateEncodedImage);
-    verify(mSmallImageBufferedDiskCache, never()).put(mCacheKey, mFinalEncodedImageFormatUnknown);
+    verify(mSmallImageBufferedDiskCache, never())
+        .put(mCacheKey, mIntermediateEncodedImage, Priority.MEDIUM);
+    verify(mSmallImageBufferedDiskCache, never())
+        .put(mCacheKey, mFinalEncodedImageFormatUnknown, Priority.MEDIUM);
     verify(mConsumer).onNewResult(mIntermediateEncodedImage, Consumer.NO_FLAGS);
     verify(mConsumer).onNewResult(mFinalEncodedImageFormatUnknown, Consumer.IS_LAST);
     verify(mProducerListener, times(2)).onProducerStart(mProducerContext, PRODUCER_NAME);
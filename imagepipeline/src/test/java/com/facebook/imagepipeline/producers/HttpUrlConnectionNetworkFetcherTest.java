@@ -20,6 +20,7 @@ import android.net.Uri;
 import com.facebook.common.time.MonotonicClock;
 import com.facebook.common.util.UriUtil;
 import com.facebook.imagepipeline.producers.HttpUrlConnectionNetworkFetcher.HttpUrlConnectionNetworkFetchState;
+import com.facebook.imagepipeline.request.ImageRequest;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
@@ -49,6 +50,7 @@ public class HttpUrlConnectionNetworkFetcherTest {
 
   @Mock private HttpUrlConnectionNetworkFetchState mMockFetchState;
   @Mock private ProducerContext mMockProducerContext;
+  @Mock private ImageRequest mMockImageRequest;
   @Mock private NetworkFetcher.Callback mMockCallback;
 
   private HttpUrlConnectionNetworkFetcher mFetcher;
@@ -119,6 +121,7 @@ public class HttpUrlConnectionNetworkFetcherTest {
 
   private void mockFetchState() {
     when(mMockFetchState.getContext()).thenReturn(mMockProducerContext);
+    when(mMockProducerContext.getImageRequest()).thenReturn(mMockImageRequest);
     when(mMockFetchState.getUri())
         .then(
             new Answer<Uri>() {
@@ -373,6 +373,42 @@ public class JobSchedulerTest {
     assertJobsEqual(mTestJobRunnable.jobs.get(1), encodedImage2, Consumer.IS_LAST);
   }
 
+  @Test
+  public void testExecutorQueuedTime_ExcludesMinimumInterval() {
+    final long[] queuedTimes = new long[2];
+    mJobScheduler =
+        new JobScheduler(
+            mTestExecutorService,
+            new JobScheduler.JobRunnable() {
+              @Override
+              public void run(EncodedImage encodedImage, @Consumer.Status int status) {
+                queuedTimes[0] = mJobScheduler.getQueuedTime();
+                queuedTimes[1] = mJobScheduler.getExecutorQueuedTime();
+              }
+            },
+            INTERVAL);
+    mJobScheduler.updateJob(fakeEncodedImage(), Consumer.NO_FLAGS);
+    mJobScheduler.scheduleJob();
+    mFakeClockForTime.incrementBy(1234);
+    mFakeClockForWorker.incrementBy(1234);
+    mFakeClockForScheduled.incrementBy(1234);
+
+    mJobScheduler.updateJob(fakeEncodedImage(), Consumer.IS_LAST);
+    mFakeClockForTime.incrementBy(INTERVAL - 5);
+    mFakeClockForWorker.incrementBy(INTERVAL - 5);
+    mFakeClockForScheduled.incrementBy(INTERVAL - 5);
+    mJobScheduler.scheduleJob();
+    mFakeClockForTime.incrementBy(5);
+    mFakeClockForScheduled.incrementBy(5);
+    assertEquals(1, mTestExecutorService.getPendingCount());
+
+    mFakeClockForTime.incrementBy(7);
+    mFakeClockForWorker.incrementBy(0);
+    assertEquals(0, mTestExecutorService.getPendingCount());
+    assertEquals(12, queuedTimes[0]);
+    assertEquals(7, queuedTimes[1]);
+  }
+
   @Test
   public void testFailure() {
     mJobScheduler.updateJob(fakeEncodedImage(), Consumer.NO_FLAGS);
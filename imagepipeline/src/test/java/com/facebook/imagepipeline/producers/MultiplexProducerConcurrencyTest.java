@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.request.ImageRequest;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Stress test for {@link MultiplexProducer}: many threads join and leave multiplexers concurrently,
+ * while the input producer finishes them on other threads. Every consumer must get exactly one
+ * final result, whether it joined a running multiplexer or raced with its removal.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class MultiplexProducerConcurrencyTest {
+
+  private static final int THREAD_COUNT = 8;
+  private static final int REQUESTS_PER_THREAD = 500;
+  private static final String PRODUCER_NAME = "MultiplexProducerConcurrencyTest";
+
+  private static final ResourceReleaser<Integer> NO_OP_RELEASER =
+      new ResourceReleaser<Integer>() {
+        @Override
+        public void release(Integer value) {}
+      };
+
+  private ExecutorService mRequestExecutor;
+  private ExecutorService mResultExecutor;
+  private AtomicInteger mInputRequestCount;
+  private ProducerListener2 mProducerListener;
+  private KeyMultiplexProducer mMultiplexProducer;
+
+  @Before
+  public void setUp() {
+    mRequestExecutor = Executors.newFixedThreadPool(THREAD_COUNT);
+    mResultExecutor = Executors.newFixedThreadPool(2);
+    mInputRequestCount = new AtomicInteger();
+    mProducerListener = mock(ProducerListener2.class);
+    mMultiplexProducer =
+        new KeyMultiplexProducer(
+            new Producer<CloseableReference<Integer>>() {
+              @Override
+              public void produceResults(
+                  final Consumer<CloseableReference<Integer>> consumer,
+                  ProducerContext context) {
+                final int value = mInputRequestCount.incrementAndGet();
+                mResultExecutor.execute(
+                    new Runnable() {
+                      @Override
+                      public void run() {
+                        CloseableReference<Integer> result =
+                            CloseableReference.of(value, NO_OP_RELEASER);
+                        consumer.onNewResult(result, Consumer.NO_FLAGS);
+                        consumer.onNewResult(result, Consumer.IS_LAST);
+                        result.close();
+                      }
+                    });
+              }
+            });
+  }
+
+  @After
+  public void tearDown() {
+    mRequestExecutor.shutdownNow();
+    mResultExecutor.shutdownNow();
+  }
+
+  @Test
+  public void testIdenticalKeys() throws InterruptedException {
+    CountingConsumer[] consumers = runRequests(1);
+
+    assertNoConsumerLost(consumers);
+    assertTrue(mInputRequestCount.get() <= THREAD_COUNT * REQUESTS_PER_THREAD);
+  }
+
+  @Test
+  public void testDistinctKeys() throws InterruptedException {
+    CountingConsumer[] consumers = runRequests(THREAD_COUNT * REQUESTS_PER_THREAD);
+
+    assertNoConsumerLost(consumers);
+    assertEquals(THREAD_COUNT * REQUESTS_PER_THREAD, mInputRequestCount.get());
+  }
+
+  @Test
+  public void testFewKeys() throws InterruptedException {
+    CountingConsumer[] consumers = runRequests(7);
+
+    assertNoConsumerLost(consumers);
+  }
+
+  private CountingConsumer[] runRequests(final int keyCount) throws InterruptedException {
+    final CountingConsumer[] consumers = new CountingConsumer[THREAD_COUNT * REQUESTS_PER_THREAD];
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    final CountDownLatch doneLatch = new CountDownLatch(consumers.length);
+    for (int i = 0; i < consumers.length; i++) {
+      consumers[i] = new CountingConsumer(doneLatch);
+    }
+    for (int thread = 0; thread < THREAD_COUNT; thread++) {
+      final int firstRequest = thread * REQUESTS_PER_THREAD;
+      mRequestExecutor.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              try {
+                startLatch.await();
+              } catch (InterruptedException e) {
+                return;
+              }
+              for (int i = firstRequest; i < firstRequest + REQUESTS_PER_THREAD; i++) {
+                mMultiplexProducer.produceResults(
+                    consumers[i], newProducerContext("key" + (i % keyCount)));
+              }
+            }
+          });
+    }
+    startLatch.countDown();
+    assertTrue(doneLatch.await(30, TimeUnit.SECONDS));
+    return consumers;
+  }
+
+  private void assertNoConsumerLost(CountingConsumer[] consumers) {
+    for (CountingConsumer consumer : consumers) {
+      assertEquals(1, consumer.mFinalResultCount.get());
+      assertEquals(0, consumer.mFailureCount.get());
+    }
+    assertTrue(mMultiplexProducer.mMultiplexers.isEmpty());
+  }
+
+  private ProducerContext newProducerContext(String key) {
+    return new BaseProducerContext(
+        null,
+        "id",
+        mProducerListener,
+        key,
+        ImageRequest.RequestLevel.FULL_FETCH,
+        false,
+        true,
+        Priority.MEDIUM,
+        null);
+  }
+
+  private static class KeyMultiplexProducer
+      extends MultiplexProducer<String, CloseableReference<Integer>> {
+
+    KeyMultiplexProducer(Producer<CloseableReference<Integer>> inputProducer) {
+      super(inputProducer, PRODUCER_NAME);
+    }
+
+    @Override
+    protected String getKey(ProducerContext producerContext) {
+      return (String) producerContext.getCallerContext();
+    }
+
+    @Override
+    protected CloseableReference<Integer> cloneOrNull(CloseableReference<Integer> object) {
+      return CloseableReference.cloneOrNull(object);
+    }
+  }
+
+  /** Counts every callback, including the ones a {@link BaseConsumer} would swallow. */
+  private static class CountingConsumer implements Consumer<CloseableReference<Integer>> {
+
+    private final CountDownLatch mDoneLatch;
+    final AtomicInteger mFinalResultCount = new AtomicInteger();
+    final AtomicInteger mFailureCount = new AtomicInteger();
+
+    CountingConsumer(CountDownLatch doneLatch) {
+      mDoneLatch = doneLatch;
+    }
+
+    @Override
+    public void onNewResult(CloseableReference<Integer> newResult, @Status int status) {
+      if (BaseConsumer.isLast(status)) {
+        mFinalResultCount.incrementAndGet();
+        mDoneLatch.countDown();
+      }
+    }
+
+    @Override
+    public void onFailure(Throwable t) {
+      mFailureCount.incrementAndGet();
+      mDoneLatch.countDown();
+    }
+
+    @Override
+    public void onCancellation() {
+      mDoneLatch.countDown();
+    }
+
+    @Override
+    public void onProgressUpdate(float progress) {}
+  }
+}
@@ -23,6 +23,7 @@ import com.facebook.imagepipeline.core.ImagePipelineConfig;
 import com.facebook.imagepipeline.request.ImageRequest;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
@@ -33,6 +34,8 @@ import org.junit.*;
 import org.junit.runner.*;
 import org.mockito.*;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.powermock.api.mockito.*;
 import org.powermock.core.classloader.annotations.*;
 import org.powermock.modules.junit4.rule.*;
@@ -245,6 +248,69 @@ public class NetworkFetchProducerTest {
     }
   }
 
+  @Test
+  public void testByteBufferResponse() throws IOException {
+    when(SystemClock.uptimeMillis()).thenReturn(86400l);
+    NetworkFetcher.ByteBufferCallback callback =
+        (NetworkFetcher.ByteBufferCallback) performFetch();
+    when(mNetworkFetcher.shouldPropagate(any(FetchState.class))).thenReturn(false);
+    ByteBuffer data = ByteBuffer.allocateDirect(100);
+
+    callback.onResponseStarted(100);
+    verify(mPooledByteBufferFactory).newOutputStream(100);
+    callback.onResponseData(data);
+    verify(mPooledByteBufferOutputStream).write(data);
+    verify(mConsumer, never()).onNewResult(any(CloseableReference.class), anyInt());
+
+    callback.onResponseCompleted();
+    verify(mProducerListener)
+        .onProducerFinishWithSuccess(
+            eq(mProducerContext), eq(NetworkFetchProducer.PRODUCER_NAME), eq(mExtrasMap));
+    verify(mConsumer, times(1)).onNewResult(any(CloseableReference.class), eq(Consumer.IS_LAST));
+    verifyPooledByteBufferUsed(1);
+    verify(mPooledByteBufferOutputStream).close();
+  }
+
+  @Test
+  public void testByteBufferResponseNotifiesConsumerOutsideCallbackLock() throws IOException {
+    final NetworkFetcher.ByteBufferCallback callback =
+        (NetworkFetcher.ByteBufferCallback) performFetch();
+    final boolean[] calledUnderLock = new boolean[1];
+    Answer<Void> checkLock =
+        new Answer<Void>() {
+          @Override
+          public Void answer(InvocationOnMock invocation) {
+            calledUnderLock[0] |= Thread.holdsLock(callback);
+            return null;
+          }
+        };
+    doAnswer(checkLock).when(mConsumer).onProgressUpdate(anyFloat());
+    doAnswer(checkLock).when(mConsumer).onNewResult(any(CloseableReference.class), anyInt());
+
+    callback.onResponseStarted(100);
+    callback.onResponseData(ByteBuffer.allocateDirect(100));
+    callback.onResponseCompleted();
+
+    verify(mConsumer).onProgressUpdate(anyFloat());
+    verify(mConsumer).onNewResult(any(CloseableReference.class), eq(Consumer.IS_LAST));
+    assertFalse(calledUnderLock[0]);
+  }
+
+  @Test
+  public void testFailureDuringByteBufferResponse() throws IOException {
+    NetworkFetcher.ByteBufferCallback callback =
+        (NetworkFetcher.ByteBufferCallback) performFetch();
+
+    callback.onResponseStarted(-1);
+    verify(mPooledByteBufferFactory).newOutputStream();
+    callback.onFailure(new RuntimeException());
+
+    verify(mPooledByteBufferOutputStream).close();
+    verify(mProducerListener)
+        .onUltimateProducerReached(mProducerContext, NetworkFetchProducer.PRODUCER_NAME, false);
+    verify(mConsumer).onFailure(any(RuntimeException.class));
+  }
+
   private void verifyPooledByteBufferUsed(int times) {
     verify(mPooledByteBufferOutputStream, times(times)).toByteBuffer();
     verify(mPooledByteBuffer, times(times)).close();
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+import android.net.Uri;
+import bolts.Task;
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.SimpleCacheKey;
+import com.facebook.common.memory.ByteArrayPool;
+import com.facebook.common.memory.PooledByteBufferFactory;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.imageformat.DefaultImageFormats;
+import com.facebook.imagepipeline.cache.BufferedDiskCache;
+import com.facebook.imagepipeline.cache.CacheKeyFactory;
+import com.facebook.imagepipeline.common.BytesRange;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.request.ImageRequest;
+import com.facebook.imagepipeline.request.ImageRequestBuilder;
+import com.facebook.imagepipeline.testing.TrivialPooledByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.*;
+import org.junit.runner.*;
+import org.mockito.*;
+import org.robolectric.*;
+import org.robolectric.annotation.*;
+
+/** Tests the resumable downloads of {@link PartialDiskCacheProducer}. */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class PartialDiskCacheProducerTest {
+
+  // large enough for an intermediate result to be appended to the partial entry
+  private static final int INTERMEDIATE_SIZE = 40 * 1024;
+
+  @Mock public CacheKeyFactory mCacheKeyFactory;
+  @Mock public PooledByteBufferFactory mPooledByteBufferFactory;
+  @Mock public ByteArrayPool mByteArrayPool;
+  @Mock public Producer<EncodedImage> mInputProducer;
+  @Mock public Consumer<EncodedImage> mConsumer;
+  @Mock public ProducerListener2 mProducerListener;
+  @Mock public BufferedDiskCache mDefaultBufferedDiskCache;
+
+  private final CacheKey mPartialCacheKey = new SimpleCacheKey("http://fb.com/image.jpg?partial");
+  private ImageRequest mImageRequest;
+  private PartialDiskCacheProducer mPartialDiskCacheProducer;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    mPartialDiskCacheProducer =
+        new PartialDiskCacheProducer(
+            mDefaultBufferedDiskCache,
+            mCacheKeyFactory,
+            mPooledByteBufferFactory,
+            mByteArrayPool,
+            mInputProducer,
+            true);
+    mImageRequest =
+        ImageRequestBuilder.newBuilderWithSource(Uri.parse("http://fb.com/image.jpg")).build();
+    when(mCacheKeyFactory.getEncodedCacheKey(eq(mImageRequest), any(Uri.class), any()))
+        .thenReturn(mPartialCacheKey);
+    when(mDefaultBufferedDiskCache.append(
+            eq(mPartialCacheKey), any(EncodedImage.class), anyInt(), anyLong()))
+        .thenReturn(Task.forResult((long) INTERMEDIATE_SIZE));
+  }
+
+  @Test
+  public void testIntermediateResultsArePassedOnWhileTheyArePersisted() {
+    when(mDefaultBufferedDiskCache.get(eq(mPartialCacheKey), any(AtomicBoolean.class)))
+        .thenReturn(Task.<EncodedImage>forResult(null));
+    Consumer<EncodedImage> inputConsumer = produceResults(newContext(true));
+
+    EncodedImage intermediateResult = newEncodedImage(INTERMEDIATE_SIZE);
+    inputConsumer.onNewResult(intermediateResult, Consumer.NO_FLAGS);
+    verify(mConsumer).onNewResult(intermediateResult, Consumer.NO_FLAGS);
+    verify(mDefaultBufferedDiskCache).append(mPartialCacheKey, intermediateResult, 0, 0L);
+
+    EncodedImage finalResult = newEncodedImage(2 * INTERMEDIATE_SIZE);
+    inputConsumer.onNewResult(finalResult, Consumer.IS_LAST);
+    verify(mConsumer).onNewResult(finalResult, Consumer.IS_LAST);
+    verify(mDefaultBufferedDiskCache).remove(mPartialCacheKey);
+  }
+
+  @Test
+  public void testIntermediateResultsAreOnlyPassedOnWhenExpected() {
+    when(mDefaultBufferedDiskCache.get(eq(mPartialCacheKey), any(AtomicBoolean.class)))
+        .thenReturn(Task.<EncodedImage>forResult(null));
+    Consumer<EncodedImage> inputConsumer = produceResults(newContext(false));
+
+    EncodedImage intermediateResult = newEncodedImage(INTERMEDIATE_SIZE);
+    inputConsumer.onNewResult(intermediateResult, Consumer.NO_FLAGS);
+    verify(mConsumer, never()).onNewResult(any(EncodedImage.class), anyInt());
+    // the download is still persisted
+    verify(mDefaultBufferedDiskCache).append(mPartialCacheKey, intermediateResult, 0, 0L);
+  }
+
+  @Test
+  public void testIntermediateResultsOfRemainderAreNotPassedOn() {
+    EncodedImage cachedPart = newEncodedImage(100);
+    when(mDefaultBufferedDiskCache.get(eq(mPartialCacheKey), any(AtomicBoolean.class)))
+        .thenReturn(Task.forResult(cachedPart));
+    Consumer<EncodedImage> inputConsumer = produceResults(newContext(true));
+    verify(mConsumer).onNewResult(cachedPart, Consumer.IS_PARTIAL_RESULT);
+
+    EncodedImage remainder = newEncodedImage(INTERMEDIATE_SIZE);
+    remainder.setBytesRange(BytesRange.from(99));
+    inputConsumer.onNewResult(remainder, Consumer.NO_FLAGS);
+    verify(mConsumer, never()).onNewResult(remainder, Consumer.NO_FLAGS);
+  }
+
+  private SettableProducerContext newContext(boolean isIntermediateResultExpected) {
+    return new SettableProducerContext(
+        mImageRequest,
+        "id",
+        mProducerListener,
+        null,
+        ImageRequest.RequestLevel.FULL_FETCH,
+        false,
+        isIntermediateResultExpected,
+        Priority.MEDIUM,
+        null);
+  }
+
+  /** Requests the image, and returns the consumer of the input producer. */
+  private Consumer<EncodedImage> produceResults(SettableProducerContext producerContext) {
+    mPartialDiskCacheProducer.produceResults(mConsumer, producerContext);
+    ArgumentCaptor<Consumer> inputConsumer = ArgumentCaptor.forClass(Consumer.class);
+    ArgumentCaptor<ProducerContext> inputContext = ArgumentCaptor.forClass(ProducerContext.class);
+    verify(mInputProducer).produceResults(inputConsumer.capture(), inputContext.capture());
+    // the download is persisted as it goes, whatever the original request expects
+    assertTrue(inputContext.getValue().isIntermediateResultExpected());
+    return inputConsumer.getValue();
+  }
+
+  private static EncodedImage newEncodedImage(int size) {
+    EncodedImage encodedImage =
+        new EncodedImage(CloseableReference.of(new TrivialPooledByteBuffer(new byte[size])));
+    encodedImage.setImageFormat(DefaultImageFormats.JPEG);
+    return encodedImage;
+  }
+}
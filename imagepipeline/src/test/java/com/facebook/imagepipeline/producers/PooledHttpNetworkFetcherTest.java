@@ -0,0 +1,450 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.net.Uri;
+import com.facebook.imagepipeline.common.BytesRange;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.request.ImageRequest;
+import com.facebook.imagepipeline.request.ImageRequestBuilder;
+import com.facebook.imagepipeline.testing.FakeClock;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class PooledHttpNetworkFetcherTest {
+
+  private static final int TIMEOUT_MS = 5000;
+
+  private StubServer mServer;
+  private ExecutorService mExecutorService;
+
+  @Before
+  public void setUp() throws IOException {
+    mServer = new StubServer();
+    mExecutorService = Executors.newCachedThreadPool();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    mServer.close();
+    mExecutorService.shutdownNow();
+  }
+
+  @Test
+  public void testFetchesImage() throws Exception {
+    PooledHttpNetworkFetcher fetcher = newFetcher(2, 2);
+    RecordingCallback callback = fetch(fetcher, "/image.jpg", Priority.HIGH);
+
+    callback.await();
+
+    assertArrayEquals(StubServer.body("/image.jpg"), callback.bytes);
+    assertEquals(Collections.singletonList("/image.jpg"), mServer.getRequestedPaths());
+    assertTrue(
+        fetcher
+            .getExtraMap(callback.fetchState, callback.bytes.length)
+            .containsKey("time_to_first_byte"));
+  }
+
+  @Test
+  public void testReusesConnections() throws Exception {
+    PooledHttpNetworkFetcher fetcher = newFetcher(1, 1);
+    for (int i = 0; i < 3; i++) {
+      fetch(fetcher, "/image" + i + ".jpg", Priority.HIGH).await();
+    }
+
+    assertEquals(3, mServer.getRequestedPaths().size());
+    assertEquals(1, mServer.getConnectionCount());
+  }
+
+  @Test
+  public void testStartsFetchesByPriority() throws Exception {
+    PooledHttpNetworkFetcher fetcher = newFetcher(1, 1);
+    mServer.holdResponses();
+    RecordingCallback first = fetch(fetcher, "/first.jpg", Priority.LOW);
+    mServer.awaitRequests(1);
+    RecordingCallback low = fetch(fetcher, "/low.jpg", Priority.LOW);
+    RecordingCallback medium = fetch(fetcher, "/medium.jpg", Priority.MEDIUM);
+    RecordingCallback high = fetch(fetcher, "/high.jpg", Priority.HIGH);
+    assertEquals(3, fetcher.getPendingFetchCount());
+
+    mServer.releaseResponses();
+    first.await();
+    low.await();
+    medium.await();
+    high.await();
+
+    assertEquals(
+        Arrays.asList("/first.jpg", "/high.jpg", "/medium.jpg", "/low.jpg"),
+        mServer.getRequestedPaths());
+  }
+
+  @Test
+  public void testCancelsQueuedFetch() throws Exception {
+    PooledHttpNetworkFetcher fetcher = newFetcher(1, 1);
+    mServer.holdResponses();
+    RecordingCallback first = fetch(fetcher, "/first.jpg", Priority.HIGH);
+    mServer.awaitRequests(1);
+    RecordingCallback cancelled = fetch(fetcher, "/cancelled.jpg", Priority.HIGH);
+
+    ((BaseProducerContext) cancelled.fetchState.getContext()).cancel();
+    mServer.releaseResponses();
+    first.await();
+    cancelled.await();
+
+    assertTrue(cancelled.isCancelled);
+    assertEquals(0, fetcher.getPendingFetchCount());
+    assertEquals(Collections.singletonList("/first.jpg"), mServer.getRequestedPaths());
+  }
+
+  @Test
+  public void testDownloadsEveryFetch() throws Exception {
+    PooledHttpNetworkFetcher fetcher = newFetcher(1, 1);
+    RecordingCallback callback1 = fetch(fetcher, "/image.jpg", Priority.HIGH);
+    RecordingCallback callback2 = fetch(fetcher, "/image.jpg", Priority.HIGH);
+
+    callback1.await();
+    callback2.await();
+
+    assertEquals(Arrays.asList("/image.jpg", "/image.jpg"), mServer.getRequestedPaths());
+    assertArrayEquals(StubServer.body("/image.jpg"), callback1.bytes);
+    assertArrayEquals(StubServer.body("/image.jpg"), callback2.bytes);
+  }
+
+  @Test
+  public void testCancelsStartedFetchRightAway() throws Exception {
+    PooledHttpNetworkFetcher fetcher = newFetcher(1, 1);
+    mServer.holdResponses("/image.jpg");
+    RecordingCallback cancelled = fetch(fetcher, "/image.jpg", Priority.HIGH);
+    RecordingCallback next = fetch(fetcher, "/next.jpg", Priority.HIGH);
+    mServer.awaitRequests(1);
+
+    ((BaseProducerContext) cancelled.fetchState.getContext()).cancel();
+    cancelled.await();
+    assertTrue(cancelled.isCancelled);
+
+    mServer.releaseResponses("/image.jpg");
+    next.await();
+    assertNull(cancelled.bytes);
+    assertArrayEquals(StubServer.body("/next.jpg"), next.bytes);
+  }
+
+  @Test
+  public void testCancelsFetchWhileReading() throws Exception {
+    PooledHttpNetworkFetcher fetcher = newFetcher(1, 1);
+    mServer.holdResponses();
+    RecordingCallback cancelled = fetch(fetcher, "/image.jpg", Priority.HIGH);
+    cancelled.cancelsWhileReading = true;
+    RecordingCallback next = fetch(fetcher, "/next.jpg", Priority.HIGH);
+
+    mServer.releaseResponses();
+    cancelled.await();
+    next.await();
+
+    assertTrue(cancelled.isCancelled);
+    assertArrayEquals(StubServer.body("/next.jpg"), next.bytes);
+  }
+
+  @Test
+  public void testLimitsConnectionsPerHost() throws Exception {
+    PooledHttpNetworkFetcher fetcher = newFetcher(4, 2);
+    mServer.holdResponses();
+    List<RecordingCallback> callbacks = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      callbacks.add(fetch(fetcher, "/image" + i + ".jpg", Priority.HIGH));
+    }
+    mServer.awaitRequests(2);
+
+    assertEquals(2, fetcher.getConnectionCount());
+    assertEquals(2, fetcher.getPendingFetchCount());
+
+    mServer.releaseResponses();
+    for (RecordingCallback callback : callbacks) {
+      callback.await();
+    }
+    assertEquals(4, mServer.getRequestedPaths().size());
+  }
+
+  @Test
+  public void testSendsBytesRange() throws Exception {
+    PooledHttpNetworkFetcher fetcher = newFetcher(1, 1);
+    RecordingCallback callback =
+        fetch(fetcher, "/image.jpg", Priority.HIGH, BytesRange.from(10));
+
+    callback.await();
+
+    assertEquals("bytes=10-", mServer.getLastRangeHeader());
+    BytesRange responseRange = callback.fetchState.getResponseBytesRange();
+    assertEquals(10, responseRange.from);
+    assertEquals(BytesRange.TO_END_OF_CONTENT, responseRange.to);
+  }
+
+  private PooledHttpNetworkFetcher newFetcher(int maxConnections, int maxConnectionsPerHost) {
+    return new PooledHttpNetworkFetcher(
+        maxConnections,
+        maxConnectionsPerHost,
+        TIMEOUT_MS,
+        mExecutorService,
+        new FakeClock());
+  }
+
+  private RecordingCallback fetch(
+      PooledHttpNetworkFetcher fetcher, String path, Priority priority) {
+    return fetch(fetcher, path, priority, null);
+  }
+
+  private RecordingCallback fetch(
+      PooledHttpNetworkFetcher fetcher,
+      String path,
+      Priority priority,
+      @Nullable BytesRange bytesRange) {
+    ImageRequest imageRequest =
+        ImageRequestBuilder.newBuilderWithSource(Uri.parse(mServer.getUrl(path)))
+            .setBytesRange(bytesRange)
+            .build();
+    SettableProducerContext context =
+        new SettableProducerContext(
+            imageRequest,
+            path,
+            null,
+            null,
+            ImageRequest.RequestLevel.FULL_FETCH,
+            false,
+            true,
+            priority,
+            null);
+    RecordingCallback callback = new RecordingCallback(fetcher.createFetchState(null, context));
+    fetcher.fetch(callback.fetchState, callback);
+    return callback;
+  }
+
+  private static class RecordingCallback implements NetworkFetcher.Callback {
+    final PooledHttpNetworkFetcher.PooledHttpNetworkFetchState fetchState;
+    final CountDownLatch latch = new CountDownLatch(1);
+    byte[] bytes;
+    volatile boolean isCancelled;
+    volatile boolean cancelsWhileReading;
+
+    RecordingCallback(PooledHttpNetworkFetcher.PooledHttpNetworkFetchState fetchState) {
+      this.fetchState = fetchState;
+    }
+
+    @Override
+    public void onResponse(InputStream response, int responseLength) throws IOException {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[cancelsWhileReading ? 100 : 1024];
+      int read;
+      while ((read = response.read(buffer)) >= 0) {
+        out.write(buffer, 0, read);
+        if (cancelsWhileReading) {
+          ((BaseProducerContext) fetchState.getContext()).cancel();
+        }
+      }
+      bytes = out.toByteArray();
+      latch.countDown();
+    }
+
+    @Override
+    public void onFailure(Throwable throwable) {
+      latch.countDown();
+    }
+
+    @Override
+    public void onCancellation() {
+      isCancelled = true;
+      latch.countDown();
+    }
+
+    void await() throws InterruptedException {
+      assertTrue(latch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+  }
+
+  /** Local HTTP server that answers every request with a body derived from its path. */
+  private static class StubServer implements Runnable {
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final ServerSocket mServerSocket;
+    private final List<String> mRequestedPaths =
+        Collections.synchronizedList(new ArrayList<String>());
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private volatile @Nullable String mLastRangeHeader;
+    private volatile CountDownLatch mResponseLatch = new CountDownLatch(0);
+    private final Map<String, CountDownLatch> mPathResponseLatches = new ConcurrentHashMap<>();
+
+    StubServer() throws IOException {
+      mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+      Thread thread = new Thread(this);
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    static byte[] body(String path) {
+      StringBuilder body = new StringBuilder();
+      for (int i = 0; i < 100; i++) {
+        body.append(path);
+      }
+      return body.toString().getBytes(ASCII);
+    }
+
+    String getUrl(String path) {
+      return "http://127.0.0.1:" + mServerSocket.getLocalPort() + path;
+    }
+
+    List<String> getRequestedPaths() {
+      synchronized (mRequestedPaths) {
+        return new ArrayList<>(mRequestedPaths);
+      }
+    }
+
+    int getConnectionCount() {
+      return mConnectionCount.get();
+    }
+
+    @Nullable
+    String getLastRangeHeader() {
+      return mLastRangeHeader;
+    }
+
+    void holdResponses() {
+      mResponseLatch = new CountDownLatch(1);
+    }
+
+    void releaseResponses() {
+      mResponseLatch.countDown();
+    }
+
+    void holdResponses(String path) {
+      mPathResponseLatches.put(path, new CountDownLatch(1));
+    }
+
+    void releaseResponses(String path) {
+      mPathResponseLatches.remove(path).countDown();
+    }
+
+    void awaitRequests(int count) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+      while (mRequestedPaths.size() < count && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(count, mRequestedPaths.size());
+    }
+
+    void close() throws IOException {
+      mServerSocket.close();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          final Socket socket = mServerSocket.accept();
+          mConnectionCount.incrementAndGet();
+          Thread thread =
+              new Thread(
+                  new Runnable() {
+                    @Override
+                    public void run() {
+                      serve(socket);
+                    }
+                  });
+          thread.setDaemon(true);
+          thread.start();
+        }
+      } catch (IOException e) {
+        // the server was closed
+      }
+    }
+
+    private void serve(Socket socket) {
+      try {
+        BufferedReader reader =
+            new BufferedReader(new InputStreamReader(socket.getInputStream(), ASCII));
+        OutputStream out = socket.getOutputStream();
+        String requestLine;
+        while ((requestLine = reader.readLine()) != null) {
+          String path = requestLine.split(" ")[1];
+          String range = null;
+          String header;
+          while ((header = reader.readLine()) != null && !header.isEmpty()) {
+            if (header.toLowerCase().startsWith("range:")) {
+              range = header.substring("range:".length()).trim();
+            }
+          }
+          mLastRangeHeader = range;
+          mRequestedPaths.add(path);
+          mResponseLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+          CountDownLatch pathResponseLatch = mPathResponseLatches.get(path);
+          if (pathResponseLatch != null) {
+            pathResponseLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+          }
+
+          byte[] body = body(path);
+          String status = "200 OK";
+          String contentRange = "";
+          if (range != null) {
+            int from = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+            status = "206 Partial Content";
+            contentRange =
+                "Content-Range: bytes " + from + "-" + (body.length - 1) + "/" + body.length
+                    + "\r\n";
+            body = Arrays.copyOfRange(body, from, body.length);
+          }
+          out.write(
+              ("HTTP/1.1 " + status + "\r\n"
+                      + "Content-Length: " + body.length + "\r\n"
+                      + contentRange
+                      + "Connection: keep-alive\r\n\r\n")
+                  .getBytes(ASCII));
+          out.write(body);
+          out.flush();
+        }
+      } catch (IOException | InterruptedException e) {
+        // the connection was closed
+      } finally {
+        try {
+          socket.close();
+        } catch (IOException e) {
+          // ignore
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.net.Uri;
+import com.facebook.cache.common.SimpleCacheKey;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.cache.CacheKeyFactory;
+import com.facebook.imagepipeline.common.ImageDecodeOptions;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.common.TileOptions;
+import com.facebook.imagepipeline.image.CloseableImage;
+import com.facebook.imagepipeline.image.CloseableStaticBitmap;
+import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.request.ImageRequest;
+import com.facebook.imagepipeline.testing.FakeClock;
+import com.facebook.imagepipeline.testing.MockBitmapFactory;
+import com.facebook.imagepipeline.testing.TestExecutorService;
+import com.facebook.imagepipeline.testing.TrivialPooledByteBuffer;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareOnlyThisForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/** Tests for {@link TiledDecodeProducer}. */
+@RunWith(RobolectricTestRunner.class)
+@PrepareOnlyThisForTest(BitmapRegionDecoder.class)
+@PowerMockIgnore({"org.mockito.*", "org.robolectric.*", "androidx.*", "android.*"})
+@Config(manifest = Config.NONE)
+public class TiledDecodeProducerTest {
+
+  private static final int IMAGE_WIDTH = 2000;
+  private static final int IMAGE_HEIGHT = 1500;
+
+  @Rule public PowerMockRule rule = new PowerMockRule();
+
+  @Mock public Producer<EncodedImage> mInputProducer;
+  @Mock public CacheKeyFactory mCacheKeyFactory;
+  @Mock public ProducerListener2 mProducerListener;
+  @Mock public Consumer<CloseableReference<CloseableImage>> mConsumer;
+
+  private TestExecutorService mTestExecutorService;
+  private List<BitmapRegionDecoder> mRegionDecoders;
+  private List<CloseableReference<CloseableImage>> mResults;
+  private Bitmap mBitmap;
+  private EncodedImage mEncodedImage;
+
+  @Before
+  public void setUp() throws Exception {
+    MockitoAnnotations.initMocks(this);
+    mTestExecutorService = new TestExecutorService(new FakeClock());
+    mBitmap = MockBitmapFactory.create(256, 256, Bitmap.Config.ARGB_8888);
+    mEncodedImage =
+        new EncodedImage(CloseableReference.of(new TrivialPooledByteBuffer(new byte[] {1, 2, 3})));
+
+    mRegionDecoders = new ArrayList<>();
+    mockStatic(BitmapRegionDecoder.class);
+    when(BitmapRegionDecoder.newInstance(any(InputStream.class), anyBoolean()))
+        .thenAnswer(
+            new Answer<BitmapRegionDecoder>() {
+              @Override
+              public BitmapRegionDecoder answer(InvocationOnMock invocation) {
+                BitmapRegionDecoder regionDecoder = mock(BitmapRegionDecoder.class);
+                when(regionDecoder.getWidth()).thenReturn(IMAGE_WIDTH);
+                when(regionDecoder.getHeight()).thenReturn(IMAGE_HEIGHT);
+                when(regionDecoder.decodeRegion(any(Rect.class), any(BitmapFactory.Options.class)))
+                    .thenReturn(mBitmap);
+                mRegionDecoders.add(regionDecoder);
+                return regionDecoder;
+              }
+            });
+
+    mResults = new ArrayList<>();
+    doAnswer(
+            new Answer<Object>() {
+              @Override
+              public Object answer(InvocationOnMock invocation) throws Throwable {
+                mResults.add(
+                    ((CloseableReference<CloseableImage>) invocation.getArguments()[0]).clone());
+                return null;
+              }
+            })
+        .when(mConsumer)
+        .onNewResult(any(CloseableReference.class), anyInt());
+  }
+
+  @Test
+  public void testDecodesRegionOfTileAtSampleSizeOfItsLevel() {
+    TiledDecodeProducer producer = newProducer(2);
+    Consumer<EncodedImage> inputConsumer =
+        produceResults(producer, "image", new TileOptions(1, 1, 0, 512));
+
+    inputConsumer.onNewResult(mEncodedImage, Consumer.IS_LAST);
+    mTestExecutorService.runUntilIdle();
+
+    ArgumentCaptor<Rect> region = ArgumentCaptor.forClass(Rect.class);
+    ArgumentCaptor<BitmapFactory.Options> options =
+        ArgumentCaptor.forClass(BitmapFactory.Options.class);
+    verify(mRegionDecoders.get(0)).decodeRegion(region.capture(), options.capture());
+    // tiles of level 1 cover 1024 pixels of the encoded image, and are clipped to it
+    assertEquals(new Rect(1024, 0, IMAGE_WIDTH, 1024), region.getValue());
+    assertEquals(2, options.getValue().inSampleSize);
+
+    verify(mConsumer).onNewResult(any(CloseableReference.class), eq(Consumer.IS_LAST));
+    assertEquals(1, mResults.size());
+    assertSame(mBitmap, ((CloseableStaticBitmap) mResults.get(0).get()).getUnderlyingBitmap());
+    mResults.get(0).close();
+  }
+
+  @Test
+  public void testIntermediateResultsAreIgnored() {
+    TiledDecodeProducer producer = newProducer(2);
+    Consumer<EncodedImage> inputConsumer =
+        produceResults(producer, "image", TileOptions.forTile(0, 0, 0));
+
+    inputConsumer.onNewResult(mEncodedImage, Consumer.NO_FLAGS);
+    mTestExecutorService.runUntilIdle();
+    verifyZeroInteractions(mConsumer);
+    assertEquals(0, mRegionDecoders.size());
+  }
+
+  @Test
+  public void testTileOutsideOfImageFails() {
+    TiledDecodeProducer producer = newProducer(2);
+    Consumer<EncodedImage> inputConsumer =
+        produceResults(producer, "image", TileOptions.forTile(0, 4, 0));
+
+    inputConsumer.onNewResult(mEncodedImage, Consumer.IS_LAST);
+    mTestExecutorService.runUntilIdle();
+    verify(mConsumer).onFailure(any(IllegalArgumentException.class));
+    verify(mConsumer, never()).onNewResult(any(CloseableReference.class), anyInt());
+  }
+
+  @Test
+  public void testRegionDecoderIsSharedByTilesOfTheSameImage() {
+    TiledDecodeProducer producer = newProducer(2);
+    Consumer<EncodedImage> firstConsumer =
+        produceResults(producer, "image", TileOptions.forTile(0, 0, 0));
+    Consumer<EncodedImage> secondConsumer =
+        produceResults(producer, "image", TileOptions.forTile(0, 1, 0));
+
+    firstConsumer.onNewResult(mEncodedImage, Consumer.IS_LAST);
+    mTestExecutorService.runUntilIdle();
+    secondConsumer.onNewResult(mEncodedImage, Consumer.IS_LAST);
+    mTestExecutorService.runUntilIdle();
+
+    assertEquals(1, mRegionDecoders.size());
+    assertEquals(2, mResults.size());
+    verify(mRegionDecoders.get(0), never()).recycle();
+    closeResults();
+  }
+
+  @Test
+  public void testEvictedRegionDecodersAreRecycled() {
+    TiledDecodeProducer producer = newProducer(1);
+    Consumer<EncodedImage> firstConsumer =
+        produceResults(producer, "first", TileOptions.forTile(0, 0, 0));
+    Consumer<EncodedImage> secondConsumer =
+        produceResults(producer, "second", TileOptions.forTile(0, 0, 0));
+
+    firstConsumer.onNewResult(mEncodedImage, Consumer.IS_LAST);
+    mTestExecutorService.runUntilIdle();
+    secondConsumer.onNewResult(mEncodedImage, Consumer.IS_LAST);
+    mTestExecutorService.runUntilIdle();
+
+    assertEquals(2, mRegionDecoders.size());
+    verify(mRegionDecoders.get(0)).recycle();
+    verify(mRegionDecoders.get(1), never()).recycle();
+    closeResults();
+  }
+
+  @Test
+  public void testRegionDecodersAreNotKeptWhenDisabled() {
+    TiledDecodeProducer producer = newProducer(0);
+    Consumer<EncodedImage> inputConsumer =
+        produceResults(producer, "image", TileOptions.forTile(0, 0, 0));
+
+    inputConsumer.onNewResult(mEncodedImage, Consumer.IS_LAST);
+    mTestExecutorService.runUntilIdle();
+    verify(mRegionDecoders.get(0)).recycle();
+    closeResults();
+  }
+
+  private TiledDecodeProducer newProducer(int maxCachedRegionDecoders) {
+    return new TiledDecodeProducer(
+        mInputProducer, mTestExecutorService, mCacheKeyFactory, maxCachedRegionDecoders);
+  }
+
+  /** Requests the tile of the image, and returns the consumer of its encoded image. */
+  private Consumer<EncodedImage> produceResults(
+      TiledDecodeProducer producer, String image, TileOptions tileOptions) {
+    ImageRequest imageRequest = mock(ImageRequest.class);
+    when(imageRequest.getSourceUri()).thenReturn(Uri.parse("http://fb.com/" + image + ".jpg"));
+    when(imageRequest.getTileOptions()).thenReturn(tileOptions);
+    when(imageRequest.getImageDecodeOptions()).thenReturn(ImageDecodeOptions.defaults());
+    when(mCacheKeyFactory.getEncodedCacheKey(imageRequest, null))
+        .thenReturn(new SimpleCacheKey(image));
+    SettableProducerContext producerContext =
+        new SettableProducerContext(
+            imageRequest,
+            image + tileOptions,
+            mProducerListener,
+            null,
+            ImageRequest.RequestLevel.FULL_FETCH,
+            false,
+            false,
+            Priority.MEDIUM,
+            null);
+    when(mProducerListener.requiresExtraMap(producerContext, TiledDecodeProducer.PRODUCER_NAME))
+        .thenReturn(false);
+
+    ArgumentCaptor<Consumer> inputConsumer = ArgumentCaptor.forClass(Consumer.class);
+    producer.produceResults(mConsumer, producerContext);
+    verify(mInputProducer).produceResults(inputConsumer.capture(), eq(producerContext));
+    return inputConsumer.getValue();
+  }
+
+  private void closeResults() {
+    for (CloseableReference<CloseableImage> result : mResults) {
+      result.close();
+    }
+  }
+}
@@ -14,6 +14,7 @@ import com.facebook.imagepipeline.common.ImageDecodeOptionsBuilder;
 import com.facebook.imagepipeline.common.Priority;
 import com.facebook.imagepipeline.common.ResizeOptions;
 import com.facebook.imagepipeline.common.RotationOptions;
+import com.facebook.imagepipeline.common.TileOptions;
 import com.facebook.imagepipeline.listener.RequestLoggingListener;
 import java.io.File;
 import org.junit.Test;
@@ -76,4 +77,52 @@ public class ImageRequestTest {
     assertThat(imageRequest.getSourceFile()).isNotNull();
     assertThat(imageRequest.getSourceFile().getAbsolutePath()).isEqualTo(file.getAbsolutePath());
   }
+
+  @Test
+  public void testTileRequestsForNetworkAndLocalImages() {
+    final TileOptions tileOptions = TileOptions.forTile(1, 2, 3);
+    final ImageRequest networkRequest =
+        ImageRequestBuilder.newBuilderWithSource(Uri.parse("http://frescolib.org/image.jpg"))
+            .setTileOptions(tileOptions)
+            .build();
+    assertThat(networkRequest.getTileOptions()).isEqualTo(tileOptions);
+    assertThat(ImageRequestBuilder.fromRequest(networkRequest).build()).isEqualTo(networkRequest);
+
+    final ImageRequest localRequest =
+        ImageRequestBuilder.newBuilderWithSource(Uri.parse("file:///foo/photos/panorama.jpg"))
+            .setTileOptions(tileOptions)
+            .build();
+    assertThat(localRequest.getTileOptions()).isEqualTo(tileOptions);
+  }
+
+  @Test
+  public void testTileOptionsAreCompared() {
+    final ImageRequestBuilder builder =
+        ImageRequestBuilder.newBuilderWithSource(Uri.parse("http://frescolib.org/image.jpg"));
+    final ImageRequest wholeImageRequest = builder.build();
+    final ImageRequest tileRequest = builder.setTileOptions(TileOptions.forTile(0, 0, 0)).build();
+    assertThat(tileRequest).isNotEqualTo(wholeImageRequest);
+  }
+
+  @Test(expected = ImageRequestBuilder.BuilderException.class)
+  public void testTileRequestsForLocalVideosAreRejected() {
+    ImageRequestBuilder.newBuilderWithSource(Uri.parse("file:///foo/videos/dancing_hotdog.mkv"))
+        .setTileOptions(TileOptions.forTile(0, 0, 0))
+        .build();
+  }
+
+  @Test(expected = ImageRequestBuilder.BuilderException.class)
+  public void testTileRequestsForOtherSourcesAreRejected() {
+    ImageRequestBuilder.newBuilderWithSource(Uri.parse("content://media/external/images/1"))
+        .setTileOptions(TileOptions.forTile(0, 0, 0))
+        .build();
+  }
+
+  @Test(expected = ImageRequestBuilder.BuilderException.class)
+  public void testPostprocessedTileRequestsAreRejected() {
+    ImageRequestBuilder.newBuilderWithSource(Uri.parse("http://frescolib.org/image.jpg"))
+        .setTileOptions(TileOptions.forTile(0, 0, 0))
+        .setPostprocessor(new BasePostprocessor() {})
+        .build();
+  }
 }
@@ -19,7 +19,7 @@ import javax.annotation.Nullable;
 
 /** Wrapper around chunk of ashmem memory. */
 @TargetApi(27)
-public class AshmemMemoryChunk implements MemoryChunk, Closeable {
+public class AshmemMemoryChunk implements ByteBufferWritableMemoryChunk, Closeable {
   private static final String TAG = "AshmemMemoryChunk";
 
   private @Nullable SharedMemory mSharedMemory;
@@ -80,6 +80,21 @@ public class AshmemMemoryChunk implements MemoryChunk, Closeable {
     return actualCount;
   }
 
+  @Override
+  public synchronized int write(final int memoryOffset, final ByteBuffer byteBuffer) {
+    Preconditions.checkNotNull(byteBuffer);
+    Preconditions.checkState(!isClosed());
+    final int actualCount =
+        MemoryChunkUtil.adjustByteCount(memoryOffset, byteBuffer.remaining(), getSize());
+    MemoryChunkUtil.checkBounds(memoryOffset, byteBuffer.remaining(), 0, actualCount, getSize());
+    final ByteBuffer source = byteBuffer.duplicate();
+    source.limit(source.position() + actualCount);
+    mByteBuffer.position(memoryOffset);
+    mByteBuffer.put(source);
+    byteBuffer.position(source.position());
+    return actualCount;
+  }
+
   @Override
   public synchronized int read(
       final int memoryOffset, final byte[] byteArray, final int byteArrayOffset, final int count) {
@@ -24,7 +24,7 @@ import javax.annotation.Nullable;
  * <p>Native code used by this class is shipped as part of libimagepipeline.so @ThreadSafe
  */
 @DoNotStrip
-public class NativeMemoryChunk implements MemoryChunk, Closeable {
+public class NativeMemoryChunk implements ByteBufferWritableMemoryChunk, Closeable {
   private static final String TAG = "NativeMemoryChunk";
 
   static {
@@ -84,6 +84,32 @@ public class NativeMemoryChunk implements MemoryChunk, Closeable {
     return actualCount;
   }
 
+  @Override
+  public synchronized int write(final int memoryOffset, final ByteBuffer byteBuffer) {
+    Preconditions.checkNotNull(byteBuffer);
+    Preconditions.checkState(!isClosed());
+    final int actualCount =
+        MemoryChunkUtil.adjustByteCount(memoryOffset, byteBuffer.remaining(), mSize);
+    MemoryChunkUtil.checkBounds(memoryOffset, byteBuffer.remaining(), 0, actualCount, mSize);
+    final int position = byteBuffer.position();
+    if (byteBuffer.isDirect()) {
+      nativeCopyFromByteBuffer(mNativePtr + memoryOffset, byteBuffer, position, actualCount);
+    } else if (byteBuffer.hasArray()) {
+      nativeCopyFromByteArray(
+          mNativePtr + memoryOffset,
+          byteBuffer.array(),
+          byteBuffer.arrayOffset() + position,
+          actualCount);
+    } else {
+      // read-only heap buffers don't give access to their backing array
+      final byte[] byteArray = new byte[actualCount];
+      byteBuffer.duplicate().get(byteArray);
+      nativeCopyFromByteArray(mNativePtr + memoryOffset, byteArray, 0, actualCount);
+    }
+    byteBuffer.position(position + actualCount);
+    return actualCount;
+  }
+
   @Override
   public synchronized int read(
       final int memoryOffset, final byte[] byteArray, final int byteArrayOffset, final int count) {
@@ -220,6 +246,11 @@ public class NativeMemoryChunk implements MemoryChunk, Closeable {
   private static native void nativeCopyFromByteArray(
       long address, byte[] array, int offset, int count);
 
+  /** Copy count bytes from a direct byte buffer to native memory pointed by mNativePtr. */
+  @DoNotStrip
+  private static native void nativeCopyFromByteBuffer(
+      long address, ByteBuffer byteBuffer, int offset, int count);
+
   /** Copy count bytes from memory pointed by fromPtr to memory pointed by toPtr */
   @DoNotStrip
   private static native void nativeMemcpy(long toPtr, long fromPtr, int count);
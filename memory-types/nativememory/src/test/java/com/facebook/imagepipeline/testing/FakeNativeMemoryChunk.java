@@ -9,6 +9,7 @@ package com.facebook.imagepipeline.testing;
 
 import com.facebook.imagepipeline.memory.MemoryChunk;
 import com.facebook.imagepipeline.memory.NativeMemoryChunk;
+import java.nio.ByteBuffer;
 
 /**
  * A fake implementation of {@link com.facebook.imagepipeline.memory.NativeMemoryChunk} to allow us
@@ -45,6 +46,13 @@ public class FakeNativeMemoryChunk extends NativeMemoryChunk {
     return numToWrite;
   }
 
+  @Override
+  public int write(int nativeMemoryOffset, ByteBuffer byteBuffer) {
+    int numToWrite = Math.min(byteBuffer.remaining(), mBuf.length - nativeMemoryOffset);
+    byteBuffer.get(mBuf, nativeMemoryOffset, numToWrite);
+    return numToWrite;
+  }
+
   @Override
   public byte read(int nativeMemoryOffset) {
     return mBuf[nativeMemoryOffset];
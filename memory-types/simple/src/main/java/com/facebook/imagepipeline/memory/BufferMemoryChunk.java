@@ -20,7 +20,7 @@ import javax.annotation.Nullable;
  *
  * <p>The buffer in native memory will be released when the Java object gets garbage collected.
  */
-public class BufferMemoryChunk implements MemoryChunk, Closeable {
+public class BufferMemoryChunk implements ByteBufferWritableMemoryChunk, Closeable {
   private static final String TAG = "BufferMemoryChunk";
 
   /** Internal representation of the chunk */
@@ -66,6 +66,21 @@ public class BufferMemoryChunk implements MemoryChunk, Closeable {
     return actualCount;
   }
 
+  @Override
+  public synchronized int write(final int memoryOffset, final ByteBuffer byteBuffer) {
+    Preconditions.checkNotNull(byteBuffer);
+    Preconditions.checkState(!isClosed());
+    final int actualCount =
+        MemoryChunkUtil.adjustByteCount(memoryOffset, byteBuffer.remaining(), mSize);
+    MemoryChunkUtil.checkBounds(memoryOffset, byteBuffer.remaining(), 0, actualCount, mSize);
+    final ByteBuffer source = byteBuffer.duplicate();
+    source.limit(source.position() + actualCount);
+    mBuffer.position(memoryOffset);
+    mBuffer.put(source);
+    byteBuffer.position(source.position());
+    return actualCount;
+  }
+
   @Override
   public synchronized int read(
       final int memoryOffset, final byte[] byteArray, final int byteArrayOffset, final int count) {
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import com.facebook.common.internal.ImmutableMap;
+import com.facebook.common.memory.PooledByteBuffer;
+import com.facebook.imagepipeline.testing.FakeBufferMemoryChunkPool;
+import java.nio.ByteBuffer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/** Tests for {@link ChunkedPooledByteBufferOutputStream} */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ChunkedPooledByteBufferOutputStreamTest {
+  private BufferMemoryChunkPool mPool;
+  private PoolStats<byte[]> mStats;
+
+  private byte[] mData;
+
+  @Before
+  public void setup() {
+    mPool = new FakeBufferMemoryChunkPool();
+    mStats = new PoolStats(mPool);
+
+    mData = new byte[50];
+    for (int i = 0; i < mData.length; i++) {
+      mData[i] = (byte) i;
+    }
+  }
+
+  @Test
+  public void testGrowsWithoutReallocating() throws Exception {
+    ChunkedPooledByteBufferOutputStream os = new ChunkedPooledByteBufferOutputStream(mPool);
+    for (int i = 0; i < 14; i++) {
+      os.write(mData, i, 1);
+    }
+
+    // chunks of 4, 4 and 8 bytes, none of them released to the pool
+    Assert.assertEquals(14, os.size());
+    Assert.assertEquals(3, os.getChunkCount());
+    mStats.refresh();
+    Assert.assertEquals(
+        ImmutableMap.of(
+            32, new IntPair(0, 0),
+            16, new IntPair(0, 0),
+            8, new IntPair(1, 0),
+            4, new IntPair(2, 0)),
+        mStats.getBucketStats());
+    os.close();
+  }
+
+  @Test
+  public void testToByteBufferSharesChunks() throws Exception {
+    ChunkedPooledByteBufferOutputStream os = new ChunkedPooledByteBufferOutputStream(mPool);
+    os.write(mData, 0, 14);
+
+    PooledByteBuffer buffer = os.toByteBuffer();
+    Assert.assertTrue(buffer instanceof ChunkedPooledByteBuffer);
+    Assert.assertEquals(3, ((ChunkedPooledByteBuffer) buffer).getChunkCount());
+    Assert.assertEquals(14, buffer.size());
+    assertContents(buffer);
+    mStats.refresh();
+    Assert.assertEquals(
+        ImmutableMap.of(
+            32, new IntPair(0, 0),
+            16, new IntPair(0, 0),
+            8, new IntPair(1, 0),
+            4, new IntPair(2, 0)),
+        mStats.getBucketStats());
+
+    os.close();
+    buffer.close();
+    mStats.refresh();
+    Assert.assertEquals(
+        ImmutableMap.of(
+            32, new IntPair(0, 0),
+            16, new IntPair(0, 0),
+            8, new IntPair(0, 1),
+            4, new IntPair(0, 2)),
+        mStats.getBucketStats());
+  }
+
+  @Test
+  public void testToByteBufferWithSingleChunk() throws Exception {
+    ChunkedPooledByteBufferOutputStream os = new ChunkedPooledByteBufferOutputStream(mPool, 16);
+    os.write(mData, 0, 14);
+
+    PooledByteBuffer buffer = os.toByteBuffer();
+    Assert.assertTrue(buffer instanceof MemoryPooledByteBuffer);
+    Assert.assertEquals(14, buffer.size());
+    assertContents(buffer);
+    buffer.close();
+    os.close();
+  }
+
+  @Test
+  public void testChunksAreLimitedToLargestBucket() throws Exception {
+    ChunkedPooledByteBufferOutputStream os = new ChunkedPooledByteBufferOutputStream(mPool, 32);
+    os.write(mData, 0, mData.length);
+    os.write(mData, 0, 20);
+
+    // the third chunk would be 64 bytes large if it wasn't for the largest bucket being 32
+    Assert.assertEquals(3, os.getChunkCount());
+    mStats.refresh();
+    Assert.assertEquals(
+        ImmutableMap.of(
+            32, new IntPair(3, 0),
+            16, new IntPair(0, 0),
+            8, new IntPair(0, 0),
+            4, new IntPair(0, 0)),
+        mStats.getBucketStats());
+    os.close();
+  }
+
+  @Test
+  public void testWriteByteBuffer() throws Exception {
+    ChunkedPooledByteBufferOutputStream os = new ChunkedPooledByteBufferOutputStream(mPool);
+    ByteBuffer byteBuffer = ByteBuffer.allocateDirect(mData.length);
+    byteBuffer.put(mData);
+    byteBuffer.flip();
+    byteBuffer.position(10);
+
+    os.write(byteBuffer);
+
+    Assert.assertFalse(byteBuffer.hasRemaining());
+    PooledByteBuffer buffer = os.toByteBuffer();
+    Assert.assertEquals(40, buffer.size());
+    for (int i = 0; i < 40; i++) {
+      Assert.assertEquals(mData[i + 10], buffer.read(i));
+    }
+    buffer.close();
+    os.close();
+  }
+
+  @Test
+  public void testClose() throws Exception {
+    ChunkedPooledByteBufferOutputStream os = new ChunkedPooledByteBufferOutputStream(mPool);
+    os.write(mData, 0, 6);
+    os.close();
+    mStats.refresh();
+    Assert.assertEquals(
+        ImmutableMap.of(
+            32, new IntPair(0, 0),
+            16, new IntPair(0, 0),
+            8, new IntPair(0, 0),
+            4, new IntPair(0, 2)),
+        mStats.getBucketStats());
+  }
+
+  @Test(expected = MemoryPooledByteBufferOutputStream.InvalidStreamException.class)
+  public void testToByteBufferAfterClose() {
+    ChunkedPooledByteBufferOutputStream os = new ChunkedPooledByteBufferOutputStream(mPool);
+    os.close();
+    os.toByteBuffer();
+  }
+
+  // assert that the buffer holds the first bytes of mData
+  private void assertContents(PooledByteBuffer buffer) {
+    for (int i = 0; i < buffer.size(); i++) {
+      Assert.assertEquals(mData[i], buffer.read(i));
+    }
+  }
+}
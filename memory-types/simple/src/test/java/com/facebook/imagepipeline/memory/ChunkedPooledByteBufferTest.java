@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.common.internal.ImmutableMap;
+import com.facebook.common.memory.PooledByteBuffer;
+import com.facebook.common.memory.PooledByteBufferInputStream;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.testing.FakeBufferMemoryChunkPool;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/** Basic tests for {@link ChunkedPooledByteBuffer} */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ChunkedPooledByteBufferTest {
+  private static final int BUFFER_LENGTH = 26;
+
+  private BufferMemoryChunkPool mPool;
+  private PoolStats<byte[]> mStats;
+  private byte[] mData;
+  private ChunkedPooledByteBuffer mPooledByteBuffer;
+
+  @Before
+  public void setUp() {
+    mPool = new FakeBufferMemoryChunkPool();
+    mStats = new PoolStats(mPool);
+    mData = new byte[28];
+    for (int i = 0; i < mData.length; i++) {
+      mData[i] = (byte) (i * 3);
+    }
+
+    // chunks of 4, 8 and 16 bytes, the last 2 bytes are not part of the buffer
+    List<CloseableReference<MemoryChunk>> chunkRefs = new ArrayList<>();
+    int offset = 0;
+    for (int size = 4; size <= 16; size *= 2) {
+      MemoryChunk chunk = mPool.get(size);
+      chunk.write(0, mData, offset, size);
+      chunkRefs.add(CloseableReference.of(chunk, mPool));
+      offset += size;
+    }
+    mPooledByteBuffer = new ChunkedPooledByteBuffer(chunkRefs, BUFFER_LENGTH);
+    CloseableReference.closeSafely(chunkRefs);
+  }
+
+  @Test
+  public void testBasic() {
+    assertEquals(BUFFER_LENGTH, mPooledByteBuffer.size());
+    assertEquals(3, mPooledByteBuffer.getChunkCount());
+    assertNull(mPooledByteBuffer.getByteBuffer());
+  }
+
+  @Test
+  public void testSimpleRead() {
+    for (int i = 0; i < BUFFER_LENGTH; i++) {
+      assertEquals(mData[i], mPooledByteBuffer.read(i));
+    }
+    // backwards, so that each read jumps to another chunk
+    for (int i = BUFFER_LENGTH - 1; i >= 0; i -= 5) {
+      assertEquals(mData[i], mPooledByteBuffer.read(i));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSimpleReadOutOfBounds() {
+    mPooledByteBuffer.read(BUFFER_LENGTH);
+  }
+
+  @Test
+  public void testRangeReadAcrossChunks() {
+    byte[] readBuf = new byte[BUFFER_LENGTH];
+    assertEquals(22, mPooledByteBuffer.read(2, readBuf, 1, 22));
+    for (int i = 0; i < 22; i++) {
+      assertEquals(mData[i + 2], readBuf[i + 1]);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRangeReadOutOfBounds() {
+    byte[] readBuf = new byte[BUFFER_LENGTH];
+    mPooledByteBuffer.read(10, readBuf, 0, BUFFER_LENGTH - 9);
+  }
+
+  @Test
+  public void testReadFromStream() throws Exception {
+    InputStream is = new PooledByteBufferInputStream(mPooledByteBuffer);
+    byte[] tmp = new byte[BUFFER_LENGTH + 1];
+    assertEquals(3, is.read(tmp, 0, 3));
+    assertEquals(BUFFER_LENGTH - 3, is.read(tmp, 3, BUFFER_LENGTH - 2));
+    for (int i = 0; i < BUFFER_LENGTH; i++) {
+      assertEquals(mData[i], tmp[i]);
+    }
+    assertEquals(-1, is.read());
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testGetNativePtr() {
+    mPooledByteBuffer.getNativePtr();
+  }
+
+  @Test
+  public void testClose() {
+    mPooledByteBuffer.close();
+
+    assertTrue(mPooledByteBuffer.isClosed());
+    mStats.refresh();
+    assertEquals(
+        ImmutableMap.of(
+            32, new IntPair(0, 0),
+            16, new IntPair(0, 1),
+            8, new IntPair(0, 1),
+            4, new IntPair(0, 1)),
+        mStats.getBucketStats());
+  }
+
+  @Test(expected = PooledByteBuffer.ClosedException.class)
+  public void testReadAfterClose() {
+    mPooledByteBuffer.close();
+    mPooledByteBuffer.read(0);
+  }
+}
@@ -12,6 +12,7 @@ import static org.mockito.Mockito.when;
 
 import com.facebook.common.internal.ImmutableMap;
 import com.facebook.common.memory.ByteArrayPool;
+import com.facebook.common.memory.PooledByteBuffer;
 import com.facebook.common.memory.PooledByteStreams;
 import com.facebook.imagepipeline.testing.FakeBufferMemoryChunkPool;
 import java.io.ByteArrayInputStream;
@@ -70,6 +71,28 @@ public class MemoryPooledByteBufferFactoryTest {
     testNewByteBuf_5(mBufferFactory, mBufferStats);
   }
 
+  @Test
+  public void testNewOutputStreamIsContiguous() throws Exception {
+    MemoryPooledByteBufferOutputStream outputStream = mBufferFactory.newOutputStream();
+    outputStream.write(mData);
+    PooledByteBuffer buffer = outputStream.toByteBuffer();
+    Assert.assertTrue(buffer instanceof MemoryPooledByteBuffer);
+    Assert.assertEquals(mData.length, buffer.size());
+    buffer.close();
+    outputStream.close();
+  }
+
+  @Test
+  public void testNewChunkedOutputStreamIsNotContiguous() throws Exception {
+    ChunkedPooledByteBufferOutputStream outputStream = mBufferFactory.newChunkedOutputStream();
+    outputStream.write(mData);
+    PooledByteBuffer buffer = outputStream.toByteBuffer();
+    Assert.assertTrue(buffer instanceof ChunkedPooledByteBuffer);
+    Assert.assertEquals(mData.length, buffer.size());
+    buffer.close();
+    outputStream.close();
+  }
+
   private void testNewByteBuf_1(
       final MemoryPooledByteBufferFactory mFactory, final PoolStats mStats) throws Exception {
     MemoryPooledByteBuffer sb1 = mFactory.newByteBuffer(new ByteArrayInputStream(mData));
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.facebook.common.memory.ByteArrayPool;
+import com.facebook.common.memory.PooledByteBuffer;
+import com.facebook.common.memory.PooledByteStreams;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.memory.ChunkedPooledByteBuffer;
+import com.facebook.imagepipeline.memory.MemoryPooledByteBufferFactory;
+import com.facebook.imagepipeline.request.ImageRequest;
+import com.facebook.imagepipeline.testing.FakeBufferMemoryChunkPool;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Tests that {@link NetworkFetchProducer} accumulates the responses of unknown length in chunks,
+ * with the pooled byte buffer factory the pipeline uses.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ChunkedNetworkFetchProducerTest {
+
+  private Consumer<EncodedImage> mConsumer;
+  private NetworkFetcher mNetworkFetcher;
+  private NetworkFetchProducer mNetworkFetchProducer;
+  private SettableProducerContext mProducerContext;
+  private byte[] mData;
+
+  /** The class and the contents of the buffer of the last result, read before it is closed. */
+  private Class<?> mResultBufferClass;
+
+  private byte[] mResultBytes;
+
+  @Before
+  public void setUp() {
+    FakeBufferMemoryChunkPool pool = new FakeBufferMemoryChunkPool();
+    ByteArrayPool byteArrayPool = mock(ByteArrayPool.class);
+    when(byteArrayPool.get(anyInt())).thenReturn(new byte[8]);
+    MemoryPooledByteBufferFactory pooledByteBufferFactory =
+        new MemoryPooledByteBufferFactory(pool, new PooledByteStreams(byteArrayPool, 8));
+    mNetworkFetcher = mock(NetworkFetcher.class);
+    mNetworkFetchProducer =
+        new NetworkFetchProducer(pooledByteBufferFactory, byteArrayPool, mNetworkFetcher);
+    mProducerContext =
+        new SettableProducerContext(
+            mock(ImageRequest.class),
+            "id",
+            mock(ProducerListener2.class),
+            mock(Object.class),
+            ImageRequest.RequestLevel.FULL_FETCH,
+            false /* isPrefetch */,
+            false /* isIntermediateResultExpected */,
+            Priority.MEDIUM,
+            null);
+    mConsumer = mock(Consumer.class);
+    when(mNetworkFetcher.createFetchState(mConsumer, mProducerContext))
+        .thenReturn(new FetchState(mConsumer, mProducerContext));
+    doAnswer(
+            new Answer<Void>() {
+              @Override
+              public Void answer(InvocationOnMock invocation) {
+                EncodedImage encodedImage = (EncodedImage) invocation.getArguments()[0];
+                CloseableReference<PooledByteBuffer> bytesRef = encodedImage.getByteBufferRef();
+                try {
+                  mResultBufferClass = bytesRef.get().getClass();
+                  mResultBytes = new byte[bytesRef.get().size()];
+                  bytesRef.get().read(0, mResultBytes, 0, mResultBytes.length);
+                } finally {
+                  CloseableReference.closeSafely(bytesRef);
+                }
+                return null;
+              }
+            })
+        .when(mConsumer)
+        .onNewResult(any(EncodedImage.class), anyInt());
+
+    // larger than the largest bucket of the pool
+    mData = new byte[50];
+    for (int i = 0; i < mData.length; i++) {
+      mData[i] = (byte) i;
+    }
+  }
+
+  @Test
+  public void testStreamedResponseOfUnknownLengthIsChunked() throws Exception {
+    NetworkFetcher.Callback callback = performFetch();
+
+    callback.onResponse(new ByteArrayInputStream(mData), -1);
+
+    verify(mConsumer).onNewResult(any(EncodedImage.class), eq(Consumer.IS_LAST));
+    assertEquals(ChunkedPooledByteBuffer.class, mResultBufferClass);
+    assertArrayEquals(mData, mResultBytes);
+  }
+
+  @Test
+  public void testByteBufferResponseOfUnknownLengthIsChunked() throws Exception {
+    NetworkFetcher.ByteBufferCallback callback =
+        (NetworkFetcher.ByteBufferCallback) performFetch();
+
+    callback.onResponseStarted(-1);
+    ByteBuffer data = ByteBuffer.allocateDirect(mData.length);
+    data.put(mData);
+    data.flip();
+    callback.onResponseData(data);
+    callback.onResponseCompleted();
+
+    verify(mConsumer).onNewResult(any(EncodedImage.class), eq(Consumer.IS_LAST));
+    assertEquals(ChunkedPooledByteBuffer.class, mResultBufferClass);
+    assertArrayEquals(mData, mResultBytes);
+  }
+
+  @Test
+  public void testResponseOfKnownLengthIsContiguous() throws Exception {
+    NetworkFetcher.Callback callback = performFetch();
+
+    callback.onResponse(new ByteArrayInputStream(mData, 0, 20), 20);
+
+    verify(mConsumer).onNewResult(any(EncodedImage.class), eq(Consumer.IS_LAST));
+    assertTrue(mResultBufferClass != ChunkedPooledByteBuffer.class);
+    assertEquals(20, mResultBytes.length);
+  }
+
+  private NetworkFetcher.Callback performFetch() {
+    mNetworkFetchProducer.produceResults(mConsumer, mProducerContext);
+    ArgumentCaptor<NetworkFetcher.Callback> callbackCaptor =
+        ArgumentCaptor.forClass(NetworkFetcher.Callback.class);
+    verify(mNetworkFetcher).fetch(any(FetchState.class), callbackCaptor.capture());
+    return callbackCaptor.getValue();
+  }
+}
@@ -87,15 +87,27 @@ public class CountingMemoryCacheInspector<K, V> {
    * contents
    */
   public DumpInfo dumpCacheContent() {
-    synchronized (mCountingBitmapCache) {
-      DumpInfo<K, V> dumpInfo =
-          new DumpInfo<>(
-              mCountingBitmapCache.getSizeInBytes(),
-              mCountingBitmapCache.getEvictionQueueSizeInBytes(),
-              mCountingBitmapCache.mMemoryCacheParams);
+    DumpInfo<K, V> dumpInfo =
+        new DumpInfo<>(
+            mCountingBitmapCache.getSizeInBytes(),
+            mCountingBitmapCache.getEvictionQueueSizeInBytes(),
+            mCountingBitmapCache.getMemoryCacheParams());
+    if (mCountingBitmapCache instanceof SegmentedCountingMemoryCache) {
+      // the entries of a segmented cache are held by its segments
+      for (CountingMemoryCache<K, V> segment :
+          ((SegmentedCountingMemoryCache<K, V>) mCountingBitmapCache).getSegments()) {
+        addEntries(segment, dumpInfo);
+      }
+    } else {
+      addEntries(mCountingBitmapCache, dumpInfo);
+    }
+    return dumpInfo;
+  }
 
+  private void addEntries(CountingMemoryCache<K, V> countingBitmapCache, DumpInfo<K, V> dumpInfo) {
+    synchronized (countingBitmapCache) {
       final List<LinkedHashMap.Entry<K, CountingMemoryCache.Entry<K, V>>> cachedEntries =
-          mCountingBitmapCache.mCachedEntries.getMatchingEntries(null);
+          countingBitmapCache.mCachedEntries.getMatchingEntries(null);
       for (LinkedHashMap.Entry<K, CountingMemoryCache.Entry<K, V>> cachedEntry : cachedEntries) {
         CountingMemoryCache.Entry<K, V> entry = cachedEntry.getValue();
         DumpInfoEntry<K, V> dumpEntry = new DumpInfoEntry<>(entry.key, entry.valueRef);
@@ -105,13 +117,11 @@ public class CountingMemoryCacheInspector<K, V> {
           dumpInfo.lruEntries.add(dumpEntry);
         }
       }
-      for (Map.Entry<Bitmap, Object> entry : mCountingBitmapCache.mOtherEntries.entrySet()) {
+      for (Map.Entry<Bitmap, Object> entry : countingBitmapCache.mOtherEntries.entrySet()) {
         if (entry != null && !entry.getKey().isRecycled()) {
           dumpInfo.otherEntries.put(entry.getKey(), entry.getValue());
         }
       }
-
-      return dumpInfo;
     }
   }
 }